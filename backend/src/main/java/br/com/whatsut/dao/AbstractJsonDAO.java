@@ -1,5 +1,11 @@
 package br.com.whatsut.dao;
 
+import br.com.whatsut.dao.storage.EntityStore;
+import br.com.whatsut.dao.storage.StorageEngine;
+import br.com.whatsut.dao.storage.StorageEngines;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.dao.storage.StoreDescriptor;
+import br.com.whatsut.dao.storage.WritePolicy;
 import br.com.whatsut.util.ConfigManager;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -11,14 +17,39 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Implementação base para DAOs que utilizam arquivos JSON para persistência.
+ * Implementação base para DAOs de entidades identificadas por ID.
+ * O armazenamento é aberto pelo motor escolhido na propriedade
+ * {@code storage.engine} (ou {@code storage.<nome>.engine}) — veja
+ * {@link StorageEngines}: "json" reescreve o arquivo JSON a cada alteração,
+ * "wal" mantém as entidades em memória com um log append-only e "mvstore"
+ * usa um banco chave-valor embutido. A durabilidade das gravações é escolhida
+ * por {@code storage.durability} (ou {@code storage.<nome>.durability}):
+ * "sync", "group-commit" ou "async". As subclasses e os serviços não dependem
+ * do motor em uso.
+ * <p>
+ * As alterações são feitas por um único escritor de cada vez e as leituras não
+ * bloqueiam. Várias alterações podem ser gravadas juntas com
+ * {@link #commit(UnitOfWork)}: uma única reescrita do arquivo no motor "json",
+ * um único registro no log no motor "wal" ou um único commit no "mvstore".
+ * <p>
+ * Subclasses podem declarar índices secundários em memória (únicos ou não) com
+ * {@link #createIndex(String, Function, boolean)}; os índices são construídos a
+ * partir dos dados carregados e mantidos a cada save/delete, de modo que as
+ * buscas por atributo não precisam percorrer o arquivo.
  *
  * @param <T> Tipo da entidade
  * @param <ID> Tipo do identificador da entidade
@@ -27,14 +58,32 @@ public abstract class AbstractJsonDAO<T, ID> implements DAO<T, ID> {
     private static final Logger logger = Logger.getLogger(AbstractJsonDAO.class.getName());
     protected final ObjectMapper objectMapper;
     protected final String filePath;
-    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+    protected final String storageName;
+    
+    // Armazenamento das entidades, aberto pelo motor configurado
+    private final EntityStore<T> store;
+    
+    // Índices secundários declarados pela subclasse, por nome
+    private final Map<String, SecondaryIndex<T, ID>> indexes = new ConcurrentHashMap<>();
     
     /**
      * Construtor que inicializa o DAO com o caminho do arquivo JSON.
+     * O nome de armazenamento é derivado do nome do arquivo (sem extensão).
      *
      * @param fileName Nome do arquivo JSON
      */
     public AbstractJsonDAO(String fileName) {
+        this(fileName.endsWith(".json") ? fileName.substring(0, fileName.length() - 5) : fileName, fileName);
+    }
+    
+    /**
+     * Construtor que inicializa o DAO com o nome de armazenamento e o caminho do arquivo JSON.
+     *
+     * @param storageName Nome usado nas propriedades de armazenamento (ex.: "users")
+     * @param fileName Nome do arquivo JSON
+     */
+    public AbstractJsonDAO(String storageName, String fileName) {
+        this.storageName = storageName;
         this.objectMapper = new ObjectMapper();
         this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
         
@@ -49,16 +98,64 @@ public abstract class AbstractJsonDAO<T, ID> implements DAO<T, ID> {
             logger.log(Level.SEVERE, "Erro ao criar diretório para persistência", e);
         }
         
-        // Criar arquivo se não existir
-        File file = new File(filePath);
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-                // Inicializar com uma lista vazia
-                objectMapper.writeValue(file, new ArrayList<>());
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Erro ao criar arquivo de persistência", e);
-            }
+        this.store = openStore(new File(filePath));
+    }
+    
+    /**
+     * Abre o armazenamento com o motor configurado para este DAO. Se o motor
+     * não existir ou não puder ser aberto, a inicialização é interrompida: abrir
+     * o arquivo JSON no lugar ignoraria as alterações gravadas apenas no log
+     * (.wal) ou no banco e as descartaria na próxima gravação.
+     *
+     * @param file Arquivo JSON das entidades
+     * @return Armazenamento aberto
+     * @throws IllegalStateException Motor desconhecido ou erro ao abrir o armazenamento
+     */
+    private EntityStore<T> openStore(File file) {
+        StoreDescriptor<T> descriptor = new StoreDescriptor<>(storageName, file,
+                objectMapper.getTypeFactory().constructType(getTypeReference()),
+                entity -> String.valueOf(getId(entity)), this::copy, getWritePolicy(storageName),
+                StorageFormat.getConfigured(storageName));
+        
+        String engineName = StorageEngines.getConfiguredEngine(storageName);
+        StorageEngine engine = StorageEngines.get(engineName);
+        if (engine == null) {
+            throw new IllegalStateException("Motor de armazenamento desconhecido para " + storageName + ": "
+                    + engineName + " (disponíveis: " + StorageEngines.getNames() + "): " + filePath);
+        }
+        try {
+            return engine.open(descriptor);
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao abrir armazenamento " + engine.getName() + ": " + filePath, e);
+        }
+    }
+    
+    /**
+     * Obtém a política de gravação configurada para um armazenamento:
+     * {@code storage.<nome>.durability} ou {@code storage.durability}, com a
+     * janela do group commit ({@code storage.group.commit.window}) ou o
+     * intervalo da gravação assíncrona ({@code storage.async.flush.interval}).
+     *
+     * @param storageName Nome do armazenamento (ex.: "users")
+     * @return Política de gravação
+     */
+    static WritePolicy getWritePolicy(String storageName) {
+        String name = ConfigManager.getProperty("storage." + storageName + ".durability",
+                ConfigManager.getProperty("storage.durability", "group-commit"));
+        WritePolicy.Durability durability;
+        try {
+            durability = WritePolicy.Durability.fromName(name);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Durabilidade inválida para " + storageName + ": " + name + ", usando sync");
+            return WritePolicy.SYNC;
+        }
+        switch (durability) {
+            case GROUP_COMMIT:
+                return new WritePolicy(durability, ConfigManager.getLongProperty("storage.group.commit.window", 2));
+            case ASYNC:
+                return new WritePolicy(durability, ConfigManager.getLongProperty("storage.async.flush.interval", 200));
+            default:
+                return WritePolicy.SYNC;
         }
     }
     
@@ -71,43 +168,37 @@ public abstract class AbstractJsonDAO<T, ID> implements DAO<T, ID> {
     protected abstract ID getId(T entity);
     
     /**
-     * Carrega todas as entidades do arquivo JSON.
+     * Cria uma cópia independente de uma entidade, devolvida pelas leituras do
+     * armazenamento para que o chamador possa alterá-la.
+     *
+     * @param entity Entidade
+     * @return Cópia da entidade
+     */
+    protected abstract T copy(T entity);
+    
+    /**
+     * Carrega todas as entidades do armazenamento.
      *
      * @return Lista de entidades
      */
     protected List<T> loadAll() {
-        lock.readLock().lock();
-        try {
-            File file = new File(filePath);
-            if (file.length() == 0) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(file, getTypeReference());
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Erro ao carregar entidades do arquivo: " + filePath, e);
-            return new ArrayList<>();
-        } finally {
-            lock.readLock().unlock();
-        }
+        return store.findAll();
     }
     
     /**
-     * Salva todas as entidades no arquivo JSON.
+     * Substitui todas as entidades do armazenamento, reconstruindo os índices
+     * secundários.
      *
      * @param entities Lista de entidades
      * @return true se salvo com sucesso, false caso contrário
      */
-    protected boolean saveAll(List<T> entities) {
-        lock.writeLock().lock();
-        try {
-            File file = new File(filePath);
-            objectMapper.writeValue(file, entities);
+    protected boolean rewriteAll(List<T> entities) {
+        synchronized (indexes) {
+            if (!store.replaceAll(entities)) {
+                return false;
+            }
+            rebuildIndexes(entities);
             return true;
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Erro ao salvar entidades no arquivo: " + filePath, e);
-            return false;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
     
@@ -125,38 +216,332 @@ public abstract class AbstractJsonDAO<T, ID> implements DAO<T, ID> {
     
     @Override
     public T findById(ID id) {
-        List<T> entities = loadAll();
-        for (T entity : entities) {
-            if (getId(entity).equals(id)) {
-                return entity;
-            }
-        }
-        return null;
+        return store.findById(String.valueOf(id));
     }
     
     @Override
     public boolean save(T entity) {
-        List<T> entities = loadAll();
         ID id = getId(entity);
+        long ticket;
+        synchronized (indexes) {
+            for (SecondaryIndex<T, ID> index : indexes.values()) {
+                ID conflict = index.findConflict(id, entity);
+                if (conflict != null) {
+                    logger.warning("Valor duplicado no índice único " + storageName + "." + index.getName()
+                            + ": " + index.keyOf(entity) + " (já usado por " + conflict + ")");
+                    return false;
+                }
+            }
+            ticket = store.stagePut(entity);
+            if (ticket < 0) {
+                return false;
+            }
+            for (SecondaryIndex<T, ID> index : indexes.values()) {
+                index.put(id, entity);
+            }
+        }
         
-        // Remover entidade existente com mesmo ID
-        entities.removeIf(e -> getId(e).equals(id));
-        
-        // Adicionar nova entidade
-        entities.add(entity);
-        
-        return saveAll(entities);
+        // Esperar a gravação fora do monitor, para que alterações concorrentes entrem no mesmo lote
+        return store.awaitDurable(ticket);
     }
     
     @Override
     public boolean delete(ID id) {
-        List<T> entities = loadAll();
-        boolean removed = entities.removeIf(e -> getId(e).equals(id));
-        
-        if (removed) {
-            return saveAll(entities);
+        long ticket;
+        synchronized (indexes) {
+            ticket = store.stageRemove(String.valueOf(id));
+            if (ticket < 0) {
+                return false;
+            }
+            for (SecondaryIndex<T, ID> index : indexes.values()) {
+                index.remove(id);
+            }
         }
         
-        return false;
+        return store.awaitDurable(ticket);
+    }
+    
+    @Override
+    public boolean commit(UnitOfWork<T, ID> work) {
+        if (work.isEmpty()) {
+            return true;
+        }
+        Map<ID, T> changes = work.resolve(this::getId);
+        Map<ID, T> previous = new LinkedHashMap<>();
+        long ticket = stageCommit(changes, previous);
+        if (ticket < 0 || !store.awaitDurable(ticket)) {
+            return false;
+        }
+        notifyCommitted(changes, previous);
+        return true;
+    }
+    
+    /**
+     * Aplica uma unidade de trabalho sem esperar a gravação, que é registrada
+     * em {@code pending} para ser esperada depois que o chamador liberar seus
+     * locks. As alterações ficam visíveis (e {@link #onCommitted} é chamado)
+     * assim que são preparadas.
+     *
+     * @param work Alterações a aplicar
+     * @param pending Gravações pendentes da operação
+     * @return true se as alterações foram aplicadas, false caso contrário
+     */
+    public boolean commit(UnitOfWork<T, ID> work, PendingWrites pending) {
+        if (work.isEmpty()) {
+            return true;
+        }
+        Map<ID, T> changes = work.resolve(this::getId);
+        Map<ID, T> previous = new LinkedHashMap<>();
+        long ticket = stageCommit(changes, previous);
+        if (ticket < 0) {
+            return false;
+        }
+        pending.add(store, ticket);
+        notifyCommitted(changes, previous);
+        return true;
+    }
+    
+    /**
+     * Salva uma entidade sem esperar a gravação, como em
+     * {@link #commit(UnitOfWork, PendingWrites)}.
+     *
+     * @param entity Entidade
+     * @param pending Gravações pendentes da operação
+     * @return true se a entidade foi salva, false caso contrário
+     */
+    public boolean save(T entity, PendingWrites pending) {
+        return commit(new UnitOfWork<T, ID>().save(entity), pending);
+    }
+    
+    /**
+     * Prepara a gravação das alterações de uma unidade de trabalho e atualiza
+     * os índices secundários.
+     *
+     * @param changes Alterações por ID (null para excluir)
+     * @param previous Recebe as entidades antes da alteração
+     * @return Número de confirmação ou -1 em caso de erro
+     */
+    private long stageCommit(Map<ID, T> changes, Map<ID, T> previous) {
+        long ticket;
+        synchronized (indexes) {
+            if (!checkUniqueKeys(changes)) {
+                return -1;
+            }
+            Map<String, T> byId = new LinkedHashMap<>();
+            for (Map.Entry<ID, T> change : changes.entrySet()) {
+                String id = String.valueOf(change.getKey());
+                previous.put(change.getKey(), store.findById(id));
+                byId.put(id, change.getValue());
+            }
+            ticket = store.stageBatch(byId);
+            if (ticket < 0) {
+                return -1;
+            }
+            for (Map.Entry<ID, T> change : changes.entrySet()) {
+                for (SecondaryIndex<T, ID> index : indexes.values()) {
+                    if (change.getValue() == null) {
+                        index.remove(change.getKey());
+                    } else {
+                        index.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+        }
+        return ticket;
+    }
+    
+    private void notifyCommitted(Map<ID, T> changes, Map<ID, T> previous) {
+        for (Map.Entry<ID, T> change : changes.entrySet()) {
+            if (change.getValue() != null || previous.get(change.getKey()) != null) {
+                onCommitted(change.getKey(), previous.get(change.getKey()), change.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Verifica se as alterações de uma unidade de trabalho respeitam os
+     * índices únicos, entre si e com as entidades não alteradas.
+     */
+    private boolean checkUniqueKeys(Map<ID, T> changes) {
+        for (SecondaryIndex<T, ID> index : indexes.values()) {
+            if (!index.isUnique()) {
+                continue;
+            }
+            Map<String, ID> keysInBatch = new HashMap<>();
+            for (Map.Entry<ID, T> change : changes.entrySet()) {
+                String key = change.getValue() != null ? index.keyOf(change.getValue()) : null;
+                if (key == null) {
+                    continue;
+                }
+                ID conflict = keysInBatch.put(key, change.getKey());
+                if (conflict == null) {
+                    for (ID existing : index.get(key)) {
+                        if (!existing.equals(change.getKey()) && !changes.containsKey(existing)) {
+                            conflict = existing;
+                        }
+                    }
+                }
+                if (conflict != null) {
+                    logger.warning("Valor duplicado no índice único " + storageName + "." + index.getName()
+                            + ": " + key + " (" + conflict + " e " + change.getKey() + ")");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Chamado para cada entidade alterada por um {@link #commit(UnitOfWork)}
+     * gravado com sucesso (ou, em {@link #commit(UnitOfWork, PendingWrites)},
+     * preparado para gravação), para que subclasses atualizem caches e
+     * estruturas auxiliares mantidas em save/delete.
+     *
+     * @param id ID da entidade
+     * @param previous Entidade antes da alteração (não deve ser alterada) ou null se não existia
+     * @param current Entidade salva ou null se foi excluída
+     */
+    protected void onCommitted(ID id, T previous, T current) {
+    }
+    
+    /**
+     * Declara um índice secundário e o constrói a partir das entidades
+     * armazenadas. Deve ser chamado no construtor da subclasse.
+     *
+     * @param name Nome do índice
+     * @param keyFunction Função que extrai o valor indexado de uma entidade (null para não indexar)
+     * @param unique true se o valor não pode se repetir entre entidades
+     */
+    protected void createIndex(String name, Function<T, String> keyFunction, boolean unique) {
+        SecondaryIndex<T, ID> index = new SecondaryIndex<>(name, keyFunction, unique);
+        synchronized (indexes) {
+            for (T entity : loadAll()) {
+                ID id = getId(entity);
+                ID conflict = index.findConflict(id, entity);
+                if (conflict != null) {
+                    logger.warning("Valor duplicado no índice único " + storageName + "." + name + ": "
+                            + index.keyOf(entity) + " (" + conflict + " e " + id + ")");
+                }
+                index.put(id, entity);
+            }
+            indexes.put(name, index);
+        }
+        logger.fine("Índice " + storageName + "." + name + " construído com " + index.size() + " entradas");
+    }
+    
+    /**
+     * Reconstrói todos os índices a partir de uma lista de entidades. Cada
+     * índice novo substitui o anterior de uma vez, sem que as consultas
+     * concorrentes vejam um índice parcial.
+     */
+    private void rebuildIndexes(List<T> entities) {
+        for (SecondaryIndex<T, ID> index : new ArrayList<>(indexes.values())) {
+            SecondaryIndex<T, ID> rebuilt = new SecondaryIndex<>(index.getName(), index::keyOf, index.isUnique());
+            for (T entity : entities) {
+                rebuilt.put(getId(entity), entity);
+            }
+            indexes.put(index.getName(), rebuilt);
+        }
+    }
+    
+    private SecondaryIndex<T, ID> getIndex(String name) {
+        SecondaryIndex<T, ID> index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("Índice não declarado em " + storageName + ": " + name);
+        }
+        return index;
+    }
+    
+    /**
+     * Obtém os IDs das entidades com um valor em um índice.
+     *
+     * @param indexName Nome do índice
+     * @param key Valor do atributo indexado
+     * @return IDs das entidades (vazio se nenhuma)
+     */
+    protected Set<ID> findIdsByIndex(String indexName, String key) {
+        return getIndex(indexName).get(key);
+    }
+    
+    /**
+     * Busca as entidades com um valor em um índice.
+     *
+     * @param indexName Nome do índice
+     * @param key Valor do atributo indexado
+     * @return Lista de entidades (vazia se nenhuma)
+     */
+    protected List<T> findByIndex(String indexName, String key) {
+        return findByIds(getIndex(indexName).get(key));
+    }
+    
+    /**
+     * Busca a entidade com um valor em um índice (normalmente único).
+     *
+     * @param indexName Nome do índice
+     * @param key Valor do atributo indexado
+     * @return Entidade encontrada ou null se não existir
+     */
+    protected T findOneByIndex(String indexName, String key) {
+        for (ID id : getIndex(indexName).get(key)) {
+            T entity = findById(id);
+            if (entity != null) {
+                return entity;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Busca as entidades cujo valor em um índice satisfaz um filtro. Apenas os
+     * valores distintos do índice são percorridos, sem carregar as entidades.
+     *
+     * @param indexName Nome do índice
+     * @param keyFilter Filtro sobre os valores indexados
+     * @return Lista de entidades
+     */
+    protected List<T> findByIndexMatching(String indexName, Predicate<String> keyFilter) {
+        SecondaryIndex<T, ID> index = getIndex(indexName);
+        Set<ID> ids = new LinkedHashSet<>();
+        for (String key : index.keys()) {
+            if (keyFilter.test(key)) {
+                ids.addAll(index.get(key));
+            }
+        }
+        return findByIds(ids);
+    }
+    
+    /**
+     * Busca várias entidades pelo ID.
+     */
+    private List<T> findByIds(Collection<ID> ids) {
+        List<T> result = new ArrayList<>();
+        for (ID id : ids) {
+            T entity = findById(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Indica se o armazenamento não existia quando o DAO foi aberto (e foi
+     * criado vazio), ou seja, se dados derivados precisam ser reconstruídos.
+     *
+     * @return true se o armazenamento estava ausente
+     */
+    public boolean isStorageMissing() {
+        return store.isNew();
+    }
+    
+    /**
+     * Fecha o DAO, gravando as alterações pendentes do armazenamento.
+     */
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Erro ao fechar armazenamento: " + filePath, e);
+        }
     }
 }
@@ -0,0 +1,198 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.model.ConversationState;
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+/**
+ * DAO para operações de persistência do estado resumido das conversas.
+ * Os estados ficam também em memória, junto com um índice das conversas
+ * privadas de cada usuário ordenadas pela última mensagem, de modo que a lista
+ * de conversas de um usuário é obtida sem percorrer os demais usuários nem
+ * ler arquivos de mensagens.
+ */
+public class ConversationStateDAO extends AbstractJsonDAO<ConversationState, String> {
+    private static final Logger logger = Logger.getLogger(ConversationStateDAO.class.getName());
+    
+    // Ordem das conversas: última mensagem mais recente primeiro
+    private static final Comparator<ConversationState> RECENCY_ORDER = Comparator
+            .comparingLong(ConversationState::getLastTimestamp).reversed()
+            .thenComparing(ConversationState::getConversationKey);
+    
+    // Chave da conversa -> estado
+    private final Map<String, ConversationState> states;
+    
+    // ID do usuário -> conversas privadas do usuário, em ordem de recência
+    private final Map<String, NavigableSet<ConversationState>> recentByUser;
+    
+    public ConversationStateDAO() {
+        super("conversations", ConfigManager.getProperty("storage.conversations.file", "conversations.json"));
+        this.states = new ConcurrentHashMap<>();
+        this.recentByUser = new ConcurrentHashMap<>();
+        
+        for (ConversationState state : super.findAll()) {
+            index(state);
+        }
+        
+        logger.info("ConversationStateDAO inicializado com " + states.size() + " conversas");
+    }
+    
+    @Override
+    protected String getId(ConversationState entity) {
+        return entity.getConversationKey();
+    }
+    
+    @Override
+    protected ConversationState copy(ConversationState entity) {
+        return new ConversationState(entity);
+    }
+    
+    @Override
+    protected TypeReference<List<ConversationState>> getTypeReference() {
+        return new TypeReference<List<ConversationState>>() {};
+    }
+    
+    /**
+     * Substitui o estado em memória de uma conversa, atualizando o índice de
+     * recência de cada participante.
+     */
+    private void index(ConversationState state) {
+        ConversationState previous = states.put(state.getConversationKey(), state);
+        if (state.getParticipantIds() == null) {
+            return;
+        }
+        for (String userId : state.getParticipantIds()) {
+            NavigableSet<ConversationState> recent = recentByUser
+                    .computeIfAbsent(userId, id -> new ConcurrentSkipListSet<>(RECENCY_ORDER));
+            if (previous != null) {
+                recent.remove(previous);
+            }
+            recent.add(state);
+        }
+    }
+    
+    /**
+     * Remove o estado em memória de uma conversa.
+     */
+    private void unindex(String conversationKey) {
+        ConversationState previous = states.remove(conversationKey);
+        if (previous == null || previous.getParticipantIds() == null) {
+            return;
+        }
+        for (String userId : previous.getParticipantIds()) {
+            NavigableSet<ConversationState> recent = recentByUser.get(userId);
+            if (recent != null) {
+                recent.remove(previous);
+            }
+        }
+    }
+    
+    @Override
+    public List<ConversationState> findAll() {
+        return new ArrayList<>(states.values());
+    }
+    
+    @Override
+    public ConversationState findById(String conversationKey) {
+        return states.get(conversationKey);
+    }
+    
+    /**
+     * Salva o estado de uma conversa. O objeto salvo não deve ser alterado
+     * depois: atualizações devem salvar uma cópia (veja {@link #copyOf}).
+     *
+     * @param entity Estado da conversa
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    @Override
+    public boolean save(ConversationState entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            index(entity);
+        }
+        return saved;
+    }
+    
+    @Override
+    public boolean delete(String conversationKey) {
+        boolean deleted = super.delete(conversationKey);
+        if (deleted) {
+            unindex(conversationKey);
+        }
+        return deleted;
+    }
+    
+    @Override
+    protected void onCommitted(String conversationKey, ConversationState previous, ConversationState current) {
+        if (current != null) {
+            index(current);
+        } else {
+            unindex(conversationKey);
+        }
+    }
+    
+    /**
+     * Substitui todos os estados de conversas.
+     *
+     * @param newStates Novos estados
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    public boolean replaceAll(List<ConversationState> newStates) {
+        if (!rewriteAll(newStates)) {
+            return false;
+        }
+        states.clear();
+        recentByUser.clear();
+        for (ConversationState state : newStates) {
+            index(state);
+        }
+        return true;
+    }
+    
+    /**
+     * Cria uma cópia de um estado, para ser alterada e salva.
+     *
+     * @param state Estado da conversa
+     * @return Cópia do estado
+     */
+    public static ConversationState copyOf(ConversationState state) {
+        ConversationState copy = new ConversationState(state.getConversationKey(), state.getParticipantIds());
+        copy.setLastPosition(state.getLastPosition());
+        copy.setLastMessageId(state.getLastMessageId());
+        copy.setLastSenderId(state.getLastSenderId());
+        copy.setLastMessagePreview(state.getLastMessagePreview());
+        copy.setLastTimestamp(state.getLastTimestamp());
+        return copy;
+    }
+    
+    /**
+     * Obtém as conversas privadas mais recentes de um usuário.
+     *
+     * @param userId ID do usuário
+     * @param limit Número máximo de conversas (0 ou negativo para todas)
+     * @return Estados das conversas, da mais recente para a mais antiga
+     */
+    public List<ConversationState> findRecentPrivateConversations(String userId, int limit) {
+        NavigableSet<ConversationState> recent = recentByUser.get(userId);
+        if (recent == null) {
+            return new ArrayList<>();
+        }
+        List<ConversationState> result = new ArrayList<>();
+        for (ConversationState state : recent) {
+            if (limit > 0 && result.size() >= limit) {
+                break;
+            }
+            result.add(state);
+        }
+        return result;
+    }
+}
@@ -1,5 +1,6 @@
 package br.com.whatsut.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -40,4 +41,33 @@ public interface DAO<T, ID> {
      * @return true se excluída com sucesso, false caso contrário
      */
     boolean delete(ID id);
+    
+    /**
+     * Grava todas as alterações de uma unidade de trabalho em uma única
+     * escrita: ou todas são aplicadas, ou nenhuma é.
+     *
+     * @param work Alterações a serem gravadas
+     * @return true se gravadas com sucesso, false caso contrário
+     */
+    boolean commit(UnitOfWork<T, ID> work);
+    
+    /**
+     * Salva várias entidades em uma única escrita.
+     *
+     * @param entities Entidades a serem salvas
+     * @return true se salvas com sucesso, false caso contrário
+     */
+    default boolean saveAll(Collection<? extends T> entities) {
+        return commit(new UnitOfWork<T, ID>().saveAll(entities));
+    }
+    
+    /**
+     * Exclui várias entidades em uma única escrita. IDs inexistentes são ignorados.
+     *
+     * @param ids IDs das entidades a serem excluídas
+     * @return true se excluídas com sucesso, false caso contrário
+     */
+    default boolean deleteAll(Collection<? extends ID> ids) {
+        return commit(new UnitOfWork<T, ID>().deleteAll(ids));
+    }
 }
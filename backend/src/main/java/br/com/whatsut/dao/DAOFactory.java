@@ -0,0 +1,126 @@
+package br.com.whatsut.dao;
+
+import java.util.logging.Logger;
+
+/**
+ * Fábrica dos DAOs compartilhados do servidor WhatsUT.
+ * Cada DAO é criado uma única vez, na primeira vez em que é solicitado, e a
+ * mesma instância é usada pelos serviços RMI e pelo servidor WebSocket. Assim
+ * os arquivos são lidos uma só vez na inicialização e todos os componentes
+ * enxergam os mesmos caches (por exemplo, um membro adicionado a um grupo pelo
+ * serviço de grupos é visto imediatamente pelo servidor WebSocket).
+ */
+public final class DAOFactory {
+    private static final Logger logger = Logger.getLogger(DAOFactory.class.getName());
+    
+    private static UserDAO userDAO;
+    private static SessionDAO sessionDAO;
+    private static GroupDAO groupDAO;
+    private static GroupMemberDAO groupMemberDAO;
+    private static MessageDAO messageDAO;
+    
+    private DAOFactory() {
+    }
+    
+    /**
+     * Obtém o DAO de usuários.
+     *
+     * @return DAO de usuários compartilhado
+     */
+    public static synchronized UserDAO getUserDAO() {
+        if (userDAO == null) {
+            userDAO = new UserDAO();
+        }
+        return userDAO;
+    }
+    
+    /**
+     * Obtém o DAO de sessões.
+     *
+     * @return DAO de sessões compartilhado
+     */
+    public static synchronized SessionDAO getSessionDAO() {
+        if (sessionDAO == null) {
+            sessionDAO = new SessionDAO();
+        }
+        return sessionDAO;
+    }
+    
+    /**
+     * Obtém o DAO de grupos.
+     *
+     * @return DAO de grupos compartilhado
+     */
+    public static synchronized GroupDAO getGroupDAO() {
+        if (groupDAO == null) {
+            groupDAO = new GroupDAO();
+        }
+        return groupDAO;
+    }
+    
+    /**
+     * Obtém o DAO de membros de grupo.
+     *
+     * @return DAO de membros de grupo compartilhado
+     */
+    public static synchronized GroupMemberDAO getGroupMemberDAO() {
+        if (groupMemberDAO == null) {
+            groupMemberDAO = new GroupMemberDAO();
+        }
+        return groupMemberDAO;
+    }
+    
+    /**
+     * Obtém o DAO de mensagens.
+     *
+     * @return DAO de mensagens compartilhado
+     */
+    public static synchronized MessageDAO getMessageDAO() {
+        if (messageDAO == null) {
+            messageDAO = new MessageDAO();
+        }
+        return messageDAO;
+    }
+    
+    /**
+     * Abre todos os DAOs, para que um armazenamento que não pode ser aberto
+     * interrompa a inicialização antes de o servidor aceitar requisições.
+     *
+     * @throws IllegalStateException Erro ao abrir algum armazenamento
+     */
+    public static synchronized void openAll() {
+        getUserDAO();
+        getSessionDAO();
+        getGroupDAO();
+        getGroupMemberDAO();
+        getMessageDAO();
+    }
+    
+    /**
+     * Fecha todos os DAOs já criados, gravando as alterações pendentes. Uma
+     * nova solicitação depois disso cria novas instâncias.
+     */
+    public static synchronized void closeAll() {
+        if (messageDAO != null) {
+            messageDAO.close();
+            messageDAO = null;
+        }
+        if (groupMemberDAO != null) {
+            groupMemberDAO.close();
+            groupMemberDAO = null;
+        }
+        if (groupDAO != null) {
+            groupDAO.close();
+            groupDAO = null;
+        }
+        if (sessionDAO != null) {
+            sessionDAO.close();
+            sessionDAO = null;
+        }
+        if (userDAO != null) {
+            userDAO.close();
+            userDAO = null;
+        }
+        logger.info("DAOs fechados");
+    }
+}
@@ -7,10 +7,10 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * DAO para operações de persistência de grupos.
+ * O nome (em minúsculas) e o administrador de cada grupo são indexados.
  */
 public class GroupDAO extends AbstractJsonDAO<Group, String> {
     private static final Logger logger = Logger.getLogger(GroupDAO.class.getName());
@@ -20,9 +20,11 @@ public class GroupDAO extends AbstractJsonDAO<Group, String> {
     private final int maxCacheSize;
     
     public GroupDAO() {
-        super(ConfigManager.getProperty("storage.groups.file", "groups.json"));
+        super("groups", ConfigManager.getProperty("storage.groups.file", "groups.json"));
         this.maxCacheSize = ConfigManager.getIntProperty("cache.groups.max.size", 100);
         this.groupCache = new ConcurrentHashMap<>();
+        createIndex("name", g -> g.getName() != null ? g.getName().toLowerCase() : null, false);
+        createIndex("adminId", Group::getAdminId, false);
         
         // Pré-carregar grupos no cache
         List<Group> groups = super.findAll();
@@ -39,6 +41,11 @@ public class GroupDAO extends AbstractJsonDAO<Group, String> {
         return entity.getGroupId();
     }
     
+    @Override
+    protected Group copy(Group entity) {
+        return new Group(entity);
+    }
+    
     @Override
     protected TypeReference<List<Group>> getTypeReference() {
         return new TypeReference<List<Group>>() {};
@@ -72,27 +79,8 @@ public class GroupDAO extends AbstractJsonDAO<Group, String> {
     public List<Group> findByName(String name) {
         String nameLower = name.toLowerCase();
         
-        // Verificar no cache primeiro
-        List<Group> cachedGroups = groupCache.values().stream()
-                .filter(g -> g.getName().toLowerCase().contains(nameLower))
-                .collect(Collectors.toList());
-        
-        if (!cachedGroups.isEmpty()) {
-            return cachedGroups;
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        List<Group> groups = super.findAll().stream()
-                .filter(g -> g.getName().toLowerCase().contains(nameLower))
-                .collect(Collectors.toList());
-        
-        // Adicionar ao cache
-        for (Group group : groups) {
-            if (groupCache.size() >= maxCacheSize) break;
-            groupCache.put(group.getGroupId(), group);
-        }
-        
-        return groups;
+        // Percorrer apenas os nomes distintos do índice
+        return findByIndexMatching("name", groupName -> groupName.contains(nameLower));
     }
     
     /**
@@ -102,36 +90,19 @@ public class GroupDAO extends AbstractJsonDAO<Group, String> {
      * @return Lista de grupos administrados pelo usuário
      */
     public List<Group> findByAdmin(String adminId) {
-        // Verificar no cache primeiro
-        List<Group> cachedGroups = groupCache.values().stream()
-                .filter(g -> g.getAdminId().equals(adminId))
-                .collect(Collectors.toList());
-        
-        if (!cachedGroups.isEmpty()) {
-            return cachedGroups;
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        List<Group> groups = super.findAll().stream()
-                .filter(g -> g.getAdminId().equals(adminId))
-                .collect(Collectors.toList());
-        
-        // Adicionar ao cache
-        for (Group group : groups) {
-            if (groupCache.size() >= maxCacheSize) break;
-            groupCache.put(group.getGroupId(), group);
-        }
-        
-        return groups;
+        return findByIndex("adminId", adminId);
     }
     
     @Override
     public boolean save(Group entity) {
+        // Salvar no arquivo
+        if (!super.save(entity)) {
+            return false;
+        }
+        
         // Atualizar no cache
         groupCache.put(entity.getGroupId(), entity);
-        
-        // Salvar no arquivo
-        return super.save(entity);
+        return true;
     }
     
     @Override
@@ -143,6 +114,15 @@ public class GroupDAO extends AbstractJsonDAO<Group, String> {
         return super.delete(id);
     }
     
+    @Override
+    protected void onCommitted(String id, Group previous, Group current) {
+        if (current != null) {
+            groupCache.put(id, current);
+        } else {
+            groupCache.remove(id);
+        }
+    }
+    
     /**
      * Limpa o cache de grupos.
      */
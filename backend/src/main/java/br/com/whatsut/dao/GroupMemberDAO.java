@@ -5,32 +5,43 @@ import br.com.whatsut.util.ConfigManager;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * DAO para operações de persistência de membros de grupo.
+ * Os membros são indexados pelo grupo e pelo usuário, de modo que listar os
+ * membros de um grupo ou os grupos de um usuário não percorre o arquivo.
  */
 public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
     private static final Logger logger = Logger.getLogger(GroupMemberDAO.class.getName());
     
-    // Cache para melhorar performance e evitar loops infinitos de requisições
-    private final Map<String, List<GroupMember>> groupMembersCache;
-    private final int maxCacheSize;
-    
     public GroupMemberDAO() {
-        super(ConfigManager.getProperty("storage.group_members.file", "group_members.json"));
-        this.maxCacheSize = ConfigManager.getIntProperty("cache.group_members.max.size", 200);
-        this.groupMembersCache = new ConcurrentHashMap<>();
+        super("group_members", ConfigManager.getProperty("storage.group_members.file", "group_members.json"));
+        createIndex("groupId", GroupMember::getGroupId, false);
+        createIndex("userId", GroupMember::getUserId, false);
         
         logger.info("GroupMemberDAO inicializado");
     }
     
+    /**
+     * Obtém o ID de um membro (groupId:userId), usado em delete e nas unidades de trabalho.
+     *
+     * @param groupId ID do grupo
+     * @param userId ID do usuário
+     * @return ID do membro
+     */
+    public static String getMemberKey(String groupId, String userId) {
+        return groupId + ":" + userId;
+    }
+    
     @Override
     protected String getId(GroupMember entity) {
-        return entity.getGroupId() + ":" + entity.getUserId();
+        return getMemberKey(entity.getGroupId(), entity.getUserId());
+    }
+    
+    @Override
+    protected GroupMember copy(GroupMember entity) {
+        return new GroupMember(entity);
     }
     
     @Override
@@ -46,20 +57,7 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
      * @return O membro do grupo ou null se não existir
      */
     public GroupMember findGroupMember(String groupId, String userId) {
-        String id = groupId + ":" + userId;
-        
-        // Verificar no cache primeiro
-        List<GroupMember> cachedMembers = groupMembersCache.get(groupId);
-        if (cachedMembers != null) {
-            for (GroupMember member : cachedMembers) {
-                if (member.getUserId().equals(userId)) {
-                    return member;
-                }
-            }
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        return super.findById(id);
+        return super.findById(getMemberKey(groupId, userId));
     }
     
     /**
@@ -69,23 +67,7 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
      * @return Lista de membros do grupo
      */
     public List<GroupMember> findByGroupId(String groupId) {
-        // Verificar no cache primeiro
-        List<GroupMember> cachedMembers = groupMembersCache.get(groupId);
-        if (cachedMembers != null) {
-            return cachedMembers;
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        List<GroupMember> members = super.findAll().stream()
-                .filter(m -> m.getGroupId().equals(groupId))
-                .collect(Collectors.toList());
-        
-        // Adicionar ao cache se não exceder o limite
-        if (groupMembersCache.size() < maxCacheSize) {
-            groupMembersCache.put(groupId, members);
-        }
-        
-        return members;
+        return findByIndex("groupId", groupId);
     }
     
     /**
@@ -95,10 +77,7 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
      * @return Lista de membros de grupo do usuário
      */
     public List<GroupMember> findByUserId(String userId) {
-        // Buscar diretamente no arquivo, pois o cache é organizado por grupo
-        return super.findAll().stream()
-                .filter(m -> m.getUserId().equals(userId))
-                .collect(Collectors.toList());
+        return findByIndex("userId", userId);
     }
     
     /**
@@ -113,41 +92,14 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
         return findGroupMember(groupId, userId);
     }
     
-    @Override
-    public boolean save(GroupMember entity) {
-        // Atualizar no cache
-        String groupId = entity.getGroupId();
-        List<GroupMember> cachedMembers = groupMembersCache.get(groupId);
-        if (cachedMembers != null) {
-            // Remover membro existente com mesmo ID
-            cachedMembers.removeIf(m -> m.getUserId().equals(entity.getUserId()));
-            // Adicionar novo membro
-            cachedMembers.add(entity);
-        }
-        
-        // Salvar no arquivo
-        return super.save(entity);
-    }
-    
     @Override
     public boolean delete(String id) {
-        // Extrair groupId e userId do id composto
-        String[] parts = id.split(":");
-        if (parts.length != 2) {
+        // Validar o id composto (groupId:userId)
+        if (id.split(":").length != 2) {
             logger.warning("ID inválido para GroupMember: " + id);
             return false;
         }
         
-        String groupId = parts[0];
-        String userId = parts[1];
-        
-        // Atualizar cache
-        List<GroupMember> cachedMembers = groupMembersCache.get(groupId);
-        if (cachedMembers != null) {
-            cachedMembers.removeIf(m -> m.getUserId().equals(userId));
-        }
-        
-        // Remover do arquivo
         return super.delete(id);
     }
     
@@ -159,44 +111,17 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
      * @return true se removido com sucesso, false caso contrário
      */
     public boolean deleteGroupMember(String groupId, String userId) {
-        return delete(groupId + ":" + userId);
+        return delete(getMemberKey(groupId, userId));
     }
     
     /**
-     * Remove todos os membros de um grupo.
+     * Remove todos os membros de um grupo em uma única gravação.
      *
      * @param groupId ID do grupo
      * @return true se removidos com sucesso, false caso contrário
      */
     public boolean deleteAllGroupMembers(String groupId) {
-        // Remover do cache
-        groupMembersCache.remove(groupId);
-        
-        // Remover do arquivo
-        List<GroupMember> allMembers = super.findAll();
-        List<GroupMember> remainingMembers = allMembers.stream()
-                .filter(m -> !m.getGroupId().equals(groupId))
-                .collect(Collectors.toList());
-        
-        return super.saveAll(remainingMembers);
-    }
-    
-    /**
-     * Limpa o cache de membros de grupo.
-     */
-    public void clearCache() {
-        groupMembersCache.clear();
-        logger.info("Cache de membros de grupo limpo");
-    }
-    
-    /**
-     * Limpa o cache de membros de um grupo específico.
-     *
-     * @param groupId ID do grupo
-     */
-    public void clearGroupCache(String groupId) {
-        groupMembersCache.remove(groupId);
-        logger.info("Cache de membros do grupo " + groupId + " limpo");
+        return deleteAll(findIdsByIndex("groupId", groupId));
     }
     
     /**
@@ -232,7 +157,7 @@ public class GroupMemberDAO extends AbstractJsonDAO<GroupMember, String> {
     /**
      * Remove uma solicitação de entrada em grupo.
      *
-     * @param memberId ID do membro/solicitação
+     * @param memberId ID do membro/solicitação (groupId:userId)
      * @return true se removido com sucesso, false caso contrário
      */
     public boolean deleteJoinRequest(String memberId) {
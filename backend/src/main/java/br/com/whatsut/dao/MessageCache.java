@@ -0,0 +1,407 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.model.Message;
+import br.com.whatsut.util.JmxSupport;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache das mensagens recentes de cada conversa, limitado por tamanho estimado
+ * em bytes.
+ * <p>
+ * Cada conversa mantém em memória apenas a janela das suas mensagens mais
+ * recentes. A política de remoção é um LRU segmentado (SLRU): conversas novas
+ * entram no segmento de experiência e só passam ao segmento protegido quando
+ * são lidas novamente, de modo que uma leitura isolada de uma conversa antiga
+ * não expulsa as conversas mais acessadas.
+ */
+public class MessageCache implements MessageCacheMXBean {
+    // Custo fixo estimado de um objeto Message e de uma entrada do cache
+    private static final int MESSAGE_OVERHEAD = 96;
+    private static final int ENTRY_OVERHEAD = 128;
+    
+    // Fração do limite reservada ao segmento protegido
+    private static final double PROTECTED_RATIO = 0.8;
+    
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final int windowSize;
+    
+    // Segmentos do SLRU, em ordem de acesso (o primeiro é o menos recente)
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    
+    /**
+     * Janela de mensagens recentes de uma conversa.
+     */
+    private static class Entry {
+        // Mensagens mais recentes primeiro
+        private final List<Message> messages;
+        // true se a janela contém a conversa inteira
+        private boolean complete;
+        private long bytes;
+        
+        private Entry(List<Message> messages, boolean complete) {
+            this.messages = messages;
+            this.complete = complete;
+        }
+    }
+    
+    /**
+     * Cria o cache.
+     *
+     * @param maxBytes Tamanho máximo estimado, em bytes, das mensagens em cache
+     * @param windowSize Número de mensagens recentes mantidas por conversa
+     */
+    public MessageCache(long maxBytes, int windowSize) {
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = (long) (maxBytes * PROTECTED_RATIO);
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * Registra as estatísticas do cache no servidor JMX da plataforma.
+     *
+     * @param name Nome do cache no JMX
+     */
+    public void registerMBean(String name) {
+        JmxSupport.register(this, "MessageCache", name);
+    }
+    
+    /**
+     * Obtém o número de mensagens recentes mantidas por conversa.
+     *
+     * @return Tamanho da janela
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+    
+    /**
+     * Busca mensagens recentes de uma conversa no cache.
+     *
+     * @param conversationKey Chave da conversa
+     * @param offset Deslocamento a partir da mensagem mais recente
+     * @param limit Número máximo de mensagens
+     * @return Mensagens (mais recentes primeiro) ou null se não estiverem em cache
+     */
+    public synchronized List<Message> get(String conversationKey, int offset, int limit) {
+        Entry entry = lookup(conversationKey);
+        if (entry == null || (!entry.complete && offset + limit > entry.messages.size())) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        int from = Math.min(offset, entry.messages.size());
+        int to = Math.min(offset + limit, entry.messages.size());
+        return new ArrayList<>(entry.messages.subList(from, to));
+    }
+    
+    /**
+     * Busca no cache as mensagens anteriores a um cursor (mensagem ou timestamp).
+     *
+     * @param conversationKey Chave da conversa
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor quando não há ID (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Mensagens (mais recentes primeiro) ou null se a página não estiver em cache
+     */
+    public synchronized List<Message> getBefore(String conversationKey, String beforeMessageId,
+                                                long beforeTimestamp, int limit) {
+        Entry entry = lookup(conversationKey);
+        int start = entry == null ? -1 : findCursor(entry, beforeMessageId, beforeTimestamp);
+        if (start < 0 || (!entry.complete && start + limit > entry.messages.size())) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        int to = Math.min(start + limit, entry.messages.size());
+        return new ArrayList<>(entry.messages.subList(start, to));
+    }
+    
+    /**
+     * Localiza na janela o índice da primeira mensagem anterior ao cursor.
+     *
+     * @return Índice na janela ou -1 se o cursor estiver fora da janela
+     */
+    private int findCursor(Entry entry, String beforeMessageId, long beforeTimestamp) {
+        List<Message> messages = entry.messages;
+        if (beforeMessageId != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getMessageId().equals(beforeMessageId)) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        if (beforeTimestamp <= 0) {
+            return 0;
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getTimestamp() < beforeTimestamp) {
+                return i;
+            }
+        }
+        return entry.complete ? messages.size() : -1;
+    }
+    
+    /**
+     * Obtém uma entrada, promovendo-a ao segmento protegido se estiver em experiência.
+     */
+    private Entry lookup(String conversationKey) {
+        Entry entry = protectedSegment.get(conversationKey);
+        if (entry != null) {
+            return entry;
+        }
+        entry = probation.remove(conversationKey);
+        if (entry == null) {
+            return null;
+        }
+        probationBytes -= entry.bytes;
+        protectedSegment.put(conversationKey, entry);
+        protectedBytes += entry.bytes;
+        
+        // Rebaixar as conversas menos recentes do segmento protegido
+        Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && protectedSegment.size() > 1) {
+            Map.Entry<String, Entry> demoted = eldest.next();
+            eldest.remove();
+            protectedBytes -= demoted.getValue().bytes;
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().bytes;
+        }
+        return entry;
+    }
+    
+    /**
+     * Armazena a janela de mensagens recentes de uma conversa.
+     *
+     * @param conversationKey Chave da conversa
+     * @param newestMessages Mensagens mais recentes primeiro (apenas a janela é mantida)
+     * @param complete true se a lista contém a conversa inteira
+     */
+    public synchronized void put(String conversationKey, List<Message> newestMessages, boolean complete) {
+        invalidate(conversationKey);
+        List<Message> window = new ArrayList<>(newestMessages.subList(0, Math.min(windowSize, newestMessages.size())));
+        Entry entry = new Entry(window, complete && window.size() == newestMessages.size());
+        entry.bytes = ENTRY_OVERHEAD;
+        for (Message message : window) {
+            entry.bytes += estimateSize(message);
+        }
+        probation.put(conversationKey, entry);
+        probationBytes += entry.bytes;
+        evict();
+    }
+    
+    /**
+     * Acrescenta uma mensagem recém-gravada à janela da conversa, se ela estiver em cache.
+     *
+     * @param conversationKey Chave da conversa
+     * @param message Mensagem
+     */
+    public synchronized void append(String conversationKey, Message message) {
+        Entry entry = peek(conversationKey);
+        if (entry == null) {
+            return;
+        }
+        long before = entry.bytes;
+        entry.messages.add(0, message);
+        entry.bytes += estimateSize(message);
+        if (entry.messages.size() > windowSize) {
+            entry.bytes -= estimateSize(entry.messages.remove(entry.messages.size() - 1));
+            entry.complete = false;
+        }
+        resize(conversationKey, entry.bytes - before);
+        evict();
+    }
+    
+    /**
+     * Marca como lidas, na janela da conversa, as mensagens de outros usuários
+     * até a mensagem informada (inclusive), se a conversa estiver em cache.
+     *
+     * @param conversationKey Chave da conversa
+     * @param upToMessageId ID da última mensagem lida
+     * @param readerId ID do usuário que leu a conversa
+     */
+    public synchronized void markReadUpTo(String conversationKey, String upToMessageId, String readerId) {
+        Entry entry = peek(conversationKey);
+        if (entry == null) {
+            return;
+        }
+        // A janela contém as mensagens mais recentes: se a mensagem não estiver
+        // nela, todas as mensagens da janela são posteriores à marca
+        boolean reached = false;
+        for (Message message : entry.messages) {
+            reached = reached || message.getMessageId().equals(upToMessageId);
+            if (reached && !message.getSenderId().equals(readerId)) {
+                message.setRead(true);
+            }
+        }
+    }
+    
+    /**
+     * Remove uma mensagem da janela da conversa, se estiver em cache.
+     *
+     * @param conversationKey Chave da conversa
+     * @param messageId ID da mensagem
+     */
+    public synchronized void remove(String conversationKey, String messageId) {
+        Entry entry = peek(conversationKey);
+        if (entry == null) {
+            return;
+        }
+        Iterator<Message> iterator = entry.messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.getMessageId().equals(messageId)) {
+                iterator.remove();
+                long size = estimateSize(message);
+                entry.bytes -= size;
+                resize(conversationKey, -size);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Obtém uma entrada sem alterar a ordem de acesso.
+     */
+    private Entry peek(String conversationKey) {
+        Entry entry = protectedSegment.get(conversationKey);
+        return entry != null ? entry : probation.get(conversationKey);
+    }
+    
+    /**
+     * Atualiza o tamanho do segmento que contém a conversa.
+     */
+    private void resize(String conversationKey, long delta) {
+        if (protectedSegment.containsKey(conversationKey)) {
+            protectedBytes += delta;
+        } else {
+            probationBytes += delta;
+        }
+    }
+    
+    /**
+     * Remove conversas, a partir das menos recentes em experiência, até respeitar o limite.
+     */
+    private void evict() {
+        evict(probation, true);
+        evict(protectedSegment, false);
+    }
+    
+    private void evict(LinkedHashMap<String, Entry> segment, boolean isProbation) {
+        Iterator<Map.Entry<String, Entry>> eldest = segment.entrySet().iterator();
+        while (probationBytes + protectedBytes > maxBytes && eldest.hasNext()) {
+            long bytes = eldest.next().getValue().bytes;
+            eldest.remove();
+            if (isProbation) {
+                probationBytes -= bytes;
+            } else {
+                protectedBytes -= bytes;
+            }
+            evictionCount++;
+        }
+    }
+    
+    /**
+     * Remove uma conversa do cache.
+     *
+     * @param conversationKey Chave da conversa
+     */
+    public synchronized void invalidate(String conversationKey) {
+        Entry entry = probation.remove(conversationKey);
+        if (entry != null) {
+            probationBytes -= entry.bytes;
+        }
+        entry = protectedSegment.remove(conversationKey);
+        if (entry != null) {
+            protectedBytes -= entry.bytes;
+        }
+    }
+    
+    /**
+     * Remove todas as conversas do cache.
+     */
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+    
+    /**
+     * Estima o espaço ocupado por uma mensagem em memória.
+     *
+     * @param message Mensagem
+     * @return Tamanho estimado em bytes
+     */
+    static long estimateSize(Message message) {
+        return MESSAGE_OVERHEAD
+                + sizeOf(message.getMessageId())
+                + sizeOf(message.getSenderId())
+                + sizeOf(message.getReceiverId())
+                + sizeOf(message.getGroupId())
+                + sizeOf(message.getContent())
+                + sizeOf(message.getFileUrl())
+                + sizeOf(message.getFileType())
+                + sizeOf(message.getAttachmentUrl());
+    }
+    
+    private static long sizeOf(String value) {
+        // Cabeçalho da String e do array, mais até 2 bytes por caractere
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+    
+    @Override
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    @Override
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    @Override
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    @Override
+    public synchronized double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0 : (double) hitCount / requests;
+    }
+    
+    @Override
+    public synchronized int getConversationCount() {
+        return probation.size() + protectedSegment.size();
+    }
+    
+    @Override
+    public synchronized long getEstimatedBytes() {
+        return probationBytes + protectedBytes;
+    }
+    
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "MessageCache{conversas=" + getConversationCount() + ", bytes=" + getEstimatedBytes() + "/" + maxBytes
+                + ", acertos=" + hitCount + ", falhas=" + missCount + ", remoções=" + evictionCount + "}";
+    }
+}
@@ -0,0 +1,42 @@
+package br.com.whatsut.dao;
+
+/**
+ * Estatísticas do cache de mensagens expostas via JMX.
+ */
+public interface MessageCacheMXBean {
+    
+    /**
+     * @return Número de leituras atendidas pelo cache
+     */
+    long getHitCount();
+    
+    /**
+     * @return Número de leituras que precisaram acessar o disco
+     */
+    long getMissCount();
+    
+    /**
+     * @return Número de conversas removidas do cache por falta de espaço
+     */
+    long getEvictionCount();
+    
+    /**
+     * @return Proporção de leituras atendidas pelo cache (0 a 1)
+     */
+    double getHitRate();
+    
+    /**
+     * @return Número de conversas em cache
+     */
+    int getConversationCount();
+    
+    /**
+     * @return Tamanho estimado, em bytes, das mensagens em cache
+     */
+    long getEstimatedBytes();
+    
+    /**
+     * @return Limite, em bytes, do cache
+     */
+    long getMaxBytes();
+}
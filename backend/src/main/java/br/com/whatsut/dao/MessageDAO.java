@@ -1,351 +1,1417 @@
 package br.com.whatsut.dao;
 
+import br.com.whatsut.model.ConversationState;
+import br.com.whatsut.model.ConversationSummary;
 import br.com.whatsut.model.GroupMessage;
 import br.com.whatsut.model.Message;
 import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.ReadWatermark;
+import br.com.whatsut.model.UnreadMessage;
+import br.com.whatsut.dao.search.MessageSearchIndex;
+import br.com.whatsut.dao.storage.ConversationLog;
+import br.com.whatsut.dao.storage.SegmentTiering;
+import br.com.whatsut.dao.storage.StorageCodec;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.dao.storage.WritePolicy;
 import br.com.whatsut.util.ConfigManager;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
 /**
  * DAO para operações de persistência de mensagens.
- * Armazena mensagens em arquivos separados por conversa.
+ * Armazena as mensagens de cada conversa em um log segmentado e append-only
+ * (veja {@link ConversationLog}), de modo que enviar uma mensagem grava apenas
+ * um registro e a leitura das mensagens recentes lê apenas o último segmento.
  */
 public class MessageDAO {
     private static final Logger logger = Logger.getLogger(MessageDAO.class.getName());
-    private final ObjectMapper objectMapper;
+    private static final String LEGACY_EXTENSION = ".json";
+    private static final String MIGRATED_EXTENSION = ".json.migrated";
+    private static final String PRIVATE_PREFIX = "private_";
+    private static final String GROUP_PREFIX = "group_";
+    // Armazenamentos derivados das mensagens, reconstruídos apenas quando ausentes
+    private static final String[] DERIVED_STORAGES = {"message_index", "conversations", "unread_inbox",
+        "read_watermarks"};
+    // Codificação dos registros das conversas (storage.messages.format)
+    private final StorageCodec codec;
     private final String basePath;
     private final String messagesDir;
+    private final int segmentSize;
     
-    // Cache para melhorar performance e evitar loops infinitos de requisições
-    private final Map<String, List<Message>> messageCache;
-    private final int maxCacheSize;
+    // Logs das conversas já abertas, por chave de conversa; os ociosos são descartados
+    private final Map<String, ConversationLog> conversationLogs;
+    private final long logIdleMillis;
+    
+    // Locks das conversas, distribuídos em faixas pela chave da conversa: conversas
+    // diferentes são lidas e gravadas em paralelo
+    private final Lock[] conversationLocks;
+    
+    // Conversas com arquivos abertos para escrita, em ordem de uso (LRU)
+    private final LinkedHashMap<String, ConversationLog> openLogs;
+    private final int maxOpenLogs;
+    
+    // Índice persistente messageId -> conversa e posição
+    private MessageIdIndex messageIdIndex;
+    
+    // Política de gravação dos logs das conversas (storage.messages.durability)
+    private final WritePolicy writePolicy;
+    
+    // Janela de mensagens recentes das conversas mais acessadas
+    private final MessageCache messageCache;
+    
+    // Marcas "lido até" de cada usuário em cada conversa
+    private final ReadWatermarkDAO readWatermarkDAO;
+    
+    // Estado resumido (participantes, última mensagem) de cada conversa
+    private final ConversationStateDAO conversationStateDAO;
+    private final int previewLength;
+    
+    // Mensagens privadas não lidas de cada usuário
+    private final UnreadInboxDAO unreadInboxDAO;
+    
+    // Compactação e retenção dos segmentos antigos das conversas
+    private final SegmentTiering tiering;
+    
+    // Índice de busca do conteúdo das mensagens (null se desativado)
+    private MessageSearchIndex searchIndex;
+    private File searchIndexFile;
+    
+    // Tarefas periódicas: armazenamento frio, gravação do índice de busca e descarte dos logs ociosos
+    private final ScheduledExecutorService maintenanceExecutor;
     
     public MessageDAO() {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        this.codec = new StorageCodec(StorageFormat.getConfigured("messages"), mapper -> {
+            mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        });
         
+        warnAsyncDerivedStorages();
         this.basePath = ConfigManager.getProperty("storage.base.path", "data");
         this.messagesDir = ConfigManager.getProperty("storage.messages.dir", "messages");
-        this.maxCacheSize = ConfigManager.getIntProperty("cache.messages.max.size", 1000);
-        this.messageCache = new ConcurrentHashMap<>();
+        this.segmentSize = ConfigManager.getIntProperty("storage.messages.segment.size", 1000);
+        this.writePolicy = AbstractJsonDAO.getWritePolicy("messages");
+        this.maxOpenLogs = ConfigManager.getIntProperty("storage.messages.open.files.max", 128);
+        this.conversationLogs = new ConcurrentHashMap<>();
+        this.logIdleMillis = ConfigManager.getLongProperty("storage.messages.log.idle.millis", 600000);
+        this.openLogs = new LinkedHashMap<>(16, 0.75f, true);
+        this.conversationLocks = new Lock[Math.max(1, ConfigManager.getIntProperty("storage.messages.lock.stripes", 64))];
+        for (int i = 0; i < conversationLocks.length; i++) {
+            conversationLocks[i] = new ReentrantLock();
+        }
+        this.messageCache = new MessageCache(
+                ConfigManager.getLongProperty("cache.messages.max.bytes", 32L * 1024 * 1024),
+                ConfigManager.getIntProperty("cache.messages.window.size", 200));
+        this.messageCache.registerMBean("messages");
+        this.readWatermarkDAO = new ReadWatermarkDAO();
+        boolean watermarksMissing = readWatermarkDAO.isStorageMissing();
+        this.previewLength = ConfigManager.getIntProperty("storage.conversations.preview.length", 100);
+        this.conversationStateDAO = new ConversationStateDAO();
+        boolean statesMissing = conversationStateDAO.isStorageMissing();
+        this.unreadInboxDAO = new UnreadInboxDAO();
+        boolean inboxMissing = unreadInboxDAO.isStorageMissing();
         
         // Garantir que os diretórios existam
         createDirectories();
         
+        // Converter conversas gravadas no formato JSON antigo
+        int migrated = migrateLegacyConversations();
+        
+        // Abrir o índice de mensagens, reconstruindo-o se necessário
+        openMessageIdIndex(migrated > 0);
+        
+        // Reconstruir o estado das conversas se ele ainda não existir
+        if (statesMissing || migrated > 0) {
+            rebuildConversationStates();
+        }
+        
+        // Criar as marcas de leitura a partir do estado de leitura do formato anterior
+        if (watermarksMissing || migrated > 0) {
+            seedReadWatermarks();
+        }
+        
+        // Reconstruir a caixa de não lidas se ela ainda não existir; entradas de
+        // grupos gravadas por versões anteriores são descartadas, pois as não
+        // lidas dos grupos são calculadas pelas marcas de leitura
+        if (inboxMissing || migrated > 0) {
+            rebuildUnreadInbox();
+        } else {
+            int removed = unreadInboxDAO.removeConversations(key -> key.startsWith(GROUP_PREFIX));
+            if (removed > 0) {
+                logger.info("Entradas de grupos removidas da caixa de não lidas: " + removed);
+            }
+        }
+        
+        this.tiering = SegmentTiering.getConfigured("messages");
+        this.tiering.registerMBean("messages");
+        
+        // Abrir o índice de busca e indexar as mensagens gravadas desde a última gravação dele
+        if (ConfigManager.getBooleanProperty("storage.messages.search.enabled", true)) {
+            openSearchIndex(migrated > 0);
+        }
+        
+        // Compactar e remover os segmentos antigos, gravar o índice de busca e
+        // descartar os logs ociosos periodicamente
+        long tieringInterval = ConfigManager.getLongProperty("storage.messages.tiering.interval", 3600000);
+        long searchSaveInterval = ConfigManager.getLongProperty("storage.messages.search.save.interval", 300000);
+        boolean scheduleTiering = tiering.isEnabled() && tieringInterval > 0;
+        boolean scheduleSearchSave = searchIndex != null && searchSaveInterval > 0;
+        boolean scheduleIdleEviction = logIdleMillis > 0;
+        if (scheduleTiering || scheduleSearchSave || scheduleIdleEviction) {
+            this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "message-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (scheduleTiering) {
+                this.maintenanceExecutor.scheduleWithFixedDelay(this::applyTiering,
+                        tieringInterval, tieringInterval, TimeUnit.MILLISECONDS);
+            }
+            if (scheduleSearchSave) {
+                this.maintenanceExecutor.scheduleWithFixedDelay(this::saveSearchIndex,
+                        searchSaveInterval, searchSaveInterval, TimeUnit.MILLISECONDS);
+            }
+            if (scheduleIdleEviction) {
+                long evictionInterval = Math.max(1000, logIdleMillis / 2);
+                this.maintenanceExecutor.scheduleWithFixedDelay(this::evictIdleLogs,
+                        evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            this.maintenanceExecutor = null;
+        }
+        
         logger.info("MessageDAO inicializado");
     }
     
+    /**
+     * Avisa quando um armazenamento derivado das mensagens usa gravação
+     * assíncrona: ele só é reconstruído se o arquivo não existir, então o
+     * intervalo perdido em uma queda não é recuperado a partir dos logs.
+     */
+    private static void warnAsyncDerivedStorages() {
+        for (String storageName : DERIVED_STORAGES) {
+            if (AbstractJsonDAO.getWritePolicy(storageName).getDurability() == WritePolicy.Durability.ASYNC) {
+                logger.warning("Armazenamento " + storageName + " configurado com durabilidade async: alterações"
+                        + " perdidas em uma queda não são recuperadas dos logs das conversas");
+            }
+        }
+    }
+    
     /**
      * Cria os diretórios necessários para armazenamento de mensagens.
      */
     private void createDirectories() {
         Path directory = Paths.get(basePath, messagesDir);
         try {
-            Files.createDirectories(directory);
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao criar diretório para mensagens", e);
+        }
+    }
+    
+    /**
+     * Obtém o diretório raiz das mensagens.
+     *
+     * @return Diretório das mensagens
+     */
+    private File getMessagesDirectory() {
+        return new File(basePath + File.separator + messagesDir);
+    }
+    
+    /**
+     * Obtém a chave de uma conversa privada.
+     *
+     * @param userId1 ID do primeiro usuário
+     * @param userId2 ID do segundo usuário
+     * @return Chave da conversa
+     */
+    public static String getPrivateConversationKey(String userId1, String userId2) {
+        // Ordenar IDs para garantir consistência
+        String[] ids = {userId1, userId2};
+        Arrays.sort(ids);
+        return PRIVATE_PREFIX + ids[0] + "_" + ids[1];
+    }
+    
+    /**
+     * Obtém a chave da conversa de um grupo.
+     *
+     * @param groupId ID do grupo
+     * @return Chave da conversa
+     */
+    public static String getGroupConversationKey(String groupId) {
+        return GROUP_PREFIX + groupId;
+    }
+    
+    /**
+     * Obtém o ID do grupo de uma conversa de grupo.
+     *
+     * @param conversationKey Chave da conversa
+     * @return ID do grupo ou null se não for uma conversa de grupo
+     */
+    public static String getGroupId(String conversationKey) {
+        return conversationKey.startsWith(GROUP_PREFIX) ? conversationKey.substring(GROUP_PREFIX.length()) : null;
+    }
+    
+    /**
+     * Verifica se um usuário participa de uma conversa privada.
+     *
+     * @param conversationKey Chave da conversa privada
+     * @param userId ID do usuário
+     * @return true se o usuário é um dos participantes
+     */
+    private boolean isPrivateParticipant(String conversationKey, String userId) {
+        return conversationKey.startsWith(PRIVATE_PREFIX + userId + "_") || conversationKey.endsWith("_" + userId);
+    }
+    
+    /**
+     * Obtém a classe das mensagens de uma conversa a partir da sua chave.
+     *
+     * @param conversationKey Chave da conversa
+     * @return PrivateMessage ou GroupMessage
+     */
+    private Class<? extends Message> getMessageType(String conversationKey) {
+        return conversationKey.startsWith(GROUP_PREFIX) ? GroupMessage.class : PrivateMessage.class;
+    }
+    
+    /**
+     * Obtém o lock da faixa à qual uma conversa pertence.
+     *
+     * @param conversationKey Chave da conversa
+     * @return Lock da conversa
+     */
+    private Lock getConversationLock(String conversationKey) {
+        return conversationLocks[(conversationKey.hashCode() & 0x7fffffff) % conversationLocks.length];
+    }
+    
+    /**
+     * Obtém o log de uma conversa, abrindo-o se necessário.
+     * Deve ser chamado com o lock da conversa adquirido.
+     *
+     * @param conversationKey Chave da conversa
+     * @return Log da conversa
+     * @throws IOException Erro ao abrir o log
+     */
+    private ConversationLog getConversationLog(String conversationKey) throws IOException {
+        ConversationLog log = conversationLogs.get(conversationKey);
+        if (log == null) {
+            // O estado de leitura é derivado das marcas "lido até" da conversa
+            log = new ConversationLog(new File(getMessagesDirectory(), conversationKey),
+                    getMessageType(conversationKey), segmentSize, codec,
+                    (message, sequence) -> readWatermarkDAO.isReadByOthers(conversationKey,
+                            message.getSenderId(), sequence), writePolicy, tiering);
+            conversationLogs.put(conversationKey, log);
+        }
+        log.markAccessed();
+        return log;
+    }
+    
+    /**
+     * Registra o uso de um log para escrita, fechando os arquivos das conversas
+     * menos recentes quando o limite de arquivos abertos é excedido.
+     *
+     * @param conversationKey Chave da conversa
+     * @param log Log da conversa
+     */
+    private void touchOpenLog(String conversationKey, ConversationLog log) {
+        ConversationLog eldestLog = null;
+        synchronized (openLogs) {
+            openLogs.put(conversationKey, log);
+            if (openLogs.size() > maxOpenLogs) {
+                Iterator<Map.Entry<String, ConversationLog>> eldest = openLogs.entrySet().iterator();
+                eldestLog = eldest.next().getValue();
+                eldest.remove();
+            }
+        }
+        // O log continua utilizável: os arquivos são reabertos na próxima gravação
+        if (eldestLog != null) {
+            eldestLog.closeFiles();
+        }
+    }
+    
+    /**
+     * Converte os arquivos de conversa no formato antigo (uma lista JSON por
+     * conversa) para o log segmentado. O arquivo antigo é mantido com a extensão
+     * {@code .json.migrated} após a conversão.
+     *
+     * @return Número de conversas convertidas
+     */
+    private int migrateLegacyConversations() {
+        File[] legacyFiles = getMessagesDirectory().listFiles((dir, name) -> name.endsWith(LEGACY_EXTENSION));
+        if (legacyFiles == null || legacyFiles.length == 0) {
+            return 0;
+        }
+        
+        int migrated = 0;
+        for (File legacyFile : legacyFiles) {
+            String name = legacyFile.getName();
+            String conversationKey = name.substring(0, name.length() - LEGACY_EXTENSION.length());
+            try {
+                List<Message> messages = new ArrayList<>();
+                if (legacyFile.length() > 0) {
+                    messages.addAll(codec.readDocument(legacyFile, codec.getMapper().getTypeFactory()
+                            .constructCollectionType(List.class, getMessageType(conversationKey))));
+                }
+                messages.sort(Comparator.comparingLong(Message::getTimestamp));
+                
+                // Descartar uma conversão anterior interrompida
+                File directory = new File(getMessagesDirectory(), conversationKey);
+                deleteDirectory(directory);
+                
+                ConversationLog log = new ConversationLog(directory, getMessageType(conversationKey),
+                        segmentSize, codec, null);
+                for (Message message : messages) {
+                    log.append(message);
+                }
+                log.closeFiles();
+                
+                Files.move(legacyFile.toPath(), new File(getMessagesDirectory(),
+                        conversationKey + MIGRATED_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                migrated++;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Erro ao converter conversa para o log segmentado: " + legacyFile.getPath(), e);
+            }
+        }
+        
+        logger.info("Conversas convertidas para o log segmentado: " + migrated + " de " + legacyFiles.length);
+        return migrated;
+    }
+    
+    /**
+     * Cria as marcas de leitura das conversas privadas a partir do estado de
+     * leitura do formato anterior: mensagens gravadas com {@code read: true}
+     * (inclusive as convertidas por {@link #migrateLegacyConversations}) e
+     * confirmações de leitura individuais do log de alterações. A marca de
+     * cada participante fica na última mensagem que ele enviou ou que recebeu
+     * e leu. As mensagens de grupo do formato anterior não registravam qual
+     * membro as leu, então os grupos não recebem marcas.
+     */
+    private void seedReadWatermarks() {
+        File[] directories = getMessagesDirectory().listFiles(
+                file -> file.isDirectory() && file.getName().startsWith(PRIVATE_PREFIX));
+        if (directories == null || directories.length == 0) {
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        int seeded = 0;
+        PendingWrites pending = new PendingWrites();
+        for (File directory : directories) {
+            String conversationKey = directory.getName();
+            Map<String, ReadWatermark> latest = new HashMap<>();
+            try {
+                ConversationLog log = new ConversationLog(directory, PrivateMessage.class, segmentSize, codec, null);
+                log.scanFrom(0, (message, position) -> {
+                    PrivateMessage privateMessage = (PrivateMessage) message;
+                    latest.put(privateMessage.getSenderId(), new ReadWatermark(privateMessage.getSenderId(),
+                            conversationKey, position, message.getMessageId()));
+                    if (message.isRead()) {
+                        latest.put(privateMessage.getReceiverId(), new ReadWatermark(privateMessage.getReceiverId(),
+                                conversationKey, position, message.getMessageId()));
+                    }
+                });
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Erro ao ler o estado de leitura da conversa: " + conversationKey, e);
+                continue;
+            }
+            for (ReadWatermark watermark : latest.values()) {
+                if (readWatermarkDAO.advance(watermark.getUserId(), conversationKey, watermark.getPosition(),
+                        watermark.getMessageId(), pending)) {
+                    seeded++;
+                }
+            }
+        }
+        if (!pending.await()) {
+            logger.severe("Erro ao gravar as marcas de leitura do formato anterior");
+            return;
+        }
+        logger.info("Marcas de leitura criadas a partir do formato anterior: " + seeded + " em "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+    
+    /**
+     * Abre o índice de busca gravado e indexa as mensagens gravadas depois dele.
+     * Se o arquivo não existir ou estiver ilegível (ou conversas antigas tiverem
+     * acabado de ser convertidas), todas as conversas são indexadas.
+     *
+     * @param forceRebuild true para reconstruir o índice mesmo que ele exista
+     */
+    private void openSearchIndex(boolean forceRebuild) {
+        searchIndexFile = new File(basePath, ConfigManager.getProperty("storage.messages.search.file",
+                "search_index.bin"));
+        if (searchIndexFile.exists() && !forceRebuild) {
+            try {
+                searchIndex = MessageSearchIndex.load(searchIndexFile);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Índice de busca ilegível, reconstruindo: " + searchIndexFile.getPath(), e);
+            }
+        }
+        if (searchIndex == null) {
+            logger.info("Construindo índice de busca das mensagens");
+            searchIndex = new MessageSearchIndex();
+        }
+        
+        long start = System.currentTimeMillis();
+        int indexedBefore = searchIndex.getDocumentCount();
+        File[] directories = getMessagesDirectory().listFiles(File::isDirectory);
+        if (directories != null) {
+            for (File directory : directories) {
+                catchUpSearchIndex(directory);
+            }
+        }
+        logger.info("Índice de busca aberto: " + searchIndex.getDocumentCount() + " mensagens ("
+                + (searchIndex.getDocumentCount() - indexedBefore) + " indexadas agora), "
+                + searchIndex.getTermCount() + " termos em " + (System.currentTimeMillis() - start) + " ms");
+        saveSearchIndex();
+    }
+    
+    /**
+     * Indexa as mensagens de uma conversa gravadas depois da última gravação
+     * do índice de busca. O estado da conversa evita abrir o log das conversas
+     * já indexadas.
+     *
+     * @param directory Diretório da conversa
+     */
+    private void catchUpSearchIndex(File directory) {
+        String conversationKey = directory.getName();
+        long indexedSize = searchIndex.getIndexedSize(conversationKey);
+        ConversationState state = conversationStateDAO.findById(conversationKey);
+        if (state != null && state.getLastPosition() < indexedSize) {
+            return;
+        }
+        try {
+            ConversationLog log = new ConversationLog(directory, getMessageType(conversationKey), segmentSize, codec,
+                    null, writePolicy, tiering);
+            log.scanFrom(indexedSize, (message, position) -> searchIndex.add(conversationKey,
+                    message.getMessageId(), message.getTimestamp(), message.getContent(), position));
+            searchIndex.markIndexed(conversationKey, log.size());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao indexar mensagens da conversa para busca: " + conversationKey, e);
+        }
+    }
+    
+    /**
+     * Grava o índice de busca se ele tiver sido alterado, removendo antes as
+     * mensagens excluídas se elas ocuparem uma parte relevante dele.
+     */
+    private void saveSearchIndex() {
+        if (searchIndex == null || !searchIndex.isDirty()) {
+            return;
+        }
+        try {
+            searchIndex.compactIfNeeded();
+            searchIndex.save(searchIndexFile);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar índice de busca: " + searchIndexFile.getPath(), e);
+        }
+    }
+    
+    /**
+     * Abre o índice de mensagens. Se o índice não existir (ou conversas antigas
+     * tiverem acabado de ser convertidas), ele é reconstruído lendo as conversas
+     * em paralelo.
+     *
+     * @param forceRebuild true para reconstruir o índice mesmo que ele exista
+     * @throws IllegalStateException Erro ao abrir o índice
+     */
+    private void openMessageIdIndex(boolean forceRebuild) {
+        String indexFile = ConfigManager.getProperty("storage.messages.index.file", "message_index.json");
+        try {
+            messageIdIndex = new MessageIdIndex(new File(basePath, indexFile));
+        } catch (IOException e) {
+            throw new IllegalStateException("Erro ao abrir índice de mensagens: " + basePath + File.separator
+                    + indexFile, e);
+        }
+        
+        if (forceRebuild || messageIdIndex.isMissing()) {
+            rebuildMessageIdIndex();
+        }
+    }
+    
+    /**
+     * Reconstrói o índice de mensagens a partir dos logs de todas as conversas.
+     */
+    private void rebuildMessageIdIndex() {
+        File[] directories = getMessagesDirectory().listFiles(File::isDirectory);
+        if (directories == null) {
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        List<MessageIdIndex.Location> locations = Arrays.stream(directories)
+                .parallel()
+                .flatMap(directory -> listLocations(directory).stream())
+                .collect(Collectors.toList());
+        if (messageIdIndex.replaceAll(locations)) {
+            logger.info("Índice de mensagens reconstruído: " + locations.size() + " mensagens de "
+                    + directories.length + " conversas em " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+    
+    /**
+     * Lista as localizações das mensagens de uma conversa.
+     *
+     * @param directory Diretório da conversa
+     * @return Localizações das mensagens não excluídas
+     */
+    private List<MessageIdIndex.Location> listLocations(File directory) {
+        String conversationKey = directory.getName();
+        List<MessageIdIndex.Location> locations = new ArrayList<>();
+        try {
+            ConversationLog log = new ConversationLog(directory, getMessageType(conversationKey),
+                    segmentSize, codec, null);
+            for (Map.Entry<String, Long> entry : log.listMessageIds().entrySet()) {
+                locations.add(new MessageIdIndex.Location(entry.getKey(), conversationKey, entry.getValue()));
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao indexar mensagens da conversa: " + conversationKey, e);
+        }
+        return locations;
+    }
+    
+    /**
+     * Reconstrói o estado resumido de todas as conversas a partir dos logs.
+     */
+    private void rebuildConversationStates() {
+        File[] directories = getMessagesDirectory().listFiles(File::isDirectory);
+        if (directories == null) {
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        List<ConversationState> states = Arrays.stream(directories)
+                .parallel()
+                .map(this::buildConversationState)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (conversationStateDAO.replaceAll(states)) {
+            logger.info("Estado das conversas reconstruído: " + states.size() + " conversas em "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+    
+    /**
+     * Calcula o estado resumido de uma conversa a partir do seu log.
+     *
+     * @param directory Diretório da conversa
+     * @return Estado da conversa ou null se ela não puder ser lida
+     */
+    private ConversationState buildConversationState(File directory) {
+        String conversationKey = directory.getName();
+        try {
+            ConversationLog log = new ConversationLog(directory, getMessageType(conversationKey),
+                    segmentSize, codec, null);
+            List<Message> newest = log.readNewest(0, 1);
+            
+            ConversationState state = new ConversationState(conversationKey,
+                    newest.isEmpty() ? null : getParticipantIds(newest.get(0)));
+            state.setLastPosition(log.size() - 1);
+            setLastMessage(state, newest.isEmpty() ? null : newest.get(0));
+            return state;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao calcular estado da conversa: " + conversationKey, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Obtém os participantes de uma conversa privada a partir de uma mensagem.
+     *
+     * @param message Mensagem da conversa
+     * @return IDs do remetente e do destinatário ou null se não for uma mensagem privada
+     */
+    private List<String> getParticipantIds(Message message) {
+        if (!(message instanceof PrivateMessage)) {
+            return null;
+        }
+        return Arrays.asList(message.getSenderId(), ((PrivateMessage) message).getReceiverId());
+    }
+    
+    /**
+     * Obtém o início do conteúdo de uma mensagem, exibido nas listas de
+     * conversas e de mensagens não lidas.
+     *
+     * @param message Mensagem
+     * @return Conteúdo truncado
+     */
+    private String getPreview(Message message) {
+        String content = message.getContent() != null ? message.getContent() : "";
+        return content.length() > previewLength ? content.substring(0, previewLength) : content;
+    }
+    
+    /**
+     * Define a última mensagem de um estado de conversa.
+     *
+     * @param state Estado da conversa
+     * @param message Última mensagem não excluída ou null se não houver
+     */
+    private void setLastMessage(ConversationState state, Message message) {
+        if (message == null) {
+            state.setLastMessageId(null);
+            state.setLastSenderId(null);
+            state.setLastMessagePreview(null);
+            return;
+        }
+        state.setLastMessageId(message.getMessageId());
+        state.setLastSenderId(message.getSenderId());
+        state.setLastMessagePreview(getPreview(message));
+        state.setLastTimestamp(message.getTimestamp());
+    }
+    
+    /**
+     * Atualiza o estado de uma conversa após o envio de uma mensagem. Deve ser
+     * chamado com o lock da conversa adquirido.
+     *
+     * @param conversationKey Chave da conversa
+     * @param message Mensagem enviada
+     * @param position Posição da mensagem na conversa
+     * @param pending Gravações pendentes da operação
+     */
+    private void recordSentMessage(String conversationKey, Message message, long position, PendingWrites pending) {
+        ConversationState current = conversationStateDAO.findById(conversationKey);
+        ConversationState state = current != null
+                ? ConversationStateDAO.copyOf(current)
+                : new ConversationState(conversationKey, getParticipantIds(message));
+        if (state.getParticipantIds() == null) {
+            state.setParticipantIds(getParticipantIds(message));
+        }
+        state.setLastPosition(position);
+        setLastMessage(state, message);
+        conversationStateDAO.save(state, pending);
+    }
+    
+    /**
+     * Atualiza o estado de uma conversa após a exclusão de uma mensagem. Se a
+     * mensagem excluída era a última, a nova última mensagem é lida do log.
+     * Deve ser chamado com o lock da conversa adquirido.
+     *
+     * @param conversationKey Chave da conversa
+     * @param log Log da conversa
+     * @param messageId ID da mensagem excluída
+     * @param pending Gravações pendentes da operação
+     * @throws IOException Erro ao ler o log
+     */
+    private void recordDeletedMessage(String conversationKey, ConversationLog log, String messageId,
+            PendingWrites pending) throws IOException {
+        ConversationState current = conversationStateDAO.findById(conversationKey);
+        if (current == null || !messageId.equals(current.getLastMessageId())) {
+            return;
+        }
+        ConversationState state = ConversationStateDAO.copyOf(current);
+        List<Message> newest = log.readNewest(0, 1);
+        setLastMessage(state, newest.isEmpty() ? null : newest.get(0));
+        conversationStateDAO.save(state, pending);
+    }
+    
+    /**
+     * Reconstrói a caixa de mensagens não lidas de todos os usuários a partir
+     * dos logs das conversas privadas e das marcas de leitura.
+     */
+    private void rebuildUnreadInbox() {
+        File[] directories = getMessagesDirectory().listFiles(
+                file -> file.isDirectory() && file.getName().startsWith(PRIVATE_PREFIX));
+        if (directories == null) {
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        List<UnreadMessage> unread = Arrays.stream(directories)
+                .parallel()
+                .flatMap(directory -> listUnreadMessages(directory).stream())
+                .collect(Collectors.toList());
+        if (unreadInboxDAO.replaceAll(unread)) {
+            logger.info("Caixa de mensagens não lidas reconstruída: " + unread.size() + " mensagens de "
+                    + directories.length + " conversas em " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+    
+    /**
+     * Lista as mensagens de uma conversa privada ainda não lidas por cada participante.
+     *
+     * @param directory Diretório da conversa
+     * @return Entradas da caixa de mensagens não lidas
+     */
+    private List<UnreadMessage> listUnreadMessages(File directory) {
+        String conversationKey = directory.getName();
+        List<UnreadMessage> unread = new ArrayList<>();
+        
+        ConversationState state = conversationStateDAO.findById(conversationKey);
+        Collection<String> recipients = state != null ? state.getParticipantIds() : null;
+        if (recipients == null || recipients.isEmpty()) {
+            return unread;
+        }
+        
+        // Ler apenas as mensagens após a marca de leitura mais antiga dos destinatários
+        Map<String, Long> readPositions = new HashMap<>();
+        long oldestReadPosition = Long.MAX_VALUE;
+        for (String recipient : recipients) {
+            long readPosition = readWatermarkDAO.getPosition(recipient, conversationKey);
+            readPositions.put(recipient, readPosition);
+            oldestReadPosition = Math.min(oldestReadPosition, readPosition);
+        }
+        
+        try {
+            ConversationLog log = new ConversationLog(directory, getMessageType(conversationKey),
+                    segmentSize, codec, null);
+            Map<String, Long> positions = log.listMessageIds();
+            long after = oldestReadPosition;
+            int count = (int) positions.values().stream().filter(position -> position > after).count();
+            for (Message message : log.readNewest(0, count)) {
+                long position = positions.get(message.getMessageId());
+                for (String recipient : recipients) {
+                    if (position > readPositions.get(recipient) && !recipient.equals(message.getSenderId())) {
+                        unread.add(new UnreadMessage(recipient, message.getMessageId(), conversationKey, position,
+                                message.getSenderId(), getPreview(message), message.getTimestamp()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao listar mensagens não lidas da conversa: " + conversationKey, e);
+        }
+        return unread;
+    }
+    
+    /**
+     * Remove um diretório e todo o seu conteúdo, se existir.
+     *
+     * @param directory Diretório
+     * @throws IOException Erro ao remover os arquivos
+     */
+    private void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory.toPath());
+    }
+    
+    /**
+     * Acrescenta uma mensagem ao log de uma conversa.
+     *
+     * @param conversationKey Chave da conversa
+     * @param message Mensagem
+     * @param recipientIds IDs dos destinatários que recebem a mensagem na caixa de não lidas
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    private boolean appendMessage(String conversationKey, Message message, Collection<String> recipientIds) {
+        ConversationLog log;
+        PendingWrites pending = new PendingWrites();
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            log = getConversationLog(conversationKey);
+            long position = log.append(message);
+            touchOpenLog(conversationKey, log);
+            messageCache.append(conversationKey, message);
+            if (messageIdIndex != null) {
+                messageIdIndex.put(message.getMessageId(), conversationKey, position, pending);
+            }
+            if (searchIndex != null) {
+                searchIndex.add(conversationKey, message.getMessageId(), message.getTimestamp(),
+                        message.getContent(), position);
+            }
+            recordSentMessage(conversationKey, message, position, pending);
+            
+            // Uma única gravação para as entradas de todos os destinatários
+            UnitOfWork<UnreadMessage, String> unread = new UnitOfWork<>();
+            for (String recipientId : recipientIds) {
+                if (!recipientId.equals(message.getSenderId())) {
+                    unread.save(new UnreadMessage(recipientId, message.getMessageId(), conversationKey,
+                            position, message.getSenderId(), getPreview(message), message.getTimestamp()));
+                }
+            }
+            unreadInboxDAO.commit(unread, pending);
+            
+            // Quem envia uma mensagem leu a conversa até ela
+            advanceReadWatermark(message.getSenderId(), conversationKey, position, message.getMessageId(), pending);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao salvar mensagem na conversa: " + conversationKey, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        
+        // Esperar as gravações (log e estruturas derivadas) fora do lock, para
+        // que envios concorrentes entrem nos mesmos lotes
+        try {
+            log.awaitDurable();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar mensagem na conversa: " + conversationKey, e);
+            return false;
+        }
+        if (!pending.await()) {
+            logger.severe("Erro ao gravar os dados derivados da mensagem na conversa: " + conversationKey);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Lê as mensagens mais recentes de uma conversa. Páginas dentro da janela
+     * recente são atendidas pelo cache; páginas mais antigas são lidas do log
+     * sem serem mantidas em memória.
+     *
+     * @param conversationKey Chave da conversa
+     * @param limit Número máximo de mensagens
+     * @param offset Deslocamento para paginação
+     * @return Mensagens (mais recentes primeiro)
+     */
+    private List<Message> readMessages(String conversationKey, int limit, int offset) {
+        List<Message> cached = messageCache.get(conversationKey, offset, limit);
+        if (cached != null) {
+            return cached;
+        }
+        
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            ConversationLog log = getConversationLog(conversationKey);
+            int windowSize = messageCache.getWindowSize();
+            if (offset + limit > windowSize) {
+                return log.readNewest(offset, limit);
+            }
+            
+            // Carregar a janela recente da conversa no cache
+            List<Message> window = log.readNewest(0, windowSize);
+            messageCache.put(conversationKey, window, window.size() < windowSize);
+            int from = Math.min(offset, window.size());
+            int to = Math.min(offset + limit, window.size());
+            return new ArrayList<>(window.subList(from, to));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao carregar mensagens da conversa: " + conversationKey, e);
+            return new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Salva uma mensagem privada.
+     *
+     * @param message Mensagem privada
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    public boolean savePrivateMessage(PrivateMessage message) {
+        return appendMessage(getPrivateConversationKey(message.getSenderId(), message.getReceiverId()), message,
+                Collections.singletonList(message.getReceiverId()));
+    }
+    
+    /**
+     * Salva uma mensagem de grupo. Mensagens de grupo não geram entradas na
+     * caixa de não lidas: cada membro as conta a partir da sua marca de
+     * leitura, de modo que o envio não depende do número de membros.
+     *
+     * @param message Mensagem de grupo
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    public boolean saveGroupMessage(GroupMessage message) {
+        return appendMessage(getGroupConversationKey(message.getGroupId()), message, Collections.emptyList());
+    }
+    
+    /**
+     * Busca mensagens privadas entre dois usuários.
+     *
+     * @param userId1 ID do primeiro usuário
+     * @param userId2 ID do segundo usuário
+     * @param limit Número máximo de mensagens
+     * @param offset Deslocamento para paginação
+     * @return Lista de mensagens privadas (mais recentes primeiro)
+     */
+    public List<PrivateMessage> getPrivateMessages(String userId1, String userId2, int limit, int offset) {
+        List<PrivateMessage> privateMessages = new ArrayList<>();
+        for (Message message : readMessages(getPrivateConversationKey(userId1, userId2), limit, offset)) {
+            privateMessages.add((PrivateMessage) message);
+        }
+        return privateMessages;
+    }
+    
+    /**
+     * Busca mensagens de um grupo.
+     *
+     * @param groupId ID do grupo
+     * @param limit Número máximo de mensagens
+     * @param offset Deslocamento para paginação
+     * @return Lista de mensagens de grupo (mais recentes primeiro)
+     */
+    public List<GroupMessage> getGroupMessages(String groupId, int limit, int offset) {
+        List<GroupMessage> groupMessages = new ArrayList<>();
+        for (Message message : readMessages(getGroupConversationKey(groupId), limit, offset)) {
+            groupMessages.add((GroupMessage) message);
+        }
+        return groupMessages;
+    }
+    
+    /**
+     * Lê uma página de mensagens anteriores a um cursor (keyset). O cursor é o ID
+     * da última mensagem da página anterior ou, se ele não for informado ou a
+     * mensagem tiver sido excluída, um timestamp; sem cursor, retorna as mais recentes.
+     * O timestamp comparado é o gravado na conversa (ver
+     * {@link ConversationLog#append(Message)}), nunca o instante contido no ID.
+     * Uma mensagem excluída continua servindo de cursor pela sua posição no log.
+     * O custo é proporcional ao tamanho da página, não ao da conversa.
+     *
+     * @param conversationKey Chave da conversa
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Mensagens (mais recentes primeiro)
+     */
+    private List<Message> readMessagesBefore(String conversationKey, String beforeMessageId,
+                                             long beforeTimestamp, int limit) {
+        if (beforeMessageId == null && beforeTimestamp <= 0) {
+            // Primeira página: mesmas mensagens da leitura sem deslocamento
+            return readMessages(conversationKey, limit, 0);
+        }
+        
+        List<Message> cached = messageCache.getBefore(conversationKey, beforeMessageId, beforeTimestamp, limit);
+        if (cached != null) {
+            return cached;
+        }
+        
+        // Resolver o cursor pelo índice de mensagens, quando possível
+        MessageIdIndex.Location cursor = null;
+        if (beforeMessageId != null && messageIdIndex != null) {
+            cursor = messageIdIndex.get(beforeMessageId);
+            if (cursor != null && !cursor.getConversationKey().equals(conversationKey)) {
+                return new ArrayList<>();
+            }
+        }
+        
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            ConversationLog log = getConversationLog(conversationKey);
+            long beforeSequence;
+            if (cursor != null) {
+                beforeSequence = cursor.getPosition();
+            } else if (beforeTimestamp > 0) {
+                beforeSequence = log.findSequenceAtOrAfter(beforeTimestamp);
+            } else if (beforeMessageId != null) {
+                // Mensagem excluída (fora do índice): localizar a posição no log.
+                // Se ela não existir mais, a retenção já removeu também as anteriores
+                beforeSequence = log.findSequence(beforeMessageId);
+                if (beforeSequence < 0) {
+                    return new ArrayList<>();
+                }
+            } else {
+                beforeSequence = log.size();
+            }
+            return log.readBefore(beforeSequence, limit);
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Erro ao criar diretório para mensagens", e);
+            logger.log(Level.SEVERE, "Erro ao carregar mensagens da conversa: " + conversationKey, e);
+            return new ArrayList<>();
+        } finally {
+            lock.unlock();
         }
     }
     
     /**
-     * Obtém o caminho do arquivo para uma conversa privada.
+     * Busca uma página de mensagens privadas anteriores a um cursor.
      *
      * @param userId1 ID do primeiro usuário
      * @param userId2 ID do segundo usuário
-     * @return Caminho do arquivo
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Lista de mensagens privadas (mais recentes primeiro)
      */
-    private String getPrivateConversationFilePath(String userId1, String userId2) {
-        // Ordenar IDs para garantir consistência
-        String[] ids = {userId1, userId2};
-        Arrays.sort(ids);
-        
-        return basePath + File.separator + messagesDir + File.separator + "private_" + ids[0] + "_" + ids[1] + ".json";
+    public List<PrivateMessage> getPrivateMessagesBefore(String userId1, String userId2, String beforeMessageId,
+                                                         long beforeTimestamp, int limit) {
+        List<PrivateMessage> privateMessages = new ArrayList<>();
+        for (Message message : readMessagesBefore(getPrivateConversationKey(userId1, userId2),
+                beforeMessageId, beforeTimestamp, limit)) {
+            privateMessages.add((PrivateMessage) message);
+        }
+        return privateMessages;
     }
     
     /**
-     * Obtém o caminho do arquivo para mensagens de um grupo.
+     * Busca uma página de mensagens de um grupo anteriores a um cursor.
      *
      * @param groupId ID do grupo
-     * @return Caminho do arquivo
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Lista de mensagens de grupo (mais recentes primeiro)
      */
-    private String getGroupConversationFilePath(String groupId) {
-        return basePath + File.separator + messagesDir + File.separator + "group_" + groupId + ".json";
+    public List<GroupMessage> getGroupMessagesBefore(String groupId, String beforeMessageId,
+                                                     long beforeTimestamp, int limit) {
+        List<GroupMessage> groupMessages = new ArrayList<>();
+        for (Message message : readMessagesBefore(getGroupConversationKey(groupId),
+                beforeMessageId, beforeTimestamp, limit)) {
+            groupMessages.add((GroupMessage) message);
+        }
+        return groupMessages;
     }
     
     /**
-     * Obtém a chave de cache para uma conversa privada.
+     * Busca uma mensagem pelo ID.
      *
-     * @param userId1 ID do primeiro usuário
-     * @param userId2 ID do segundo usuário
-     * @return Chave de cache
+     * @param messageId ID da mensagem
+     * @return A mensagem encontrada ou null se não existir
      */
-    private String getPrivateConversationCacheKey(String userId1, String userId2) {
-        String[] ids = {userId1, userId2};
-        Arrays.sort(ids);
-        return "private_" + ids[0] + "_" + ids[1];
+    public Message findById(String messageId) {
+        if (messageId == null || messageIdIndex == null) {
+            return null;
+        }
+        
+        MessageIdIndex.Location location = messageIdIndex.get(messageId);
+        if (location == null) {
+            return null;
+        }
+        
+        Lock lock = getConversationLock(location.getConversationKey());
+        lock.lock();
+        try {
+            return getConversationLog(location.getConversationKey()).get(location.getPosition());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao buscar mensagem: " + messageId, e);
+            return null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
-     * Obtém a chave de cache para mensagens de um grupo.
+     * Obtém a chave da conversa à qual uma mensagem pertence.
      *
-     * @param groupId ID do grupo
-     * @return Chave de cache
+     * @param message Mensagem
+     * @return Chave da conversa ou null se o tipo da mensagem for desconhecido
      */
-    private String getGroupConversationCacheKey(String groupId) {
-        return "group_" + groupId;
+    private String getConversationKey(Message message) {
+        if (message instanceof PrivateMessage) {
+            PrivateMessage privateMessage = (PrivateMessage) message;
+            return getPrivateConversationKey(privateMessage.getSenderId(), privateMessage.getReceiverId());
+        } else if (message instanceof GroupMessage) {
+            return getGroupConversationKey(((GroupMessage) message).getGroupId());
+        }
+        return null;
     }
     
     /**
-     * Carrega mensagens de um arquivo.
+     * Marca uma conversa como lida por um usuário até uma mensagem (inclusive).
+     * A marca nunca retrocede; todas as mensagens anteriores também passam a
+     * ser consideradas lidas pelo usuário.
      *
-     * @param filePath Caminho do arquivo
-     * @return Lista de mensagens
+     * @param userId ID do usuário que leu a conversa
+     * @param conversationKey Chave da conversa
+     * @param upToMessageId ID da última mensagem lida
+     * @return true se a conversa está marcada como lida até a mensagem, false caso contrário
      */
-    private List<Message> loadMessages(String filePath) {
-        File file = new File(filePath);
+    public boolean markConversationRead(String userId, String conversationKey, String upToMessageId) {
+        if (userId == null || conversationKey == null || upToMessageId == null || messageIdIndex == null) {
+            return false;
+        }
         
-        if (!file.exists()) {
-            try {
-                file.createNewFile();
-                objectMapper.writeValue(file, new ArrayList<>());
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Erro ao criar arquivo de mensagens", e);
-                return new ArrayList<>();
-            }
+        MessageIdIndex.Location location = messageIdIndex.get(upToMessageId);
+        if (location == null || !location.getConversationKey().equals(conversationKey)) {
+            return false;
         }
         
-        try {
-            if (file.length() == 0) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(file, new TypeReference<List<Message>>() {});
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Erro ao carregar mensagens do arquivo: " + filePath, e);
-            return new ArrayList<>();
+        // Em conversas privadas, apenas os participantes podem marcar a leitura
+        if (conversationKey.startsWith(PRIVATE_PREFIX) && !isPrivateParticipant(conversationKey, userId)) {
+            return false;
         }
+        
+        PendingWrites pending = new PendingWrites();
+        advanceReadWatermark(userId, conversationKey, location.getPosition(), upToMessageId, pending);
+        return pending.await();
     }
     
     /**
-     * Salva mensagens em um arquivo.
+     * Avança a marca de leitura de um usuário e atualiza a janela em cache.
      *
-     * @param filePath Caminho do arquivo
-     * @param messages Lista de mensagens
-     * @return true se salvo com sucesso, false caso contrário
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @param position Posição da última mensagem lida
+     * @param messageId ID da última mensagem lida
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador sem o lock
+     * @return true se a marca avançou, false se já estava nessa posição ou além
      */
-    private boolean saveMessages(String filePath, List<Message> messages) {
+    private boolean advanceReadWatermark(String userId, String conversationKey, long position, String messageId,
+            PendingWrites pending) {
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
         try {
-            File file = new File(filePath);
-            objectMapper.writeValue(file, messages);
+            if (!readWatermarkDAO.advance(userId, conversationKey, position, messageId, pending)) {
+                return false;
+            }
+            messageCache.markReadUpTo(conversationKey, messageId, userId);
+            unreadInboxDAO.removeUpTo(userId, conversationKey, position, pending);
             return true;
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Erro ao salvar mensagens no arquivo: " + filePath, e);
-            return false;
+        } finally {
+            lock.unlock();
         }
     }
     
     /**
-     * Salva uma mensagem privada.
+     * Obtém até onde um usuário leu uma conversa.
      *
-     * @param message Mensagem privada
-     * @return true se salvo com sucesso, false caso contrário
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return Posição da última mensagem lida ou -1 se o usuário não leu nenhuma
      */
-    public boolean savePrivateMessage(PrivateMessage message) {
-        String senderId = message.getSenderId();
-        String receiverId = message.getReceiverId();
-        String filePath = getPrivateConversationFilePath(senderId, receiverId);
-        String cacheKey = getPrivateConversationCacheKey(senderId, receiverId);
-        
-        // Carregar mensagens existentes
-        List<Message> messages;
-        synchronized (this) {
-            messages = messageCache.get(cacheKey);
-            if (messages == null) {
-                messages = loadMessages(filePath);
-            }
-            
-            // Adicionar nova mensagem
-            messages.add(message);
-            
-            // Atualizar cache
-            messageCache.put(cacheKey, messages);
-            
-            // Salvar no arquivo
-            return saveMessages(filePath, messages);
-        }
+    public long getReadPosition(String userId, String conversationKey) {
+        return readWatermarkDAO.getPosition(userId, conversationKey);
     }
     
     /**
-     * Salva uma mensagem de grupo.
+     * Obtém a lista de conversas de um usuário, da mais recente para a mais
+     * antiga: as conversas privadas com mensagens e os grupos informados. É
+     * montada a partir do estado mantido a cada envio, leitura e exclusão, sem
+     * ler os arquivos de mensagens.
      *
-     * @param message Mensagem de grupo
-     * @return true se salvo com sucesso, false caso contrário
+     * @param userId ID do usuário
+     * @param groupIds IDs dos grupos dos quais o usuário é membro
+     * @param limit Número máximo de conversas (0 ou negativo para todas)
+     * @param offset Deslocamento para paginação
+     * @return Resumos das conversas
      */
-    public boolean saveGroupMessage(GroupMessage message) {
-        String groupId = message.getGroupId();
-        String filePath = getGroupConversationFilePath(groupId);
-        String cacheKey = getGroupConversationCacheKey(groupId);
+    public List<ConversationSummary> getConversationSummaries(String userId, Collection<String> groupIds,
+                                                              int limit, int offset) {
+        // As "offset + limit" primeiras conversas estão entre as privadas mais recentes e os grupos
+        int needed = limit > 0 ? offset + limit : 0;
+        List<ConversationSummary> summaries = new ArrayList<>();
+        for (ConversationState state : conversationStateDAO.findRecentPrivateConversations(userId, needed)) {
+            String targetId = state.getParticipantIds().get(0).equals(userId)
+                    ? state.getParticipantIds().get(1) : state.getParticipantIds().get(0);
+            summaries.add(toSummary(userId, state, false, targetId));
+        }
+        for (String groupId : groupIds) {
+            String conversationKey = getGroupConversationKey(groupId);
+            ConversationState state = conversationStateDAO.findById(conversationKey);
+            summaries.add(toSummary(userId, state != null ? state : new ConversationState(conversationKey, null),
+                    true, groupId));
+        }
         
-        // Carregar mensagens existentes
-        List<Message> messages;
-        synchronized (this) {
-            messages = messageCache.get(cacheKey);
-            if (messages == null) {
-                messages = loadMessages(filePath);
-            }
-            
-            // Adicionar nova mensagem
-            messages.add(message);
-            
-            // Atualizar cache
-            messageCache.put(cacheKey, messages);
-            
-            // Salvar no arquivo
-            return saveMessages(filePath, messages);
+        summaries.sort(Comparator.comparingLong(ConversationSummary::getLastTimestamp).reversed()
+                .thenComparing(ConversationSummary::getConversationKey));
+        int from = Math.min(Math.max(offset, 0), summaries.size());
+        int to = needed > 0 ? Math.min(needed, summaries.size()) : summaries.size();
+        return new ArrayList<>(summaries.subList(from, to));
+    }
+    
+    /**
+     * Converte o estado de uma conversa no resumo visto por um usuário.
+     */
+    private ConversationSummary toSummary(String userId, ConversationState state, boolean group, String targetId) {
+        ConversationSummary summary = new ConversationSummary(state.getConversationKey(), group, targetId);
+        summary.setLastMessageId(state.getLastMessageId());
+        summary.setLastSenderId(state.getLastSenderId());
+        summary.setLastMessagePreview(state.getLastMessagePreview());
+        summary.setLastTimestamp(state.getLastTimestamp());
+        summary.setUnreadCount(getUnreadCount(userId, state.getConversationKey()));
+        return summary;
+    }
+    
+    /**
+     * Obtém o número de mensagens de um grupo não lidas por um membro: as
+     * posições após a marca de leitura dele até a última mensagem do grupo.
+     * Mensagens excluídas depois da marca continuam contadas até o membro ler
+     * o grupo.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa do grupo
+     * @return Número de mensagens não lidas
+     */
+    private int countGroupUnread(String userId, String conversationKey) {
+        ConversationState state = conversationStateDAO.findById(conversationKey);
+        if (state == null) {
+            return 0;
         }
+        long unread = state.getLastPosition() - readWatermarkDAO.getPosition(userId, conversationKey);
+        return (int) Math.max(0, unread);
     }
     
     /**
-     * Busca mensagens privadas entre dois usuários.
+     * Obtém o número de mensagens não lidas de um usuário em todas as conversas.
      *
-     * @param userId1 ID do primeiro usuário
-     * @param userId2 ID do segundo usuário
-     * @param limit Número máximo de mensagens
-     * @param offset Deslocamento para paginação
-     * @return Lista de mensagens privadas
+     * @param userId ID do usuário
+     * @param groupIds IDs dos grupos dos quais o usuário é membro
+     * @return Número de mensagens não lidas
      */
-    public List<PrivateMessage> getPrivateMessages(String userId1, String userId2, int limit, int offset) {
-        String filePath = getPrivateConversationFilePath(userId1, userId2);
-        String cacheKey = getPrivateConversationCacheKey(userId1, userId2);
-        
-        // Carregar mensagens
-        List<Message> messages;
-        synchronized (this) {
-            messages = messageCache.get(cacheKey);
-            if (messages == null) {
-                messages = loadMessages(filePath);
-                
-                // Atualizar cache se não exceder o limite
-                if (messageCache.size() < maxCacheSize) {
-                    messageCache.put(cacheKey, messages);
-                }
-            }
+    public int getUnreadCount(String userId, Collection<String> groupIds) {
+        int count = unreadInboxDAO.countUnread(userId);
+        for (String groupId : groupIds) {
+            count += countGroupUnread(userId, getGroupConversationKey(groupId));
         }
-        
-        // Filtrar e converter para PrivateMessage
-        List<PrivateMessage> privateMessages = new ArrayList<>();
-        for (Message message : messages) {
-            if (message instanceof PrivateMessage) {
-                privateMessages.add((PrivateMessage) message);
-            }
+        return count;
+    }
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em uma conversa.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return Número de mensagens não lidas
+     */
+    public int getUnreadCount(String userId, String conversationKey) {
+        if (conversationKey.startsWith(GROUP_PREFIX)) {
+            return countGroupUnread(userId, conversationKey);
         }
-        
-        // Ordenar por timestamp (mais recentes primeiro)
-        privateMessages.sort(Comparator.comparing(Message::getTimestamp).reversed());
-        
-        // Aplicar paginação
-        int end = Math.min(offset + limit, privateMessages.size());
-        if (offset < privateMessages.size()) {
-            return privateMessages.subList(offset, end);
+        return unreadInboxDAO.countUnread(userId, conversationKey);
+    }
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em cada conversa.
+     *
+     * @param userId ID do usuário
+     * @param groupIds IDs dos grupos dos quais o usuário é membro
+     * @return Mapa de chave da conversa para o número de mensagens não lidas
+     */
+    public Map<String, Integer> getUnreadCountsByConversation(String userId, Collection<String> groupIds) {
+        Map<String, Integer> counts = unreadInboxDAO.countUnreadByConversation(userId);
+        for (String groupId : groupIds) {
+            String conversationKey = getGroupConversationKey(groupId);
+            int count = countGroupUnread(userId, conversationKey);
+            if (count > 0) {
+                counts.put(conversationKey, count);
+            }
         }
-        
-        return new ArrayList<>();
+        return counts;
     }
     
     /**
-     * Busca mensagens de um grupo.
+     * Lista as mensagens não lidas de um usuário, da mais recente para a mais
+     * antiga. As mensagens privadas vêm da caixa de não lidas; as de grupos
+     * são lidas dos logs a partir da marca de leitura do usuário.
      *
-     * @param groupId ID do grupo
-     * @param limit Número máximo de mensagens
+     * @param userId ID do usuário
+     * @param groupIds IDs dos grupos dos quais o usuário é membro
+     * @param limit Número máximo de mensagens (0 ou negativo para todas)
      * @param offset Deslocamento para paginação
-     * @return Lista de mensagens de grupo
+     * @return Mensagens não lidas
      */
-    public List<GroupMessage> getGroupMessages(String groupId, int limit, int offset) {
-        String filePath = getGroupConversationFilePath(groupId);
-        String cacheKey = getGroupConversationCacheKey(groupId);
-        
-        // Carregar mensagens
-        List<Message> messages;
-        synchronized (this) {
-            messages = messageCache.get(cacheKey);
-            if (messages == null) {
-                messages = loadMessages(filePath);
-                
-                // Atualizar cache se não exceder o limite
-                if (messageCache.size() < maxCacheSize) {
-                    messageCache.put(cacheKey, messages);
-                }
-            }
+    public List<UnreadMessage> getUnreadMessages(String userId, Collection<String> groupIds, int limit, int offset) {
+        int needed = limit > 0 ? Math.max(offset, 0) + limit : 0;
+        List<UnreadMessage> unread = unreadInboxDAO.findByUser(userId, needed, 0);
+        for (String groupId : groupIds) {
+            unread.addAll(listGroupUnread(userId, getGroupConversationKey(groupId), needed));
         }
         
-        // Filtrar e converter para GroupMessage
-        List<GroupMessage> groupMessages = new ArrayList<>();
-        for (Message message : messages) {
-            if (message instanceof GroupMessage) {
-                groupMessages.add((GroupMessage) message);
-            }
+        unread.sort(UnreadInboxDAO.RECENCY_ORDER);
+        int from = Math.min(Math.max(offset, 0), unread.size());
+        int to = needed > 0 ? Math.min(needed, unread.size()) : unread.size();
+        return new ArrayList<>(unread.subList(from, to));
+    }
+    
+    /**
+     * Lê as mensagens de um grupo posteriores à marca de leitura de um membro.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa do grupo
+     * @param max Número máximo de mensagens, mantendo as mais recentes (0 para todas)
+     * @return Mensagens não lidas, da mais antiga para a mais recente
+     */
+    private List<UnreadMessage> listGroupUnread(String userId, String conversationKey, int max) {
+        Deque<UnreadMessage> unread = new ArrayDeque<>();
+        if (countGroupUnread(userId, conversationKey) == 0) {
+            return new ArrayList<>(unread);
         }
-        
-        // Ordenar por timestamp (mais recentes primeiro)
-        groupMessages.sort(Comparator.comparing(Message::getTimestamp).reversed());
-        
-        // Aplicar paginação
-        int end = Math.min(offset + limit, groupMessages.size());
-        if (offset < groupMessages.size()) {
-            return groupMessages.subList(offset, end);
+        long readPosition = readWatermarkDAO.getPosition(userId, conversationKey);
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            getConversationLog(conversationKey).scanFrom(readPosition + 1, (message, position) -> {
+                if (message.getSenderId().equals(userId)) {
+                    return;
+                }
+                unread.addLast(new UnreadMessage(userId, message.getMessageId(), conversationKey, position,
+                        message.getSenderId(), getPreview(message), message.getTimestamp()));
+                if (max > 0 && unread.size() > max) {
+                    unread.removeFirst();
+                }
+            });
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao listar mensagens não lidas do grupo: " + conversationKey, e);
+        } finally {
+            lock.unlock();
         }
-        
-        return new ArrayList<>();
+        return new ArrayList<>(unread);
     }
     
     /**
-     * Busca uma mensagem pelo ID.
+     * Descarta o estado de leitura de um usuário que deixou um grupo (marca
+     * de leitura e entradas da caixa de não lidas). Se ele voltar ao grupo, o
+     * histórico é marcado como lido de novo por {@link #markGroupHistoryRead}.
      *
-     * @param messageId ID da mensagem
-     * @return A mensagem encontrada ou null se não existir
+     * @param userId ID do usuário
+     * @param groupId ID do grupo
+     * @return true se removido com sucesso, false caso contrário
      */
-    public Message findById(String messageId) {
-        // Buscar em todas as conversas em cache
-        for (List<Message> messages : messageCache.values()) {
-            for (Message message : messages) {
-                if (message.getMessageId().equals(messageId)) {
-                    return message;
-                }
-            }
+    public boolean removeGroupMember(String userId, String groupId) {
+        String conversationKey = getGroupConversationKey(groupId);
+        PendingWrites pending = new PendingWrites();
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            readWatermarkDAO.removeConversation(userId, conversationKey, pending);
+            unreadInboxDAO.removeConversation(userId, conversationKey, pending);
+        } finally {
+            lock.unlock();
         }
-        
-        // Se não encontrado no cache, buscar em todos os arquivos
-        // (implementação simplificada, em produção seria necessário um índice)
-        File messagesDirectory = new File(basePath + File.separator + messagesDir);
-        File[] files = messagesDirectory.listFiles((dir, name) -> name.endsWith(".json"));
-        
-        if (files != null) {
-            for (File file : files) {
-                List<Message> messages = loadMessages(file.getAbsolutePath());
-                for (Message message : messages) {
-                    if (message.getMessageId().equals(messageId)) {
-                        return message;
-                    }
-                }
-            }
+        return pending.await();
+    }
+    
+    /**
+     * Descarta o estado de leitura de todos os membros de um grupo excluído.
+     *
+     * @param groupId ID do grupo
+     * @return true se removido com sucesso, false caso contrário
+     */
+    public boolean removeGroup(String groupId) {
+        String conversationKey = getGroupConversationKey(groupId);
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            unreadInboxDAO.removeConversation(conversationKey);
+            return readWatermarkDAO.removeConversation(conversationKey);
+        } finally {
+            lock.unlock();
         }
-        
-        return null;
     }
     
     /**
-     * Marca uma mensagem como lida.
+     * Marca as mensagens já existentes em um grupo como lidas por um novo
+     * membro, para que o histórico anterior à entrada não seja contado como
+     * não lido.
+     *
+     * @param userId ID do novo membro
+     * @param groupId ID do grupo
+     * @return true se a marca foi gravada (ou o grupo não tem mensagens), false caso contrário
+     */
+    public boolean markGroupHistoryRead(String userId, String groupId) {
+        String conversationKey = getGroupConversationKey(groupId);
+        ConversationState state = conversationStateDAO.findById(conversationKey);
+        if (state == null || state.getLastPosition() < 0) {
+            return true;
+        }
+        PendingWrites pending = new PendingWrites();
+        advanceReadWatermark(userId, conversationKey, state.getLastPosition(), state.getLastMessageId(), pending);
+        return pending.await();
+    }
+    
+    /**
+     * Marca uma mensagem como lida, avançando a marca "lido até" do usuário na
+     * conversa até ela.
      *
      * @param messageId ID da mensagem
      * @param userId ID do usuário que leu a mensagem
@@ -359,59 +1425,24 @@ public class MessageDAO {
         
         // Verificar se é o destinatário
         boolean isRecipient = false;
-        String filePath = null;
-        String cacheKey = null;
-        
         if (message instanceof PrivateMessage) {
-            PrivateMessage privateMessage = (PrivateMessage) message;
-            if (privateMessage.getReceiverId().equals(userId)) {
-                isRecipient = true;
-                filePath = getPrivateConversationFilePath(privateMessage.getSenderId(), privateMessage.getReceiverId());
-                cacheKey = getPrivateConversationCacheKey(privateMessage.getSenderId(), privateMessage.getReceiverId());
-            }
+            isRecipient = ((PrivateMessage) message).getReceiverId().equals(userId);
         } else if (message instanceof GroupMessage) {
-            GroupMessage groupMessage = (GroupMessage) message;
-            if (!groupMessage.getSenderId().equals(userId)) {
-                isRecipient = true;
-                filePath = getGroupConversationFilePath(groupMessage.getGroupId());
-                cacheKey = getGroupConversationCacheKey(groupMessage.getGroupId());
-            }
+            isRecipient = !message.getSenderId().equals(userId);
         }
         
-        if (!isRecipient || filePath == null) {
+        String conversationKey = getConversationKey(message);
+        if (!isRecipient || conversationKey == null) {
             return false;
         }
         
-        // Atualizar mensagem
-        message.setRead(true);
-        
-        // Atualizar no cache e no arquivo
-        synchronized (this) {
-            List<Message> messages = messageCache.get(cacheKey);
-            if (messages != null) {
-                for (int i = 0; i < messages.size(); i++) {
-                    if (messages.get(i).getMessageId().equals(messageId)) {
-                        messages.set(i, message);
-                        break;
-                    }
-                }
-            } else {
-                messages = loadMessages(filePath);
-                for (int i = 0; i < messages.size(); i++) {
-                    if (messages.get(i).getMessageId().equals(messageId)) {
-                        messages.set(i, message);
-                        break;
-                    }
-                }
-                
-                // Atualizar cache se não exceder o limite
-                if (messageCache.size() < maxCacheSize) {
-                    messageCache.put(cacheKey, messages);
-                }
-            }
-            
-            return saveMessages(filePath, messages);
+        MessageIdIndex.Location location = messageIdIndex.get(messageId);
+        if (location == null) {
+            return false;
         }
+        PendingWrites pending = new PendingWrites();
+        advanceReadWatermark(userId, conversationKey, location.getPosition(), messageId, pending);
+        return pending.await();
     }
     
     /**
@@ -432,50 +1463,253 @@ public class MessageDAO {
             return false;
         }
         
-        String filePath = null;
-        String cacheKey = null;
-        
-        if (message instanceof PrivateMessage) {
-            PrivateMessage privateMessage = (PrivateMessage) message;
-            filePath = getPrivateConversationFilePath(privateMessage.getSenderId(), privateMessage.getReceiverId());
-            cacheKey = getPrivateConversationCacheKey(privateMessage.getSenderId(), privateMessage.getReceiverId());
-        } else if (message instanceof GroupMessage) {
-            GroupMessage groupMessage = (GroupMessage) message;
-            filePath = getGroupConversationFilePath(groupMessage.getGroupId());
-            cacheKey = getGroupConversationCacheKey(groupMessage.getGroupId());
+        String conversationKey = getConversationKey(message);
+        if (conversationKey == null) {
+            return false;
         }
         
-        if (filePath == null) {
+        // Registrar a exclusão no log da conversa
+        ConversationLog log;
+        PendingWrites pending = new PendingWrites();
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            log = getConversationLog(conversationKey);
+            log.delete(messageId);
+            touchOpenLog(conversationKey, log);
+            messageIdIndex.remove(messageId, pending);
+            if (searchIndex != null) {
+                searchIndex.remove(messageId);
+            }
+            messageCache.remove(conversationKey, messageId);
+            unreadInboxDAO.removeMessage(messageId, pending);
+            recordDeletedMessage(conversationKey, log, messageId, pending);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao excluir mensagem: " + messageId, e);
             return false;
+        } finally {
+            lock.unlock();
         }
         
-        // Remover do cache e do arquivo
-        synchronized (this) {
-            List<Message> messages = messageCache.get(cacheKey);
-            if (messages != null) {
-                messages.removeIf(m -> m.getMessageId().equals(messageId));
-            } else {
-                messages = loadMessages(filePath);
-                messages.removeIf(m -> m.getMessageId().equals(messageId));
-                
-                // Atualizar cache se não exceder o limite
-                if (messageCache.size() < maxCacheSize) {
-                    messageCache.put(cacheKey, messages);
+        // Esperar as gravações fora do lock, como no envio de mensagens
+        try {
+            log.awaitDurable();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar exclusão de mensagem: " + messageId, e);
+            return false;
+        }
+        if (!pending.await()) {
+            logger.severe("Erro ao gravar os dados derivados da exclusão da mensagem: " + messageId);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Busca mensagens pelo conteúdo nas conversas de um usuário: as conversas
+     * privadas das quais participa e os grupos informados. Todos os termos da
+     * consulta devem aparecer na mensagem, sem diferenciar maiúsculas e
+     * acentos; trechos entre aspas devem aparecer como frase. O índice de
+     * busca seleciona as mensagens e apenas as da página são lidas dos logs.
+     *
+     * @param userId ID do usuário
+     * @param groupIds IDs dos grupos dos quais o usuário é membro
+     * @param query Consulta
+     * @param limit Número máximo de mensagens
+     * @param offset Deslocamento para paginação
+     * @return Mensagens encontradas, das mais recentes para as mais antigas
+     */
+    public List<Message> searchMessages(String userId, Collection<String> groupIds, String query,
+                                        int limit, int offset) {
+        List<Message> messages = new ArrayList<>();
+        if (searchIndex == null) {
+            return messages;
+        }
+        Set<String> conversationKeys = new HashSet<>();
+        for (ConversationState state : conversationStateDAO.findRecentPrivateConversations(userId, 0)) {
+            conversationKeys.add(state.getConversationKey());
+        }
+        for (String groupId : groupIds) {
+            conversationKeys.add(getGroupConversationKey(groupId));
+        }
+        for (MessageSearchIndex.Hit hit : searchIndex.search(query, conversationKeys, limit, offset)) {
+            Message message = findById(hit.getMessageId());
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+    
+    /**
+     * Aplica a política de armazenamento frio e de retenção a todas as
+     * conversas: compacta os segmentos antigos e remove os que passaram da
+     * retenção, junto com as suas entradas no índice de mensagens e nas caixas
+     * de não lidas. Executado periodicamente em segundo plano
+     * ({@code storage.messages.tiering.interval}); cada conversa é processada
+     * com o seu lock, sem bloquear as demais.
+     */
+    public void applyTiering() {
+        File[] directories = getMessagesDirectory().listFiles(File::isDirectory);
+        if (directories == null || !tiering.isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long coldSegments = 0;
+        long coldBytes = 0;
+        for (File directory : directories) {
+            String conversationKey = directory.getName();
+            List<String> expiredIds;
+            Lock lock = getConversationLock(conversationKey);
+            lock.lock();
+            try {
+                // Conversas ainda não abertas são processadas sem entrar no mapa de logs
+                ConversationLog log = conversationLogs.get(conversationKey);
+                if (log == null) {
+                    log = new ConversationLog(directory, getMessageType(conversationKey), segmentSize, codec,
+                            null, writePolicy, tiering);
                 }
+                expiredIds = log.applyTiering(tiering, now);
+                if (!expiredIds.isEmpty()) {
+                    messageCache.invalidate(conversationKey);
+                }
+                coldSegments += log.getColdSegmentCount();
+                coldBytes += log.getColdSegmentBytes();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Erro ao aplicar armazenamento frio à conversa: " + conversationKey, e);
+                continue;
+            } finally {
+                lock.unlock();
             }
-            
-            return saveMessages(filePath, messages);
+            PendingWrites pending = new PendingWrites();
+            for (String messageId : expiredIds) {
+                if (messageIdIndex != null) {
+                    messageIdIndex.remove(messageId, pending);
+                }
+                if (searchIndex != null) {
+                    searchIndex.remove(messageId);
+                }
+                unreadInboxDAO.removeMessage(messageId, pending);
+            }
+            pending.await();
         }
+        tiering.recordColdTotals(coldSegments, coldBytes);
+        logger.info("Armazenamento frio das conversas aplicado: " + tiering);
+    }
+    
+    /**
+     * Obtém as estatísticas do armazenamento frio e da retenção das conversas.
+     *
+     * @return Política e estatísticas
+     */
+    public SegmentTiering getTiering() {
+        return tiering;
     }
     
     /**
-     * Limpa o cache de mensagens.
+     * Limpa o cache de mensagens, fechando os logs abertos.
      */
     public void clearCache() {
-        messageCache.clear();
+        logger.info("Estatísticas do cache de mensagens: " + messageCache);
+        // Adquirir todas as faixas em ordem, para que nenhuma conversa esteja em uso
+        for (Lock lock : conversationLocks) {
+            lock.lock();
+        }
+        try {
+            for (ConversationLog log : conversationLogs.values()) {
+                log.closeFiles();
+            }
+            conversationLogs.clear();
+            synchronized (openLogs) {
+                openLogs.clear();
+            }
+            messageCache.clear();
+        } finally {
+            for (Lock lock : conversationLocks) {
+                lock.unlock();
+            }
+        }
         logger.info("Cache de mensagens limpo");
     }
     
+    /**
+     * Fecha os arquivos das conversas e o índice de mensagens.
+     */
+    public void close() {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        saveSearchIndex();
+        clearCache();
+        if (messageIdIndex != null) {
+            messageIdIndex.close();
+        }
+        readWatermarkDAO.close();
+        conversationStateDAO.close();
+        unreadInboxDAO.close();
+    }
+    
+    /**
+     * Remove uma conversa do cache, fechando seus arquivos.
+     *
+     * @param conversationKey Chave da conversa
+     */
+    private void evictConversation(String conversationKey) {
+        Lock lock = getConversationLock(conversationKey);
+        lock.lock();
+        try {
+            ConversationLog log = conversationLogs.remove(conversationKey);
+            if (log != null) {
+                log.closeFiles();
+            }
+            synchronized (openLogs) {
+                openLogs.remove(conversationKey);
+            }
+            messageCache.invalidate(conversationKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Descarta os logs das conversas sem uso há mais de
+     * {@code storage.messages.log.idle.millis}, fechando seus arquivos. Cada
+     * conversa é descartada com o seu lock, de modo que nunca existam dois logs
+     * abertos para o mesmo diretório; a próxima leitura ou gravação reabre o log.
+     *
+     * @return Número de logs descartados
+     */
+    int evictIdleLogs() {
+        long idleBefore = System.currentTimeMillis() - logIdleMillis;
+        int evicted = 0;
+        for (Map.Entry<String, ConversationLog> entry : conversationLogs.entrySet()) {
+            if (entry.getValue().getLastAccessMillis() >= idleBefore) {
+                continue;
+            }
+            String conversationKey = entry.getKey();
+            Lock lock = getConversationLock(conversationKey);
+            lock.lock();
+            try {
+                ConversationLog log = conversationLogs.get(conversationKey);
+                if (log == null || log.getLastAccessMillis() >= idleBefore) {
+                    continue;
+                }
+                log.closeFiles();
+                conversationLogs.remove(conversationKey, log);
+                synchronized (openLogs) {
+                    openLogs.remove(conversationKey, log);
+                }
+                evicted++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (evicted > 0) {
+            logger.fine("Logs de conversas ociosos descartados: " + evicted);
+        }
+        return evicted;
+    }
+    
     /**
      * Limpa o cache de uma conversa privada específica.
      *
@@ -483,8 +1717,7 @@ public class MessageDAO {
      * @param userId2 ID do segundo usuário
      */
     public void clearPrivateConversationCache(String userId1, String userId2) {
-        String cacheKey = getPrivateConversationCacheKey(userId1, userId2);
-        messageCache.remove(cacheKey);
+        evictConversation(getPrivateConversationKey(userId1, userId2));
         logger.info("Cache da conversa privada entre " + userId1 + " e " + userId2 + " limpo");
     }
     
@@ -494,8 +1727,7 @@ public class MessageDAO {
      * @param groupId ID do grupo
      */
     public void clearGroupConversationCache(String groupId) {
-        String cacheKey = getGroupConversationCacheKey(groupId);
-        messageCache.remove(cacheKey);
+        evictConversation(getGroupConversationKey(groupId));
         logger.info("Cache de mensagens do grupo " + groupId + " limpo");
     }
 }
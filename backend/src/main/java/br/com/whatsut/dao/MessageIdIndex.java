@@ -0,0 +1,210 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.dao.storage.EntityStore;
+import br.com.whatsut.dao.storage.StorageEngine;
+import br.com.whatsut.dao.storage.StorageEngines;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.dao.storage.StoreDescriptor;
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Índice persistente que associa o ID de cada mensagem à conversa e à posição
+ * em que ela foi gravada, permitindo localizar uma mensagem com uma única
+ * consulta em vez de percorrer todas as conversas.
+ * As entradas são mantidas pelo motor de armazenamento configurado em
+ * {@code storage.message_index.engine}; como o índice recebe uma entrada por
+ * mensagem, o motor "json" (que reescreve o arquivo inteiro) é trocado por "wal".
+ */
+public class MessageIdIndex implements Closeable {
+    private static final Logger logger = Logger.getLogger(MessageIdIndex.class.getName());
+    
+    private final File indexFile;
+    private final boolean missing;
+    private final EntityStore<Location> store;
+    
+    /**
+     * Localização de uma mensagem: chave da conversa e posição no log da conversa.
+     */
+    public static class Location {
+        private String messageId;
+        private String conversationKey;
+        private long position;
+        
+        public Location() {
+        }
+        
+        public Location(String messageId, String conversationKey, long position) {
+            this.messageId = messageId;
+            this.conversationKey = conversationKey;
+            this.position = position;
+        }
+        
+        /**
+         * Construtor de cópia para criar um novo objeto Location baseado em um existente.
+         * 
+         * @param location Objeto Location a ser copiado
+         */
+        public Location(Location location) {
+            if (location != null) {
+                this.messageId = location.messageId;
+                this.conversationKey = location.conversationKey;
+                this.position = location.position;
+            }
+        }
+        
+        public String getMessageId() {
+            return messageId;
+        }
+        
+        public void setMessageId(String messageId) {
+            this.messageId = messageId;
+        }
+        
+        public String getConversationKey() {
+            return conversationKey;
+        }
+        
+        public void setConversationKey(String conversationKey) {
+            this.conversationKey = conversationKey;
+        }
+        
+        public long getPosition() {
+            return position;
+        }
+        
+        public void setPosition(long position) {
+            this.position = position;
+        }
+    }
+    
+    /**
+     * Abre o índice armazenado no arquivo informado.
+     *
+     * @param indexFile Arquivo JSON do índice
+     * @throws IOException Erro ao carregar o índice
+     */
+    public MessageIdIndex(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        
+        String engineName = ConfigManager.getProperty("storage.message_index.engine",
+                ConfigManager.getProperty("storage.engine", "wal"));
+        if ("json".equalsIgnoreCase(engineName)) {
+            engineName = "wal";
+        }
+        StorageEngine engine = StorageEngines.get(engineName);
+        if (engine == null) {
+            throw new IOException("Motor de armazenamento desconhecido para o índice de mensagens: " + engineName);
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.store = engine.open(new StoreDescriptor<>("message_index", indexFile,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, Location.class),
+                Location::getMessageId, Location::new, AbstractJsonDAO.getWritePolicy("message_index"),
+                StorageFormat.getConfigured("message_index")));
+        this.missing = store.isNew();
+    }
+    
+    /**
+     * Indica se o índice não existia em disco quando foi aberto e precisa ser reconstruído.
+     *
+     * @return true se o índice estava ausente
+     */
+    public boolean isMissing() {
+        return missing;
+    }
+    
+    /**
+     * Registra a localização de uma mensagem.
+     *
+     * @param messageId ID da mensagem
+     * @param conversationKey Chave da conversa
+     * @param position Posição da mensagem no log da conversa
+     * @return true se registrado com sucesso, false caso contrário
+     */
+    public boolean put(String messageId, String conversationKey, long position) {
+        return store.put(new Location(messageId, conversationKey, position));
+    }
+    
+    /**
+     * Registra a localização de uma mensagem sem esperar a gravação, que é
+     * registrada em {@code pending}.
+     *
+     * @param messageId ID da mensagem
+     * @param conversationKey Chave da conversa
+     * @param position Posição da mensagem no log da conversa
+     * @param pending Gravações pendentes da operação
+     * @return true se registrado com sucesso, false caso contrário
+     */
+    public boolean put(String messageId, String conversationKey, long position, PendingWrites pending) {
+        long ticket = store.stagePut(new Location(messageId, conversationKey, position));
+        if (ticket < 0) {
+            return false;
+        }
+        pending.add(store, ticket);
+        return true;
+    }
+    
+    /**
+     * Obtém a localização de uma mensagem.
+     *
+     * @param messageId ID da mensagem
+     * @return Localização ou null se a mensagem não estiver indexada
+     */
+    public Location get(String messageId) {
+        return store.findById(messageId);
+    }
+    
+    /**
+     * Remove uma mensagem do índice.
+     *
+     * @param messageId ID da mensagem
+     * @return true se a mensagem estava indexada, false caso contrário
+     */
+    public boolean remove(String messageId) {
+        return store.remove(messageId);
+    }
+    
+    /**
+     * Remove uma mensagem do índice sem esperar a gravação, que é registrada
+     * em {@code pending}.
+     *
+     * @param messageId ID da mensagem
+     * @param pending Gravações pendentes da operação
+     * @return true se a mensagem estava indexada, false caso contrário
+     */
+    public boolean remove(String messageId, PendingWrites pending) {
+        long ticket = store.stageRemove(messageId);
+        if (ticket < 0) {
+            return false;
+        }
+        pending.add(store, ticket);
+        return true;
+    }
+    
+    /**
+     * Substitui todo o conteúdo do índice.
+     *
+     * @param locations Localizações de todas as mensagens
+     * @return true se gravado com sucesso, false caso contrário
+     */
+    public boolean replaceAll(Collection<Location> locations) {
+        return store.replaceAll(locations);
+    }
+    
+    @Override
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Erro ao fechar índice de mensagens: " + indexFile.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.dao.storage.EntityStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gravações preparadas em um ou mais armazenamentos cuja durabilidade ainda
+ * não foi esperada. Permite que uma operação altere vários DAOs com um lock
+ * adquirido e espere todas as gravações depois de liberá-lo, para que
+ * operações concorrentes entrem nos mesmos lotes de gravação.
+ * <p>
+ * Não é segura para uso por várias threads: cada operação cria a sua.
+ */
+public final class PendingWrites {
+    private final List<EntityStore<?>> stores = new ArrayList<>();
+    private final List<Long> tickets = new ArrayList<>();
+    
+    /**
+     * Registra uma gravação preparada.
+     *
+     * @param store Armazenamento que preparou a gravação
+     * @param ticket Número de confirmação retornado pelo armazenamento
+     */
+    void add(EntityStore<?> store, long ticket) {
+        stores.add(store);
+        tickets.add(ticket);
+    }
+    
+    /**
+     * Espera todas as gravações registradas. Deve ser chamado sem locks.
+     *
+     * @return true se todas foram gravadas com sucesso, false caso contrário
+     */
+    public boolean await() {
+        boolean durable = true;
+        for (int i = 0; i < stores.size(); i++) {
+            durable &= stores.get(i).awaitDurable(tickets.get(i));
+        }
+        stores.clear();
+        tickets.clear();
+        return durable;
+    }
+}
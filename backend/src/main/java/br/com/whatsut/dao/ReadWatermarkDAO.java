@@ -0,0 +1,200 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.model.ReadWatermark;
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * DAO para operações de persistência das marcas de leitura ("lido até") de cada
+ * usuário em cada conversa.
+ * As posições ficam também em memória, agrupadas por conversa, para que o estado
+ * de leitura de uma mensagem seja calculado sem acessar o disco.
+ */
+public class ReadWatermarkDAO extends AbstractJsonDAO<ReadWatermark, String> {
+    private static final Logger logger = Logger.getLogger(ReadWatermarkDAO.class.getName());
+    
+    // Chave da conversa -> (ID do usuário -> posição lida)
+    private final Map<String, Map<String, Long>> positionsByConversation;
+    
+    public ReadWatermarkDAO() {
+        super("read_watermarks", ConfigManager.getProperty("storage.read_watermarks.file", "read_watermarks.json"));
+        this.positionsByConversation = new ConcurrentHashMap<>();
+        
+        for (ReadWatermark watermark : super.findAll()) {
+            getPositions(watermark.getConversationKey()).put(watermark.getUserId(), watermark.getPosition());
+        }
+        
+        logger.info("ReadWatermarkDAO inicializado com " + positionsByConversation.size() + " conversas");
+    }
+    
+    /**
+     * Obtém o ID de uma marca de leitura: usuário e conversa.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return ID da marca de leitura
+     */
+    public static String getId(String userId, String conversationKey) {
+        return userId + ":" + conversationKey;
+    }
+    
+    @Override
+    protected String getId(ReadWatermark entity) {
+        return getId(entity.getUserId(), entity.getConversationKey());
+    }
+    
+    @Override
+    protected ReadWatermark copy(ReadWatermark entity) {
+        return new ReadWatermark(entity);
+    }
+    
+    @Override
+    protected TypeReference<List<ReadWatermark>> getTypeReference() {
+        return new TypeReference<List<ReadWatermark>>() {};
+    }
+    
+    private Map<String, Long> getPositions(String conversationKey) {
+        return positionsByConversation.computeIfAbsent(conversationKey, key -> new ConcurrentHashMap<>());
+    }
+    
+    @Override
+    public boolean save(ReadWatermark entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            getPositions(entity.getConversationKey()).put(entity.getUserId(), entity.getPosition());
+        }
+        return saved;
+    }
+    
+    @Override
+    public boolean delete(String id) {
+        ReadWatermark watermark = super.findById(id);
+        boolean deleted = super.delete(id);
+        if (deleted && watermark != null) {
+            getPositions(watermark.getConversationKey()).remove(watermark.getUserId());
+        }
+        return deleted;
+    }
+    
+    @Override
+    protected void onCommitted(String id, ReadWatermark previous, ReadWatermark current) {
+        if (current != null) {
+            getPositions(current.getConversationKey()).put(current.getUserId(), current.getPosition());
+        } else {
+            getPositions(previous.getConversationKey()).remove(previous.getUserId());
+        }
+    }
+    
+    /**
+     * Avança a marca de leitura de um usuário em uma conversa. Marcas nunca
+     * retrocedem: uma posição anterior à atual é ignorada.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @param position Posição da última mensagem lida
+     * @param messageId ID da última mensagem lida
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador
+     * @return true se a marca avançou, false caso contrário
+     */
+    public boolean advance(String userId, String conversationKey, long position, String messageId,
+            PendingWrites pending) {
+        Map<String, Long> positions = getPositions(conversationKey);
+        synchronized (positions) {
+            if (position <= getPosition(userId, conversationKey)) {
+                return false;
+            }
+            return save(new ReadWatermark(userId, conversationKey, position, messageId), pending);
+        }
+    }
+    
+    /**
+     * Remove a marca de leitura de um usuário em uma conversa, após ele deixar
+     * de participar dela.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador
+     * @return true se havia uma marca, false caso contrário
+     */
+    public boolean removeConversation(String userId, String conversationKey, PendingWrites pending) {
+        Map<String, Long> positions = getPositions(conversationKey);
+        synchronized (positions) {
+            if (!positions.containsKey(userId)) {
+                return false;
+            }
+            return commit(new UnitOfWork<ReadWatermark, String>().delete(getId(userId, conversationKey)), pending);
+        }
+    }
+    
+    /**
+     * Remove as marcas de leitura de todos os usuários em uma conversa, em uma
+     * única gravação, após ela ser excluída.
+     *
+     * @param conversationKey Chave da conversa
+     * @return true se removidas com sucesso, false caso contrário
+     */
+    public boolean removeConversation(String conversationKey) {
+        Map<String, Long> positions = positionsByConversation.get(conversationKey);
+        if (positions == null) {
+            return true;
+        }
+        UnitOfWork<ReadWatermark, String> work = new UnitOfWork<>();
+        for (String userId : positions.keySet()) {
+            work.delete(getId(userId, conversationKey));
+        }
+        if (!commit(work)) {
+            return false;
+        }
+        positionsByConversation.remove(conversationKey, positions);
+        return true;
+    }
+    
+    /**
+     * Obtém até onde um usuário leu uma conversa.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return Posição da última mensagem lida ou -1 se o usuário não leu nenhuma
+     */
+    public long getPosition(String userId, String conversationKey) {
+        Long position = getPositions(conversationKey).get(userId);
+        return position != null ? position : -1;
+    }
+    
+    /**
+     * Obtém as marcas de leitura de todos os usuários em uma conversa.
+     *
+     * @param conversationKey Chave da conversa
+     * @return Mapa de ID do usuário para a posição lida
+     */
+    public Map<String, Long> getPositionsByUser(String conversationKey) {
+        return new HashMap<>(getPositions(conversationKey));
+    }
+    
+    /**
+     * Verifica se uma mensagem foi lida por algum usuário além do remetente.
+     *
+     * @param conversationKey Chave da conversa
+     * @param senderId ID do remetente da mensagem
+     * @param position Posição da mensagem na conversa
+     * @return true se algum outro usuário leu a conversa até a mensagem
+     */
+    public boolean isReadByOthers(String conversationKey, String senderId, long position) {
+        Map<String, Long> positions = positionsByConversation.get(conversationKey);
+        if (positions == null) {
+            return false;
+        }
+        for (Map.Entry<String, Long> entry : positions.entrySet()) {
+            if (entry.getValue() >= position && !entry.getKey().equals(senderId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,165 @@
+package br.com.whatsut.dao;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Índice secundário em memória de um DAO: associa o valor de um atributo das
+ * entidades (ex.: nome de usuário) aos IDs das entidades que o possuem.
+ * Um índice único admite no máximo uma entidade por valor.
+ * <p>
+ * As alterações são feitas pelo {@link AbstractJsonDAO} com o monitor do DAO;
+ * o conjunto de IDs de cada valor é substituído por uma cópia a cada alteração,
+ * de modo que as consultas são feitas concorrentemente, sem bloqueio, e
+ * preservam a ordem de inserção.
+ *
+ * @param <T> Tipo da entidade
+ * @param <ID> Tipo do identificador da entidade
+ */
+public class SecondaryIndex<T, ID> {
+    private final String name;
+    private final Function<T, String> keyFunction;
+    private final boolean unique;
+    
+    // Valor do atributo -> IDs das entidades (conjuntos imutáveis)
+    private final Map<String, Set<ID>> idsByKey = new ConcurrentHashMap<>();
+    
+    // ID da entidade -> valor indexado (para atualizar o índice sem reler a entidade anterior)
+    private final Map<ID, String> keysById = new ConcurrentHashMap<>();
+    
+    /**
+     * Cria um índice secundário.
+     *
+     * @param name Nome do índice
+     * @param keyFunction Função que extrai o valor indexado de uma entidade (null para não indexar)
+     * @param unique true se o valor não pode se repetir entre entidades
+     */
+    public SecondaryIndex(String name, Function<T, String> keyFunction, boolean unique) {
+        this.name = name;
+        this.keyFunction = keyFunction;
+        this.unique = unique;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public boolean isUnique() {
+        return unique;
+    }
+    
+    /**
+     * Obtém o valor indexado de uma entidade.
+     *
+     * @param entity Entidade
+     * @return Valor do atributo indexado ou null
+     */
+    public String keyOf(T entity) {
+        return keyFunction.apply(entity);
+    }
+    
+    /**
+     * Verifica se salvar a entidade violaria a unicidade do índice.
+     *
+     * @param id ID da entidade a ser salva
+     * @param entity Entidade a ser salva
+     * @return ID de outra entidade com o mesmo valor ou null se não houver conflito
+     */
+    public ID findConflict(ID id, T entity) {
+        if (!unique) {
+            return null;
+        }
+        String key = keyOf(entity);
+        if (key == null) {
+            return null;
+        }
+        Set<ID> ids = idsByKey.get(key);
+        if (ids == null) {
+            return null;
+        }
+        for (ID existing : ids) {
+            if (!existing.equals(id)) {
+                return existing;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Indexa uma entidade (nova ou atualizada).
+     *
+     * @param id ID da entidade
+     * @param entity Entidade
+     */
+    void put(ID id, T entity) {
+        String key = keyOf(entity);
+        String previousKey = key != null ? keysById.put(id, key) : keysById.remove(id);
+        if (previousKey != null && !previousKey.equals(key)) {
+            removeId(previousKey, id);
+        }
+        if (key != null && !key.equals(previousKey)) {
+            Set<ID> ids = new LinkedHashSet<>(idsByKey.getOrDefault(key, Collections.emptySet()));
+            ids.add(id);
+            idsByKey.put(key, Collections.unmodifiableSet(ids));
+        }
+    }
+    
+    /**
+     * Remove uma entidade do índice.
+     *
+     * @param id ID da entidade
+     */
+    void remove(ID id) {
+        String key = keysById.remove(id);
+        if (key != null) {
+            removeId(key, id);
+        }
+    }
+    
+    private void removeId(String key, ID id) {
+        Set<ID> current = idsByKey.get(key);
+        if (current == null || !current.contains(id)) {
+            return;
+        }
+        if (current.size() == 1) {
+            idsByKey.remove(key);
+        } else {
+            Set<ID> ids = new LinkedHashSet<>(current);
+            ids.remove(id);
+            idsByKey.put(key, Collections.unmodifiableSet(ids));
+        }
+    }
+    
+    /**
+     * Obtém os IDs das entidades com um valor.
+     *
+     * @param key Valor do atributo indexado
+     * @return IDs das entidades (vazio se nenhuma)
+     */
+    public Set<ID> get(String key) {
+        Set<ID> ids = key != null ? idsByKey.get(key) : null;
+        return ids != null ? ids : Collections.emptySet();
+    }
+    
+    /**
+     * Obtém os valores distintos presentes no índice.
+     *
+     * @return Valores indexados
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(idsByKey.keySet());
+    }
+    
+    /**
+     * Obtém o número de entidades indexadas.
+     *
+     * @return Número de entidades com valor no índice
+     */
+    public int size() {
+        return keysById.size();
+    }
+}
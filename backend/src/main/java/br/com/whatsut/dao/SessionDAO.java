@@ -4,6 +4,7 @@ import br.com.whatsut.model.Session;
 import br.com.whatsut.util.ConfigManager;
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
@@ -11,6 +12,7 @@ import java.util.stream.Collectors;
 
 /**
  * DAO para operações de persistência de sessões.
+ * As sessões são indexadas pelo usuário.
  */
 public class SessionDAO extends AbstractJsonDAO<Session, String> {
     private static final Logger logger = Logger.getLogger(SessionDAO.class.getName());
@@ -19,8 +21,9 @@ public class SessionDAO extends AbstractJsonDAO<Session, String> {
     private final ConcurrentHashMap<String, Session> sessionCache;
     
     public SessionDAO() {
-        super(ConfigManager.getProperty("storage.sessions.file", "sessions.json"));
+        super("sessions", ConfigManager.getProperty("storage.sessions.file", "sessions.json"));
         this.sessionCache = new ConcurrentHashMap<>();
+        createIndex("userId", Session::getUserId, false);
         
         // Pré-carregar sessões válidas no cache
         List<Session> sessions = super.findAll();
@@ -38,6 +41,11 @@ public class SessionDAO extends AbstractJsonDAO<Session, String> {
         return entity.getSessionId();
     }
     
+    @Override
+    protected Session copy(Session entity) {
+        return new Session(entity);
+    }
+    
     @Override
     protected TypeReference<List<Session>> getTypeReference() {
         return new TypeReference<List<Session>>() {};
@@ -81,25 +89,14 @@ public class SessionDAO extends AbstractJsonDAO<Session, String> {
      * @return Lista de sessões ativas
      */
     public List<Session> findByUserId(String userId) {
-        // Verificar no cache primeiro
-        List<Session> cachedSessions = sessionCache.values().stream()
-                .filter(s -> s.getUserId().equals(userId) && s.isValid())
-                .collect(Collectors.toList());
-        
-        if (!cachedSessions.isEmpty()) {
-            return cachedSessions;
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        List<Session> sessions = super.findAll().stream()
-                .filter(s -> s.getUserId().equals(userId) && s.isValid())
-                .collect(Collectors.toList());
-        
-        // Adicionar ao cache
-        for (Session session : sessions) {
-            sessionCache.put(session.getSessionId(), session);
+        List<Session> sessions = new ArrayList<>();
+        for (String sessionId : findIdsByIndex("userId", userId)) {
+            // findById remove as sessões expiradas
+            Session session = findById(sessionId);
+            if (session != null) {
+                sessions.add(session);
+            }
         }
-        
         return sessions;
     }
     
@@ -121,6 +118,15 @@ public class SessionDAO extends AbstractJsonDAO<Session, String> {
         return super.delete(id);
     }
     
+    @Override
+    protected void onCommitted(String id, Session previous, Session current) {
+        if (current != null) {
+            sessionCache.put(id, current);
+        } else {
+            sessionCache.remove(id);
+        }
+    }
+    
     /**
      * Remove sessões expiradas.
      */
@@ -135,7 +141,7 @@ public class SessionDAO extends AbstractJsonDAO<Session, String> {
                 .collect(Collectors.toList());
         
         if (validSessions.size() < sessions.size()) {
-            super.saveAll(validSessions);
+            super.rewriteAll(validSessions);
             logger.info("Sessões expiradas removidas");
         }
     }
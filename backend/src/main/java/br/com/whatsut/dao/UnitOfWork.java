@@ -0,0 +1,149 @@
+package br.com.whatsut.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Conjunto de alterações de um DAO (salvar e excluir entidades) gravadas
+ * juntas por {@link DAO#commit(UnitOfWork)}: todas as alterações são gravadas
+ * em uma única escrita e ficam visíveis ao mesmo tempo, ou nenhuma é aplicada.
+ * <p>
+ * As alterações são registradas na ordem em que são feitas; quando a mesma
+ * entidade é alterada mais de uma vez, vale a última alteração.
+ *
+ * @param <T> Tipo da entidade
+ * @param <ID> Tipo do identificador da entidade
+ */
+public class UnitOfWork<T, ID> {
+    private final List<Change<T, ID>> changes = new ArrayList<>();
+    
+    /**
+     * Alteração de uma entidade: salvar (entidade não nula) ou excluir (ID).
+     *
+     * @param <T> Tipo da entidade
+     * @param <ID> Tipo do identificador da entidade
+     */
+    public static final class Change<T, ID> {
+        private final T entity;
+        private final ID id;
+        
+        private Change(T entity, ID id) {
+            this.entity = entity;
+            this.id = id;
+        }
+        
+        /**
+         * Obtém a entidade a ser salva.
+         *
+         * @return Entidade ou null se a alteração for uma exclusão
+         */
+        public T getEntity() {
+            return entity;
+        }
+        
+        /**
+         * Obtém o ID da entidade a ser excluída.
+         *
+         * @return ID ou null se a alteração for um salvamento
+         */
+        public ID getId() {
+            return id;
+        }
+        
+        public boolean isDelete() {
+            return entity == null;
+        }
+    }
+    
+    /**
+     * Registra o salvamento de uma entidade (criação ou atualização).
+     *
+     * @param entity Entidade a ser salva
+     * @return A própria unidade de trabalho
+     */
+    public UnitOfWork<T, ID> save(T entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Entidade nula na unidade de trabalho");
+        }
+        changes.add(new Change<>(entity, null));
+        return this;
+    }
+    
+    /**
+     * Registra o salvamento de várias entidades.
+     *
+     * @param entities Entidades a serem salvas
+     * @return A própria unidade de trabalho
+     */
+    public UnitOfWork<T, ID> saveAll(Iterable<? extends T> entities) {
+        for (T entity : entities) {
+            save(entity);
+        }
+        return this;
+    }
+    
+    /**
+     * Registra a exclusão de uma entidade. IDs inexistentes são ignorados no commit.
+     *
+     * @param id ID da entidade a ser excluída
+     * @return A própria unidade de trabalho
+     */
+    public UnitOfWork<T, ID> delete(ID id) {
+        if (id == null) {
+            throw new IllegalArgumentException("ID nulo na unidade de trabalho");
+        }
+        changes.add(new Change<>(null, id));
+        return this;
+    }
+    
+    /**
+     * Registra a exclusão de várias entidades.
+     *
+     * @param ids IDs das entidades a serem excluídas
+     * @return A própria unidade de trabalho
+     */
+    public UnitOfWork<T, ID> deleteAll(Iterable<? extends ID> ids) {
+        for (ID id : ids) {
+            delete(id);
+        }
+        return this;
+    }
+    
+    /**
+     * Obtém as alterações na ordem em que foram registradas.
+     *
+     * @return Alterações
+     */
+    public List<Change<T, ID>> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+    
+    /**
+     * Obtém o efeito final das alterações por ID: a última entidade salva ou
+     * null para uma exclusão.
+     *
+     * @param idFunction Função que obtém o ID de uma entidade
+     * @return Efeito final por ID, na ordem da última alteração de cada ID
+     */
+    Map<ID, T> resolve(Function<T, ID> idFunction) {
+        Map<ID, T> resolved = new LinkedHashMap<>();
+        for (Change<T, ID> change : changes) {
+            ID id = change.isDelete() ? change.getId() : idFunction.apply(change.getEntity());
+            resolved.remove(id);
+            resolved.put(id, change.getEntity());
+        }
+        return resolved;
+    }
+    
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+    
+    public int size() {
+        return changes.size();
+    }
+}
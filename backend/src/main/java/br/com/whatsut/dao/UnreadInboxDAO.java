@@ -0,0 +1,360 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.model.UnreadMessage;
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * DAO para operações de persistência da caixa de mensagens não lidas de cada
+ * usuário.
+ * Cada mensagem privada gera uma entrada para o destinatário; ler uma
+ * conversa remove as entradas até a marca de leitura. Mensagens de grupo não
+ * geram entradas: são contadas pela marca de leitura de cada membro. As entradas ficam também
+ * em memória, por usuário, de modo que os contadores de não lidas (por usuário
+ * e por conversa) são obtidos em tempo constante.
+ */
+public class UnreadInboxDAO extends AbstractJsonDAO<UnreadMessage, String> {
+    private static final Logger logger = Logger.getLogger(UnreadInboxDAO.class.getName());
+    
+    // Ordem da caixa: mensagem mais recente primeiro
+    static final Comparator<UnreadMessage> RECENCY_ORDER = Comparator
+            .comparingLong(UnreadMessage::getTimestamp).reversed()
+            .thenComparing(UnreadMessage::getMessageId);
+    
+    // ID do usuário -> mensagens não lidas do usuário
+    private final Map<String, Inbox> inboxes;
+    
+    // ID da mensagem -> usuários que ainda não a leram
+    private final Map<String, Set<String>> recipientsByMessage;
+    
+    /**
+     * Mensagens não lidas de um usuário, por conversa e em ordem de recência.
+     * Acessada apenas com o monitor da própria caixa.
+     */
+    private static class Inbox {
+        private final Map<String, NavigableMap<Long, UnreadMessage>> byConversation = new HashMap<>();
+        private final TreeSet<UnreadMessage> byRecency = new TreeSet<>(RECENCY_ORDER);
+    }
+    
+    public UnreadInboxDAO() {
+        super("unread_inbox", ConfigManager.getProperty("storage.unread_inbox.file", "unread_inbox.json"));
+        this.inboxes = new ConcurrentHashMap<>();
+        this.recipientsByMessage = new ConcurrentHashMap<>();
+        
+        for (UnreadMessage message : super.findAll()) {
+            index(message);
+        }
+        
+        logger.info("UnreadInboxDAO inicializado com " + recipientsByMessage.size() + " mensagens não lidas");
+    }
+    
+    /**
+     * Obtém o ID de uma entrada da caixa: usuário e mensagem.
+     *
+     * @param userId ID do usuário
+     * @param messageId ID da mensagem
+     * @return ID da entrada
+     */
+    public static String getId(String userId, String messageId) {
+        return userId + ":" + messageId;
+    }
+    
+    @Override
+    protected String getId(UnreadMessage entity) {
+        return getId(entity.getUserId(), entity.getMessageId());
+    }
+    
+    @Override
+    protected UnreadMessage copy(UnreadMessage entity) {
+        return new UnreadMessage(entity);
+    }
+    
+    @Override
+    protected TypeReference<List<UnreadMessage>> getTypeReference() {
+        return new TypeReference<List<UnreadMessage>>() {};
+    }
+    
+    private Inbox getInbox(String userId) {
+        return inboxes.computeIfAbsent(userId, id -> new Inbox());
+    }
+    
+    /**
+     * Adiciona uma entrada às estruturas em memória.
+     */
+    private void index(UnreadMessage message) {
+        Inbox inbox = getInbox(message.getUserId());
+        synchronized (inbox) {
+            UnreadMessage previous = inbox.byConversation
+                    .computeIfAbsent(message.getConversationKey(), key -> new TreeMap<>())
+                    .put(message.getPosition(), message);
+            if (previous != null) {
+                inbox.byRecency.remove(previous);
+            }
+            inbox.byRecency.add(message);
+        }
+        recipientsByMessage.computeIfAbsent(message.getMessageId(), id -> ConcurrentHashMap.newKeySet())
+                .add(message.getUserId());
+    }
+    
+    /**
+     * Remove uma entrada das estruturas em memória.
+     */
+    private void unindex(UnreadMessage message) {
+        Inbox inbox = getInbox(message.getUserId());
+        synchronized (inbox) {
+            NavigableMap<Long, UnreadMessage> conversation = inbox.byConversation.get(message.getConversationKey());
+            if (conversation != null && conversation.remove(message.getPosition()) != null) {
+                inbox.byRecency.remove(message);
+                if (conversation.isEmpty()) {
+                    inbox.byConversation.remove(message.getConversationKey());
+                }
+            }
+        }
+        Set<String> recipients = recipientsByMessage.get(message.getMessageId());
+        if (recipients != null) {
+            recipients.remove(message.getUserId());
+            if (recipients.isEmpty()) {
+                recipientsByMessage.remove(message.getMessageId());
+            }
+        }
+    }
+    
+    @Override
+    public boolean save(UnreadMessage entity) {
+        boolean saved = super.save(entity);
+        if (saved) {
+            index(entity);
+        }
+        return saved;
+    }
+    
+    @Override
+    public boolean delete(String id) {
+        UnreadMessage message = super.findById(id);
+        boolean deleted = super.delete(id);
+        if (deleted && message != null) {
+            unindex(message);
+        }
+        return deleted;
+    }
+    
+    @Override
+    protected void onCommitted(String id, UnreadMessage previous, UnreadMessage current) {
+        if (current != null) {
+            index(current);
+        } else {
+            unindex(previous);
+        }
+    }
+    
+    /**
+     * Substitui todas as entradas de todas as caixas.
+     *
+     * @param messages Novas entradas
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    public boolean replaceAll(List<UnreadMessage> messages) {
+        if (!rewriteAll(messages)) {
+            return false;
+        }
+        inboxes.clear();
+        recipientsByMessage.clear();
+        for (UnreadMessage message : messages) {
+            index(message);
+        }
+        return true;
+    }
+    
+    /**
+     * Remove as entradas de uma conversa até uma posição (inclusive), após o
+     * usuário ler a conversa até ela, em uma única gravação.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @param position Posição da última mensagem lida
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador
+     * @return Número de entradas removidas
+     */
+    public int removeUpTo(String userId, String conversationKey, long position, PendingWrites pending) {
+        Inbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return 0;
+        }
+        List<UnreadMessage> read;
+        synchronized (inbox) {
+            NavigableMap<Long, UnreadMessage> conversation = inbox.byConversation.get(conversationKey);
+            if (conversation == null) {
+                return 0;
+            }
+            read = new ArrayList<>(conversation.headMap(position, true).values());
+        }
+        UnitOfWork<UnreadMessage, String> work = new UnitOfWork<>();
+        for (UnreadMessage message : read) {
+            work.delete(getId(message));
+        }
+        return commit(work, pending) ? read.size() : 0;
+    }
+    
+    /**
+     * Remove todas as entradas de um usuário em uma conversa, após ele deixar
+     * de participar dela.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador
+     * @return Número de entradas removidas
+     */
+    public int removeConversation(String userId, String conversationKey, PendingWrites pending) {
+        return removeUpTo(userId, conversationKey, Long.MAX_VALUE, pending);
+    }
+    
+    /**
+     * Remove as entradas de todos os usuários em uma conversa, após ela ser
+     * excluída.
+     *
+     * @param conversationKey Chave da conversa
+     * @return Número de entradas removidas
+     */
+    public int removeConversation(String conversationKey) {
+        return removeConversations(conversationKey::equals);
+    }
+    
+    /**
+     * Remove, em uma única gravação, as entradas de todas as caixas cujas
+     * conversas atendem a um filtro.
+     *
+     * @param conversationFilter Filtro aplicado à chave de cada conversa
+     * @return Número de entradas removidas
+     */
+    public int removeConversations(Predicate<String> conversationFilter) {
+        UnitOfWork<UnreadMessage, String> work = new UnitOfWork<>();
+        for (Inbox inbox : inboxes.values()) {
+            synchronized (inbox) {
+                for (Map.Entry<String, NavigableMap<Long, UnreadMessage>> conversation : inbox.byConversation.entrySet()) {
+                    if (conversationFilter.test(conversation.getKey())) {
+                        for (UnreadMessage message : conversation.getValue().values()) {
+                            work.delete(getId(message));
+                        }
+                    }
+                }
+            }
+        }
+        return commit(work) ? work.size() : 0;
+    }
+    
+    /**
+     * Remove as entradas de uma mensagem de todas as caixas, após ela ser
+     * excluída, em uma única gravação.
+     *
+     * @param messageId ID da mensagem
+     * @param pending Gravações pendentes da operação, esperadas pelo chamador
+     */
+    public void removeMessage(String messageId, PendingWrites pending) {
+        Set<String> recipients = recipientsByMessage.get(messageId);
+        if (recipients == null) {
+            return;
+        }
+        UnitOfWork<UnreadMessage, String> work = new UnitOfWork<>();
+        for (String userId : new ArrayList<>(recipients)) {
+            work.delete(getId(userId, messageId));
+        }
+        commit(work, pending);
+    }
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário.
+     *
+     * @param userId ID do usuário
+     * @return Número de mensagens não lidas em todas as conversas
+     */
+    public int countUnread(String userId) {
+        Inbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return 0;
+        }
+        synchronized (inbox) {
+            return inbox.byRecency.size();
+        }
+    }
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em uma conversa.
+     *
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return Número de mensagens não lidas na conversa
+     */
+    public int countUnread(String userId, String conversationKey) {
+        Inbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return 0;
+        }
+        synchronized (inbox) {
+            NavigableMap<Long, UnreadMessage> conversation = inbox.byConversation.get(conversationKey);
+            return conversation != null ? conversation.size() : 0;
+        }
+    }
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em cada conversa.
+     *
+     * @param userId ID do usuário
+     * @return Mapa de chave da conversa para o número de mensagens não lidas
+     */
+    public Map<String, Integer> countUnreadByConversation(String userId) {
+        Map<String, Integer> counts = new HashMap<>();
+        Inbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return counts;
+        }
+        synchronized (inbox) {
+            for (Map.Entry<String, NavigableMap<Long, UnreadMessage>> entry : inbox.byConversation.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().size());
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Lista as mensagens não lidas de um usuário, da mais recente para a mais
+     * antiga.
+     *
+     * @param userId ID do usuário
+     * @param limit Número máximo de mensagens (0 ou negativo para todas)
+     * @param offset Deslocamento para paginação
+     * @return Mensagens não lidas
+     */
+    public List<UnreadMessage> findByUser(String userId, int limit, int offset) {
+        List<UnreadMessage> result = new ArrayList<>();
+        Inbox inbox = inboxes.get(userId);
+        if (inbox == null) {
+            return result;
+        }
+        synchronized (inbox) {
+            int skipped = 0;
+            for (UnreadMessage message : inbox.byRecency) {
+                if (skipped++ < offset) {
+                    continue;
+                }
+                if (limit > 0 && result.size() >= limit) {
+                    break;
+                }
+                result.add(message);
+            }
+        }
+        return result;
+    }
+}
@@ -10,6 +10,7 @@ import java.util.logging.Logger;
 
 /**
  * DAO para operações de persistência de usuários.
+ * O nome de usuário tem um índice único, usado no login e no cadastro.
  */
 public class UserDAO extends AbstractJsonDAO<User, String> {
     private static final Logger logger = Logger.getLogger(UserDAO.class.getName());
@@ -19,9 +20,10 @@ public class UserDAO extends AbstractJsonDAO<User, String> {
     private final int maxCacheSize;
     
     public UserDAO() {
-        super(ConfigManager.getProperty("storage.users.file", "users.json"));
+        super("users", ConfigManager.getProperty("storage.users.file", "users.json"));
         this.maxCacheSize = ConfigManager.getIntProperty("cache.users.max.size", 500);
         this.userCache = new ConcurrentHashMap<>();
+        createIndex("username", User::getUsername, true);
         
         // Pré-carregar usuários no cache
         List<User> users = super.findAll();
@@ -38,6 +40,11 @@ public class UserDAO extends AbstractJsonDAO<User, String> {
         return entity.getUserId();
     }
     
+    @Override
+    protected User copy(User entity) {
+        return new User(entity);
+    }
+    
     @Override
     protected TypeReference<List<User>> getTypeReference() {
         return new TypeReference<List<User>>() {};
@@ -69,35 +76,19 @@ public class UserDAO extends AbstractJsonDAO<User, String> {
      * @return O usuário encontrado ou null se não existir
      */
     public User findByUsername(String username) {
-        // Verificar no cache primeiro
-        for (User user : userCache.values()) {
-            if (user.getUsername().equals(username)) {
-                return user;
-            }
-        }
-        
-        // Se não estiver no cache, buscar no arquivo
-        List<User> users = super.findAll();
-        for (User user : users) {
-            if (user.getUsername().equals(username)) {
-                // Adicionar ao cache se encontrado
-                if (userCache.size() < maxCacheSize) {
-                    userCache.put(user.getUserId(), user);
-                }
-                return user;
-            }
-        }
-        
-        return null;
+        return findOneByIndex("username", username);
     }
     
     @Override
     public boolean save(User entity) {
+        // Salvar no arquivo (falha se o nome de usuário já pertencer a outro usuário)
+        if (!super.save(entity)) {
+            return false;
+        }
+        
         // Atualizar no cache
         userCache.put(entity.getUserId(), entity);
-        
-        // Salvar no arquivo
-        return super.save(entity);
+        return true;
     }
     
     @Override
@@ -109,6 +100,15 @@ public class UserDAO extends AbstractJsonDAO<User, String> {
         return super.delete(id);
     }
     
+    @Override
+    protected void onCommitted(String id, User previous, User current) {
+        if (current != null) {
+            userCache.put(id, current);
+        } else {
+            userCache.remove(id);
+        }
+    }
+    
     /**
      * Limpa o cache de usuários.
      */
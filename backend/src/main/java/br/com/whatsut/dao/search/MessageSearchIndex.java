@@ -0,0 +1,768 @@
+package br.com.whatsut.dao.search;
+
+import br.com.whatsut.dao.storage.AtomicFiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Índice invertido em memória do conteúdo das mensagens, atualizado a cada
+ * envio e exclusão.
+ * <p>
+ * Cada mensagem indexada recebe um número de documento crescente; cada termo
+ * ({@link TextAnalyzer}) aponta para a lista dos documentos em que aparece,
+ * com as posições do termo em cada um. As listas são gravadas de forma
+ * compacta (diferenças entre números consecutivos em inteiros de tamanho
+ * variável) e só são decodificadas na busca. Uma busca exige todos os termos
+ * da consulta; trechos entre aspas exigem os termos em posições consecutivas.
+ * A busca percorre apenas as listas dos termos consultados, começando pela
+ * menor, de modo que o custo não depende do número de conversas.
+ * <p>
+ * Exclusões apenas marcam a mensagem, que deixa de aparecer nos resultados;
+ * {@link #compactIfNeeded()} remove os documentos marcados quando eles passam
+ * a ocupar uma parte relevante do índice. O índice é gravado em um arquivo
+ * ({@link #save(File)}) junto com o número de mensagens já indexadas de cada
+ * conversa, a partir do qual as mensagens gravadas depois são indexadas na
+ * próxima abertura.
+ */
+public class MessageSearchIndex {
+    // "WSIX"
+    private static final int MAGIC = 0x57534958;
+    private static final int VERSION = 1;
+    private static final int MIN_DELETED_TO_COMPACT = 10000;
+    
+    /**
+     * Mensagem encontrada por uma busca.
+     */
+    public static final class Hit {
+        private final String messageId;
+        private final String conversationKey;
+        private final long timestamp;
+        
+        public Hit(String messageId, String conversationKey, long timestamp) {
+            this.messageId = messageId;
+            this.conversationKey = conversationKey;
+            this.timestamp = timestamp;
+        }
+        
+        public String getMessageId() {
+            return messageId;
+        }
+        
+        public String getConversationKey() {
+            return conversationKey;
+        }
+        
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+    
+    /**
+     * Lista de documentos e posições de um termo: para cada documento, a
+     * diferença para o documento anterior, o número de ocorrências e as
+     * diferenças entre as posições, em inteiros de tamanho variável.
+     */
+    private static final class Postings {
+        private byte[] data;
+        private int length;
+        private int documentFrequency;
+        private int lastDocument;
+        
+        Postings() {
+            this(new byte[8], 0, 0, -1);
+        }
+        
+        Postings(byte[] data, int length, int documentFrequency, int lastDocument) {
+            this.data = data;
+            this.length = length;
+            this.documentFrequency = documentFrequency;
+            this.lastDocument = lastDocument;
+        }
+        
+        void add(int document, IntList positions) {
+            ensureCapacity(5 * (2 + positions.size));
+            writeVarint(document - lastDocument);
+            writeVarint(positions.size);
+            int previous = 0;
+            for (int i = 0; i < positions.size; i++) {
+                writeVarint(positions.values[i] - previous);
+                previous = positions.values[i];
+            }
+            lastDocument = document;
+            documentFrequency++;
+        }
+        
+        private void ensureCapacity(int extra) {
+            if (length + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+            }
+        }
+        
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+        
+        /**
+         * Decodifica os documentos e posições, apenas dos documentos de um
+         * filtro ordenado (ou de todos, se o filtro for null).
+         */
+        Decoded decode(int[] filter) {
+            Decoded decoded = new Decoded(filter != null ? filter.length : documentFrequency);
+            int[] offset = {0};
+            int document = -1;
+            int next = 0;
+            for (int d = 0; d < documentFrequency; d++) {
+                document += readVarint(offset);
+                int frequency = readVarint(offset);
+                if (filter != null) {
+                    while (next < filter.length && filter[next] < document) {
+                        next++;
+                    }
+                    if (next == filter.length) {
+                        break;
+                    }
+                    if (filter[next] != document) {
+                        skipVarints(offset, frequency);
+                        continue;
+                    }
+                }
+                decoded.add(document);
+                int position = 0;
+                for (int p = 0; p < frequency; p++) {
+                    position += readVarint(offset);
+                    decoded.positions.add(position);
+                }
+            }
+            decoded.finish();
+            return decoded;
+        }
+        
+        /**
+         * Decodifica apenas os números dos documentos.
+         */
+        int[] documents() {
+            int[] documents = new int[documentFrequency];
+            int[] offset = {0};
+            int document = -1;
+            for (int d = 0; d < documentFrequency; d++) {
+                document += readVarint(offset);
+                documents[d] = document;
+                skipVarints(offset, readVarint(offset));
+            }
+            return documents;
+        }
+        
+        /**
+         * Mantém os documentos candidatos (ordenados) que contêm o termo, sem
+         * decodificar as posições.
+         */
+        int[] intersect(int[] candidates) {
+            int[] result = new int[Math.min(candidates.length, documentFrequency)];
+            int count = 0;
+            int next = 0;
+            int[] offset = {0};
+            int document = -1;
+            for (int d = 0; d < documentFrequency && next < candidates.length; d++) {
+                document += readVarint(offset);
+                skipVarints(offset, readVarint(offset));
+                while (next < candidates.length && candidates[next] < document) {
+                    next++;
+                }
+                if (next < candidates.length && candidates[next] == document) {
+                    result[count++] = document;
+                    next++;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+        
+        private void skipVarints(int[] offset, int count) {
+            for (int i = 0; i < count; i++) {
+                while ((data[offset[0]++] & 0x80) != 0) {
+                    // continuação do inteiro
+                }
+            }
+        }
+        
+        private int readVarint(int[] offset) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+    
+    /**
+     * Lista de um termo decodificada para a busca.
+     */
+    private static final class Decoded {
+        private int[] documents;
+        private int[] positionStarts;
+        private int count;
+        private final IntList positions = new IntList();
+        
+        Decoded(int capacity) {
+            this.documents = new int[capacity];
+            this.positionStarts = new int[capacity + 1];
+        }
+        
+        void add(int document) {
+            documents[count] = document;
+            positionStarts[count++] = positions.size;
+        }
+        
+        void finish() {
+            positionStarts[count] = positions.size;
+            documents = Arrays.copyOf(documents, count);
+            positionStarts = Arrays.copyOf(positionStarts, count + 1);
+        }
+        
+        /**
+         * Verifica se o termo ocorre em uma posição de um documento.
+         */
+        boolean hasPosition(int document, int position) {
+            int index = Arrays.binarySearch(documents, document);
+            if (index < 0) {
+                return false;
+            }
+            return Arrays.binarySearch(positions.values, positionStarts[index], positionStarts[index + 1],
+                    position) >= 0;
+        }
+    }
+    
+    /**
+     * Lista de inteiros sem objetos por elemento.
+     */
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+        
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // Documentos (mensagens indexadas), pelo número do documento
+    private String[] messageIds = new String[1024];
+    private int[] documentConversations = new int[1024];
+    private long[] timestamps = new long[1024];
+    private int documentCount;
+    
+    // Mensagens excluídas depois de indexadas, filtradas das buscas até a compactação
+    private final Set<String> deletedIds = new HashSet<>();
+    
+    // Conversas, numeradas na ordem em que aparecem, e mensagens já indexadas de cada uma
+    private final List<String> conversationKeys = new ArrayList<>();
+    private final Map<String, Integer> conversationIds = new HashMap<>();
+    private final Map<String, Long> indexedSizes = new HashMap<>();
+    
+    private final Map<String, Postings> terms = new HashMap<>();
+    private boolean dirty;
+    
+    /**
+     * Indexa uma mensagem.
+     *
+     * @param conversationKey Chave da conversa
+     * @param messageId ID da mensagem
+     * @param timestamp Timestamp da mensagem
+     * @param content Conteúdo da mensagem (mensagens sem texto não são indexadas)
+     * @param position Posição da mensagem na conversa
+     */
+    public void add(String conversationKey, String messageId, long timestamp, String content, long position) {
+        List<String> tokens = TextAnalyzer.tokenize(content);
+        Map<String, IntList> positions = new LinkedHashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            positions.computeIfAbsent(tokens.get(i), term -> new IntList()).add(i);
+        }
+        lock.writeLock().lock();
+        try {
+            markIndexed(conversationKey, position + 1);
+            if (positions.isEmpty()) {
+                return;
+            }
+            int document = addDocument(messageId, getConversationId(conversationKey), timestamp);
+            for (Map.Entry<String, IntList> entry : positions.entrySet()) {
+                terms.computeIfAbsent(entry.getKey(), term -> new Postings()).add(document, entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private int addDocument(String messageId, int conversationId, long timestamp) {
+        if (documentCount == messageIds.length) {
+            int capacity = documentCount * 2;
+            messageIds = Arrays.copyOf(messageIds, capacity);
+            documentConversations = Arrays.copyOf(documentConversations, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        messageIds[documentCount] = messageId;
+        documentConversations[documentCount] = conversationId;
+        timestamps[documentCount] = timestamp;
+        dirty = true;
+        return documentCount++;
+    }
+    
+    private int getConversationId(String conversationKey) {
+        Integer id = conversationIds.get(conversationKey);
+        if (id == null) {
+            id = conversationKeys.size();
+            conversationKeys.add(conversationKey);
+            conversationIds.put(conversationKey, id);
+        }
+        return id;
+    }
+    
+    /**
+     * Registra quantas mensagens de uma conversa já foram indexadas.
+     *
+     * @param conversationKey Chave da conversa
+     * @param size Número de mensagens (próxima posição a indexar)
+     */
+    public void markIndexed(String conversationKey, long size) {
+        lock.writeLock().lock();
+        try {
+            Long current = indexedSizes.get(conversationKey);
+            if (current == null || current < size) {
+                indexedSizes.put(conversationKey, size);
+                dirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Obtém quantas mensagens de uma conversa já foram indexadas.
+     *
+     * @param conversationKey Chave da conversa
+     * @return Próxima posição a indexar (0 se a conversa não tiver sido indexada)
+     */
+    public long getIndexedSize(String conversationKey) {
+        lock.readLock().lock();
+        try {
+            return indexedSizes.getOrDefault(conversationKey, 0L);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Remove uma mensagem dos resultados das buscas.
+     *
+     * @param messageId ID da mensagem
+     */
+    public void remove(String messageId) {
+        lock.writeLock().lock();
+        try {
+            if (deletedIds.add(messageId)) {
+                dirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Busca mensagens que contenham todos os termos da consulta. Trechos entre
+     * aspas devem aparecer como frase (termos consecutivos).
+     *
+     * @param query Consulta (ex.: {@code reunião "sala 3"})
+     * @param conversationKeys Conversas em que buscar (null para todas)
+     * @param limit Número máximo de resultados
+     * @param offset Deslocamento para paginação
+     * @return Mensagens encontradas, das mais recentes para as mais antigas
+     */
+    public List<Hit> search(String query, Collection<String> conversationKeys, int limit, int offset) {
+        List<List<String>> clauses = parseQuery(query);
+        List<Hit> hits = new ArrayList<>();
+        if (clauses.isEmpty() || limit <= 0) {
+            return hits;
+        }
+        lock.readLock().lock();
+        try {
+            BitSet allowed = null;
+            if (conversationKeys != null) {
+                allowed = new BitSet();
+                for (String conversationKey : conversationKeys) {
+                    Integer id = conversationIds.get(conversationKey);
+                    if (id != null) {
+                        allowed.set(id);
+                    }
+                }
+                if (allowed.isEmpty()) {
+                    return hits;
+                }
+            }
+            
+            // Listas dos termos, da menor para a maior; um termo ausente não tem resultados
+            Set<String> distinctTerms = new HashSet<>();
+            for (List<String> clause : clauses) {
+                distinctTerms.addAll(clause);
+            }
+            List<Postings> lists = new ArrayList<>();
+            for (String term : distinctTerms) {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    return hits;
+                }
+                lists.add(postings);
+            }
+            lists.sort((a, b) -> Integer.compare(a.documentFrequency, b.documentFrequency));
+            
+            // Intersecção dos documentos, a partir da menor lista
+            int[] candidates = lists.get(0).documents();
+            for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+                candidates = lists.get(i).intersect(candidates);
+            }
+            int count = 0;
+            for (int document : candidates) {
+                if (allowed != null && !allowed.get(documentConversations[document])) {
+                    continue;
+                }
+                if (!deletedIds.isEmpty() && deletedIds.contains(messageIds[document])) {
+                    continue;
+                }
+                candidates[count++] = document;
+            }
+            candidates = Arrays.copyOf(candidates, count);
+            
+            // Posições dos termos das frases, apenas nos documentos restantes
+            Map<String, Decoded> positions = new HashMap<>();
+            for (List<String> clause : clauses) {
+                if (clause.size() > 1) {
+                    for (String term : clause) {
+                        if (!positions.containsKey(term)) {
+                            positions.put(term, terms.get(term).decode(candidates));
+                        }
+                    }
+                }
+            }
+            
+            // Os "offset + limit" documentos mais recentes
+            int wanted = offset + limit;
+            PriorityQueue<Integer> newest = new PriorityQueue<>(wanted + 1, this::compareByTime);
+            for (int document : candidates) {
+                if (!positions.isEmpty() && !matchesPhrases(document, clauses, positions)) {
+                    continue;
+                }
+                newest.add(document);
+                if (newest.size() > wanted) {
+                    newest.poll();
+                }
+            }
+            
+            List<Integer> documents = new ArrayList<>(newest);
+            documents.sort((a, b) -> compareByTime(b, a));
+            for (int i = offset; i < documents.size(); i++) {
+                int document = documents.get(i);
+                hits.add(new Hit(messageIds[document], this.conversationKeys.get(documentConversations[document]),
+                        timestamps[document]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private int compareByTime(int a, int b) {
+        int result = Long.compare(timestamps[a], timestamps[b]);
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+    
+    /**
+     * Verifica se as frases da consulta aparecem em um documento.
+     */
+    private static boolean matchesPhrases(int document, List<List<String>> clauses, Map<String, Decoded> decoded) {
+        for (List<String> clause : clauses) {
+            if (clause.size() < 2) {
+                continue;
+            }
+            Decoded first = decoded.get(clause.get(0));
+            int index = Arrays.binarySearch(first.documents, document);
+            boolean found = false;
+            for (int p = first.positionStarts[index]; p < first.positionStarts[index + 1] && !found; p++) {
+                int start = first.positions.values[p];
+                found = true;
+                for (int t = 1; t < clause.size() && found; t++) {
+                    found = decoded.get(clause.get(t)).hasPosition(document, start + t);
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Divide a consulta em cláusulas: cada palavra fora de aspas é uma cláusula
+     * de um termo; cada trecho entre aspas é uma frase.
+     */
+    static List<List<String>> parseQuery(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        if (query == null) {
+            return clauses;
+        }
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            List<String> tokens = TextAnalyzer.tokenize(parts[i]);
+            if (i % 2 == 1 && tokens.size() > 1) {
+                clauses.add(tokens);
+            } else {
+                for (String token : tokens) {
+                    List<String> clause = new ArrayList<>();
+                    clause.add(token);
+                    clauses.add(clause);
+                }
+            }
+        }
+        return clauses;
+    }
+    
+    /**
+     * Indica se o índice foi alterado desde a última gravação.
+     *
+     * @return true se houver alterações não gravadas
+     */
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return dirty;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Obtém o número de mensagens indexadas, incluindo as excluídas ainda não
+     * removidas pela compactação.
+     *
+     * @return Número de documentos
+     */
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Obtém o número de termos distintos do índice.
+     *
+     * @return Número de termos
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Remove do índice os documentos excluídos, renumerando os demais, quando
+     * eles passam de um quarto do índice.
+     *
+     * @return true se o índice foi compactado
+     */
+    public boolean compactIfNeeded() {
+        lock.writeLock().lock();
+        try {
+            if (deletedIds.size() < Math.max(MIN_DELETED_TO_COMPACT, documentCount / 4)) {
+                return false;
+            }
+            int[] remap = new int[documentCount];
+            int kept = 0;
+            for (int d = 0; d < documentCount; d++) {
+                if (deletedIds.contains(messageIds[d])) {
+                    remap[d] = -1;
+                } else {
+                    messageIds[kept] = messageIds[d];
+                    documentConversations[kept] = documentConversations[d];
+                    timestamps[kept] = timestamps[d];
+                    remap[d] = kept++;
+                }
+            }
+            Arrays.fill(messageIds, kept, documentCount, null);
+            documentCount = kept;
+            
+            Map<String, Postings> compacted = new HashMap<>();
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Decoded decoded = entry.getValue().decode(null);
+                Postings postings = new Postings();
+                for (int i = 0; i < decoded.documents.length; i++) {
+                    int document = remap[decoded.documents[i]];
+                    if (document >= 0) {
+                        IntList positions = new IntList();
+                        for (int p = decoded.positionStarts[i]; p < decoded.positionStarts[i + 1]; p++) {
+                            positions.add(decoded.positions.values[p]);
+                        }
+                        postings.add(document, positions);
+                    }
+                }
+                if (postings.documentFrequency > 0) {
+                    compacted.put(entry.getKey(), postings);
+                }
+            }
+            terms.clear();
+            terms.putAll(compacted);
+            deletedIds.clear();
+            dirty = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Grava o índice em um arquivo, de forma atômica, com um checksum CRC32C.
+     *
+     * @param file Arquivo do índice
+     * @throws IOException Erro ao gravar o arquivo
+     */
+    public void save(File file) throws IOException {
+        lock.readLock().lock();
+        try {
+            AtomicFiles.write(file, target -> {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(target), new CRC32C());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(conversationKeys.size());
+                for (String conversationKey : conversationKeys) {
+                    out.writeUTF(conversationKey);
+                }
+                out.writeInt(indexedSizes.size());
+                for (Map.Entry<String, Long> entry : indexedSizes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                out.writeInt(documentCount);
+                for (int d = 0; d < documentCount; d++) {
+                    out.writeUTF(messageIds[d]);
+                    out.writeInt(documentConversations[d]);
+                    out.writeLong(timestamps[d]);
+                }
+                out.writeInt(deletedIds.size());
+                for (String messageId : deletedIds) {
+                    out.writeUTF(messageId);
+                }
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                    Postings postings = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(postings.documentFrequency);
+                    out.writeInt(postings.lastDocument);
+                    out.writeInt(postings.length);
+                    out.write(postings.data, 0, postings.length);
+                }
+                out.flush();
+                // O checksum não entra no próprio cálculo
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Lê um índice gravado com {@link #save(File)}.
+     *
+     * @param file Arquivo do índice
+     * @return Índice lido
+     * @throws IOException Erro ao ler o arquivo, formato desconhecido ou checksum inválido
+     */
+    public static MessageSearchIndex load(File file) throws IOException {
+        MessageSearchIndex index = new MessageSearchIndex();
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32C())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Formato de índice de busca desconhecido: " + file.getPath());
+            }
+            int conversations = in.readInt();
+            for (int i = 0; i < conversations; i++) {
+                index.getConversationId(in.readUTF());
+            }
+            int sizes = in.readInt();
+            for (int i = 0; i < sizes; i++) {
+                index.indexedSizes.put(in.readUTF(), in.readLong());
+            }
+            int documents = in.readInt();
+            int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, documents)) * 2);
+            index.messageIds = new String[capacity];
+            index.documentConversations = new int[capacity];
+            index.timestamps = new long[capacity];
+            for (int d = 0; d < documents; d++) {
+                index.messageIds[d] = in.readUTF();
+                index.documentConversations[d] = in.readInt();
+                index.timestamps[d] = in.readLong();
+            }
+            index.documentCount = documents;
+            int deleted = in.readInt();
+            for (int i = 0; i < deleted; i++) {
+                index.deletedIds.add(in.readUTF());
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                int documentFrequency = in.readInt();
+                int lastDocument = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                index.terms.put(term, new Postings(data, data.length, documentFrequency, lastDocument));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Checksum inválido no índice de busca: " + file.getPath());
+            }
+        }
+        return index;
+    }
+}
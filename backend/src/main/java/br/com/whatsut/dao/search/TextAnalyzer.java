@@ -0,0 +1,66 @@
+package br.com.whatsut.dao.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Divide textos em termos para o índice de busca: letras e dígitos
+ * consecutivos, em minúsculas e sem acentos ("Ação" e "acao" geram o mesmo
+ * termo), de modo que buscas em português não dependem da acentuação digitada.
+ * A posição de cada termo é a sua ordem no texto, usada nas buscas por frase.
+ */
+public final class TextAnalyzer {
+    
+    /**
+     * Tamanho máximo de um termo; termos maiores (ex.: links e códigos) são truncados.
+     */
+    public static final int MAX_TERM_LENGTH = 40;
+    
+    private TextAnalyzer() {
+    }
+    
+    /**
+     * Remove acentos e converte para minúsculas.
+     *
+     * @param text Texto
+     * @return Texto normalizado
+     */
+    public static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Divide um texto em termos normalizados, na ordem em que aparecem.
+     *
+     * @param text Texto (pode ser null)
+     * @return Termos do texto
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(folded.substring(start, Math.min(i, start + MAX_TERM_LENGTH)));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,664 @@
+package br.com.whatsut.dao.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Arquivo de log append-only com um registro por linha.
+ * Cada linha leva o CRC32C do registro ({@code <crc em hexadecimal> <registro>}).
+ * Linhas do formato anterior, sem checksum, só são aceitas em um log que começa
+ * por uma delas e antes do primeiro registro com checksum (o formato é decidido
+ * pelo primeiro registro do arquivo); um log desse tipo aberto para escrita é
+ * regravado inteiro com checksums. Em qualquer outra posição, uma linha sem
+ * checksum válido é tratada como corrompida. Registros
+ * que contêm quebras de linha (codificações binárias, veja {@link StorageFormat})
+ * são gravados como quadros com prefixo de tamanho: um byte marcador, o
+ * tamanho e o CRC32C (4 bytes cada) e o registro. Linhas e quadros podem se
+ * alternar no mesmo log. Na abertura
+ * para escrita o log é validado sem decodificar os registros: um final
+ * incompleto (queda no meio de uma gravação) ou um registro com checksum
+ * inválido é truncado, junto com tudo o que vem depois dele, e o reparo é
+ * informado ao {@link RecoveryReport}. A leitura para no primeiro registro
+ * inválido, de modo que todos os leitores enxergam o mesmo prefixo íntegro.
+ * <p>
+ * A durabilidade segue uma {@link WritePolicy}: os registros acrescentados
+ * ficam em um buffer e são gravados e sincronizados com o disco (fsync) em
+ * lotes — imediatamente (sync), após uma janela curta que agrupa as gravações
+ * concorrentes (group commit) ou periodicamente em segundo plano (async). Cada
+ * registro recebe um número de confirmação; {@link #awaitDurable(long)} espera
+ * que ele esteja no disco conforme a política.
+ */
+public class AppendLog implements Closeable {
+    private static final Logger logger = Logger.getLogger(AppendLog.class.getName());
+    private static final byte RECORD_SEPARATOR = '\n';
+    private static final byte CHECKSUM_SEPARATOR = ' ';
+    private static final int CHECKSUM_LENGTH = 8;
+    // Início de um quadro binário; nunca inicia uma linha (checksum hexadecimal ou JSON)
+    private static final byte FRAME_MARKER = (byte) 0xB7;
+    private static final int FRAME_HEADER_LENGTH = 9;
+    // Início dos registros do formato anterior (objetos JSON)
+    private static final byte LEGACY_RECORD_START = '{';
+    
+    // Tamanho do buffer a partir do qual uma gravação assíncrona é feita pelo próprio chamador
+    private static final int MAX_PENDING_BYTES = 1024 * 1024;
+    
+    // Thread compartilhada que grava os lotes de todos os logs em group commit e async
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "append-log-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final File file;
+    private final WritePolicy policy;
+    
+    // Serializa a gravação dos lotes no arquivo, preservando a ordem dos registros
+    private final Object writeLock = new Object();
+    
+    // Arquivo aberto para acréscimo, substituído ao descartar o início do log (com writeLock)
+    private FileOutputStream out;
+    
+    // Estado do buffer, protegido pelo monitor do log
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedTicket;
+    private long durableTicket;
+    // Bytes já entregues ao arquivo (gravados ou sendo gravados pelo lote atual)
+    private long flushedBytes;
+    private boolean flushScheduled;
+    private boolean closed;
+    private IOException failure;
+    
+    /**
+     * Abre (ou cria) um log append-only em que cada registro é sincronizado
+     * com o disco antes de a gravação retornar.
+     *
+     * @param file Arquivo do log
+     * @throws IOException Erro ao abrir o arquivo
+     */
+    public AppendLog(File file) throws IOException {
+        this(file, WritePolicy.SYNC);
+    }
+    
+    /**
+     * Abre (ou cria) um log append-only.
+     *
+     * @param file Arquivo do log
+     * @param policy Política de gravação dos registros
+     * @throws IOException Erro ao abrir o arquivo
+     */
+    public AppendLog(File file, WritePolicy policy) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        recover();
+        this.out = new FileOutputStream(file, true);
+        this.flushedBytes = file.length();
+    }
+    
+    /**
+     * Valida o log e trunca o final incompleto ou corrompido, se houver. Um log
+     * com registros do formato anterior é regravado com checksums, para que
+     * os próximos registros não dependam do formato antigo.
+     */
+    private void recover() throws IOException {
+        if (AtomicFiles.removeLeftoverTemp(file)) {
+            RecoveryReport.add(file, "cópia temporária de um descarte interrompido do início do log removida");
+        }
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+        Scan scan = scan(Files.readAllBytes(file.toPath()));
+        long length = file.length();
+        if (scan.validLength < length) {
+            RecoveryReport.add(file, (scan.corrupted
+                    ? "registro com checksum inválido na posição " + scan.validLength
+                    : "registro incompleto no final do log")
+                    + ", " + (length - scan.validLength) + " bytes descartados ("
+                    + scan.records.size() + " registros íntegros mantidos)");
+        }
+        if (scan.legacyRecords > 0) {
+            rewrite(file, scan.records);
+            RecoveryReport.add(file, scan.legacyRecords + " registros sem checksum convertidos para o formato atual");
+            return;
+        }
+        if (scan.validLength < length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(scan.validLength);
+                raf.getFD().sync();
+            }
+        }
+    }
+    
+    /**
+     * Codifica um registro como uma linha do log, com o seu checksum, ou como
+     * um quadro binário se ele contiver quebras de linha.
+     */
+    private static byte[] encode(byte[] record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, 0, record.length);
+        if (containsSeparator(record)) {
+            return encodeFrame(record, (int) crc.getValue());
+        }
+        byte[] checksum = String.format("%08x", crc.getValue()).getBytes(StandardCharsets.US_ASCII);
+        byte[] line = new byte[CHECKSUM_LENGTH + 1 + record.length + 1];
+        System.arraycopy(checksum, 0, line, 0, CHECKSUM_LENGTH);
+        line[CHECKSUM_LENGTH] = CHECKSUM_SEPARATOR;
+        System.arraycopy(record, 0, line, CHECKSUM_LENGTH + 1, record.length);
+        line[line.length - 1] = RECORD_SEPARATOR;
+        return line;
+    }
+    
+    private static boolean containsSeparator(byte[] record) {
+        for (byte b : record) {
+            if (b == RECORD_SEPARATOR) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Codifica um registro como quadro: marcador, tamanho, CRC32C e registro.
+     */
+    private static byte[] encodeFrame(byte[] record, int checksum) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH + record.length);
+        frame.put(FRAME_MARKER);
+        frame.putInt(record.length);
+        frame.putInt(checksum);
+        frame.put(record);
+        return frame.array();
+    }
+    
+    /**
+     * Verifica se uma linha do log (sem a quebra de linha) começa por um
+     * checksum: oito dígitos hexadecimais seguidos de espaço.
+     */
+    private static boolean hasChecksum(byte[] content, int start, int end) {
+        if (end - start <= CHECKSUM_LENGTH || content[start + CHECKSUM_LENGTH] != CHECKSUM_SEPARATOR) {
+            return false;
+        }
+        for (int i = start; i < start + CHECKSUM_LENGTH; i++) {
+            if (Character.digit(content[i], 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Decodifica uma linha do log com checksum (sem a quebra de linha).
+     *
+     * @return Registro ou null se o checksum não conferir
+     */
+    private static byte[] decode(byte[] content, int start, int end) {
+        long expected = Long.parseLong(new String(content, start, CHECKSUM_LENGTH, StandardCharsets.US_ASCII), 16);
+        CRC32C crc = new CRC32C();
+        crc.update(content, start + CHECKSUM_LENGTH + 1, end - start - CHECKSUM_LENGTH - 1);
+        if (crc.getValue() != expected) {
+            return null;
+        }
+        return Arrays.copyOfRange(content, start + CHECKSUM_LENGTH + 1, end);
+    }
+    
+    /**
+     * Resultado da validação de um log: registros íntegros e tamanho do
+     * prefixo válido do arquivo.
+     */
+    private static final class Scan {
+        private final List<byte[]> records = new ArrayList<>();
+        private long validLength;
+        private boolean corrupted;
+        // Registros sem checksum, aceitos apenas no início de um log do formato anterior
+        private int legacyRecords;
+        private boolean checksummed;
+    }
+    
+    /**
+     * Percorre as linhas e quadros do log até o final ou até o primeiro
+     * registro inválido.
+     */
+    private static Scan scan(byte[] content) {
+        Scan scan = new Scan();
+        int start = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (i == start && content[i] == FRAME_MARKER) {
+                scan.checksummed = true;
+                if (content.length - i < FRAME_HEADER_LENGTH) {
+                    return scan;
+                }
+                ByteBuffer header = ByteBuffer.wrap(content, i + 1, FRAME_HEADER_LENGTH - 1);
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || length > content.length - i - FRAME_HEADER_LENGTH) {
+                    // Quadro incompleto (ou tamanho corrompido) no final do log
+                    return scan;
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(content, i + FRAME_HEADER_LENGTH, length);
+                if ((int) crc.getValue() != checksum) {
+                    scan.corrupted = true;
+                    return scan;
+                }
+                start = i + FRAME_HEADER_LENGTH + length;
+                scan.records.add(Arrays.copyOfRange(content, i + FRAME_HEADER_LENGTH, start));
+                scan.validLength = start;
+                i = start - 1;
+            } else if (content[i] == RECORD_SEPARATOR) {
+                if (i > start) {
+                    byte[] record;
+                    if (hasChecksum(content, start, i)) {
+                        record = decode(content, start, i);
+                        scan.checksummed = true;
+                    } else if (!scan.checksummed && content[start] == LEGACY_RECORD_START) {
+                        // Registro do formato anterior, antes de qualquer registro com checksum
+                        record = Arrays.copyOfRange(content, start, i);
+                        scan.legacyRecords++;
+                    } else {
+                        record = null;
+                    }
+                    if (record == null) {
+                        scan.corrupted = true;
+                        return scan;
+                    }
+                    scan.records.add(record);
+                }
+                start = i + 1;
+                scan.validLength = start;
+            }
+        }
+        return scan;
+    }
+    
+    /**
+     * Acrescenta um registro ao final do log e espera a sua gravação conforme
+     * a política do log.
+     *
+     * @param record Conteúdo do registro
+     * @throws IOException Erro ao gravar o registro
+     */
+    public void append(byte[] record) throws IOException {
+        awaitDurable(enqueue(record));
+    }
+    
+    /**
+     * Acrescenta um registro ao buffer do log, sem esperar a sua gravação.
+     * Permite ao chamador liberar os seus locks antes de chamar
+     * {@link #awaitDurable(long)}, de modo que gravações concorrentes entrem no
+     * mesmo lote.
+     *
+     * @param record Conteúdo do registro
+     * @return Número de confirmação do registro
+     * @throws IOException Se o log estiver fechado ou uma gravação anterior tiver falhado
+     */
+    public synchronized long enqueue(byte[] record) throws IOException {
+        checkWritable();
+        byte[] line = encode(record);
+        pending.write(line, 0, line.length);
+        long ticket = ++appendedTicket;
+        if (policy.getDurability() != WritePolicy.Durability.SYNC && !flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::scheduledFlush, policy.getFlushDelayMillis(), TimeUnit.MILLISECONDS);
+        }
+        return ticket;
+    }
+    
+    /**
+     * Espera que um registro esteja gravado conforme a política do log: em sync
+     * o lote pendente é gravado pelo próprio chamador; em group commit o
+     * chamador espera a gravação do seu lote; em async retorna imediatamente
+     * (a menos que o buffer esteja cheio).
+     *
+     * @param ticket Número de confirmação retornado por {@link #enqueue(byte[])}
+     * @throws IOException Erro ao gravar o lote do registro
+     */
+    public void awaitDurable(long ticket) throws IOException {
+        switch (policy.getDurability()) {
+            case SYNC:
+                if (!isDurable(ticket)) {
+                    flush();
+                }
+                break;
+            case GROUP_COMMIT:
+                waitFor(ticket);
+                break;
+            default:
+                if (pendingBytes() >= MAX_PENDING_BYTES) {
+                    flush();
+                }
+                break;
+        }
+    }
+    
+    private synchronized boolean isDurable(long ticket) throws IOException {
+        if (failure != null) {
+            throw new IOException("Falha anterior na gravação do log: " + file.getPath(), failure);
+        }
+        return durableTicket >= ticket;
+    }
+    
+    private synchronized int pendingBytes() {
+        return pending.size();
+    }
+    
+    private synchronized void waitFor(long ticket) throws IOException {
+        while (!isDurable(ticket)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrompido aguardando a gravação do log: " + file.getPath());
+            }
+        }
+    }
+    
+    private synchronized void checkWritable() throws IOException {
+        if (closed) {
+            throw new IOException("Log fechado: " + file.getPath());
+        }
+        if (failure != null) {
+            throw new IOException("Falha anterior na gravação do log: " + file.getPath(), failure);
+        }
+    }
+    
+    /**
+     * Grava o lote agendado (thread de gravação).
+     */
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar registros no log: " + file.getPath(), e);
+        }
+    }
+    
+    /**
+     * Grava os registros pendentes no arquivo e os sincroniza com o disco.
+     * Uma falha é permanente: o log deixa de aceitar registros e quem espera
+     * pelos registros pendentes recebe o erro.
+     *
+     * @throws IOException Erro ao gravar ou sincronizar o arquivo
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            byte[] batch;
+            long batchTicket;
+            synchronized (this) {
+                flushScheduled = false;
+                if (failure != null) {
+                    throw new IOException("Falha anterior na gravação do log: " + file.getPath(), failure);
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                batchTicket = appendedTicket;
+                flushedBytes += batch.length;
+                pending.reset();
+            }
+            try {
+                out.write(batch);
+                out.getChannel().force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                durableTicket = batchTicket;
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Lê todos os registros completos do log, na ordem em que foram gravados.
+     *
+     * @return Lista de registros
+     * @throws IOException Erro ao ler o arquivo
+     */
+    public List<byte[]> readAll() throws IOException {
+        flush();
+        return readRecords(file);
+    }
+    
+    /**
+     * Lê todos os registros completos e íntegros de um arquivo de log, sem abri-lo
+     * para escrita. A leitura para no primeiro registro com checksum inválido.
+     *
+     * @param file Arquivo do log
+     * @return Lista de registros (vazia se o arquivo não existir)
+     * @throws IOException Erro ao ler o arquivo
+     */
+    public static List<byte[]> readRecords(File file) throws IOException {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        return readRecords(Files.readAllBytes(file.toPath()), file);
+    }
+    
+    private static List<byte[]> readRecords(byte[] content, File file) {
+        Scan scan = scan(content);
+        if (scan.corrupted) {
+            logger.warning("Registro com checksum inválido em " + file.getPath() + " na posição "
+                    + scan.validLength + "; os registros seguintes foram ignorados");
+        }
+        return scan.records;
+    }
+    
+    /**
+     * Lê todos os registros completos e íntegros de um log compactado
+     * ({@link #compress(File, File, int)}).
+     *
+     * @param file Arquivo compactado
+     * @return Lista de registros (vazia se o arquivo não existir)
+     * @throws IOException Erro ao ler ou descompactar o arquivo
+     */
+    public static List<byte[]> readCompressedRecords(File file) throws IOException {
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        byte[] content;
+        try (InputStream in = new InflaterInputStream(new FileInputStream(file))) {
+            content = in.readAllBytes();
+        }
+        return readRecords(content, file);
+    }
+    
+    /**
+     * Grava uma cópia compactada (deflate) de um log que não é mais alterado,
+     * de forma atômica. O conteúdo é mantido byte a byte, com os checksums dos
+     * registros, e é lido com {@link #readCompressedRecords(File)}.
+     *
+     * @param source Arquivo do log
+     * @param target Arquivo compactado
+     * @param level Nível de compressão (1 a 9)
+     * @throws IOException Erro ao ler o log ou gravar o arquivo compactado
+     */
+    public static void compress(File source, File target, int level) throws IOException {
+        writeCompressed(target, Files.readAllBytes(source.toPath()), level);
+    }
+    
+    /**
+     * Substitui o conteúdo de um log compactado por outros registros, de forma atômica.
+     *
+     * @param file Arquivo compactado
+     * @param records Novos registros, na ordem
+     * @param level Nível de compressão (1 a 9)
+     * @throws IOException Erro ao gravar o arquivo
+     */
+    public static void rewriteCompressed(File file, List<byte[]> records, int level) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            content.write(encode(record));
+        }
+        writeCompressed(file, content.toByteArray(), level);
+    }
+    
+    private static void writeCompressed(File file, byte[] content, int level) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            AtomicFiles.write(file, out -> {
+                DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater);
+                compressed.write(content);
+                // Conclui a compressão sem fechar o stream do arquivo temporário
+                compressed.finish();
+            });
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    /**
+     * Substitui o conteúdo de um arquivo de log por outros registros, de forma
+     * atômica. O log não pode estar aberto para escrita.
+     *
+     * @param file Arquivo do log
+     * @param records Novos registros, na ordem
+     * @throws IOException Erro ao gravar o arquivo
+     */
+    public static void rewrite(File file, List<byte[]> records) throws IOException {
+        AtomicFiles.write(file, out -> {
+            for (byte[] record : records) {
+                out.write(encode(record));
+            }
+        });
+    }
+    
+    /**
+     * Remove todos os registros do log.
+     *
+     * @throws IOException Erro ao truncar o arquivo
+     */
+    public void truncate() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                // Os registros pendentes também são descartados
+                pending.reset();
+                durableTicket = appendedTicket;
+                flushedBytes = 0;
+                notifyAll();
+            }
+            out.getChannel().truncate(0);
+        }
+    }
+    
+    /**
+     * Obtém a posição lógica do final do log: o tamanho que o arquivo terá
+     * quando todos os registros já acrescentados forem gravados. Uma marca
+     * sempre cai entre dois registros e pode ser passada a
+     * {@link #discardBefore(long)}.
+     *
+     * @return Posição em bytes após o último registro acrescentado
+     */
+    public synchronized long mark() {
+        return flushedBytes + pending.size();
+    }
+    
+    /**
+     * Descarta os registros anteriores a uma marca, mantendo os acrescentados
+     * depois dela. Os registros mantidos são gravados em um novo arquivo que
+     * substitui o log de forma atômica: uma queda deixa o log anterior ou o
+     * novo, nunca um log sem os registros posteriores à marca. Acréscimos
+     * concorrentes continuam no buffer e são gravados no novo arquivo.
+     *
+     * @param mark Posição obtida com {@link #mark()}
+     * @throws IOException Erro ao gravar o novo arquivo
+     */
+    public void discardBefore(long mark) throws IOException {
+        // Garantir que os registros até a marca estejam no arquivo
+        flush();
+        synchronized (writeLock) {
+            checkWritable();
+            long length = file.length();
+            if (mark <= 0 || mark > length) {
+                return;
+            }
+            byte[] kept = new byte[(int) (length - mark)];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(mark);
+                raf.readFully(kept);
+            }
+            AtomicFiles.write(file, target -> target.write(kept));
+            FileOutputStream previous = out;
+            out = new FileOutputStream(file, true);
+            previous.close();
+            synchronized (this) {
+                flushedBytes -= mark;
+            }
+        }
+    }
+    
+    /**
+     * Obtém o tamanho atual do log em bytes.
+     *
+     * @return Tamanho do arquivo
+     */
+    public long size() {
+        return file.length();
+    }
+    
+    /**
+     * Obtém o arquivo do log.
+     *
+     * @return Arquivo
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * Obtém a política de gravação do log.
+     *
+     * @return Política de gravação
+     */
+    public WritePolicy getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Fecha o log, gravando os registros pendentes.
+     *
+     * @throws IOException Erro ao gravar os registros pendentes ou fechar o arquivo
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (writeLock) {
+                synchronized (this) {
+                    closed = true;
+                    notifyAll();
+                }
+                out.close();
+            }
+        }
+    }
+}
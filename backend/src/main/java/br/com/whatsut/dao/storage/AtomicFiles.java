@@ -0,0 +1,127 @@
+package br.com.whatsut.dao.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Gravação atômica de arquivos: o conteúdo é gravado em um arquivo temporário
+ * no mesmo diretório, sincronizado com o disco e renomeado sobre o destino.
+ * Uma queda durante a gravação deixa o arquivo anterior intacto (e, no máximo,
+ * um temporário que é descartado na próxima abertura).
+ */
+public final class AtomicFiles {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CORRUPT_SUFFIX = ".corrupt-";
+    
+    /**
+     * Conteúdo a ser gravado no arquivo.
+     */
+    @FunctionalInterface
+    public interface Content {
+        /**
+         * Grava o conteúdo no stream (que não deve ser fechado pelo chamador).
+         *
+         * @param out Stream do arquivo temporário
+         * @throws IOException Erro ao gravar
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+    
+    private AtomicFiles() {
+    }
+    
+    /**
+     * Obtém o arquivo temporário usado na gravação de um arquivo.
+     *
+     * @param target Arquivo de destino
+     * @return Arquivo temporário (oculto, no mesmo diretório)
+     */
+    public static File getTempFile(File target) {
+        return new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + TEMP_SUFFIX);
+    }
+    
+    /**
+     * Grava um arquivo de forma atômica.
+     *
+     * @param target Arquivo de destino
+     * @param content Conteúdo do arquivo
+     * @throws IOException Erro ao gravar ou renomear o arquivo (o destino não é alterado)
+     */
+    public static void write(File target, Content content) throws IOException {
+        File temp = getTempFile(target);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            // Serializadores como o Jackson fecham o stream ao terminar
+            content.writeTo(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+                
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+    
+    /**
+     * Sincroniza um diretório com o disco, para que uma renomeação sobreviva a
+     * uma queda. Sistemas que não permitem abrir diretórios são ignorados.
+     */
+    private static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Não suportado (ex.: Windows); a renomeação continua atômica
+        }
+    }
+    
+    /**
+     * Remove o arquivo temporário deixado por uma gravação interrompida.
+     *
+     * @param target Arquivo de destino
+     * @return true se havia um temporário e ele foi removido
+     */
+    public static boolean removeLeftoverTemp(File target) {
+        File temp = getTempFile(target);
+        return temp.exists() && temp.delete();
+    }
+    
+    /**
+     * Move um arquivo ilegível para o lado ({@code <arquivo>.corrupt-<instante>}),
+     * preservando o conteúdo para análise em vez de sobrescrevê-lo.
+     *
+     * @param file Arquivo ilegível
+     * @return Novo local do arquivo
+     * @throws IOException Erro ao renomear o arquivo
+     */
+    public static File quarantine(File file) throws IOException {
+        File moved = new File(file.getPath() + CORRUPT_SUFFIX + System.currentTimeMillis());
+        Files.move(file.toPath(), moved.toPath());
+        return moved;
+    }
+}
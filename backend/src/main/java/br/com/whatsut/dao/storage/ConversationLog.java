@@ -0,0 +1,770 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.model.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log segmentado e append-only das mensagens de uma conversa.
+ * <p>
+ * Cada conversa ocupa um diretório com segmentos de tamanho fixo (em número de
+ * mensagens), nomeados pela sequência da primeira mensagem. O segmento ativo
+ * ({@code .log}) recebe as novas mensagens e é selado ({@code .seg}) quando fica
+ * cheio; segmentos selados nunca mais são alterados, exceto pela política de
+ * armazenamento frio ({@link SegmentTiering}): segmentos antigos são
+ * compactados ({@code .segz}) e lidos sob demanda, e os mais antigos podem ser
+ * removidos pela retenção. Exclusões são registradas
+ * em um log separado ({@code mutations.log}), de modo que a posição de uma
+ * mensagem na conversa nunca muda. O estado de leitura não é gravado nas
+ * mensagens: ele é calculado na leitura por um {@link ReadStateResolver}.
+ * Os registros são codificados por um {@link StorageCodec}; segmentos gravados
+ * antes de uma troca de formato continuam legíveis, registro a registro.
+ * <p>
+ * As mensagens são mantidas em ordem não decrescente de timestamp, o que permite
+ * paginar a conversa a partir de uma mensagem ou de um instante (keyset).
+ * <p>
+ * As gravações seguem a {@link WritePolicy} do log: {@link #append(Message)} e
+ * {@link #delete(String)} apenas acrescentam o registro ao buffer do segmento
+ * ativo ou do log de alterações e o chamador espera a gravação com
+ * {@link #awaitDurable()} depois de liberar os seus locks. As
+ * leituras do segmento ativo gravam antes os registros pendentes.
+ */
+public class ConversationLog {
+    private static final Logger logger = Logger.getLogger(ConversationLog.class.getName());
+    private static final String ACTIVE_SUFFIX = ".log";
+    private static final String SEALED_SUFFIX = ".seg";
+    private static final String COLD_SUFFIX = ".segz";
+    private static final String MUTATIONS_FILE = "mutations.log";
+    private static final String OP_DELETE = "delete";
+    // Confirmação de leitura individual do formato anterior (apenas lida)
+    private static final String OP_READ = "read";
+    
+    private final File directory;
+    private final Class<? extends Message> messageType;
+    private final int segmentSize;
+    private final StorageCodec codec;
+    private final ReadStateResolver readStateResolver;
+    private final WritePolicy writePolicy;
+    private final SegmentTiering tiering;
+    
+    // Sequência da primeira mensagem de cada segmento -> arquivo do segmento
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final Set<String> deletedIds = new HashSet<>();
+    private final Set<String> readIds = new HashSet<>();
+    
+    // Timestamp da primeira mensagem de cada segmento, carregado sob demanda
+    private final Map<Long, Long> segmentFirstTimestamps = new HashMap<>();
+    private long nextSequence;
+    private long lastTimestamp;
+    private AppendLog activeWriter;
+    private AppendLog mutationsWriter;
+    
+    // Último registro de mensagem acrescentado, para awaitDurable()
+    private AppendLog lastWriter;
+    private long lastTicket;
+    
+    // Último registro de alteração acrescentado, para awaitDurable()
+    private AppendLog lastMutationWriter;
+    private long lastMutationTicket;
+    
+    // Instante do último uso do log, para o descarte de conversas ociosas
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+    
+    /**
+     * Abre o log de uma conversa. O diretório só é criado na primeira gravação.
+     *
+     * @param directory Diretório da conversa
+     * @param messageType Classe das mensagens da conversa
+     * @param segmentSize Número máximo de mensagens por segmento
+     * @param codec Codificação dos registros (lidos em qualquer formato)
+     * @param readStateResolver Calcula se uma mensagem foi lida (ou null)
+     * @throws IOException Erro ao ler os arquivos da conversa
+     */
+    public ConversationLog(File directory, Class<? extends Message> messageType, int segmentSize,
+                           StorageCodec codec, ReadStateResolver readStateResolver) throws IOException {
+        this(directory, messageType, segmentSize, codec, readStateResolver, WritePolicy.SYNC);
+    }
+    
+    /**
+     * Abre o log de uma conversa. O diretório só é criado na primeira gravação.
+     *
+     * @param directory Diretório da conversa
+     * @param messageType Classe das mensagens da conversa
+     * @param segmentSize Número máximo de mensagens por segmento
+     * @param codec Codificação dos registros (lidos em qualquer formato)
+     * @param readStateResolver Calcula se uma mensagem foi lida (ou null)
+     * @param writePolicy Política de gravação dos segmentos e do log de alterações
+     * @throws IOException Erro ao ler os arquivos da conversa
+     */
+    public ConversationLog(File directory, Class<? extends Message> messageType, int segmentSize,
+                           StorageCodec codec, ReadStateResolver readStateResolver,
+                           WritePolicy writePolicy) throws IOException {
+        this(directory, messageType, segmentSize, codec, readStateResolver, writePolicy, null);
+    }
+    
+    /**
+     * Abre o log de uma conversa. O diretório só é criado na primeira gravação.
+     *
+     * @param directory Diretório da conversa
+     * @param messageType Classe das mensagens da conversa
+     * @param segmentSize Número máximo de mensagens por segmento
+     * @param codec Codificação dos registros (lidos em qualquer formato)
+     * @param readStateResolver Calcula se uma mensagem foi lida (ou null)
+     * @param writePolicy Política de gravação dos segmentos e do log de alterações
+     * @param tiering Estatísticas e cache da leitura de segmentos compactados (ou null)
+     * @throws IOException Erro ao ler os arquivos da conversa
+     */
+    public ConversationLog(File directory, Class<? extends Message> messageType, int segmentSize,
+                           StorageCodec codec, ReadStateResolver readStateResolver,
+                           WritePolicy writePolicy, SegmentTiering tiering) throws IOException {
+        this.directory = directory;
+        this.writePolicy = writePolicy;
+        this.messageType = messageType;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        this.readStateResolver = readStateResolver;
+        this.tiering = tiering;
+        
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ACTIVE_SUFFIX) || name.endsWith(SEALED_SUFFIX)
+                || name.endsWith(COLD_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(MUTATIONS_FILE)) {
+                    continue;
+                }
+                try {
+                    addSegment(Long.parseLong(name.substring(0, name.lastIndexOf('.'))), file);
+                } catch (NumberFormatException e) {
+                    logger.warning("Arquivo ignorado no diretório da conversa: " + file.getPath());
+                }
+            }
+        }
+        
+        if (!segments.isEmpty()) {
+            Map.Entry<Long, File> last = segments.lastEntry();
+            List<byte[]> records = readSegment(last.getValue());
+            nextSequence = last.getKey() + records.size();
+            if (!records.isEmpty()) {
+                lastTimestamp = readTimestamp(records.get(records.size() - 1));
+            }
+        }
+        
+        loadMutations();
+    }
+    
+    /**
+     * Registra um segmento encontrado no diretório. Se a compactação de um
+     * segmento tiver sido interrompida depois de gravar a cópia compactada
+     * (gravada de forma atômica), o segmento original é removido.
+     */
+    private void addSegment(long baseSequence, File file) throws IOException {
+        File existing = segments.get(baseSequence);
+        if (existing == null) {
+            segments.put(baseSequence, file);
+            return;
+        }
+        File cold = isCold(file) ? file : existing;
+        File sealed = isCold(file) ? existing : file;
+        logger.info("Removendo segmento já compactado: " + sealed.getPath());
+        Files.deleteIfExists(sealed.toPath());
+        segments.put(baseSequence, cold);
+    }
+    
+    private static boolean isCold(File segment) {
+        return segment.getName().endsWith(COLD_SUFFIX);
+    }
+    
+    /**
+     * Carrega as exclusões e confirmações de leitura registradas.
+     */
+    private void loadMutations() throws IOException {
+        for (byte[] record : AppendLog.readRecords(new File(directory, MUTATIONS_FILE))) {
+            try {
+                JsonNode node = codec.readTree(record);
+                String id = node.path("id").asText();
+                String op = node.path("op").asText();
+                if (OP_DELETE.equals(op)) {
+                    deletedIds.add(id);
+                } else if (OP_READ.equals(op)) {
+                    readIds.add(id);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Registro inválido ignorado em " + directory.getPath(), e);
+            }
+        }
+    }
+    
+    /**
+     * Obtém o nome do arquivo de um segmento.
+     */
+    private static String segmentName(long baseSequence, String suffix) {
+        return String.format("%020d%s", baseSequence, suffix);
+    }
+    
+    /**
+     * Acrescenta uma mensagem ao final da conversa. Se o timestamp da mensagem for
+     * anterior ao da última mensagem gravada (ex.: ajuste do relógio), ele é
+     * ajustado para manter a conversa ordenada. O timestamp gravado é o instante
+     * da mensagem para todos os fins (exibição, cursores por timestamp e busca);
+     * o instante contido no ID da mensagem não é usado.
+     *
+     * @param message Mensagem
+     * @return Sequência (posição) da mensagem na conversa
+     * @throws IOException Erro ao gravar a mensagem
+     */
+    public synchronized long append(Message message) throws IOException {
+        if (message.getTimestamp() < lastTimestamp) {
+            message.setTimestamp(lastTimestamp);
+        }
+        if (activeWriter == null || isActiveSegmentFull()) {
+            rollActiveSegment();
+        }
+        lastTicket = activeWriter.enqueue(codec.encode(message));
+        lastWriter = activeWriter;
+        lastTimestamp = message.getTimestamp();
+        return nextSequence++;
+    }
+    
+    /**
+     * Espera a gravação das mensagens e alterações já acrescentadas, conforme a
+     * política do log. Não usa o monitor do log, de modo que outros registros
+     * podem ser acrescentados (e entrar no mesmo lote) durante a espera.
+     *
+     * @throws IOException Erro ao gravar os registros
+     */
+    public void awaitDurable() throws IOException {
+        AppendLog writer;
+        long ticket;
+        AppendLog mutationWriter;
+        long mutationTicket;
+        synchronized (this) {
+            writer = lastWriter;
+            ticket = lastTicket;
+            mutationWriter = lastMutationWriter;
+            mutationTicket = lastMutationTicket;
+        }
+        if (writer != null) {
+            writer.awaitDurable(ticket);
+        }
+        if (mutationWriter != null) {
+            mutationWriter.awaitDurable(mutationTicket);
+        }
+    }
+    
+    /**
+     * Lê os registros de um segmento, gravando antes os registros pendentes se
+     * for o segmento ativo.
+     */
+    private List<byte[]> readSegment(File segment) throws IOException {
+        if (isCold(segment)) {
+            return readColdSegment(segment);
+        }
+        if (activeWriter != null && activeWriter.getFile().equals(segment)) {
+            activeWriter.flush();
+        }
+        return AppendLog.readRecords(segment);
+    }
+    
+    /**
+     * Lê um segmento compactado, descompactando-o apenas se ele não estiver no
+     * cache compartilhado de segmentos descompactados.
+     */
+    private List<byte[]> readColdSegment(File segment) throws IOException {
+        if (tiering == null) {
+            return AppendLog.readCompressedRecords(segment);
+        }
+        List<byte[]> records = tiering.getCachedSegment(segment);
+        if (records != null) {
+            return records;
+        }
+        long start = System.nanoTime();
+        records = AppendLog.readCompressedRecords(segment);
+        tiering.recordDecompression(System.nanoTime() - start);
+        tiering.cacheSegment(segment, records);
+        return records;
+    }
+    
+    /**
+     * Verifica se o segmento ativo atingiu o tamanho máximo.
+     */
+    private boolean isActiveSegmentFull() {
+        if (segments.isEmpty()) {
+            return true;
+        }
+        Map.Entry<Long, File> last = segments.lastEntry();
+        return !last.getValue().getName().endsWith(ACTIVE_SUFFIX) || nextSequence - last.getKey() >= segmentSize;
+    }
+    
+    /**
+     * Garante um segmento ativo com espaço livre, selando o atual se estiver cheio.
+     */
+    private void rollActiveSegment() throws IOException {
+        if (!segments.isEmpty()) {
+            Map.Entry<Long, File> last = segments.lastEntry();
+            if (isActiveSegmentFull()) {
+                seal(last.getKey(), last.getValue());
+            } else {
+                // Segmento ativo com espaço: apenas reabrir para escrita
+                activeWriter = new AppendLog(last.getValue(), writePolicy);
+                return;
+            }
+        }
+        File file = new File(directory, segmentName(nextSequence, ACTIVE_SUFFIX));
+        activeWriter = new AppendLog(file, writePolicy);
+        segments.put(nextSequence, file);
+    }
+    
+    /**
+     * Sela um segmento cheio: fecha o arquivo e o renomeia para a extensão de segmento selado.
+     */
+    private void seal(long baseSequence, File file) throws IOException {
+        if (activeWriter != null) {
+            activeWriter.close();
+            activeWriter = null;
+        }
+        if (!file.getName().endsWith(ACTIVE_SUFFIX)) {
+            return;
+        }
+        File sealed = new File(directory, segmentName(baseSequence, SEALED_SUFFIX));
+        Files.move(file.toPath(), sealed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        segments.put(baseSequence, sealed);
+    }
+    
+    /**
+     * Decodifica um registro de mensagem calculando o seu estado de leitura.
+     */
+    private Message decode(byte[] record, long sequence) throws IOException {
+        Message message = codec.readValue(record, messageType);
+        if (readIds.contains(message.getMessageId())
+                || (readStateResolver != null && readStateResolver.isRead(message, sequence))) {
+            message.setRead(true);
+        }
+        return message;
+    }
+    
+    /**
+     * Lê as mensagens mais recentes, da mais nova para a mais antiga.
+     * Apenas os segmentos necessários são lidos, a partir do último.
+     *
+     * @param skip Número de mensagens mais recentes a ignorar
+     * @param limit Número máximo de mensagens
+     * @return Mensagens (mais recentes primeiro), sem as excluídas
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized List<Message> readNewest(int skip, int limit) throws IOException {
+        List<Message> result = new ArrayList<>();
+        if (limit <= 0) {
+            return result;
+        }
+        for (Map.Entry<Long, File> segment : segments.descendingMap().entrySet()) {
+            List<byte[]> records = readSegment(segment.getValue());
+            for (int i = records.size() - 1; i >= 0; i--) {
+                Message message = decode(records.get(i), segment.getKey() + i);
+                if (deletedIds.contains(message.getMessageId())) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                result.add(message);
+                if (result.size() >= limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Lê as mensagens anteriores a uma posição, da mais nova para a mais antiga.
+     * Apenas os segmentos que contêm a página são lidos.
+     *
+     * @param beforeSequence Posição limite (exclusiva)
+     * @param limit Número máximo de mensagens
+     * @return Mensagens (mais recentes primeiro), sem as excluídas
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized List<Message> readBefore(long beforeSequence, int limit) throws IOException {
+        List<Message> result = new ArrayList<>();
+        if (limit <= 0 || beforeSequence <= 0) {
+            return result;
+        }
+        long sequence = Math.min(beforeSequence, nextSequence) - 1;
+        for (Map.Entry<Long, File> segment : segments.headMap(sequence, true).descendingMap().entrySet()) {
+            List<byte[]> records = readSegment(segment.getValue());
+            int index = (int) Math.min(sequence - segment.getKey(), records.size() - 1);
+            for (int i = index; i >= 0; i--) {
+                Message message = decode(records.get(i), segment.getKey() + i);
+                if (deletedIds.contains(message.getMessageId())) {
+                    continue;
+                }
+                result.add(message);
+                if (result.size() >= limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Percorre as mensagens a partir de uma posição, da mais antiga para a mais
+     * nova, lendo um segmento por vez.
+     *
+     * @param fromSequence Primeira posição (inclusiva)
+     * @param consumer Recebe cada mensagem não excluída e a sua posição
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized void scanFrom(long fromSequence, ObjLongConsumer<Message> consumer) throws IOException {
+        Long first = segments.floorKey(fromSequence);
+        Map<Long, File> range = first != null ? segments.tailMap(first, true) : segments;
+        for (Map.Entry<Long, File> segment : range.entrySet()) {
+            List<byte[]> records = readSegment(segment.getValue());
+            for (int i = (int) Math.max(0, fromSequence - segment.getKey()); i < records.size(); i++) {
+                Message message = decode(records.get(i), segment.getKey() + i);
+                if (!deletedIds.contains(message.getMessageId())) {
+                    consumer.accept(message, segment.getKey() + i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Localiza a posição da primeira mensagem com timestamp igual ou posterior ao
+     * informado, por busca binária nos segmentos e dentro do segmento encontrado.
+     * Todas as mensagens anteriores a essa posição têm timestamp menor.
+     *
+     * @param timestamp Timestamp em milissegundos
+     * @return Posição encontrada (o total de mensagens se todas forem anteriores)
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized long findSequenceAtOrAfter(long timestamp) throws IOException {
+        // Último segmento cuja primeira mensagem é anterior ao timestamp
+        List<Long> bases = new ArrayList<>(segments.keySet());
+        int low = 0;
+        int high = bases.size() - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getSegmentFirstTimestamp(bases.get(middle)) < timestamp) {
+                candidate = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (candidate < 0) {
+            return 0;
+        }
+        
+        long base = bases.get(candidate);
+        List<byte[]> records = readSegment(segments.get(base));
+        low = 0;
+        high = records.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (readTimestamp(records.get(middle)) < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return base + low;
+    }
+    
+    /**
+     * Obtém o timestamp da primeira mensagem de um segmento.
+     */
+    private long getSegmentFirstTimestamp(long baseSequence) throws IOException {
+        Long timestamp = segmentFirstTimestamps.get(baseSequence);
+        if (timestamp == null) {
+            List<byte[]> records = readSegment(segments.get(baseSequence));
+            timestamp = records.isEmpty() ? Long.MAX_VALUE : readTimestamp(records.get(0));
+            if (!records.isEmpty()) {
+                segmentFirstTimestamps.put(baseSequence, timestamp);
+            }
+        }
+        return timestamp;
+    }
+    
+    /**
+     * Lê apenas o timestamp de um registro de mensagem.
+     */
+    private long readTimestamp(byte[] record) throws IOException {
+        return codec.readTree(record).path("timestamp").asLong();
+    }
+    
+    /**
+     * Busca uma mensagem pelo ID percorrendo os segmentos.
+     *
+     * @param messageId ID da mensagem
+     * @return A mensagem ou null se não existir ou tiver sido excluída
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized Message find(String messageId) throws IOException {
+        if (deletedIds.contains(messageId)) {
+            return null;
+        }
+        for (Map.Entry<Long, File> segment : segments.descendingMap().entrySet()) {
+            long sequence = segment.getKey();
+            for (byte[] record : readSegment(segment.getValue())) {
+                Message message = decode(record, sequence++);
+                if (messageId.equals(message.getMessageId())) {
+                    return message;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Localiza a posição de uma mensagem percorrendo os segmentos, incluindo as
+     * mensagens excluídas.
+     *
+     * @param messageId ID da mensagem
+     * @return Sequência (posição) da mensagem ou -1 se ela não existir
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized long findSequence(String messageId) throws IOException {
+        for (Map.Entry<Long, File> segment : segments.descendingMap().entrySet()) {
+            long sequence = segment.getKey();
+            for (byte[] record : readSegment(segment.getValue())) {
+                if (messageId.equals(codec.readTree(record).path("messageId").asText())) {
+                    return sequence;
+                }
+                sequence++;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Lê a mensagem em uma posição da conversa, lendo apenas o segmento que a contém.
+     *
+     * @param sequence Sequência (posição) da mensagem
+     * @return A mensagem ou null se não existir ou tiver sido excluída
+     * @throws IOException Erro ao ler o segmento
+     */
+    public synchronized Message get(long sequence) throws IOException {
+        Map.Entry<Long, File> segment = segments.floorEntry(sequence);
+        if (segment == null || sequence >= nextSequence) {
+            return null;
+        }
+        List<byte[]> records = readSegment(segment.getValue());
+        int index = (int) (sequence - segment.getKey());
+        if (index >= records.size()) {
+            return null;
+        }
+        Message message = decode(records.get(index), sequence);
+        return deletedIds.contains(message.getMessageId()) ? null : message;
+    }
+    
+    /**
+     * Lista os IDs das mensagens não excluídas com suas posições, em ordem de gravação.
+     *
+     * @return Mapa de ID da mensagem para sequência
+     * @throws IOException Erro ao ler os segmentos
+     */
+    public synchronized Map<String, Long> listMessageIds() throws IOException {
+        Map<String, Long> ids = new LinkedHashMap<>();
+        for (Map.Entry<Long, File> segment : segments.entrySet()) {
+            long sequence = segment.getKey();
+            for (byte[] record : readSegment(segment.getValue())) {
+                String messageId = codec.readTree(record).path("messageId").asText();
+                if (!deletedIds.contains(messageId)) {
+                    ids.put(messageId, sequence);
+                }
+                sequence++;
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Aplica uma política de armazenamento frio e de retenção aos segmentos
+     * selados. Primeiro remove, a partir do mais antigo, os segmentos que
+     * excedem a retenção — as posições das demais mensagens não mudam —, depois
+     * compacta os segmentos selados mais antigos que a idade de compactação.
+     * A idade de um segmento é estimada pela primeira mensagem do segmento
+     * seguinte, de modo que apenas segmentos com todas as mensagens antigas são
+     * afetados. O último segmento nunca é alterado.
+     *
+     * @param policy Política de armazenamento frio e retenção
+     * @param now Instante atual em milissegundos
+     * @return IDs das mensagens removidas pela retenção
+     * @throws IOException Erro ao ler, compactar ou remover um segmento
+     */
+    public synchronized List<String> applyTiering(SegmentTiering policy, long now) throws IOException {
+        List<String> expiredIds = new ArrayList<>();
+        while (segments.size() > 1) {
+            Map.Entry<Long, File> oldest = segments.firstEntry();
+            long nextBase = segments.higherKey(oldest.getKey());
+            if (oldest.getValue().getName().endsWith(ACTIVE_SUFFIX)) {
+                break;
+            }
+            boolean expired = (policy.getRetentionMillis() > 0
+                    && getSegmentFirstTimestamp(nextBase) < now - policy.getRetentionMillis())
+                    || (policy.getRetentionMaxMessages() > 0
+                            && nextSequence - nextBase >= policy.getRetentionMaxMessages());
+            if (!expired) {
+                break;
+            }
+            File file = oldest.getValue();
+            List<byte[]> records = readSegment(file);
+            for (byte[] record : records) {
+                expiredIds.add(codec.readTree(record).path("messageId").asText());
+            }
+            long bytes = file.length();
+            Files.deleteIfExists(file.toPath());
+            segments.remove(oldest.getKey());
+            segmentFirstTimestamps.remove(oldest.getKey());
+            if (tiering != null) {
+                tiering.invalidateSegment(file);
+            }
+            policy.recordExpiration(records.size(), bytes);
+        }
+        deletedIds.removeAll(expiredIds);
+        
+        if (policy.getColdAfterMillis() > 0) {
+            for (Map.Entry<Long, File> segment : new ArrayList<>(segments.headMap(segments.lastKey()).entrySet())) {
+                File file = segment.getValue();
+                if (!file.getName().endsWith(SEALED_SUFFIX)) {
+                    continue;
+                }
+                long nextBase = segments.higherKey(segment.getKey());
+                if (getSegmentFirstTimestamp(nextBase) >= now - policy.getColdAfterMillis()) {
+                    // Os segmentos seguintes são mais recentes
+                    break;
+                }
+                File cold = new File(directory, segmentName(segment.getKey(), COLD_SUFFIX));
+                long before = file.length();
+                AppendLog.compress(file, cold, policy.getCompressionLevel());
+                Files.delete(file.toPath());
+                segments.put(segment.getKey(), cold);
+                policy.recordCompression(before, cold.length());
+            }
+        }
+        return expiredIds;
+    }
+    
+    /**
+     * Obtém o número de segmentos compactados da conversa.
+     *
+     * @return Número de segmentos compactados
+     */
+    public synchronized int getColdSegmentCount() {
+        int count = 0;
+        for (File segment : segments.values()) {
+            if (isCold(segment)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Obtém o tamanho, em bytes, dos segmentos compactados da conversa.
+     *
+     * @return Tamanho dos segmentos compactados
+     */
+    public synchronized long getColdSegmentBytes() {
+        long bytes = 0;
+        for (File segment : segments.values()) {
+            if (isCold(segment)) {
+                bytes += segment.length();
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Registra a exclusão de uma mensagem. O registro é apenas acrescentado ao
+     * buffer do log de alterações: o chamador espera a sua gravação com
+     * {@link #awaitDurable()} depois de liberar os seus locks.
+     *
+     * @param messageId ID da mensagem
+     * @throws IOException Erro ao acrescentar o registro
+     */
+    public synchronized void delete(String messageId) throws IOException {
+        appendMutation(OP_DELETE, messageId);
+        deletedIds.add(messageId);
+    }
+    
+    /**
+     * Acrescenta um registro ao buffer do log de alterações da conversa, sem
+     * esperar a sua gravação.
+     */
+    private void appendMutation(String op, String messageId) throws IOException {
+        if (mutationsWriter == null) {
+            mutationsWriter = new AppendLog(new File(directory, MUTATIONS_FILE), writePolicy);
+        }
+        ObjectNode record = codec.getMapper().createObjectNode();
+        record.put("op", op);
+        record.put("id", messageId);
+        lastMutationTicket = mutationsWriter.enqueue(codec.encode(record));
+        lastMutationWriter = mutationsWriter;
+    }
+    
+    /**
+     * Obtém o número de mensagens já gravadas na conversa, incluindo as excluídas.
+     *
+     * @return Próxima sequência da conversa
+     */
+    public synchronized long size() {
+        return nextSequence;
+    }
+    
+    /**
+     * Registra o uso do log, adiando seu descarte por ociosidade.
+     */
+    public void markAccessed() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+    
+    /**
+     * Obtém o instante do último uso do log.
+     *
+     * @return Instante em milissegundos
+     */
+    public long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+    
+    /**
+     * Fecha os arquivos abertos para escrita. O log continua utilizável e os
+     * reabre na próxima gravação.
+     */
+    public synchronized void closeFiles() {
+        try {
+            if (activeWriter != null) {
+                activeWriter.close();
+            }
+            if (mutationsWriter != null) {
+                mutationsWriter.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Erro ao fechar arquivos da conversa: " + directory.getPath(), e);
+        } finally {
+            activeWriter = null;
+            mutationsWriter = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package br.com.whatsut.dao.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versão imutável do conjunto de entidades de um armazenamento (ID -> entidade).
+ * <p>
+ * Os leitores obtêm a versão atual sem bloqueio e a usam enquanto quiserem; cada
+ * alteração cria uma nova versão, publicada atomicamente pelo único escritor.
+ * Para que uma alteração não copie o mapa inteiro, cada versão é formada por uma
+ * base e um pequeno conjunto de alterações recentes (com marcas de exclusão);
+ * quando as alterações passam da raiz quadrada do tamanho da base, elas são
+ * incorporadas a uma nova base. O custo amortizado de uma alteração é, assim,
+ * proporcional à raiz quadrada do número de entidades.
+ *
+ * @param <T> Tipo da entidade
+ */
+public final class EntitySnapshot<T> {
+    private static final int MIN_DELTA_SIZE = 64;
+    
+    private final long version;
+    private final Map<String, T> base;
+    
+    // Alterações desde a base; valor null indica exclusão
+    private final Map<String, T> delta;
+    private final int size;
+    
+    private EntitySnapshot(long version, Map<String, T> base, Map<String, T> delta, int size) {
+        this.version = version;
+        this.base = base;
+        this.delta = delta;
+        this.size = size;
+    }
+    
+    /**
+     * Cria a primeira versão a partir de um mapa de entidades.
+     *
+     * @param entities Entidades por ID (o mapa é copiado)
+     * @param <T> Tipo da entidade
+     * @return Versão inicial
+     */
+    public static <T> EntitySnapshot<T> of(Map<String, T> entities) {
+        return new EntitySnapshot<>(0, Collections.unmodifiableMap(new LinkedHashMap<>(entities)),
+                Collections.emptyMap(), entities.size());
+    }
+    
+    /**
+     * Obtém o número da versão (incrementado a cada alteração).
+     *
+     * @return Versão
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * Obtém o número de entidades.
+     *
+     * @return Número de entidades
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Busca uma entidade pelo ID.
+     *
+     * @param id ID da entidade
+     * @return Entidade (compartilhada; não deve ser alterada) ou null se não existir
+     */
+    public T get(String id) {
+        if (delta.containsKey(id)) {
+            return delta.get(id);
+        }
+        return base.get(id);
+    }
+    
+    /**
+     * Verifica se uma entidade existe.
+     *
+     * @param id ID da entidade
+     * @return true se existir
+     */
+    public boolean contains(String id) {
+        return get(id) != null;
+    }
+    
+    /**
+     * Lista as entidades na ordem de inserção.
+     *
+     * @return Entidades (compartilhadas; não devem ser alteradas)
+     */
+    public List<T> values() {
+        List<T> result = new ArrayList<>(size);
+        for (Map.Entry<String, T> entry : base.entrySet()) {
+            T entity = delta.containsKey(entry.getKey()) ? delta.get(entry.getKey()) : entry.getValue();
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        for (Map.Entry<String, T> entry : delta.entrySet()) {
+            if (entry.getValue() != null && !base.containsKey(entry.getKey())) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Cria a versão seguinte com uma entidade salva (criada ou atualizada).
+     *
+     * @param id ID da entidade
+     * @param entity Entidade
+     * @return Nova versão
+     */
+    public EntitySnapshot<T> with(String id, T entity) {
+        return change(id, entity, contains(id) ? size : size + 1);
+    }
+    
+    /**
+     * Cria a versão seguinte sem uma entidade.
+     *
+     * @param id ID da entidade
+     * @return Nova versão (a própria versão se a entidade não existir)
+     */
+    public EntitySnapshot<T> without(String id) {
+        if (!contains(id)) {
+            return this;
+        }
+        return change(id, null, size - 1);
+    }
+    
+    private EntitySnapshot<T> change(String id, T entity, int newSize) {
+        Map<String, T> newDelta = new LinkedHashMap<>(delta);
+        if (entity == null && !base.containsKey(id)) {
+            // Entidade criada e excluída desde a base: não precisa de marca de exclusão
+            newDelta.remove(id);
+        } else {
+            newDelta.put(id, entity);
+        }
+        
+        if (newDelta.size() <= Math.max(MIN_DELTA_SIZE, (int) Math.sqrt(base.size()))) {
+            return new EntitySnapshot<>(version + 1, base, Collections.unmodifiableMap(newDelta), newSize);
+        }
+        
+        // Incorporar as alterações a uma nova base
+        Map<String, T> newBase = new LinkedHashMap<>(base);
+        for (Map.Entry<String, T> entry : newDelta.entrySet()) {
+            if (entry.getValue() == null) {
+                newBase.remove(entry.getKey());
+            } else {
+                newBase.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new EntitySnapshot<>(version + 1, Collections.unmodifiableMap(newBase), Collections.emptyMap(),
+                newSize);
+    }
+}
@@ -0,0 +1,115 @@
+package br.com.whatsut.dao.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Armazenamento de entidades por ID usado pelos DAOs, independente do formato
+ * em disco. As implementações são criadas por um {@link StorageEngine} e
+ * escolhidas pela propriedade {@code storage.engine} (ou
+ * {@code storage.<nome>.engine}).
+ * <p>
+ * As alterações são feitas em duas etapas: {@code stage*} aplica a alteração
+ * (visível às leituras a partir do retorno) e devolve um número de
+ * confirmação; {@link #awaitDurable(long)} espera a gravação conforme a
+ * política de durabilidade e deve ser chamado sem locks, para que alterações
+ * concorrentes sejam gravadas juntas. As leituras devolvem cópias que podem
+ * ser alteradas pelo chamador.
+ *
+ * @param <T> Tipo da entidade
+ */
+public interface EntityStore<T> extends Closeable {
+    
+    /**
+     * Lista todas as entidades.
+     *
+     * @return Cópias das entidades armazenadas
+     */
+    List<T> findAll();
+    
+    /**
+     * Busca uma entidade pelo ID.
+     *
+     * @param id ID da entidade
+     * @return Cópia da entidade ou null se não existir
+     */
+    T findById(String id);
+    
+    /**
+     * Salva uma entidade (cria ou atualiza), sem esperar a gravação.
+     *
+     * @param entity Entidade
+     * @return Número de confirmação ou -1 em caso de erro
+     */
+    long stagePut(T entity);
+    
+    /**
+     * Remove uma entidade, sem esperar a gravação.
+     *
+     * @param id ID da entidade
+     * @return Número de confirmação ou -1 se a entidade não existir ou em caso de erro
+     */
+    long stageRemove(String id);
+    
+    /**
+     * Aplica várias alterações de uma vez, sem esperar a gravação. As
+     * alterações são gravadas juntas: após uma queda, todas ou nenhuma estão
+     * presentes.
+     *
+     * @param changes Alterações por ID: entidade a ser salva ou null para excluir
+     *                (exclusões de IDs inexistentes são ignoradas)
+     * @return Número de confirmação ou -1 em caso de erro
+     */
+    long stageBatch(Map<String, T> changes);
+    
+    /**
+     * Espera a gravação de uma alteração conforme a política de durabilidade.
+     *
+     * @param ticket Número de confirmação retornado por um método {@code stage*}
+     * @return true se gravada com sucesso, false caso contrário
+     */
+    boolean awaitDurable(long ticket);
+    
+    /**
+     * Substitui todas as entidades, gravando o novo conteúdo antes de retornar.
+     *
+     * @param entities Novo conjunto de entidades
+     * @return true se gravado com sucesso, false caso contrário
+     */
+    boolean replaceAll(Collection<T> entities);
+    
+    /**
+     * Indica se o armazenamento não existia e foi criado vazio na abertura.
+     *
+     * @return true se o armazenamento é novo
+     */
+    boolean isNew();
+    
+    /**
+     * Salva uma entidade e espera a sua gravação.
+     *
+     * @param entity Entidade
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    default boolean put(T entity) {
+        long ticket = stagePut(entity);
+        return ticket >= 0 && awaitDurable(ticket);
+    }
+    
+    /**
+     * Remove uma entidade e espera a gravação.
+     *
+     * @param id ID da entidade
+     * @return true se a entidade existia e foi removida, false caso contrário
+     */
+    default boolean remove(String id) {
+        long ticket = stageRemove(id);
+        return ticket >= 0 && awaitDurable(ticket);
+    }
+    
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,400 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Armazenamento de entidades em um único arquivo (motor "json"), reescrito
+ * de forma atômica a cada alteração, em JSON ou no formato binário configurado
+ * ({@link StorageFormat}); um arquivo em outro formato é lido normalmente e
+ * convertido na próxima gravação. As entidades ficam em memória em uma
+ * versão imutável ({@link EntitySnapshot}) lida sem bloqueio. Um arquivo
+ * ilegível na abertura é posto de lado em vez de ser sobrescrito; se não puder
+ * ser movido, a abertura falha.
+ * <p>
+ * A política de gravação ({@link WritePolicy}) define quando o arquivo é
+ * reescrito:
+ * <ul>
+ *   <li>sync: cada alteração grava o arquivo com a nova versão e só então a
+ *       publica, antes de o método {@code stage*} retornar;</li>
+ *   <li>group-commit: a alteração é publicada em memória e as alterações
+ *       feitas durante a janela são gravadas juntas, em uma única reescrita;
+ *       {@link #awaitDurable(long)} espera essa gravação;</li>
+ *   <li>async: como group-commit, mas a cada intervalo e sem que o chamador
+ *       espere; uma queda perde as alterações do último intervalo.</li>
+ * </ul>
+ * Como no log do motor "wal", uma falha de gravação fora do modo sync é
+ * permanente: o armazenamento deixa de aceitar alterações e quem espera pelas
+ * alterações pendentes recebe o erro.
+ *
+ * @param <T> Tipo da entidade
+ */
+public class JsonFileEntityStore<T> implements EntityStore<T> {
+    private static final Logger logger = Logger.getLogger(JsonFileEntityStore.class.getName());
+    
+    // Grava os arquivos nas políticas group-commit e async, compartilhada pelos armazenamentos
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "json-store-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final StorageCodec codec;
+    private final ObjectMapper objectMapper;
+    private final JavaType listType;
+    private final JavaType entityType;
+    private final Function<T, String> idFunction;
+    private final UnaryOperator<T> copier;
+    private final File file;
+    private final WritePolicy policy;
+    private final boolean created;
+    
+    // Versão atual das entidades, substituída a cada alteração gravada
+    private volatile EntitySnapshot<T> snapshot = EntitySnapshot.of(new LinkedHashMap<>());
+    
+    // Escritor único
+    private final Lock writeLock = new ReentrantLock();
+    
+    // Gravações do arquivo fora do modo sync (uma por vez)
+    private final Object fileLock = new Object();
+    
+    // Versões publicadas e gravadas fora do modo sync, protegidas pelo monitor do armazenamento
+    private long stagedVersion;
+    private long durableVersion;
+    private boolean flushScheduled;
+    private IOException failure;
+    
+    /**
+     * Abre o armazenamento, criando o arquivo com uma lista vazia se ele não existir.
+     *
+     * @param descriptor Descrição do armazenamento
+     * @throws IOException Arquivo ilegível que não pôde ser movido para o lado
+     */
+    public JsonFileEntityStore(StoreDescriptor<T> descriptor) throws IOException {
+        this.codec = new StorageCodec(descriptor.getFormat());
+        this.objectMapper = codec.getMapper();
+        this.listType = descriptor.getListType();
+        this.entityType = descriptor.getEntityType();
+        this.idFunction = descriptor.getIdFunction();
+        this.copier = descriptor.getCopier();
+        this.file = descriptor.getFile();
+        this.policy = descriptor.getWritePolicy();
+        
+        if (AtomicFiles.removeLeftoverTemp(file)) {
+            RecoveryReport.add(file, "arquivo temporário de uma gravação interrompida removido");
+        }
+        this.created = !file.exists();
+        if (created) {
+            createEmptyFile();
+        }
+        load();
+    }
+    
+    /**
+     * Cria o arquivo com uma lista vazia.
+     */
+    private void createEmptyFile() {
+        try {
+            AtomicFiles.write(file, out -> codec.writeDocument(out, new ArrayList<>()));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao criar arquivo de persistência", e);
+        }
+    }
+    
+    /**
+     * Carrega o arquivo na versão inicial em memória. Um arquivo ilegível é
+     * movido para o lado e substituído por uma lista vazia.
+     *
+     * @throws IOException Arquivo ilegível que não pôde ser movido; continuar
+     *                     com a lista vazia o sobrescreveria na próxima gravação
+     */
+    private void load() throws IOException {
+        try {
+            List<T> entities = file.length() == 0 ? new ArrayList<>() : codec.readDocument(file, listType);
+            Map<String, T> byId = new LinkedHashMap<>();
+            for (T entity : entities) {
+                byId.put(idFunction.apply(entity), entity);
+            }
+            snapshot = EntitySnapshot.of(byId);
+        } catch (IOException e) {
+            File moved;
+            try {
+                moved = AtomicFiles.quarantine(file);
+            } catch (IOException moveError) {
+                moveError.addSuppressed(e);
+                throw new IOException("Arquivo ilegível não pôde ser movido para o lado: " + file.getPath(),
+                        moveError);
+            }
+            RecoveryReport.add(file, "arquivo ilegível movido para " + moved.getName()
+                    + " (" + e.getMessage() + ")");
+            createEmptyFile();
+        }
+    }
+    
+    /**
+     * Cria uma cópia independente de uma entidade, para que alterações feitas
+     * pelo chamador não afetem o estado em memória. Usa a função de cópia do
+     * armazenamento e, sem ela, a serialização.
+     */
+    private T copy(T entity) {
+        if (copier != null) {
+            return copier.apply(entity);
+        }
+        return objectMapper.convertValue(objectMapper.valueToTree(entity), entityType);
+    }
+    
+    @Override
+    public List<T> findAll() {
+        List<T> entities = snapshot.values();
+        List<T> result = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            result.add(copy(entity));
+        }
+        return result;
+    }
+    
+    @Override
+    public T findById(String id) {
+        T entity = snapshot.get(id);
+        return entity != null ? copy(entity) : null;
+    }
+    
+    @Override
+    public long stagePut(T entity) {
+        writeLock.lock();
+        try {
+            return stage(snapshot.with(idFunction.apply(entity), copy(entity)));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public long stageRemove(String id) {
+        writeLock.lock();
+        try {
+            EntitySnapshot<T> current = snapshot;
+            EntitySnapshot<T> next = current.without(id);
+            return next != current ? stage(next) : -1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public long stageBatch(Map<String, T> changes) {
+        writeLock.lock();
+        try {
+            EntitySnapshot<T> current = snapshot;
+            EntitySnapshot<T> next = current;
+            for (Map.Entry<String, T> change : changes.entrySet()) {
+                next = change.getValue() == null ? next.without(change.getKey())
+                        : next.with(change.getKey(), copy(change.getValue()));
+            }
+            return next == current ? 0 : stage(next);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Espera a gravação de uma alteração conforme a política de gravação: em
+     * sync ela já está gravada; em group-commit o chamador espera a reescrita
+     * do arquivo que a inclui; em async retorna imediatamente.
+     *
+     * @param ticket Número de confirmação retornado por um método {@code stage*}
+     * @return true se gravada com sucesso (ou agendada, em async), false caso contrário
+     */
+    @Override
+    public boolean awaitDurable(long ticket) {
+        switch (policy.getDurability()) {
+            case SYNC:
+                return true;
+            case GROUP_COMMIT:
+                try {
+                    waitFor(ticket);
+                    return true;
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Erro ao salvar entidades no arquivo: " + file.getPath(), e);
+                    return false;
+                }
+            default:
+                return getFailure() == null;
+        }
+    }
+    
+    @Override
+    public boolean replaceAll(Collection<T> entities) {
+        long ticket;
+        writeLock.lock();
+        try {
+            Map<String, T> copies = new LinkedHashMap<>();
+            for (T entity : entities) {
+                copies.put(idFunction.apply(entity), copy(entity));
+            }
+            ticket = stage(EntitySnapshot.of(copies));
+        } finally {
+            writeLock.unlock();
+        }
+        if (ticket < 0) {
+            return false;
+        }
+        if (policy.getDurability() == WritePolicy.Durability.SYNC) {
+            return true;
+        }
+        // O novo conteúdo é gravado antes de retornar, qualquer que seja a política
+        try {
+            flush();
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao salvar entidades no arquivo: " + file.getPath(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Aplica uma nova versão conforme a política de gravação. Deve ser chamado
+     * pelo escritor (com o lock adquirido).
+     *
+     * @param next Nova versão das entidades
+     * @return Número de confirmação ou -1 em caso de erro
+     */
+    private long stage(EntitySnapshot<T> next) {
+        if (policy.getDurability() == WritePolicy.Durability.SYNC) {
+            return publish(next) ? 0 : -1;
+        }
+        synchronized (this) {
+            if (failure != null) {
+                logger.log(Level.SEVERE, "Falha anterior na gravação do arquivo: " + file.getPath(), failure);
+                return -1;
+            }
+            snapshot = next;
+            long ticket = ++stagedVersion;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(this::scheduledFlush, policy.getFlushDelayMillis(), TimeUnit.MILLISECONDS);
+            }
+            return ticket;
+        }
+    }
+    
+    private synchronized IOException getFailure() {
+        return failure;
+    }
+    
+    private synchronized void waitFor(long ticket) throws IOException {
+        while (durableVersion < ticket) {
+            if (failure != null) {
+                throw new IOException("Falha anterior na gravação do arquivo: " + file.getPath(), failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrompido aguardando a gravação do arquivo: " + file.getPath());
+            }
+        }
+    }
+    
+    /**
+     * Grava as alterações agendadas (thread de gravação).
+     */
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao salvar entidades no arquivo: " + file.getPath(), e);
+        }
+    }
+    
+    /**
+     * Reescreve o arquivo com a versão mais recente, se houver alterações
+     * ainda não gravadas (fora do modo sync). A versão gravada inclui todas as
+     * alterações publicadas até então, de modo que uma única reescrita atende
+     * todas as que aguardam.
+     *
+     * @throws IOException Erro ao gravar o arquivo ou falha anterior
+     */
+    private void flush() throws IOException {
+        synchronized (fileLock) {
+            EntitySnapshot<T> current;
+            long version;
+            synchronized (this) {
+                flushScheduled = false;
+                if (failure != null) {
+                    throw new IOException("Falha anterior na gravação do arquivo: " + file.getPath(), failure);
+                }
+                if (durableVersion == stagedVersion) {
+                    return;
+                }
+                current = snapshot;
+                version = stagedVersion;
+            }
+            List<T> entities = current.values();
+            try {
+                AtomicFiles.write(file, out -> codec.writeDocument(out, entities));
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                durableVersion = version;
+                notifyAll();
+            }
+        }
+    }
+    
+    /**
+     * Grava uma nova versão no arquivo e, se a gravação tiver sucesso, a torna
+     * visível aos leitores. Deve ser chamado pelo escritor (com o lock adquirido).
+     */
+    private boolean publish(EntitySnapshot<T> next) {
+        List<T> entities = next.values();
+        try {
+            AtomicFiles.write(file, out -> codec.writeDocument(out, entities));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao salvar entidades no arquivo: " + file.getPath(), e);
+            return false;
+        }
+        snapshot = next;
+        return true;
+    }
+    
+    @Override
+    public boolean isNew() {
+        return created;
+    }
+    
+    /**
+     * Fecha o armazenamento, gravando as alterações pendentes.
+     *
+     * @throws IOException Erro ao gravar as alterações pendentes
+     */
+    @Override
+    public void close() throws IOException {
+        if (policy.getDurability() != WritePolicy.Durability.SYNC) {
+            flush();
+        }
+    }
+}
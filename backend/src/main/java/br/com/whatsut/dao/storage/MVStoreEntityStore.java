@@ -0,0 +1,381 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Armazenamento de entidades em um banco chave-valor embutido (motor
+ * "mvstore", H2 MVStore). Todos os armazenamentos de um diretório de dados
+ * ficam em um único arquivo, cada um em um mapa ID -> entidade codificada no
+ * {@link StorageFormat} configurado (texto JSON compacto ou bytes Smile/CBOR;
+ * valores gravados em outro formato continuam legíveis). As entidades não são mantidas inteiras em memória: o MVStore
+ * guarda em cache apenas as páginas mais usadas, e as leituras não bloqueiam
+ * (cada leitura vê uma versão consistente do mapa).
+ * <p>
+ * As alterações entram no mapa imediatamente e são gravadas no arquivo por um
+ * commit do banco, seguido de fsync. Em sync e group-commit, quem espera a
+ * gravação faz um commit que inclui todas as alterações pendentes de todos os
+ * mapas, de modo que chamadas concorrentes dividem o mesmo fsync; em async, o
+ * commit é feito em segundo plano a cada intervalo. Um lote de alterações é
+ * aplicado com o lock de escrita do banco, o mesmo usado pelo commit, e por
+ * isso chega inteiro ao arquivo ou não chega.
+ * <p>
+ * Na primeira abertura de um armazenamento, as entidades do arquivo de dados (e do
+ * log .wal, se houver) são importadas; os arquivos antigos são apenas lidos e
+ * não são alterados.
+ *
+ * @param <T> Tipo da entidade
+ */
+public class MVStoreEntityStore<T> implements EntityStore<T> {
+    private static final Logger logger = Logger.getLogger(MVStoreEntityStore.class.getName());
+    private static final Map<String, Database> openDatabases = new HashMap<>();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mvstore-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final Database database;
+    private final MVMap<String, Object> map;
+    private final StorageCodec codec;
+    private final ObjectMapper objectMapper;
+    private final JavaType entityType;
+    private final Function<T, String> idFunction;
+    private final WritePolicy writePolicy;
+    private final String name;
+    private final boolean created;
+    private boolean closed;
+    
+    /**
+     * Banco MVStore compartilhado pelos armazenamentos de um mesmo arquivo.
+     */
+    private static final class Database {
+        private final File file;
+        private final MVStore store;
+        
+        // Alterações e commits; um lote é aplicado inteiro entre dois commits
+        private final Lock writeLock = new ReentrantLock();
+        private final Object flushMonitor = new Object();
+        private volatile long stagedTicket;
+        private long durableTicket;
+        private int references;
+        private ScheduledFuture<?> asyncFlush;
+        
+        private Database(File file, int cacheSizeMb) {
+            this.file = file;
+            this.store = new MVStore.Builder()
+                    .fileName(file.getPath())
+                    .cacheSize(cacheSizeMb)
+                    .autoCommitDisabled()
+                    .open();
+        }
+        
+        /**
+         * Registra uma alteração aplicada. Deve ser chamado com o lock de escrita.
+         */
+        private long nextTicket() {
+            return ++stagedTicket;
+        }
+        
+        /**
+         * Grava no arquivo todas as alterações aplicadas até agora, se ainda
+         * não estiverem gravadas, e sincroniza o arquivo com o disco.
+         *
+         * @param ticket Alteração que precisa estar gravada ao retornar
+         */
+        private void flush(long ticket) {
+            synchronized (flushMonitor) {
+                if (durableTicket >= ticket) {
+                    return;
+                }
+                long target;
+                writeLock.lock();
+                try {
+                    target = stagedTicket;
+                    store.commit();
+                } finally {
+                    writeLock.unlock();
+                }
+                store.sync();
+                durableTicket = target;
+            }
+        }
+        
+        private void flushPending() {
+            try {
+                flush(stagedTicket);
+            } catch (MVStoreException e) {
+                logger.log(Level.SEVERE, "Erro ao gravar banco: " + file.getPath(), e);
+            }
+        }
+    }
+    
+    /**
+     * Abre um armazenamento no banco informado, abrindo o banco na primeira chamada.
+     *
+     * @param descriptor Descrição do armazenamento
+     * @param databaseFile Arquivo do banco
+     * @param cacheSizeMb Tamanho do cache de páginas do banco, em MB
+     * @throws IOException Erro ao abrir o banco ou importar as entidades
+     */
+    public MVStoreEntityStore(StoreDescriptor<T> descriptor, File databaseFile, int cacheSizeMb) throws IOException {
+        this.codec = new StorageCodec(descriptor.getFormat());
+        this.objectMapper = codec.getMapper();
+        this.entityType = descriptor.getEntityType();
+        this.idFunction = descriptor.getIdFunction();
+        this.writePolicy = descriptor.getWritePolicy();
+        this.name = descriptor.getName();
+        
+        String key = databaseFile.getCanonicalPath();
+        synchronized (openDatabases) {
+            Database opened = openDatabases.get(key);
+            if (opened == null) {
+                try {
+                    opened = new Database(databaseFile, cacheSizeMb);
+                } catch (MVStoreException e) {
+                    throw new IOException("Erro ao abrir banco: " + databaseFile.getPath(), e);
+                }
+                openDatabases.put(key, opened);
+                logger.info("Banco MVStore aberto: " + databaseFile.getPath());
+            }
+            opened.references++;
+            this.database = opened;
+            
+            if (writePolicy.getDurability() == WritePolicy.Durability.ASYNC && opened.asyncFlush == null) {
+                long interval = Math.max(1, writePolicy.getFlushDelayMillis());
+                Database target = opened;
+                opened.asyncFlush = flusher.scheduleWithFixedDelay(target::flushPending,
+                        interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        boolean existed = false;
+        try {
+            existed = database.store.hasMap(name);
+            this.map = database.store.openMap(name);
+            this.created = !existed && !importLegacy(descriptor);
+        } catch (MVStoreException | IOException e) {
+            if (!existed && database.store.hasMap(name)) {
+                // Não deixar um mapa parcialmente importado, que impediria uma nova importação
+                database.store.removeMap(name);
+            }
+            close();
+            throw new IOException("Erro ao abrir mapa " + name + " no banco: " + databaseFile.getPath(), e);
+        }
+        logger.info("Armazenamento MVStore carregado: " + name + " - " + map.size()
+                + " entidades, durabilidade " + writePolicy);
+    }
+    
+    /**
+     * Importa as entidades do arquivo de dados (e do log .wal) de um armazenamento
+     * que ainda não existe no banco.
+     *
+     * @return true se havia arquivos a importar
+     */
+    private boolean importLegacy(StoreDescriptor<T> descriptor) throws IOException {
+        File file = descriptor.getFile();
+        if (!file.exists() && !new File(file.getPath() + ".wal").exists()) {
+            return false;
+        }
+        // Lê o snapshot e reaplica o log sem abrir o armazenamento WAL, que
+        // compactaria o log no snapshot ao ser fechado
+        List<T> entities = WalEntityStore.readEntities(file, descriptor.getListType(), idFunction,
+                descriptor.getFormat());
+        if (!replaceAll(entities)) {
+            throw new IOException("Erro ao importar entidades de " + file.getPath());
+        }
+        logger.info("Importadas " + entities.size() + " entidades de " + file.getPath() + " para o banco");
+        return true;
+    }
+    
+    /**
+     * Codifica uma entidade como valor do mapa: texto em JSON, bytes nos formatos binários.
+     */
+    private Object encode(T entity) throws IOException {
+        return codec.getFormat().isBinary() ? codec.encode(entity) : objectMapper.writeValueAsString(entity);
+    }
+    
+    private T decode(Object value) {
+        try {
+            byte[] data = value instanceof byte[] ? (byte[]) value
+                    : ((String) value).getBytes(StandardCharsets.UTF_8);
+            return codec.readValue(data, entityType);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Entidade ilegível no mapa " + name, e);
+            return null;
+        }
+    }
+    
+    @Override
+    public List<T> findAll() {
+        List<T> result = new ArrayList<>(map.size());
+        for (Object value : map.values()) {
+            T entity = decode(value);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public T findById(String id) {
+        Object value = map.get(id);
+        return value != null ? decode(value) : null;
+    }
+    
+    @Override
+    public long stagePut(T entity) {
+        Map<String, T> change = new HashMap<>();
+        change.put(idFunction.apply(entity), entity);
+        return stageBatch(change);
+    }
+    
+    @Override
+    public long stageRemove(String id) {
+        database.writeLock.lock();
+        try {
+            if (map.remove(id) == null) {
+                return -1;
+            }
+            return database.nextTicket();
+        } catch (MVStoreException e) {
+            logger.log(Level.SEVERE, "Erro ao remover entidade do mapa " + name, e);
+            return -1;
+        } finally {
+            database.writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public long stageBatch(Map<String, T> changes) {
+        // Codificar fora do lock
+        Map<String, Object> encoded = new HashMap<>();
+        try {
+            for (Map.Entry<String, T> change : changes.entrySet()) {
+                encoded.put(change.getKey(), change.getValue() != null ? encode(change.getValue()) : null);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao codificar entidade do mapa " + name, e);
+            return -1;
+        }
+        
+        database.writeLock.lock();
+        try {
+            for (Map.Entry<String, Object> change : encoded.entrySet()) {
+                if (change.getValue() == null) {
+                    map.remove(change.getKey());
+                } else {
+                    map.put(change.getKey(), change.getValue());
+                }
+            }
+            return database.nextTicket();
+        } catch (MVStoreException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar entidades no mapa " + name, e);
+            return -1;
+        } finally {
+            database.writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean awaitDurable(long ticket) {
+        if (writePolicy.getDurability() == WritePolicy.Durability.ASYNC) {
+            return true;
+        }
+        try {
+            database.flush(ticket);
+            return true;
+        } catch (MVStoreException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar banco: " + database.file.getPath(), e);
+            return false;
+        }
+    }
+    
+    @Override
+    public boolean replaceAll(Collection<T> entities) {
+        Map<String, Object> encoded = new HashMap<>();
+        try {
+            for (T entity : entities) {
+                encoded.put(idFunction.apply(entity), encode(entity));
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao codificar entidade do mapa " + name, e);
+            return false;
+        }
+        
+        long ticket;
+        database.writeLock.lock();
+        try {
+            map.clear();
+            map.putAll(encoded);
+            ticket = database.nextTicket();
+        } catch (MVStoreException e) {
+            logger.log(Level.SEVERE, "Erro ao substituir entidades do mapa " + name, e);
+            return false;
+        } finally {
+            database.writeLock.unlock();
+        }
+        try {
+            database.flush(ticket);
+            return true;
+        } catch (MVStoreException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar banco: " + database.file.getPath(), e);
+            return false;
+        }
+    }
+    
+    @Override
+    public boolean isNew() {
+        return created;
+    }
+    
+    /**
+     * Fecha o armazenamento; o banco é gravado e fechado quando o último
+     * armazenamento aberto nele é fechado.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (openDatabases) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (--database.references > 0) {
+                database.flushPending();
+                return;
+            }
+            openDatabases.remove(database.file.getCanonicalPath());
+            if (database.asyncFlush != null) {
+                database.asyncFlush.cancel(false);
+            }
+            try {
+                database.flushPending();
+                database.store.close();
+            } catch (MVStoreException e) {
+                throw new IOException("Erro ao fechar banco: " + database.file.getPath(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.model.Message;
+
+/**
+ * Calcula o estado de leitura de uma mensagem a partir da sua posição na conversa.
+ */
+@FunctionalInterface
+public interface ReadStateResolver {
+    
+    /**
+     * Verifica se uma mensagem já foi lida.
+     *
+     * @param message Mensagem decodificada
+     * @param sequence Posição da mensagem na conversa
+     * @return true se a mensagem foi lida
+     */
+    boolean isRead(Message message, long sequence);
+}
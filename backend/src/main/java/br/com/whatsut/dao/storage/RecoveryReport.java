@@ -0,0 +1,59 @@
+package br.com.whatsut.dao.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Registro dos reparos feitos pela recuperação dos arquivos de armazenamento
+ * (finais de log incompletos ou corrompidos truncados, temporários de gravações
+ * interrompidas removidos, snapshots ilegíveis postos de lado). Cada reparo é
+ * registrado no log assim que acontece e o resumo pode ser consultado depois
+ * da inicialização.
+ */
+public final class RecoveryReport {
+    private static final Logger logger = Logger.getLogger(RecoveryReport.class.getName());
+    private static final List<String> repairs = new ArrayList<>();
+    
+    private RecoveryReport() {
+    }
+    
+    /**
+     * Registra um reparo.
+     *
+     * @param file Arquivo reparado
+     * @param description Descrição do reparo
+     */
+    public static void add(File file, String description) {
+        String repair = file.getPath() + ": " + description;
+        synchronized (repairs) {
+            repairs.add(repair);
+        }
+        logger.warning("Recuperação do armazenamento - " + repair);
+    }
+    
+    /**
+     * Obtém os reparos registrados desde o início do processo.
+     *
+     * @return Descrições dos reparos
+     */
+    public static List<String> getRepairs() {
+        synchronized (repairs) {
+            return new ArrayList<>(repairs);
+        }
+    }
+    
+    /**
+     * Obtém um resumo dos reparos registrados.
+     *
+     * @return Resumo em uma linha
+     */
+    public static String getSummary() {
+        List<String> current = getRepairs();
+        if (current.isEmpty()) {
+            return "Armazenamento íntegro: nenhum reparo necessário";
+        }
+        return "Armazenamento recuperado com " + current.size() + " reparo(s): " + String.join("; ", current);
+    }
+}
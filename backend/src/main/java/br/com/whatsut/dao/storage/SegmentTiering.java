@@ -0,0 +1,324 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.util.ConfigManager;
+import br.com.whatsut.util.JmxSupport;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Política de armazenamento frio e de retenção dos segmentos das conversas,
+ * com as estatísticas da sua aplicação.
+ * <p>
+ * Segmentos selados cujas mensagens são todas mais antigas que
+ * {@link #getColdAfterMillis()} são compactados (deflate) e só são
+ * descompactados quando uma leitura chega até eles, ao rolar o histórico. A
+ * retenção remove os segmentos selados mais antigos de cada conversa quando
+ * todas as suas mensagens passaram do prazo ou quando a conversa já tem
+ * mensagens mais recentes suficientes; o segmento ativo nunca é removido nem
+ * compactado.
+ * <p>
+ * Os segmentos compactados lidos ficam descompactados em um cache único para
+ * todas as conversas, limitado pelo tamanho estimado em bytes e com descarte
+ * do menos usado recentemente, para que rolar o histórico não descompacte o
+ * mesmo segmento a cada página.
+ */
+public class SegmentTiering implements SegmentTieringMXBean {
+    private final long coldAfterMillis;
+    private final int compressionLevel;
+    private final long retentionMillis;
+    private final long retentionMaxMessages;
+    
+    private final AtomicLong compressedSegments = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong decompressions = new AtomicLong();
+    private final AtomicLong decompressionNanos = new AtomicLong();
+    private final AtomicLong expiredSegments = new AtomicLong();
+    private final AtomicLong expiredMessages = new AtomicLong();
+    private final AtomicLong expiredBytes = new AtomicLong();
+    private volatile long coldSegments;
+    private volatile long coldBytes;
+    
+    // Segmentos compactados já lidos, descompactados (ordem de acesso, protegido pelo próprio mapa)
+    private final long coldCacheMaxBytes;
+    private final LinkedHashMap<File, List<byte[]>> coldCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long coldCacheBytes;
+    
+    /**
+     * Cria uma política de armazenamento frio e retenção.
+     *
+     * @param coldAfterMillis Idade a partir da qual um segmento selado é
+     *                        compactado (0 desativa a compactação)
+     * @param compressionLevel Nível de compressão (1 a 9)
+     * @param retentionMillis Idade a partir da qual um segmento selado é
+     *                        removido (0 mantém o histórico para sempre)
+     * @param retentionMaxMessages Número de mensagens mais recentes mantidas por
+     *                             conversa (0 para não limitar)
+     * @param coldCacheMaxBytes Tamanho máximo estimado dos segmentos compactados
+     *                          mantidos descompactados em memória (0 desativa)
+     */
+    public SegmentTiering(long coldAfterMillis, int compressionLevel, long retentionMillis, long retentionMaxMessages,
+                          long coldCacheMaxBytes) {
+        this.coldAfterMillis = Math.max(0, coldAfterMillis);
+        this.compressionLevel = Math.max(1, Math.min(9, compressionLevel));
+        this.retentionMillis = Math.max(0, retentionMillis);
+        this.retentionMaxMessages = Math.max(0, retentionMaxMessages);
+        this.coldCacheMaxBytes = Math.max(0, coldCacheMaxBytes);
+    }
+    
+    /**
+     * Obtém a política configurada para um armazenamento de mensagens:
+     * {@code storage.<nome>.cold.after.days}, {@code storage.<nome>.cold.compression.level},
+     * {@code storage.<nome>.cold.cache.bytes}, {@code storage.<nome>.retention.days} e
+     * {@code storage.<nome>.retention.max.messages}.
+     *
+     * @param storageName Nome do armazenamento (ex.: "messages")
+     * @return Política configurada
+     */
+    public static SegmentTiering getConfigured(String storageName) {
+        String prefix = "storage." + storageName + ".";
+        return new SegmentTiering(
+                TimeUnit.DAYS.toMillis(ConfigManager.getLongProperty(prefix + "cold.after.days", 30)),
+                ConfigManager.getIntProperty(prefix + "cold.compression.level", 6),
+                TimeUnit.DAYS.toMillis(ConfigManager.getLongProperty(prefix + "retention.days", 0)),
+                ConfigManager.getLongProperty(prefix + "retention.max.messages", 0),
+                ConfigManager.getLongProperty(prefix + "cold.cache.bytes", 8L * 1024 * 1024));
+    }
+    
+    /**
+     * Registra as estatísticas no servidor JMX da plataforma.
+     *
+     * @param name Nome do armazenamento no JMX
+     */
+    public void registerMBean(String name) {
+        JmxSupport.register(this, "SegmentTiering", name);
+    }
+    
+    /**
+     * Indica se a política compacta ou remove algum segmento.
+     *
+     * @return true se a compactação ou a retenção estiver ativa
+     */
+    public boolean isEnabled() {
+        return coldAfterMillis > 0 || retentionMillis > 0 || retentionMaxMessages > 0;
+    }
+    
+    public long getColdAfterMillis() {
+        return coldAfterMillis;
+    }
+    
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+    
+    public long getRetentionMaxMessages() {
+        return retentionMaxMessages;
+    }
+    
+    /**
+     * Registra a compactação de um segmento.
+     *
+     * @param before Tamanho do segmento original
+     * @param after Tamanho do segmento compactado
+     */
+    public void recordCompression(long before, long after) {
+        compressedSegments.incrementAndGet();
+        uncompressedBytes.addAndGet(before);
+        compressedBytes.addAndGet(after);
+    }
+    
+    /**
+     * Registra a leitura de um segmento compactado.
+     *
+     * @param nanos Tempo gasto lendo e descompactando o segmento
+     */
+    public void recordDecompression(long nanos) {
+        decompressions.incrementAndGet();
+        decompressionNanos.addAndGet(nanos);
+    }
+    
+    /**
+     * Obtém um segmento compactado já descompactado, se estiver no cache.
+     *
+     * @param segment Arquivo do segmento compactado
+     * @return Registros do segmento ou null se não estiver no cache
+     */
+    public List<byte[]> getCachedSegment(File segment) {
+        synchronized (coldCache) {
+            return coldCache.get(segment);
+        }
+    }
+    
+    /**
+     * Mantém um segmento descompactado no cache, descartando os menos usados
+     * recentemente além do limite. Segmentos maiores que o limite não são mantidos.
+     *
+     * @param segment Arquivo do segmento compactado
+     * @param records Registros do segmento (não devem ser alterados)
+     */
+    public void cacheSegment(File segment, List<byte[]> records) {
+        long size = estimateSize(records);
+        if (size > coldCacheMaxBytes) {
+            return;
+        }
+        synchronized (coldCache) {
+            List<byte[]> previous = coldCache.put(segment, records);
+            if (previous != null) {
+                coldCacheBytes -= estimateSize(previous);
+            }
+            coldCacheBytes += size;
+            Iterator<Map.Entry<File, List<byte[]>>> eldest = coldCache.entrySet().iterator();
+            while (coldCacheBytes > coldCacheMaxBytes && eldest.hasNext()) {
+                coldCacheBytes -= estimateSize(eldest.next().getValue());
+                eldest.remove();
+            }
+        }
+    }
+    
+    /**
+     * Descarta um segmento do cache, após ele ser alterado ou removido.
+     *
+     * @param segment Arquivo do segmento compactado
+     */
+    public void invalidateSegment(File segment) {
+        synchronized (coldCache) {
+            List<byte[]> removed = coldCache.remove(segment);
+            if (removed != null) {
+                coldCacheBytes -= estimateSize(removed);
+            }
+        }
+    }
+    
+    /**
+     * Estima a memória ocupada pelos registros de um segmento.
+     */
+    private static long estimateSize(List<byte[]> records) {
+        long size = 16;
+        for (byte[] record : records) {
+            size += 16 + record.length;
+        }
+        return size;
+    }
+    
+    /**
+     * Registra a remoção de um segmento pela política de retenção.
+     *
+     * @param messages Número de mensagens do segmento
+     * @param bytes Tamanho do segmento
+     */
+    public void recordExpiration(int messages, long bytes) {
+        expiredSegments.incrementAndGet();
+        expiredMessages.addAndGet(messages);
+        expiredBytes.addAndGet(bytes);
+    }
+    
+    /**
+     * Registra o total de segmentos compactados no disco ao fim de uma passagem
+     * por todas as conversas.
+     *
+     * @param segments Número de segmentos compactados
+     * @param bytes Tamanho dos segmentos compactados
+     */
+    public void recordColdTotals(long segments, long bytes) {
+        this.coldSegments = segments;
+        this.coldBytes = bytes;
+    }
+    
+    @Override
+    public long getCompressedSegmentCount() {
+        return compressedSegments.get();
+    }
+    
+    @Override
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+    
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+    
+    @Override
+    public long getBytesSaved() {
+        return uncompressedBytes.get() - compressedBytes.get();
+    }
+    
+    @Override
+    public double getCompressionRatio() {
+        long before = uncompressedBytes.get();
+        return before == 0 ? 1.0 : (double) compressedBytes.get() / before;
+    }
+    
+    @Override
+    public long getDecompressionCount() {
+        return decompressions.get();
+    }
+    
+    @Override
+    public long getDecompressionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decompressionNanos.get());
+    }
+    
+    @Override
+    public long getExpiredSegmentCount() {
+        return expiredSegments.get();
+    }
+    
+    @Override
+    public long getExpiredMessageCount() {
+        return expiredMessages.get();
+    }
+    
+    @Override
+    public long getExpiredBytes() {
+        return expiredBytes.get();
+    }
+    
+    @Override
+    public long getColdSegmentCount() {
+        return coldSegments;
+    }
+    
+    @Override
+    public long getColdBytes() {
+        return coldBytes;
+    }
+    
+    @Override
+    public int getColdCacheSegmentCount() {
+        synchronized (coldCache) {
+            return coldCache.size();
+        }
+    }
+    
+    @Override
+    public long getColdCacheBytes() {
+        synchronized (coldCache) {
+            return coldCacheBytes;
+        }
+    }
+    
+    @Override
+    public long getColdCacheMaxBytes() {
+        return coldCacheMaxBytes;
+    }
+    
+    @Override
+    public String toString() {
+        return "SegmentTiering{compactados=" + getCompressedSegmentCount() + ", economizados=" + getBytesSaved()
+                + " bytes, descompactações=" + getDecompressionCount() + ", removidos=" + getExpiredSegmentCount()
+                + " segmentos/" + getExpiredMessageCount() + " mensagens, frios=" + coldSegments + " segmentos/"
+                + coldBytes + " bytes}";
+    }
+}
@@ -0,0 +1,82 @@
+package br.com.whatsut.dao.storage;
+
+/**
+ * Estatísticas do armazenamento frio e da retenção das conversas expostas via JMX.
+ */
+public interface SegmentTieringMXBean {
+    
+    /**
+     * @return Número de segmentos compactados desde a inicialização
+     */
+    long getCompressedSegmentCount();
+    
+    /**
+     * @return Tamanho, em bytes, dos segmentos antes da compactação
+     */
+    long getUncompressedBytes();
+    
+    /**
+     * @return Tamanho, em bytes, dos segmentos depois da compactação
+     */
+    long getCompressedBytes();
+    
+    /**
+     * @return Bytes economizados pela compactação desde a inicialização
+     */
+    long getBytesSaved();
+    
+    /**
+     * @return Proporção entre o tamanho compactado e o original (0 a 1)
+     */
+    double getCompressionRatio();
+    
+    /**
+     * @return Número de segmentos compactados lidos do disco (descompactados)
+     */
+    long getDecompressionCount();
+    
+    /**
+     * @return Tempo total, em milissegundos, gasto descompactando segmentos
+     */
+    long getDecompressionMillis();
+    
+    /**
+     * @return Número de segmentos removidos pela política de retenção
+     */
+    long getExpiredSegmentCount();
+    
+    /**
+     * @return Número de mensagens removidas pela política de retenção
+     */
+    long getExpiredMessageCount();
+    
+    /**
+     * @return Bytes liberados pela política de retenção
+     */
+    long getExpiredBytes();
+    
+    /**
+     * @return Número de segmentos compactados no disco, na última passagem
+     */
+    long getColdSegmentCount();
+    
+    /**
+     * @return Tamanho, em bytes, dos segmentos compactados no disco, na última passagem
+     */
+    long getColdBytes();
+    
+    /**
+     * @return Número de segmentos compactados mantidos descompactados em memória
+     */
+    int getColdCacheSegmentCount();
+    
+    /**
+     * @return Tamanho estimado, em bytes, dos segmentos descompactados em memória
+     */
+    long getColdCacheBytes();
+    
+    /**
+     * @return Limite, em bytes, dos segmentos descompactados mantidos em memória
+     */
+    long getColdCacheMaxBytes();
+}
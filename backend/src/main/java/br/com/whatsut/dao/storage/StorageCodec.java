@@ -0,0 +1,157 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Codifica registros e arquivos de dados no formato configurado e os lê em
+ * qualquer formato. Mantém um ObjectMapper por {@link StorageFormat}, todos
+ * com a mesma configuração, e escolhe o da leitura pelo cabeçalho do conteúdo;
+ * assim um log ou arquivo gravado em JSON continua legível depois de trocar o
+ * formato, e passa a ser regravado no novo formato nas próximas gravações.
+ * <p>
+ * Documentos inteiros (snapshots) em JSON são gravados indentados, como antes;
+ * registros de log são sempre compactos.
+ */
+public final class StorageCodec {
+    private final StorageFormat format;
+    private final Map<StorageFormat, ObjectMapper> mappers = new EnumMap<>(StorageFormat.class);
+    private final ObjectWriter documentWriter;
+    
+    /**
+     * Cria um codificador com a configuração padrão do Jackson.
+     *
+     * @param format Formato das gravações
+     */
+    public StorageCodec(StorageFormat format) {
+        this(format, mapper -> { });
+    }
+    
+    /**
+     * Cria um codificador.
+     *
+     * @param format Formato das gravações
+     * @param configuration Configuração aplicada ao ObjectMapper de cada formato
+     */
+    public StorageCodec(StorageFormat format, Consumer<ObjectMapper> configuration) {
+        this.format = format;
+        for (StorageFormat each : StorageFormat.values()) {
+            ObjectMapper mapper = each.newMapper();
+            configuration.accept(mapper);
+            mappers.put(each, mapper);
+        }
+        ObjectMapper mapper = getMapper();
+        this.documentWriter = format.isBinary() ? mapper.writer() : mapper.writerWithDefaultPrettyPrinter();
+    }
+    
+    /**
+     * Obtém o formato das gravações.
+     *
+     * @return Formato
+     */
+    public StorageFormat getFormat() {
+        return format;
+    }
+    
+    /**
+     * Obtém o ObjectMapper do formato das gravações, usado também para criar e
+     * converter árvores de nós (operações independentes do formato).
+     *
+     * @return ObjectMapper
+     */
+    public ObjectMapper getMapper() {
+        return mappers.get(format);
+    }
+    
+    /**
+     * Obtém o ObjectMapper capaz de ler um conteúdo, pelo seu cabeçalho.
+     *
+     * @param data Conteúdo
+     * @return ObjectMapper do formato do conteúdo
+     */
+    public ObjectMapper mapperFor(byte[] data) {
+        return mappers.get(StorageFormat.detect(data, data.length));
+    }
+    
+    /**
+     * Codifica um valor como registro, no formato das gravações.
+     *
+     * @param value Valor
+     * @return Registro codificado
+     * @throws IOException Erro ao codificar o valor
+     */
+    public byte[] encode(Object value) throws IOException {
+        return getMapper().writeValueAsBytes(value);
+    }
+    
+    /**
+     * Lê um registro em qualquer formato como árvore de nós.
+     *
+     * @param data Registro
+     * @return Árvore de nós
+     * @throws IOException Registro ilegível
+     */
+    public JsonNode readTree(byte[] data) throws IOException {
+        return mapperFor(data).readTree(data);
+    }
+    
+    /**
+     * Lê um registro em qualquer formato.
+     *
+     * @param data Registro
+     * @param type Tipo do valor
+     * @param <V> Tipo do valor
+     * @return Valor lido
+     * @throws IOException Registro ilegível
+     */
+    public <V> V readValue(byte[] data, JavaType type) throws IOException {
+        return mapperFor(data).readValue(data, type);
+    }
+    
+    /**
+     * Lê um registro em qualquer formato.
+     *
+     * @param data Registro
+     * @param type Classe do valor
+     * @param <V> Tipo do valor
+     * @return Valor lido
+     * @throws IOException Registro ilegível
+     */
+    public <V> V readValue(byte[] data, Class<V> type) throws IOException {
+        return mapperFor(data).readValue(data, type);
+    }
+    
+    /**
+     * Grava um documento inteiro (ex.: snapshot das entidades) no formato das
+     * gravações. O stream é fechado ao final.
+     *
+     * @param out Destino
+     * @param value Documento
+     * @throws IOException Erro ao gravar
+     */
+    public void writeDocument(OutputStream out, Object value) throws IOException {
+        documentWriter.writeValue(out, value);
+    }
+    
+    /**
+     * Lê um arquivo com um documento inteiro, em qualquer formato.
+     *
+     * @param file Arquivo
+     * @param type Tipo do documento
+     * @param <V> Tipo do documento
+     * @return Documento lido
+     * @throws IOException Erro ao ler ou arquivo ilegível
+     */
+    public <V> V readDocument(File file, JavaType type) throws IOException {
+        return mappers.get(StorageFormat.detect(file)).readValue(file, type);
+    }
+}
@@ -0,0 +1,29 @@
+package br.com.whatsut.dao.storage;
+
+import java.io.IOException;
+
+/**
+ * Motor de armazenamento: abre {@link EntityStore}s de um formato em disco.
+ * Os motores embutidos são "json", "wal" e "mvstore"; outros podem ser
+ * registrados em {@link StorageEngines} ou declarados como serviço
+ * ({@code META-INF/services/br.com.whatsut.dao.storage.StorageEngine}).
+ */
+public interface StorageEngine {
+    
+    /**
+     * Obtém o nome do motor, usado em {@code storage.engine}.
+     *
+     * @return Nome do motor
+     */
+    String getName();
+    
+    /**
+     * Abre um armazenamento de entidades.
+     *
+     * @param descriptor Descrição do armazenamento
+     * @param <T> Tipo da entidade
+     * @return Armazenamento aberto
+     * @throws IOException Erro ao abrir ou recuperar o armazenamento
+     */
+    <T> EntityStore<T> open(StoreDescriptor<T> descriptor) throws IOException;
+}
@@ -0,0 +1,118 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.util.ConfigManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+
+/**
+ * Registro dos motores de armazenamento disponíveis, por nome. Os motores
+ * embutidos são:
+ * <ul>
+ *   <li>"json": um arquivo JSON reescrito a cada alteração ({@link JsonFileEntityStore});</li>
+ *   <li>"wal": entidades em memória, com log append-only compactado no arquivo
+ *       JSON ({@link WalEntityStore});</li>
+ *   <li>"mvstore": banco chave-valor embutido, sem servidor externo, em um único
+ *       arquivo ({@link MVStoreEntityStore}).</li>
+ * </ul>
+ * Motores adicionais são carregados com {@link ServiceLoader} ou registrados
+ * com {@link #register(StorageEngine)}.
+ */
+public final class StorageEngines {
+    private static final Map<String, StorageEngine> engines = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    
+    static {
+        register(new StorageEngine() {
+            @Override
+            public String getName() {
+                return "json";
+            }
+            
+            @Override
+            public <T> EntityStore<T> open(StoreDescriptor<T> descriptor) throws IOException {
+                return new JsonFileEntityStore<>(descriptor);
+            }
+        });
+        register(new StorageEngine() {
+            @Override
+            public String getName() {
+                return "wal";
+            }
+            
+            @Override
+            public <T> EntityStore<T> open(StoreDescriptor<T> descriptor) throws IOException {
+                return WalEntityStore.open(descriptor.getFile(), descriptor.getListType(),
+                        descriptor.getIdFunction(), descriptor.getCopier(),
+                        ConfigManager.getLongProperty("storage.wal.compact.min.bytes", 1024 * 1024),
+                        ConfigManager.getDoubleProperty("storage.wal.compact.ratio", 1.0),
+                        ConfigManager.getLongProperty("storage.wal.compact.interval", 300000),
+                        descriptor.getWritePolicy(), descriptor.getFormat());
+            }
+        });
+        register(new StorageEngine() {
+            @Override
+            public String getName() {
+                return "mvstore";
+            }
+            
+            @Override
+            public <T> EntityStore<T> open(StoreDescriptor<T> descriptor) throws IOException {
+                File directory = descriptor.getFile().getAbsoluteFile().getParentFile();
+                File databaseFile = new File(directory,
+                        ConfigManager.getProperty("storage.mvstore.file", "whatsut.mv.db"));
+                return new MVStoreEntityStore<>(descriptor, databaseFile,
+                        ConfigManager.getIntProperty("storage.mvstore.cache.size", 16));
+            }
+        });
+        
+        for (StorageEngine engine : ServiceLoader.load(StorageEngine.class)) {
+            register(engine);
+        }
+    }
+    
+    private StorageEngines() {
+    }
+    
+    /**
+     * Registra um motor de armazenamento, substituindo outro de mesmo nome.
+     *
+     * @param engine Motor de armazenamento
+     */
+    public static synchronized void register(StorageEngine engine) {
+        engines.put(engine.getName(), engine);
+    }
+    
+    /**
+     * Obtém um motor de armazenamento pelo nome.
+     *
+     * @param name Nome do motor (ex.: "wal")
+     * @return Motor de armazenamento ou null se não existir
+     */
+    public static synchronized StorageEngine get(String name) {
+        return engines.get(name.trim());
+    }
+    
+    /**
+     * Obtém o motor configurado para um armazenamento:
+     * {@code storage.<nome>.engine} ou {@code storage.engine}.
+     *
+     * @param storageName Nome do armazenamento (ex.: "users")
+     * @return Nome do motor configurado
+     */
+    public static String getConfiguredEngine(String storageName) {
+        return ConfigManager.getProperty("storage." + storageName + ".engine",
+                ConfigManager.getProperty("storage.engine", "json"));
+    }
+    
+    /**
+     * Lista os nomes dos motores registrados.
+     *
+     * @return Nomes dos motores
+     */
+    public static synchronized String getNames() {
+        return String.join(", ", engines.keySet());
+    }
+}
@@ -0,0 +1,169 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+/**
+ * Codificação dos arquivos de dados: JSON (texto) ou um formato binário do
+ * Jackson — Smile ou CBOR. Os formatos binários evitam a formatação de números
+ * e espaços do texto e repetem menos os nomes dos campos.
+ * <p>
+ * Todo conteúdo binário começa com um cabeçalho próprio do formato (Smile:
+ * {@code :)\n}; CBOR: a tag "self-describe" {@code D9 D9 F7}), de modo que o
+ * formato de um arquivo ou registro é reconhecido pelos primeiros bytes
+ * ({@link #detect(byte[], int)}) e arquivos JSON antigos continuam sendo lidos
+ * depois de trocar o formato configurado.
+ */
+public enum StorageFormat {
+    JSON("json"),
+    SMILE("smile"),
+    CBOR("cbor");
+    
+    private static final Logger logger = Logger.getLogger(StorageFormat.class.getName());
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
+    private static final byte[] CBOR_HEADER = {(byte) 0xD9, (byte) 0xD9, (byte) 0xF7};
+    
+    /**
+     * Número de bytes necessários para reconhecer o formato.
+     */
+    public static final int HEADER_LENGTH = 3;
+    
+    private final String name;
+    
+    StorageFormat(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Obtém o nome do formato, usado em {@code storage.format}.
+     *
+     * @return Nome do formato
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Indica se o formato é binário (o conteúdo pode conter quebras de linha).
+     *
+     * @return true para Smile e CBOR
+     */
+    public boolean isBinary() {
+        return this != JSON;
+    }
+    
+    /**
+     * Cria um ObjectMapper que lê e grava neste formato.
+     *
+     * @return Novo ObjectMapper
+     */
+    public ObjectMapper newMapper() {
+        switch (this) {
+            case SMILE:
+                return new ObjectMapper(new SmileFactory());
+            case CBOR:
+                return new ObjectMapper(CBORFactory.builder()
+                        .enable(CBORGenerator.Feature.WRITE_TYPE_HEADER)
+                        .build());
+            default:
+                return new ObjectMapper();
+        }
+    }
+    
+    /**
+     * Reconhece o formato de um conteúdo pelo cabeçalho.
+     *
+     * @param data Conteúdo
+     * @param length Número de bytes válidos em {@code data}
+     * @return Formato do conteúdo (JSON se não houver cabeçalho binário)
+     */
+    public static StorageFormat detect(byte[] data, int length) {
+        if (startsWith(data, length, SMILE_HEADER)) {
+            return SMILE;
+        }
+        if (startsWith(data, length, CBOR_HEADER)) {
+            return CBOR;
+        }
+        return JSON;
+    }
+    
+    /**
+     * Reconhece o formato de um arquivo pelos primeiros bytes.
+     *
+     * @param file Arquivo
+     * @return Formato do arquivo (JSON se estiver vazio ou não houver cabeçalho binário)
+     * @throws IOException Erro ao ler o arquivo
+     */
+    public static StorageFormat detect(File file) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        }
+        return detect(header, length);
+    }
+    
+    private static boolean startsWith(byte[] data, int length, byte[] header) {
+        if (length < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (data[i] != header[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Obtém um formato pelo nome.
+     *
+     * @param name Nome do formato (ex.: "smile")
+     * @return Formato ou null se não existir
+     */
+    public static StorageFormat fromName(String name) {
+        for (StorageFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Obtém o formato configurado para um armazenamento:
+     * {@code storage.<nome>.format} ou {@code storage.format}. Um nome
+     * desconhecido é informado no log e substituído por JSON.
+     *
+     * @param storageName Nome do armazenamento (ex.: "users")
+     * @return Formato configurado
+     */
+    public static StorageFormat getConfigured(String storageName) {
+        String name = ConfigManager.getProperty("storage." + storageName + ".format",
+                ConfigManager.getProperty("storage.format", "json"));
+        StorageFormat format = fromName(name);
+        if (format == null) {
+            logger.warning("Formato de armazenamento desconhecido para " + storageName + ": " + name
+                    + "; usando json");
+            return JSON;
+        }
+        return format;
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
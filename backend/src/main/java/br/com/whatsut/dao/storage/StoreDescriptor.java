@@ -0,0 +1,98 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.File;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Descrição de um armazenamento de entidades a ser aberto por um
+ * {@link StorageEngine}: nome, arquivo de dados, tipo das entidades, função de
+ * ID, função de cópia, política de gravação e formato de codificação.
+ *
+ * @param <T> Tipo da entidade
+ */
+public final class StoreDescriptor<T> {
+    private final String name;
+    private final File file;
+    private final JavaType listType;
+    private final Function<T, String> idFunction;
+    private final UnaryOperator<T> copier;
+    private final WritePolicy writePolicy;
+    private final StorageFormat format;
+    
+    /**
+     * Cria a descrição de um armazenamento.
+     *
+     * @param name Nome do armazenamento (ex.: "users")
+     * @param file Arquivo das entidades (usado pelos motores baseados em
+     *             arquivo e como origem da importação pelos demais)
+     * @param listType Tipo da lista de entidades
+     * @param idFunction Função que obtém o ID (como texto) de uma entidade
+     * @param writePolicy Política de gravação
+     * @param format Formato de codificação das gravações
+     */
+    public StoreDescriptor(String name, File file, JavaType listType, Function<T, String> idFunction,
+                           WritePolicy writePolicy, StorageFormat format) {
+        this(name, file, listType, idFunction, null, writePolicy, format);
+    }
+    
+    /**
+     * Cria a descrição de um armazenamento com uma função de cópia própria.
+     *
+     * @param name Nome do armazenamento (ex.: "users")
+     * @param file Arquivo das entidades (usado pelos motores baseados em
+     *             arquivo e como origem da importação pelos demais)
+     * @param listType Tipo da lista de entidades
+     * @param idFunction Função que obtém o ID (como texto) de uma entidade
+     * @param copier Cria uma cópia independente de uma entidade (ex.: um
+     *               construtor de cópia), usada pelos motores que mantêm as
+     *               entidades em memória a cada leitura; null copia pela
+     *               serialização, bem mais lenta
+     * @param writePolicy Política de gravação
+     * @param format Formato de codificação das gravações
+     */
+    public StoreDescriptor(String name, File file, JavaType listType, Function<T, String> idFunction,
+                           UnaryOperator<T> copier, WritePolicy writePolicy, StorageFormat format) {
+        this.name = name;
+        this.file = file;
+        this.listType = listType;
+        this.idFunction = idFunction;
+        this.copier = copier;
+        this.writePolicy = writePolicy;
+        this.format = format;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public JavaType getListType() {
+        return listType;
+    }
+    
+    public JavaType getEntityType() {
+        return listType.getContentType();
+    }
+    
+    public Function<T, String> getIdFunction() {
+        return idFunction;
+    }
+    
+    public UnaryOperator<T> getCopier() {
+        return copier;
+    }
+    
+    public WritePolicy getWritePolicy() {
+        return writePolicy;
+    }
+    
+    public StorageFormat getFormat() {
+        return format;
+    }
+}
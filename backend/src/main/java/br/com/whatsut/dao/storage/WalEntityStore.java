@@ -0,0 +1,609 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Armazenamento de entidades baseado em write-ahead log.
+ * As entidades ficam em memória; cada alteração é acrescentada como um registro
+ * no log ({@code <arquivo>.wal}) e o log é compactado em um snapshot gravado
+ * no próprio arquivo da entidade (de forma atômica, com um arquivo temporário
+ * renomeado sobre o anterior), periodicamente e quando o log cresce além de
+ * uma proporção do snapshot. A compactação roda em segundo plano, sem
+ * bloquear os escritores enquanto o snapshot é gravado. Log e snapshot são
+ * gravados no {@link StorageFormat} configurado e lidos em qualquer formato, de
+ * modo que a troca do formato vale a partir da próxima gravação. A durabilidade dos
+ * registros segue a {@link WritePolicy} do log; a espera pela gravação é feita
+ * fora do lock do armazenamento, para que alterações concorrentes sejam
+ * gravadas no mesmo lote.
+ * Existe no máximo uma instância aberta por arquivo, compartilhada por todos os
+ * DAOs que apontam para ele (veja {@link #open}).
+ *
+ * @param <T> Tipo da entidade
+ */
+public class WalEntityStore<T> implements EntityStore<T> {
+    private static final Logger logger = Logger.getLogger(WalEntityStore.class.getName());
+    private static final String OP_PUT = "put";
+    private static final String OP_DELETE = "delete";
+    private static final String OP_BATCH = "batch";
+    private static final Map<String, WalEntityStore<?>> openStores = new ConcurrentHashMap<>();
+    
+    private final StorageCodec codec;
+    private final ObjectMapper objectMapper;
+    private final JavaType entityType;
+    private final JavaType listType;
+    private final Function<T, String> idFunction;
+    private final UnaryOperator<T> copier;
+    private final File snapshotFile;
+    private final AppendLog log;
+    private final long compactMinBytes;
+    private final double compactRatio;
+    private final boolean created;
+    
+    // Versão atual das entidades: lida sem bloqueio, substituída pelo único escritor
+    private volatile EntitySnapshot<T> entities;
+    
+    // Escritor único: alterações e substituições
+    private final Lock writeLock = new ReentrantLock();
+    
+    // Uma compactação por vez (em segundo plano, periódica ou de replaceAll)
+    private final Lock compactionLock = new ReentrantLock();
+    private final ScheduledExecutorService compactor;
+    
+    // Estado da compactação, protegido pelo lock de escrita
+    private int pendingRecords;
+    private long snapshotBytes;
+    private boolean compactionScheduled;
+    
+    /**
+     * Obtém o armazenamento de um arquivo, abrindo-o na primeira chamada.
+     * Instâncias independentes sobre o mesmo log gravariam registros intercalados
+     * e cada compactação descartaria as alterações das outras.
+     *
+     * @param snapshotFile Arquivo com o snapshot das entidades
+     * @param listType Tipo da lista de entidades gravada no snapshot
+     * @param idFunction Função que obtém o ID (como texto) de uma entidade
+     * @param copier Função que copia uma entidade devolvida pelas leituras (ou null para copiar pela serialização)
+     * @param compactMinBytes Tamanho mínimo do log, em bytes, para a compactação por tamanho (0 desativa)
+     * @param compactRatio Proporção entre o tamanho do log e o do snapshot que dispara a compactação
+     * @param compactInterval Intervalo em milissegundos da compactação periódica (0 desativa)
+     * @param writePolicy Política de gravação do log (usada apenas na abertura)
+     * @param format Formato das gravações (usado apenas na abertura)
+     * @param <T> Tipo da entidade
+     * @return Armazenamento compartilhado
+     * @throws IOException Erro ao ler o snapshot ou o log
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> WalEntityStore<T> open(File snapshotFile, JavaType listType, Function<T, String> idFunction,
+                                             UnaryOperator<T> copier, long compactMinBytes, double compactRatio,
+                                             long compactInterval, WritePolicy writePolicy, StorageFormat format)
+            throws IOException {
+        String key = snapshotFile.getCanonicalPath();
+        synchronized (openStores) {
+            WalEntityStore<?> store = openStores.get(key);
+            if (store == null) {
+                store = new WalEntityStore<>(snapshotFile, listType, idFunction, copier, compactMinBytes,
+                        compactRatio, compactInterval, writePolicy, format);
+                openStores.put(key, store);
+            }
+            return (WalEntityStore<T>) store;
+        }
+    }
+    
+    /**
+     * Abre o armazenamento, carregando o snapshot e reaplicando o log.
+     *
+     * @param snapshotFile Arquivo com o snapshot das entidades
+     * @param listType Tipo da lista de entidades gravada no snapshot
+     * @param idFunction Função que obtém o ID (como texto) de uma entidade
+     * @param copier Função que copia uma entidade devolvida pelas leituras (ou null para copiar pela serialização)
+     * @param compactMinBytes Tamanho mínimo do log, em bytes, para a compactação por tamanho (0 desativa)
+     * @param compactRatio Proporção entre o tamanho do log e o do snapshot que dispara a compactação
+     * @param compactInterval Intervalo em milissegundos da compactação periódica (0 desativa)
+     * @param writePolicy Política de gravação do log
+     * @param format Formato das gravações
+     * @throws IOException Erro ao ler o snapshot ou o log
+     */
+    private WalEntityStore(File snapshotFile, JavaType listType, Function<T, String> idFunction,
+                          UnaryOperator<T> copier, long compactMinBytes, double compactRatio, long compactInterval,
+                          WritePolicy writePolicy, StorageFormat format) throws IOException {
+        this.codec = new StorageCodec(format);
+        this.objectMapper = codec.getMapper();
+        this.listType = listType;
+        this.entityType = listType.getContentType();
+        this.idFunction = idFunction;
+        this.copier = copier;
+        this.snapshotFile = snapshotFile;
+        this.compactMinBytes = compactMinBytes;
+        this.compactRatio = compactRatio;
+        File logFile = new File(snapshotFile.getPath() + ".wal");
+        this.created = !snapshotFile.exists() && !logFile.exists();
+        this.log = new AppendLog(logFile, writePolicy);
+        
+        recover();
+        if (!snapshotFile.exists()) {
+            // Snapshot vazio, para que o arquivo da entidade exista desde a abertura
+            AtomicFiles.write(snapshotFile, out -> codec.writeDocument(out, new ArrayList<>()));
+        }
+        this.snapshotBytes = snapshotFile.length();
+        
+        if (compactInterval > 0 || compactMinBytes > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "wal-compactor-" + snapshotFile.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (compactInterval > 0) {
+                this.compactor.scheduleWithFixedDelay(this::compactIfPending,
+                        compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            this.compactor = null;
+        }
+    }
+    
+    /**
+     * Carrega o snapshot e reaplica os registros do log sobre ele.
+     */
+    private void recover() throws IOException {
+        Map<String, T> recovered = new LinkedHashMap<>();
+        if (AtomicFiles.removeLeftoverTemp(snapshotFile)) {
+            RecoveryReport.add(snapshotFile, "snapshot temporário de uma compactação interrompida removido");
+        }
+        if (snapshotFile.exists() && snapshotFile.length() > 0) {
+            try {
+                List<T> snapshot = codec.readDocument(snapshotFile, listType);
+                for (T entity : snapshot) {
+                    recovered.put(idFunction.apply(entity), entity);
+                }
+            } catch (IOException e) {
+                // Não sobrescrever o snapshot ilegível na próxima compactação
+                File moved = AtomicFiles.quarantine(snapshotFile);
+                RecoveryReport.add(snapshotFile, "snapshot ilegível movido para " + moved.getName()
+                        + " (" + e.getMessage() + ")");
+            }
+        }
+        
+        List<byte[]> records = log.readAll();
+        replay(codec, entityType, recovered, records, log.getFile());
+        entities = EntitySnapshot.of(recovered);
+        pendingRecords = records.size();
+        
+        logger.info("Armazenamento WAL carregado: " + snapshotFile.getPath() + " - " + entities.size()
+                + " entidades, " + records.size() + " registros reaplicados, durabilidade " + log.getPolicy());
+    }
+    
+    /**
+     * Lê as entidades de um snapshot e do seu log sem abrir o armazenamento:
+     * nenhum arquivo é criado, alterado, compactado ou movido. Usado para
+     * importar os dados em outro motor.
+     *
+     * @param snapshotFile Arquivo com o snapshot das entidades
+     * @param listType Tipo da lista de entidades gravada no snapshot
+     * @param idFunction Função que obtém o ID (como texto) de uma entidade
+     * @param format Formato de leitura (arquivos em outro formato também são lidos)
+     * @param <T> Tipo da entidade
+     * @return Entidades do snapshot com os registros do log reaplicados
+     * @throws IOException Snapshot ilegível ou erro ao ler o log
+     */
+    public static <T> List<T> readEntities(File snapshotFile, JavaType listType, Function<T, String> idFunction,
+                                           StorageFormat format) throws IOException {
+        StorageCodec codec = new StorageCodec(format);
+        Map<String, T> recovered = new LinkedHashMap<>();
+        if (snapshotFile.exists() && snapshotFile.length() > 0) {
+            List<T> snapshot = codec.readDocument(snapshotFile, listType);
+            for (T entity : snapshot) {
+                recovered.put(idFunction.apply(entity), entity);
+            }
+        }
+        File logFile = new File(snapshotFile.getPath() + ".wal");
+        replay(codec, listType.getContentType(), recovered, AppendLog.readRecords(logFile), logFile);
+        return new ArrayList<>(recovered.values());
+    }
+    
+    /**
+     * Reaplica os registros de um log sobre as entidades recuperadas.
+     */
+    private static <T> void replay(StorageCodec codec, JavaType entityType, Map<String, T> recovered,
+                                   List<byte[]> records, File logFile) throws IOException {
+        for (byte[] record : records) {
+            JsonNode node;
+            try {
+                node = codec.readTree(record);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Registro inválido ignorado no log: " + logFile.getPath(), e);
+                continue;
+            }
+            if (OP_BATCH.equals(node.path("op").asText())) {
+                for (JsonNode change : node.path("changes")) {
+                    applyRecord(codec, entityType, recovered, change);
+                }
+            } else {
+                applyRecord(codec, entityType, recovered, node);
+            }
+        }
+    }
+    
+    /**
+     * Reaplica um registro de salvamento ou exclusão durante a recuperação.
+     */
+    private static <T> void applyRecord(StorageCodec codec, JavaType entityType, Map<String, T> recovered,
+                                        JsonNode node) throws IOException {
+        String op = node.path("op").asText();
+        String id = node.path("id").asText();
+        if (OP_PUT.equals(op)) {
+            recovered.put(id, codec.getMapper().treeToValue(node.get("entity"), entityType));
+        } else if (OP_DELETE.equals(op)) {
+            recovered.remove(id);
+        }
+    }
+    
+    /**
+     * Cria uma cópia independente de uma entidade, para que alterações feitas
+     * pelo chamador não afetem o estado em memória. Usa a função de cópia do
+     * armazenamento e, sem ela, a serialização.
+     */
+    private T copy(T entity) {
+        if (copier != null) {
+            return copier.apply(entity);
+        }
+        return objectMapper.convertValue(objectMapper.valueToTree(entity), entityType);
+    }
+    
+    /**
+     * Lista todas as entidades.
+     *
+     * @return Cópias das entidades armazenadas
+     */
+    @Override
+    public List<T> findAll() {
+        List<T> values = entities.values();
+        List<T> result = new ArrayList<>(values.size());
+        for (T entity : values) {
+            result.add(copy(entity));
+        }
+        return result;
+    }
+    
+    /**
+     * Busca uma entidade pelo ID.
+     *
+     * @param id ID da entidade
+     * @return Cópia da entidade ou null se não existir
+     */
+    @Override
+    public T findById(String id) {
+        T entity = entities.get(id);
+        return entity != null ? copy(entity) : null;
+    }
+    
+    /**
+     * Obtém a versão atual das entidades, sem bloqueio. As entidades da versão
+     * são compartilhadas e não devem ser alteradas.
+     *
+     * @return Versão atual
+     */
+    public EntitySnapshot<T> snapshot() {
+        return entities;
+    }
+    
+    /**
+     * Salva uma entidade (cria ou atualiza), acrescentando um registro ao log.
+     *
+     * @param entity Entidade
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    @Override
+    public boolean put(T entity) {
+        long ticket = stagePut(entity);
+        return ticket >= 0 && awaitDurable(ticket);
+    }
+    
+    /**
+     * Salva uma entidade em memória e acrescenta o registro ao buffer do log,
+     * sem esperar a sua gravação (veja {@link #awaitDurable(long)}).
+     *
+     * @param entity Entidade
+     * @return Número de confirmação do registro ou -1 em caso de erro
+     */
+    @Override
+    public long stagePut(T entity) {
+        String id = idFunction.apply(entity);
+        ObjectNode record = objectMapper.createObjectNode();
+        record.put("op", OP_PUT);
+        record.put("id", id);
+        record.set("entity", objectMapper.valueToTree(entity));
+        
+        writeLock.lock();
+        try {
+            long ticket = log.enqueue(codec.encode(record));
+            entities = entities.with(id, objectMapper.treeToValue(record.get("entity"), entityType));
+            afterAppend();
+            return ticket;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar registro no log: " + log.getFile().getPath(), e);
+            return -1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Remove uma entidade, acrescentando um registro de exclusão ao log.
+     *
+     * @param id ID da entidade
+     * @return true se a entidade existia e foi removida, false caso contrário
+     */
+    @Override
+    public boolean remove(String id) {
+        long ticket = stageRemove(id);
+        return ticket >= 0 && awaitDurable(ticket);
+    }
+    
+    /**
+     * Remove uma entidade da memória e acrescenta o registro de exclusão ao
+     * buffer do log, sem esperar a sua gravação (veja {@link #awaitDurable(long)}).
+     *
+     * @param id ID da entidade
+     * @return Número de confirmação do registro ou -1 se a entidade não existir ou em caso de erro
+     */
+    @Override
+    public long stageRemove(String id) {
+        writeLock.lock();
+        try {
+            if (!entities.contains(id)) {
+                return -1;
+            }
+            ObjectNode record = objectMapper.createObjectNode();
+            record.put("op", OP_DELETE);
+            record.put("id", id);
+            long ticket = log.enqueue(codec.encode(record));
+            entities = entities.without(id);
+            afterAppend();
+            return ticket;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar registro no log: " + log.getFile().getPath(), e);
+            return -1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Aplica várias alterações em memória e acrescenta um único registro ao
+     * buffer do log, sem esperar a sua gravação (veja {@link #awaitDurable(long)}).
+     * Como o registro é gravado inteiro ou descartado na recuperação, as
+     * alterações sobrevivem juntas a uma queda ou nenhuma sobrevive.
+     *
+     * @param changes Alterações por ID: entidade a ser salva ou null para excluir
+     *                (exclusões de IDs inexistentes são ignoradas)
+     * @return Número de confirmação do registro, 0 se não houver nada a gravar
+     *         ou -1 em caso de erro
+     */
+    @Override
+    public long stageBatch(Map<String, T> changes) {
+        writeLock.lock();
+        try {
+            ArrayNode records = objectMapper.createArrayNode();
+            EntitySnapshot<T> next = entities;
+            for (Map.Entry<String, T> change : changes.entrySet()) {
+                String id = change.getKey();
+                if (change.getValue() == null) {
+                    if (!next.contains(id)) {
+                        continue;
+                    }
+                    ObjectNode record = records.addObject();
+                    record.put("op", OP_DELETE);
+                    record.put("id", id);
+                    next = next.without(id);
+                } else {
+                    ObjectNode record = records.addObject();
+                    record.put("op", OP_PUT);
+                    record.put("id", id);
+                    record.set("entity", objectMapper.valueToTree(change.getValue()));
+                    next = next.with(id, objectMapper.treeToValue(record.get("entity"), entityType));
+                }
+            }
+            if (records.size() == 0) {
+                return 0;
+            }
+            
+            ObjectNode batch = objectMapper.createObjectNode();
+            batch.put("op", OP_BATCH);
+            batch.set("changes", records);
+            long ticket = log.enqueue(codec.encode(batch));
+            entities = next;
+            afterAppend();
+            return ticket;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar registro no log: " + log.getFile().getPath(), e);
+            return -1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Espera a gravação de um registro do log conforme a política de gravação.
+     * Deve ser chamado sem locks, para que alterações concorrentes sejam
+     * gravadas no mesmo lote. A alteração já está visível em memória; se a
+     * gravação falhar, o log deixa de aceitar registros e a falha é informada
+     * ao chamador.
+     *
+     * @param ticket Número de confirmação retornado por {@link #stagePut} ou {@link #stageRemove}
+     * @return true se gravado com sucesso, false caso contrário
+     */
+    @Override
+    public boolean awaitDurable(long ticket) {
+        try {
+            log.awaitDurable(ticket);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar registro no log: " + log.getFile().getPath(), e);
+            return false;
+        }
+    }
+    
+    /**
+     * Substitui todas as entidades e grava um novo snapshot.
+     *
+     * @param newEntities Novo conjunto de entidades
+     * @return true se salvo com sucesso, false caso contrário
+     */
+    @Override
+    public boolean replaceAll(Collection<T> newEntities) {
+        compactionLock.lock();
+        writeLock.lock();
+        try {
+            Map<String, T> replaced = new LinkedHashMap<>();
+            for (T entity : newEntities) {
+                replaced.put(idFunction.apply(entity), copy(entity));
+            }
+            EntitySnapshot<T> previous = entities;
+            entities = EntitySnapshot.of(replaced);
+            try {
+                compact();
+            } catch (IOException e) {
+                entities = previous;
+                throw e;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Erro ao gravar snapshot: " + snapshotFile.getPath(), e);
+            return false;
+        } finally {
+            writeLock.unlock();
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Contabiliza um registro gravado e agenda a compactação em segundo plano
+     * quando o log passa do tamanho mínimo e da proporção configurada do
+     * snapshot, de modo que o custo de regravar o snapshot fica proporcional
+     * ao que foi acrescentado desde a última compactação.
+     * Deve ser chamado pelo escritor (com o lock de escrita adquirido).
+     */
+    private void afterAppend() {
+        pendingRecords++;
+        if (compactMinBytes <= 0 || compactionScheduled) {
+            return;
+        }
+        long logBytes = log.mark();
+        if (logBytes >= compactMinBytes && logBytes >= compactRatio * snapshotBytes) {
+            try {
+                compactor.execute(this::compactIfPending);
+                compactionScheduled = true;
+            } catch (RejectedExecutionException e) {
+                // Armazenamento sendo fechado: a compactação é feita no fechamento
+            }
+        }
+    }
+    
+    /**
+     * Grava o snapshot com o estado atual e esvazia o log.
+     * Deve ser chamado com os locks de compactação e de escrita adquiridos.
+     */
+    private void compact() throws IOException {
+        List<T> snapshot = entities.values();
+        AtomicFiles.write(snapshotFile, out -> codec.writeDocument(out, snapshot));
+        log.truncate();
+        pendingRecords = 0;
+        snapshotBytes = snapshotFile.length();
+    }
+    
+    /**
+     * Compacta o log se houver registros pendentes. Os escritores só são
+     * bloqueados para capturar a versão atual das entidades e a posição do
+     * log; o snapshot é gravado sem o lock de escrita e depois os registros
+     * anteriores à posição são descartados. Os registros acrescentados durante
+     * a gravação continuam no log: reaplicá-los sobre o novo snapshot (ou, após
+     * uma queda antes do descarte, reaplicar o log inteiro) leva ao mesmo
+     * estado, pois cada registro grava o valor final das entidades que altera.
+     */
+    public void compactIfPending() {
+        compactionLock.lock();
+        try {
+            EntitySnapshot<T> snapshot;
+            long mark;
+            int records;
+            writeLock.lock();
+            try {
+                if (pendingRecords == 0) {
+                    return;
+                }
+                snapshot = entities;
+                mark = log.mark();
+                records = pendingRecords;
+            } finally {
+                writeLock.unlock();
+            }
+            
+            List<T> values = snapshot.values();
+            AtomicFiles.write(snapshotFile, out -> codec.writeDocument(out, values));
+            log.discardBefore(mark);
+            
+            writeLock.lock();
+            try {
+                pendingRecords -= records;
+                snapshotBytes = snapshotFile.length();
+            } finally {
+                writeLock.unlock();
+            }
+            logger.fine("Log compactado: " + log.getFile().getPath());
+        } catch (IOException e) {
+            // O log continua válido; a compactação será tentada novamente
+            logger.log(Level.WARNING, "Erro ao compactar log: " + log.getFile().getPath(), e);
+        } finally {
+            writeLock.lock();
+            compactionScheduled = false;
+            writeLock.unlock();
+            compactionLock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean isNew() {
+        return created;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (openStores) {
+            openStores.remove(snapshotFile.getCanonicalPath(), this);
+        }
+        if (compactor != null) {
+            // Esperar a compactação em andamento, sem interrompê-la no meio da gravação
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        compactIfPending();
+        log.close();
+    }
+}
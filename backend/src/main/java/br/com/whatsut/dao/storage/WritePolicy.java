@@ -0,0 +1,70 @@
+package br.com.whatsut.dao.storage;
+
+/**
+ * Política de gravação de um log append-only: quando os registros são gravados
+ * e sincronizados com o disco (fsync) e quanto tempo quem grava espera por isso.
+ */
+public final class WritePolicy {
+    
+    /**
+     * Nível de durabilidade das gravações.
+     */
+    public enum Durability {
+        /** Cada registro é gravado e sincronizado antes de a chamada retornar. */
+        SYNC,
+        /**
+         * Registros concorrentes são agrupados e sincronizados juntos após uma
+         * janela curta; cada chamada espera a sincronização do seu grupo.
+         */
+        GROUP_COMMIT,
+        /**
+         * A chamada retorna imediatamente e os registros são gravados em segundo
+         * plano a cada intervalo; uma queda pode perder o último intervalo.
+         */
+        ASYNC;
+        
+        /**
+         * Converte o nome usado nas propriedades ("sync", "group-commit" ou "async").
+         *
+         * @param name Nome da durabilidade
+         * @return Durabilidade correspondente
+         * @throws IllegalArgumentException Se o nome não for reconhecido
+         */
+        public static Durability fromName(String name) {
+            String normalized = name.trim().toUpperCase().replace('-', '_');
+            return Durability.valueOf(normalized);
+        }
+    }
+    
+    /** Gravação e sincronização a cada registro. */
+    public static final WritePolicy SYNC = new WritePolicy(Durability.SYNC, 0);
+    
+    private final Durability durability;
+    private final long flushDelayMillis;
+    
+    /**
+     * Cria uma política de gravação.
+     *
+     * @param durability Nível de durabilidade
+     * @param flushDelayMillis Janela do group commit ou intervalo da gravação
+     *                         assíncrona, em milissegundos (ignorado em SYNC)
+     */
+    public WritePolicy(Durability durability, long flushDelayMillis) {
+        this.durability = durability;
+        this.flushDelayMillis = Math.max(0, flushDelayMillis);
+    }
+    
+    public Durability getDurability() {
+        return durability;
+    }
+    
+    public long getFlushDelayMillis() {
+        return flushDelayMillis;
+    }
+    
+    @Override
+    public String toString() {
+        return durability == Durability.SYNC ? "sync"
+                : durability.name().toLowerCase().replace('_', '-') + " (" + flushDelayMillis + " ms)";
+    }
+}
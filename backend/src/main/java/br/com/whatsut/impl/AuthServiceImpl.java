@@ -1,11 +1,13 @@
 package br.com.whatsut.impl;
 
+import br.com.whatsut.dao.DAOFactory;
 import br.com.whatsut.dao.SessionDAO;
 import br.com.whatsut.dao.UserDAO;
 import br.com.whatsut.model.Session;
 import br.com.whatsut.model.User;
 import br.com.whatsut.service.AuthService;
 import br.com.whatsut.util.ConfigManager;
+import br.com.whatsut.util.IdGenerator;
 import br.com.whatsut.util.SecurityUtils;
 
 import java.rmi.RemoteException;
@@ -25,8 +27,8 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
     
     public AuthServiceImpl() throws RemoteException {
         super();
-        this.userDAO = new UserDAO();
-        this.sessionDAO = new SessionDAO();
+        this.userDAO = DAOFactory.getUserDAO();
+        this.sessionDAO = DAOFactory.getSessionDAO();
         this.sessionExpirationTime = ConfigManager.getLongProperty("security.token.expiration", 3600000);
     }
     
@@ -42,7 +44,7 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
             
             // Criar novo usuário
             User newUser = new User();
-            newUser.setUserId(UUID.randomUUID().toString());
+            newUser.setUserId(IdGenerator.newId());
             newUser.setUsername(username);
             newUser.setDisplayName(displayName);
             newUser.setEmail(email);
@@ -82,7 +84,7 @@ public class AuthServiceImpl extends UnicastRemoteObject implements AuthService
                 return null;
             }
             
-            // Criar nova sessão
+            // Criar nova sessão (ID aleatório: identifica a sessão e não pode ser previsível)
             String sessionId = UUID.randomUUID().toString();
             String token = SecurityUtils.generateToken();
             
@@ -1,18 +1,22 @@
 package br.com.whatsut.impl;
 
+import br.com.whatsut.dao.DAOFactory;
 import br.com.whatsut.dao.GroupDAO;
 import br.com.whatsut.dao.GroupMemberDAO;
+import br.com.whatsut.dao.MessageDAO;
+import br.com.whatsut.dao.UnitOfWork;
 import br.com.whatsut.dao.UserDAO;
 import br.com.whatsut.model.Group;
 import br.com.whatsut.model.GroupMember;
 import br.com.whatsut.model.User;
 import br.com.whatsut.service.GroupService;
+import br.com.whatsut.util.IdGenerator;
 
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,12 +28,14 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
     private final GroupDAO groupDAO;
     private final GroupMemberDAO groupMemberDAO;
     private final UserDAO userDAO;
+    private final MessageDAO messageDAO;
     
     public GroupServiceImpl() throws RemoteException {
         super();
-        this.groupDAO = new GroupDAO();
-        this.groupMemberDAO = new GroupMemberDAO();
-        this.userDAO = new UserDAO();
+        this.groupDAO = DAOFactory.getGroupDAO();
+        this.groupMemberDAO = DAOFactory.getGroupMemberDAO();
+        this.userDAO = DAOFactory.getUserDAO();
+        this.messageDAO = DAOFactory.getMessageDAO();
     }
     
     @Override
@@ -43,7 +49,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             
             // Criar novo grupo
             Group group = new Group();
-            group.setGroupId(UUID.randomUUID().toString());
+            group.setGroupId(IdGenerator.newId());
             group.setName(name);
             group.setDescription(description);
             group.setAdminId(adminId);
@@ -51,25 +57,24 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             group.setCreatedAt(System.currentTimeMillis());
             group.setDeleteOnAdminExit(deleteOnAdminExit);
             
-            // Salvar grupo
-            boolean saved = groupDAO.save(group);
-            if (!saved) {
-                logger.warning("Falha ao salvar novo grupo: " + name);
-                return null;
-            }
-            
-            // Adicionar criador como administrador do grupo
+            // Criador como administrador do grupo
             GroupMember member = new GroupMember();
-            member.setMemberId(UUID.randomUUID().toString());
+            member.setMemberId(IdGenerator.newId());
             member.setGroupId(group.getGroupId());
             member.setUserId(adminId);
             member.setAdmin(true);
             member.setJoinedAt(System.currentTimeMillis());
             
-            boolean memberSaved = groupMemberDAO.save(member);
-            if (!memberSaved) {
+            // Grupo e membro ficam em armazenamentos diferentes: o membro é
+            // gravado primeiro (um membro sem grupo é ignorado nas consultas)
+            // e desfeito se o grupo não puder ser gravado
+            if (!groupMemberDAO.save(member)) {
                 logger.warning("Falha ao adicionar administrador como membro do grupo: " + name);
-                groupDAO.delete(group.getGroupId());
+                return null;
+            }
+            if (!groupDAO.save(group)) {
+                logger.warning("Falha ao salvar novo grupo: " + name);
+                groupMemberDAO.deleteGroupMember(group.getGroupId(), adminId);
                 return null;
             }
             
@@ -186,27 +191,33 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
                 return false;
             }
             
-            // Excluir todos os membros do grupo
-            List<GroupMember> members = groupMemberDAO.findByGroupId(groupId);
-            for (GroupMember member : members) {
-                groupMemberDAO.delete(member.getMemberId());
-            }
-            
-            // Excluir grupo
-            boolean deleted = groupDAO.delete(groupId);
-            if (deleted) {
-                logger.info("Grupo excluído com sucesso: " + groupId);
-                return true;
-            } else {
-                logger.warning("Falha ao excluir grupo: " + groupId);
-                return false;
-            }
+            return deleteGroupWithMembers(groupId);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Erro ao excluir grupo", e);
             throw new RemoteException("Erro ao excluir grupo", e);
         }
     }
     
+    /**
+     * Exclui um grupo e todos os seus membros. O grupo é excluído primeiro, para
+     * que uma falha não deixe um grupo visível sem membros; os membros são
+     * excluídos em uma única gravação.
+     */
+    private boolean deleteGroupWithMembers(String groupId) {
+        if (!groupDAO.delete(groupId)) {
+            logger.warning("Falha ao excluir grupo: " + groupId);
+            return false;
+        }
+        if (!groupMemberDAO.deleteAllGroupMembers(groupId)) {
+            logger.warning("Falha ao excluir membros do grupo excluído: " + groupId);
+        }
+        if (!messageDAO.removeGroup(groupId)) {
+            logger.warning("Falha ao remover o estado de leitura do grupo excluído: " + groupId);
+        }
+        logger.info("Grupo excluído com sucesso: " + groupId);
+        return true;
+    }
+    
     @Override
     public List<GroupMember> getGroupMembers(String groupId) throws RemoteException {
         try {
@@ -245,7 +256,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             
             // Adicionar usuário ao grupo
             GroupMember newMember = new GroupMember();
-            newMember.setMemberId(UUID.randomUUID().toString());
+            newMember.setMemberId(IdGenerator.newId());
             newMember.setGroupId(groupId);
             newMember.setUserId(userId);
             newMember.setJoinedAt(System.currentTimeMillis());
@@ -253,6 +264,8 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             
             boolean saved = groupMemberDAO.save(newMember);
             if (saved) {
+                // O histórico anterior à entrada não conta como não lido
+                messageDAO.markGroupHistoryRead(userId, groupId);
                 logger.info("Usuário adicionado ao grupo com sucesso: " + userId + " ao grupo " + groupId);
                 return true;
             } else {
@@ -265,6 +278,54 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
         }
     }
     
+    @Override
+    public List<String> addUsersToGroup(String groupId, List<String> userIds, String adderId) throws RemoteException {
+        try {
+            Group group = groupDAO.findById(groupId);
+            if (group == null) {
+                logger.info("Grupo não encontrado para adição de usuários: " + groupId);
+                return new ArrayList<>();
+            }
+            
+            // Verificar se o usuário que está adicionando é administrador do grupo
+            GroupMember adderMember = groupMemberDAO.findByGroupAndUser(groupId, adderId);
+            if (adderMember == null || !adderMember.isAdmin()) {
+                logger.info("Usuário não tem permissão para adicionar membros: " + adderId);
+                return new ArrayList<>();
+            }
+            
+            // Ignorar usuários inexistentes, repetidos ou que já são membros
+            List<String> added = new ArrayList<>();
+            UnitOfWork<GroupMember, String> membership = new UnitOfWork<>();
+            for (String userId : new LinkedHashSet<>(userIds)) {
+                if (userDAO.findById(userId) == null || groupMemberDAO.findByGroupAndUser(groupId, userId) != null) {
+                    continue;
+                }
+                GroupMember newMember = new GroupMember();
+                newMember.setMemberId(IdGenerator.newId());
+                newMember.setGroupId(groupId);
+                newMember.setUserId(userId);
+                newMember.setJoinedAt(System.currentTimeMillis());
+                newMember.setAdmin(false);
+                membership.save(newMember);
+                added.add(userId);
+            }
+            
+            if (!groupMemberDAO.commit(membership)) {
+                logger.warning("Falha ao adicionar usuários ao grupo: " + groupId);
+                return new ArrayList<>();
+            }
+            for (String userId : added) {
+                messageDAO.markGroupHistoryRead(userId, groupId);
+            }
+            logger.info(added.size() + " usuário(s) adicionado(s) ao grupo " + groupId);
+            return added;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao adicionar usuários ao grupo", e);
+            throw new RemoteException("Erro ao adicionar usuários ao grupo", e);
+        }
+    }
+    
     @Override
     public boolean removeUserFromGroup(String groupId, String userId, String removerId) throws RemoteException {
         try {
@@ -297,8 +358,9 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             }
             
             // Remover usuário do grupo
-            boolean removed = groupMemberDAO.delete(member.getMemberId());
+            boolean removed = groupMemberDAO.deleteGroupMember(groupId, userId);
             if (removed) {
+                messageDAO.removeGroupMember(userId, groupId);
                 logger.info("Usuário removido do grupo com sucesso: " + userId + " do grupo " + groupId);
                 return true;
             } else {
@@ -338,15 +400,17 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             boolean updated = groupDAO.save(group);
             
             if (updated) {
-                // Atualizar status de administrador dos membros
+                // Atualizar status de administrador dos membros em uma única gravação
+                UnitOfWork<GroupMember, String> membership = new UnitOfWork<>();
                 GroupMember currentAdminMember = groupMemberDAO.findByGroupAndUser(groupId, currentAdminId);
                 if (currentAdminMember != null) {
                     currentAdminMember.setAdmin(false);
-                    groupMemberDAO.save(currentAdminMember);
+                    membership.save(currentAdminMember);
                 }
                 
                 newAdminMember.setAdmin(true);
-                groupMemberDAO.save(newAdminMember);
+                membership.save(newAdminMember);
+                groupMemberDAO.commit(membership);
                 
                 logger.info("Administrador do grupo alterado com sucesso: de " + currentAdminId + " para " + newAdminId);
                 return true;
@@ -376,25 +440,15 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
                 return false;
             }
             
+            // Saída do usuário e eventual promoção de outro membro, gravadas juntas
+            UnitOfWork<GroupMember, String> membership = new UnitOfWork<>();
+            
             // Verificar se o usuário é o administrador
             if (userId.equals(group.getAdminId())) {
                 // Se o grupo deve ser excluído quando o administrador sair
                 if (group.isDeleteOnAdminExit()) {
-                    // Excluir todos os membros do grupo
-                    List<GroupMember> members = groupMemberDAO.findByGroupId(groupId);
-                    for (GroupMember m : members) {
-                        groupMemberDAO.delete(m.getMemberId());
-                    }
-                    
-                    // Excluir o grupo
-                    boolean deleted = groupDAO.delete(groupId);
-                    if (deleted) {
-                        logger.info("Grupo excluído após saída do administrador: " + groupId);
-                        return true;
-                    } else {
-                        logger.warning("Falha ao excluir grupo após saída do administrador: " + groupId);
-                        return false;
-                    }
+                    logger.info("Administrador saiu do grupo com exclusão automática: " + groupId);
+                    return deleteGroupWithMembers(groupId);
                 } else {
                     // Encontrar outro membro para ser administrador
                     List<GroupMember> members = groupMemberDAO.findByGroupId(groupId);
@@ -405,7 +459,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
                                 group.setAdminId(m.getUserId());
                                 m.setAdmin(true);
                                 groupDAO.save(group);
-                                groupMemberDAO.save(m);
+                                membership.save(m);
                                 break;
                             }
                         }
@@ -414,8 +468,10 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             }
             
             // Remover usuário do grupo
-            boolean removed = groupMemberDAO.delete(member.getMemberId());
+            membership.delete(GroupMemberDAO.getMemberKey(groupId, userId));
+            boolean removed = groupMemberDAO.commit(membership);
             if (removed) {
+                messageDAO.removeGroupMember(userId, groupId);
                 logger.info("Usuário saiu do grupo com sucesso: " + userId + " do grupo " + groupId);
                 return true;
             } else {
@@ -446,7 +502,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
             
             // Criar solicitação de entrada (usando o mesmo modelo GroupMember com flag pendente)
             GroupMember request = new GroupMember();
-            request.setMemberId(UUID.randomUUID().toString());
+            request.setMemberId(IdGenerator.newId());
             request.setGroupId(groupId);
             request.setUserId(userId);
             request.setAdmin(false);
@@ -495,6 +551,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
                 request.setJoinedAt(System.currentTimeMillis()); // Atualizar data de entrada
                 boolean saved = groupMemberDAO.save(request);
                 if (saved) {
+                    messageDAO.markGroupHistoryRead(userId, groupId);
                     logger.info("Solicitação de entrada aprovada: " + userId + " no grupo " + groupId);
                     return true;
                 } else {
@@ -503,7 +560,7 @@ public class GroupServiceImpl extends UnicastRemoteObject implements GroupServic
                 }
             } else {
                 // Rejeitar solicitação (excluir)
-                boolean deleted = groupMemberDAO.deleteJoinRequest(request.getMemberId());
+                boolean deleted = groupMemberDAO.deleteJoinRequest(GroupMemberDAO.getMemberKey(groupId, userId));
                 if (deleted) {
                     logger.info("Solicitação de entrada rejeitada: " + userId + " no grupo " + groupId);
                     return true;
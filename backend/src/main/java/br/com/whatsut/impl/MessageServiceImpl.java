@@ -1,16 +1,21 @@
 package br.com.whatsut.impl;
 
+import br.com.whatsut.dao.DAOFactory;
 import br.com.whatsut.dao.GroupDAO;
 import br.com.whatsut.dao.GroupMemberDAO;
 import br.com.whatsut.dao.MessageDAO;
 import br.com.whatsut.dao.UserDAO;
+import br.com.whatsut.model.ConversationSummary;
 import br.com.whatsut.model.Group;
 import br.com.whatsut.model.GroupMember;
 import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.Message;
 import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.UnreadMessage;
 import br.com.whatsut.model.User;
 import br.com.whatsut.service.MessageService;
 import br.com.whatsut.util.ConfigManager;
+import br.com.whatsut.util.IdGenerator;
 
 import java.io.File;
 import java.rmi.RemoteException;
@@ -20,6 +25,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Implementação do serviço de mensagens.
@@ -33,10 +39,22 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
     
     public MessageServiceImpl() throws RemoteException {
         super();
-        this.messageDAO = new MessageDAO();
-        this.userDAO = new UserDAO();
-        this.groupDAO = new GroupDAO();
-        this.groupMemberDAO = new GroupMemberDAO();
+        this.messageDAO = DAOFactory.getMessageDAO();
+        this.userDAO = DAOFactory.getUserDAO();
+        this.groupDAO = DAOFactory.getGroupDAO();
+        this.groupMemberDAO = DAOFactory.getGroupMemberDAO();
+    }
+    
+    /**
+     * Obtém os IDs dos grupos dos quais um usuário é membro.
+     *
+     * @param userId ID do usuário
+     * @return IDs dos grupos
+     */
+    private List<String> getUserGroupIds(String userId) {
+        return groupMemberDAO.findByUserId(userId).stream()
+                .map(GroupMember::getGroupId)
+                .collect(Collectors.toList());
     }
     
     @Override
@@ -58,7 +76,7 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
             
             // Criar nova mensagem privada
             PrivateMessage message = new PrivateMessage();
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(IdGenerator.newId());
             message.setSenderId(senderId);
             message.setReceiverId(receiverId);
             message.setContent(content);
@@ -100,7 +118,7 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
             
             // Criar nova mensagem de grupo
             GroupMessage message = new GroupMessage();
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(IdGenerator.newId());
             message.setSenderId(senderId);
             message.setGroupId(groupId);
             message.setContent(content);
@@ -150,7 +168,7 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
                 fileType = getFileType(file.getName());
             }
             
-            // Gerar um nome único para o arquivo
+            // Gerar um nome único e imprevisível para o arquivo
             String fileName = UUID.randomUUID().toString() + "_" + file.getName();
             
             // Definir o diretório de armazenamento de arquivos
@@ -170,7 +188,7 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
             
             // Criar nova mensagem privada com arquivo
             PrivateMessage message = new PrivateMessage();
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(IdGenerator.newId());
             message.setSenderId(senderId);
             message.setReceiverId(receiverId);
             message.setContent("Arquivo: " + file.getName());
@@ -232,29 +250,106 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
         }
     }
     
-    // Método auxiliar não definido na interface, mas usado internamente
-    public List<PrivateMessage> getUnreadMessages(String userId) throws RemoteException {
+    @Override
+    public List<PrivateMessage> getPrivateMessagesBefore(String userId1, String userId2, String beforeMessageId,
+                                                         long beforeTimestamp, int limit) throws RemoteException {
         try {
-            // Implementação temporária: buscar todas as mensagens privadas e filtrar as não lidas
-            List<PrivateMessage> allMessages = new ArrayList<>();
-            List<String> conversations = getConversations(userId);
-            
-            for (String otherUserId : conversations) {
-                List<PrivateMessage> messages = getPrivateMessages(userId, otherUserId, 100, 0);
-                for (PrivateMessage message : messages) {
-                    if (message.getReceiverId().equals(userId) && !message.isRead()) {
-                        allMessages.add(message);
-                    }
-                }
+            return messageDAO.getPrivateMessagesBefore(userId1, userId2, beforeMessageId, beforeTimestamp, limit);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao buscar mensagens privadas", e);
+            throw new RemoteException("Erro ao buscar mensagens privadas", e);
+        }
+    }
+    
+    @Override
+    public List<GroupMessage> getGroupMessagesBefore(String groupId, String beforeMessageId,
+                                                     long beforeTimestamp, int limit) throws RemoteException {
+        try {
+            return messageDAO.getGroupMessagesBefore(groupId, beforeMessageId, beforeTimestamp, limit);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao buscar mensagens de grupo", e);
+            throw new RemoteException("Erro ao buscar mensagens de grupo", e);
+        }
+    }
+    
+    @Override
+    public int getUnreadCount(String userId) throws RemoteException {
+        try {
+            return messageDAO.getUnreadCount(userId, getUserGroupIds(userId));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao contar mensagens não lidas", e);
+            throw new RemoteException("Erro ao contar mensagens não lidas", e);
+        }
+    }
+    
+    @Override
+    public int getConversationUnreadCount(String userId, String conversationKey) throws RemoteException {
+        try {
+            // Grupos dos quais o usuário não é membro não têm mensagens não lidas para ele
+            String groupId = MessageDAO.getGroupId(conversationKey);
+            if (groupId != null && groupMemberDAO.findByGroupAndUser(groupId, userId) == null) {
+                return 0;
             }
-            
-            return allMessages;
+            return messageDAO.getUnreadCount(userId, conversationKey);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao contar mensagens não lidas", e);
+            throw new RemoteException("Erro ao contar mensagens não lidas", e);
+        }
+    }
+    
+    @Override
+    public List<UnreadMessage> getUnreadMessages(String userId, int limit, int offset) throws RemoteException {
+        try {
+            return messageDAO.getUnreadMessages(userId, getUserGroupIds(userId), limit, offset);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Erro ao buscar mensagens não lidas", e);
             throw new RemoteException("Erro ao buscar mensagens não lidas", e);
         }
     }
     
+    @Override
+    public boolean markConversationRead(String userId, String conversationKey, String upToMessageId) throws RemoteException {
+        try {
+            // Em grupos, apenas membros podem marcar a conversa como lida
+            String groupId = MessageDAO.getGroupId(conversationKey);
+            if (groupId != null && groupMemberDAO.findByGroupAndUser(groupId, userId) == null) {
+                logger.info("Usuário não é membro do grupo: " + userId);
+                return false;
+            }
+            
+            boolean marked = messageDAO.markConversationRead(userId, conversationKey, upToMessageId);
+            if (!marked) {
+                logger.warning("Falha ao marcar conversa como lida: " + conversationKey);
+            }
+            return marked;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao marcar conversa como lida", e);
+            throw new RemoteException("Erro ao marcar conversa como lida", e);
+        }
+    }
+    
+    @Override
+    public List<ConversationSummary> getConversationSummaries(String userId, int limit, int offset) throws RemoteException {
+        try {
+            List<String> groupIds = getUserGroupIds(userId);
+            return messageDAO.getConversationSummaries(userId, groupIds, limit, offset);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao buscar conversas", e);
+            throw new RemoteException("Erro ao buscar conversas", e);
+        }
+    }
+    
+    @Override
+    public List<Message> searchMessages(String userId, String query, int limit, int offset) throws RemoteException {
+        try {
+            List<String> groupIds = getUserGroupIds(userId);
+            return messageDAO.searchMessages(userId, groupIds, query, limit, offset);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao buscar mensagens", e);
+            throw new RemoteException("Erro ao buscar mensagens", e);
+        }
+    }
+    
     @Override
     public boolean markMessageAsRead(String messageId, String userId) throws RemoteException {
         try {
@@ -294,20 +389,10 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
     // Método auxiliar não definido na interface, mas usado internamente
     public List<String> getConversations(String userId) throws RemoteException {
         try {
-            // Implementação alternativa: buscar todas as conversas privadas do usuário
-            // Primeiro, obtemos todos os usuários
-            List<User> allUsers = userDAO.findAll();
-            List<String> conversationIds = new ArrayList<>();
-            
-            // Para cada usuário, verificamos se há mensagens trocadas com o usuário atual
-            for (User user : allUsers) {
-                if (!user.getUserId().equals(userId)) {
-                    List<PrivateMessage> messages = messageDAO.getPrivateMessages(userId, user.getUserId(), 1, 0);
-                    if (messages != null && !messages.isEmpty()) {
-                        conversationIds.add(user.getUserId());
-                    }
-                }
-            }
+            // Conversas privadas com mensagens, a partir do estado mantido das conversas
+            List<String> conversationIds = messageDAO.getConversationSummaries(userId, new ArrayList<>(), 0, 0).stream()
+                    .map(ConversationSummary::getTargetId)
+                    .collect(Collectors.toList());
             
             return conversationIds;
         } catch (Exception e) {
@@ -407,10 +492,10 @@ public class MessageServiceImpl extends UnicastRemoteObject implements MessageSe
                 fileType = getFileType(file.getName());
             }
             
-            // Gerar ID único para a mensagem
-            String messageId = UUID.randomUUID().toString();
+            // Gerar ID único (ordenado pelo tempo) para a mensagem
+            String messageId = IdGenerator.newId();
             
-            // Gerar um nome único para o arquivo
+            // Gerar um nome único e imprevisível para o arquivo
             String fileName = UUID.randomUUID().toString() + "_" + file.getName();
             
             // Definir o diretório de armazenamento de arquivos
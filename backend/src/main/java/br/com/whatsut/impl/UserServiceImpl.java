@@ -1,5 +1,6 @@
 package br.com.whatsut.impl;
 
+import br.com.whatsut.dao.DAOFactory;
 import br.com.whatsut.dao.SessionDAO;
 import br.com.whatsut.dao.UserDAO;
 import br.com.whatsut.model.User;
@@ -23,8 +24,8 @@ public class UserServiceImpl extends UnicastRemoteObject implements UserService
     
     public UserServiceImpl() throws RemoteException {
         super();
-        this.userDAO = new UserDAO();
-        this.sessionDAO = new SessionDAO();
+        this.userDAO = DAOFactory.getUserDAO();
+        this.sessionDAO = DAOFactory.getSessionDAO();
     }
     
     @Override
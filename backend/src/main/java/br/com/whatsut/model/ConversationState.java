@@ -0,0 +1,120 @@
+package br.com.whatsut.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Modelo que representa o estado resumido de uma conversa no sistema WhatsUT:
+ * participantes e última mensagem. É mantido a cada envio e exclusão de
+ * mensagem, para que a lista de conversas seja montada sem ler os arquivos de
+ * mensagens.
+ */
+public class ConversationState implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String conversationKey;
+    private List<String> participantIds;  // Participantes (apenas para conversas privadas)
+    private long lastPosition;            // Posição da última mensagem gravada (inclusive excluídas)
+    private String lastMessageId;
+    private String lastSenderId;
+    private String lastMessagePreview;
+    private long lastTimestamp;
+    
+    public ConversationState() {
+        this.lastPosition = -1;
+    }
+    
+    public ConversationState(String conversationKey, List<String> participantIds) {
+        this();
+        this.conversationKey = conversationKey;
+        this.participantIds = participantIds;
+    }
+    
+    /**
+     * Construtor de cópia para criar um novo objeto ConversationState baseado em um existente.
+     * 
+     * @param conversationState Objeto ConversationState a ser copiado
+     */
+    public ConversationState(ConversationState conversationState) {
+        if (conversationState != null) {
+            this.conversationKey = conversationState.conversationKey;
+            this.participantIds = conversationState.participantIds != null
+                    ? new ArrayList<>(conversationState.participantIds) : null;
+            this.lastPosition = conversationState.lastPosition;
+            this.lastMessageId = conversationState.lastMessageId;
+            this.lastSenderId = conversationState.lastSenderId;
+            this.lastMessagePreview = conversationState.lastMessagePreview;
+            this.lastTimestamp = conversationState.lastTimestamp;
+        }
+    }
+    
+    public String getConversationKey() {
+        return conversationKey;
+    }
+    
+    public void setConversationKey(String conversationKey) {
+        this.conversationKey = conversationKey;
+    }
+    
+    public List<String> getParticipantIds() {
+        return participantIds;
+    }
+    
+    public void setParticipantIds(List<String> participantIds) {
+        this.participantIds = participantIds;
+    }
+    
+    public long getLastPosition() {
+        return lastPosition;
+    }
+    
+    public void setLastPosition(long lastPosition) {
+        this.lastPosition = lastPosition;
+    }
+    
+    public String getLastMessageId() {
+        return lastMessageId;
+    }
+    
+    public void setLastMessageId(String lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+    
+    public String getLastSenderId() {
+        return lastSenderId;
+    }
+    
+    public void setLastSenderId(String lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+    
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+    
+    public void setLastMessagePreview(String lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+    
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+    
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConversationState that = (ConversationState) o;
+        return conversationKey.equals(that.conversationKey);
+    }
+    
+    @Override
+    public int hashCode() {
+        return conversationKey.hashCode();
+    }
+}
@@ -0,0 +1,94 @@
+package br.com.whatsut.model;
+
+import java.io.Serializable;
+
+/**
+ * Modelo que representa uma entrada da lista de conversas de um usuário no
+ * sistema WhatsUT: o outro participante (ou o grupo), a última mensagem e o
+ * número de mensagens não lidas pelo usuário.
+ */
+public class ConversationSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String conversationKey;
+    private boolean group;
+    private String targetId;          // ID do outro usuário ou do grupo
+    private String lastMessageId;
+    private String lastSenderId;
+    private String lastMessagePreview;
+    private long lastTimestamp;
+    private long unreadCount;
+    
+    public ConversationSummary() {
+    }
+    
+    public ConversationSummary(String conversationKey, boolean group, String targetId) {
+        this.conversationKey = conversationKey;
+        this.group = group;
+        this.targetId = targetId;
+    }
+    
+    public String getConversationKey() {
+        return conversationKey;
+    }
+    
+    public void setConversationKey(String conversationKey) {
+        this.conversationKey = conversationKey;
+    }
+    
+    public boolean isGroup() {
+        return group;
+    }
+    
+    public void setGroup(boolean group) {
+        this.group = group;
+    }
+    
+    public String getTargetId() {
+        return targetId;
+    }
+    
+    public void setTargetId(String targetId) {
+        this.targetId = targetId;
+    }
+    
+    public String getLastMessageId() {
+        return lastMessageId;
+    }
+    
+    public void setLastMessageId(String lastMessageId) {
+        this.lastMessageId = lastMessageId;
+    }
+    
+    public String getLastSenderId() {
+        return lastSenderId;
+    }
+    
+    public void setLastSenderId(String lastSenderId) {
+        this.lastSenderId = lastSenderId;
+    }
+    
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+    
+    public void setLastMessagePreview(String lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+    
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+    
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+    
+    public long getUnreadCount() {
+        return unreadCount;
+    }
+    
+    public void setUnreadCount(long unreadCount) {
+        this.unreadCount = unreadCount;
+    }
+}
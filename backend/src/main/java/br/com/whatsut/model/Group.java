@@ -29,6 +29,23 @@ public class Group implements Serializable {
         this.deleteOnAdminExit = false;
     }
 
+    /**
+     * Construtor de cópia para criar um novo objeto Group baseado em um existente.
+     * 
+     * @param group Objeto Group a ser copiado
+     */
+    public Group(Group group) {
+        if (group != null) {
+            this.groupId = group.groupId;
+            this.name = group.name;
+            this.description = group.description;
+            this.adminId = group.adminId;
+            this.creatorId = group.creatorId;
+            this.createdAt = group.createdAt;
+            this.deleteOnAdminExit = group.deleteOnAdminExit;
+        }
+    }
+
     public String getGroupId() {
         return groupId;
     }
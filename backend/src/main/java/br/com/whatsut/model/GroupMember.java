@@ -32,6 +32,21 @@ public class GroupMember implements Serializable {
         this.isAdmin = isAdmin;
     }
 
+    /**
+     * Construtor de cópia para criar um novo objeto GroupMember baseado em um existente.
+     * 
+     * @param groupMember Objeto GroupMember a ser copiado
+     */
+    public GroupMember(GroupMember groupMember) {
+        if (groupMember != null) {
+            this.memberId = groupMember.memberId;
+            this.groupId = groupMember.groupId;
+            this.userId = groupMember.userId;
+            this.joinedAt = groupMember.joinedAt;
+            this.isAdmin = groupMember.isAdmin;
+        }
+    }
+
     public String getMemberId() {
         return memberId;
     }
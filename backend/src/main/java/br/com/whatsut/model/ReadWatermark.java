@@ -0,0 +1,97 @@
+package br.com.whatsut.model;
+
+import java.io.Serializable;
+
+/**
+ * Modelo que representa até onde um usuário leu uma conversa no sistema WhatsUT.
+ * Todas as mensagens da conversa até a posição indicada (inclusive) são
+ * consideradas lidas pelo usuário.
+ */
+public class ReadWatermark implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String userId;
+    private String conversationKey;
+    private long position;
+    private String messageId;
+    private long updatedAt;
+    
+    public ReadWatermark() {
+    }
+    
+    public ReadWatermark(String userId, String conversationKey, long position, String messageId) {
+        this.userId = userId;
+        this.conversationKey = conversationKey;
+        this.position = position;
+        this.messageId = messageId;
+        this.updatedAt = System.currentTimeMillis();
+    }
+    
+    /**
+     * Construtor de cópia para criar um novo objeto ReadWatermark baseado em um existente.
+     * 
+     * @param readWatermark Objeto ReadWatermark a ser copiado
+     */
+    public ReadWatermark(ReadWatermark readWatermark) {
+        if (readWatermark != null) {
+            this.userId = readWatermark.userId;
+            this.conversationKey = readWatermark.conversationKey;
+            this.position = readWatermark.position;
+            this.messageId = readWatermark.messageId;
+            this.updatedAt = readWatermark.updatedAt;
+        }
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+    
+    public String getConversationKey() {
+        return conversationKey;
+    }
+    
+    public void setConversationKey(String conversationKey) {
+        this.conversationKey = conversationKey;
+    }
+    
+    public long getPosition() {
+        return position;
+    }
+    
+    public void setPosition(long position) {
+        this.position = position;
+    }
+    
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+    
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ReadWatermark that = (ReadWatermark) o;
+        return userId.equals(that.userId) && conversationKey.equals(that.conversationKey);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * userId.hashCode() + conversationKey.hashCode();
+    }
+}
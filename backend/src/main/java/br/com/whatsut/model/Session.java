@@ -1,5 +1,7 @@
 package br.com.whatsut.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.io.Serializable;
 
 /**
@@ -27,6 +29,22 @@ public class Session implements Serializable {
         this.expiresAt = this.createdAt + expirationTime;
     }
 
+    /**
+     * Construtor de cópia para criar um novo objeto Session baseado em um existente.
+     * 
+     * @param session Objeto Session a ser copiado
+     */
+    public Session(Session session) {
+        if (session != null) {
+            this.sessionId = session.sessionId;
+            this.userId = session.userId;
+            this.createdAt = session.createdAt;
+            this.expiresAt = session.expiresAt;
+            this.token = session.token;
+            this.clientAddress = session.clientAddress;
+        }
+    }
+
     public String getSessionId() {
         return sessionId;
     }
@@ -75,6 +93,7 @@ public class Session implements Serializable {
         this.clientAddress = clientAddress;
     }
     
+    @JsonIgnore
     public boolean isValid() {
         return System.currentTimeMillis() < expiresAt;
     }
@@ -0,0 +1,120 @@
+package br.com.whatsut.model;
+
+import java.io.Serializable;
+
+/**
+ * Modelo que representa uma entrada da caixa de mensagens não lidas de um
+ * usuário no sistema WhatsUT. Guarda o necessário para exibir a mensagem na
+ * lista de não lidas sem ler os arquivos de mensagens.
+ */
+public class UnreadMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String userId;
+    private String messageId;
+    private String conversationKey;
+    private long position;      // Posição da mensagem na conversa
+    private String senderId;
+    private String preview;     // Início do conteúdo da mensagem
+    private long timestamp;
+    
+    public UnreadMessage() {
+    }
+    
+    public UnreadMessage(String userId, String messageId, String conversationKey, long position,
+                         String senderId, String preview, long timestamp) {
+        this.userId = userId;
+        this.messageId = messageId;
+        this.conversationKey = conversationKey;
+        this.position = position;
+        this.senderId = senderId;
+        this.preview = preview;
+        this.timestamp = timestamp;
+    }
+    
+    /**
+     * Construtor de cópia para criar um novo objeto UnreadMessage baseado em um existente.
+     * 
+     * @param unreadMessage Objeto UnreadMessage a ser copiado
+     */
+    public UnreadMessage(UnreadMessage unreadMessage) {
+        if (unreadMessage != null) {
+            this.userId = unreadMessage.userId;
+            this.messageId = unreadMessage.messageId;
+            this.conversationKey = unreadMessage.conversationKey;
+            this.position = unreadMessage.position;
+            this.senderId = unreadMessage.senderId;
+            this.preview = unreadMessage.preview;
+            this.timestamp = unreadMessage.timestamp;
+        }
+    }
+    
+    public String getUserId() {
+        return userId;
+    }
+    
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+    
+    public String getMessageId() {
+        return messageId;
+    }
+    
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+    
+    public String getConversationKey() {
+        return conversationKey;
+    }
+    
+    public void setConversationKey(String conversationKey) {
+        this.conversationKey = conversationKey;
+    }
+    
+    public long getPosition() {
+        return position;
+    }
+    
+    public void setPosition(long position) {
+        this.position = position;
+    }
+    
+    public String getSenderId() {
+        return senderId;
+    }
+    
+    public void setSenderId(String senderId) {
+        this.senderId = senderId;
+    }
+    
+    public String getPreview() {
+        return preview;
+    }
+    
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UnreadMessage that = (UnreadMessage) o;
+        return userId.equals(that.userId) && messageId.equals(that.messageId);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * userId.hashCode() + messageId.hashCode();
+    }
+}
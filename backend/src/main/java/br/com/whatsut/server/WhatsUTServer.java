@@ -1,5 +1,7 @@
 package br.com.whatsut.server;
 
+import br.com.whatsut.dao.DAOFactory;
+import br.com.whatsut.dao.storage.RecoveryReport;
 import br.com.whatsut.impl.AuthServiceImpl;
 import br.com.whatsut.impl.GroupServiceImpl;
 import br.com.whatsut.impl.MessageServiceImpl;
@@ -140,6 +142,9 @@ public class WhatsUTServer {
             // Não é possível parar o registro RMI diretamente
             // Em uma implementação real, seria necessário desregistrar os serviços
             
+            // Gravar as alterações pendentes dos DAOs
+            DAOFactory.closeAll();
+            
             logger.info("Servidor WhatsUT parado");
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Erro ao parar servidor", e);
@@ -156,11 +161,22 @@ public class WhatsUTServer {
             // Inicializar o gerenciador de configurações
             ConfigManager.init();
             
+            // Abrir os arquivos de dados; sem eles o servidor não é iniciado
+            try {
+                DAOFactory.openAll();
+            } catch (IllegalStateException e) {
+                logger.log(Level.SEVERE, "Erro ao abrir os arquivos de dados, servidor não iniciado", e);
+                DAOFactory.closeAll();
+                System.exit(1);
+            }
+            
             // Criar e iniciar o servidor
             final WhatsUTServer server = new WhatsUTServer();
             server.startRmiServer();
             server.startWebSocketServer();
             
+            // Informar os reparos feitos na recuperação dos arquivos de dados
+            logger.info(RecoveryReport.getSummary());
             logger.info("Servidor WhatsUT iniciado com sucesso");
             
             // Adicionar hook de desligamento
@@ -62,6 +62,18 @@ public interface GroupService extends Remote {
      */
     boolean addUserToGroup(String groupId, String userId, String adminId) throws RemoteException;
     
+    /**
+     * Adiciona vários usuários a um grupo em uma única gravação. Usuários
+     * inexistentes ou que já são membros são ignorados.
+     * 
+     * @param groupId ID do grupo
+     * @param userIds IDs dos usuários a serem adicionados
+     * @param adminId ID do administrador que está adicionando
+     * @return IDs dos usuários adicionados (vazio se nenhum ou sem permissão)
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<String> addUsersToGroup(String groupId, List<String> userIds, String adminId) throws RemoteException;
+    
     /**
      * Remove um usuário de um grupo.
      * 
@@ -1,7 +1,10 @@
 package br.com.whatsut.service;
 
+import br.com.whatsut.model.ConversationSummary;
 import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.Message;
 import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.UnreadMessage;
 
 import java.io.File;
 import java.rmi.Remote;
@@ -82,6 +85,35 @@ public interface MessageService extends Remote {
      */
     List<GroupMessage> getGroupMessages(String groupId, int limit, int offset) throws RemoteException;
     
+    /**
+     * Busca uma página de mensagens privadas anteriores a um cursor (paginação keyset).
+     * Para a primeira página, informe beforeMessageId nulo e beforeTimestamp 0; para
+     * as seguintes, use o ID e o timestamp da mensagem mais antiga da página anterior.
+     * 
+     * @param userId1 ID do primeiro usuário
+     * @param userId2 ID do segundo usuário
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor se a mensagem não existir mais (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Lista de mensagens (mais recentes primeiro)
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<PrivateMessage> getPrivateMessagesBefore(String userId1, String userId2, String beforeMessageId,
+                                                  long beforeTimestamp, int limit) throws RemoteException;
+    
+    /**
+     * Busca uma página de mensagens de um grupo anteriores a um cursor (paginação keyset).
+     * 
+     * @param groupId ID do grupo
+     * @param beforeMessageId ID da mensagem usada como cursor (ou null)
+     * @param beforeTimestamp Timestamp usado como cursor se a mensagem não existir mais (0 para nenhum)
+     * @param limit Número máximo de mensagens
+     * @return Lista de mensagens (mais recentes primeiro)
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<GroupMessage> getGroupMessagesBefore(String groupId, String beforeMessageId,
+                                              long beforeTimestamp, int limit) throws RemoteException;
+    
     /**
      * Marca uma mensagem como lida.
      * 
@@ -92,6 +124,78 @@ public interface MessageService extends Remote {
      */
     boolean markMessageAsRead(String messageId, String userId) throws RemoteException;
     
+    /**
+     * Marca uma conversa como lida por um usuário até uma mensagem (inclusive).
+     * Substitui a marcação mensagem a mensagem: o estado "lida" de cada mensagem
+     * é derivado dessa marca.
+     * 
+     * @param userId ID do usuário que leu a conversa
+     * @param conversationKey Chave da conversa ("private_&lt;id1&gt;_&lt;id2&gt;" ou "group_&lt;groupId&gt;")
+     * @param upToMessageId ID da última mensagem lida
+     * @return true se marcada com sucesso, false caso contrário
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    boolean markConversationRead(String userId, String conversationKey, String upToMessageId) throws RemoteException;
+    
+    /**
+     * Obtém a lista de conversas de um usuário (privadas com mensagens e grupos
+     * dos quais é membro), da mais recente para a mais antiga, com a prévia da
+     * última mensagem e o número de mensagens não lidas.
+     * 
+     * @param userId ID do usuário
+     * @param limit Número máximo de conversas (0 para todas)
+     * @param offset Deslocamento para paginação
+     * @return Lista de resumos das conversas
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<ConversationSummary> getConversationSummaries(String userId, int limit, int offset) throws RemoteException;
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em todas as conversas.
+     * 
+     * @param userId ID do usuário
+     * @return Número de mensagens não lidas
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    int getUnreadCount(String userId) throws RemoteException;
+    
+    /**
+     * Obtém o número de mensagens não lidas de um usuário em uma conversa.
+     * 
+     * @param userId ID do usuário
+     * @param conversationKey Chave da conversa
+     * @return Número de mensagens não lidas
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    int getConversationUnreadCount(String userId, String conversationKey) throws RemoteException;
+    
+    /**
+     * Obtém as mensagens não lidas de um usuário, da mais recente para a mais
+     * antiga.
+     * 
+     * @param userId ID do usuário
+     * @param limit Número máximo de mensagens (0 para todas)
+     * @param offset Deslocamento para paginação
+     * @return Lista de mensagens não lidas
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<UnreadMessage> getUnreadMessages(String userId, int limit, int offset) throws RemoteException;
+    
+    /**
+     * Busca mensagens pelo conteúdo nas conversas das quais o usuário participa
+     * (conversas privadas e grupos dos quais é membro). Todos os termos devem
+     * aparecer na mensagem, sem diferenciar maiúsculas e acentos; trechos entre
+     * aspas devem aparecer como frase.
+     * 
+     * @param userId ID do usuário
+     * @param query Texto a buscar
+     * @param limit Número máximo de mensagens
+     * @param offset Deslocamento para paginação
+     * @return Mensagens encontradas (mais recentes primeiro)
+     * @throws RemoteException Erro de comunicação RMI
+     */
+    List<Message> searchMessages(String userId, String query, int limit, int offset) throws RemoteException;
+    
     /**
      * Exclui uma mensagem.
      * 
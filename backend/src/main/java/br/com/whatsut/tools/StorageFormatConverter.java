@@ -0,0 +1,225 @@
+package br.com.whatsut.tools;
+
+import br.com.whatsut.dao.storage.AppendLog;
+import br.com.whatsut.dao.storage.AtomicFiles;
+import br.com.whatsut.dao.storage.SegmentTiering;
+import br.com.whatsut.dao.storage.StorageCodec;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.util.ConfigManager;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Ferramenta offline que converte os arquivos de dados para outro
+ * {@link StorageFormat}. O servidor precisa estar parado.
+ * <p>
+ * São convertidos, no diretório de dados:
+ * <ul>
+ *   <li>os arquivos das entidades ({@code *.json} no próprio diretório), cujo nome é mantido;</li>
+ *   <li>os logs append-only ({@code *.wal} e os segmentos {@code .log}/{@code .seg} das conversas,
+ *       além dos segmentos compactados {@code .segz}, que continuam compactados);</li>
+ *   <li>os valores dos mapas do banco do motor "mvstore" ({@code *.mv.db}).</li>
+ * </ul>
+ * Cada arquivo é regravado de forma atômica. Arquivos de conversas no formato
+ * antigo ({@code messages/*.json}) não são alterados: o servidor os converte na
+ * inicialização. A conversão não é necessária para trocar de formato — o
+ * servidor lê qualquer formato e regrava aos poucos —, mas evita manter dados
+ * antigos em dois formatos.
+ * <p>
+ * Uso: {@code java -cp whatsut-backend.jar br.com.whatsut.tools.StorageFormatConverter
+ * <json|smile|cbor> [diretorioDeDados]}
+ */
+public class StorageFormatConverter {
+    
+    private final StorageCodec codec;
+    // Nível de compressão dos segmentos compactados (storage.messages.cold.compression.level)
+    private final int compressionLevel = SegmentTiering.getConfigured("messages").getCompressionLevel();
+    private final Totals documents = new Totals("entidades");
+    private final Totals logs = new Totals("logs");
+    private final Totals databases = new Totals("mvstore");
+    
+    /**
+     * Bytes antes e depois da conversão de um tipo de arquivo.
+     */
+    private static final class Totals {
+        private final String label;
+        private int files;
+        private int failures;
+        private long before;
+        private long after;
+        
+        private Totals(String label) {
+            this.label = label;
+        }
+        
+        private void add(long before, long after) {
+            this.files++;
+            this.before += before;
+            this.after += after;
+        }
+        
+        private void print() {
+            System.out.println(String.format("%-10s %8d %8d %14d %14d %8.1f%%", label, files, failures, before, after,
+                    before > 0 ? 100.0 * (before - after) / before : 0.0));
+        }
+    }
+    
+    public StorageFormatConverter(StorageFormat target) {
+        this.codec = new StorageCodec(target);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || StorageFormat.fromName(args[0]) == null) {
+            System.err.println("Uso: StorageFormatConverter <json|smile|cbor> [diretorioDeDados]");
+            System.exit(1);
+        }
+        StorageFormat target = StorageFormat.fromName(args[0]);
+        File directory = new File(args.length > 1 ? args[1] : ConfigManager.getProperty("storage.base.path", "data"));
+        if (!directory.isDirectory()) {
+            System.err.println("Diretório de dados não encontrado: " + directory.getPath());
+            System.exit(1);
+        }
+        
+        System.out.println("Convertendo " + directory.getPath() + " para " + target);
+        StorageFormatConverter converter = new StorageFormatConverter(target);
+        converter.convertDirectory(directory);
+        converter.printTotals();
+        System.out.println("Configure storage.format=" + target
+                + " (e remova storage.<nome>.format divergentes) antes de iniciar o servidor.");
+    }
+    
+    /**
+     * Converte todos os arquivos de dados de um diretório.
+     *
+     * @param directory Diretório de dados (storage.base.path)
+     * @throws IOException Erro ao percorrer o diretório
+     */
+    public void convertDirectory(File directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path path : files) {
+            File file = path.toFile();
+            String name = file.getName();
+            if (name.startsWith(".")) {
+                // Temporários de gravações interrompidas
+                continue;
+            }
+            if (name.endsWith(".wal") || name.endsWith(".log") || name.endsWith(".seg")) {
+                convertLog(file, false);
+            } else if (name.endsWith(".segz")) {
+                convertLog(file, true);
+            } else if (name.endsWith(".mv.db")) {
+                convertDatabase(file);
+            } else if (name.endsWith(".json")
+                    && directory.getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile())) {
+                convertDocument(file);
+            }
+        }
+    }
+    
+    /**
+     * Regrava um arquivo de entidades (documento inteiro).
+     */
+    private void convertDocument(File file) {
+        long before = file.length();
+        try {
+            JsonNode document = before == 0 ? codec.getMapper().createArrayNode()
+                    : codec.readDocument(file, codec.getMapper().constructType(JsonNode.class));
+            AtomicFiles.write(file, out -> codec.writeDocument(out, document));
+            documents.add(before, file.length());
+        } catch (IOException e) {
+            documents.failures++;
+            System.err.println("Erro ao converter " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Regrava um log append-only com cada registro no novo formato. Registros
+     * após um checksum inválido não são lidos e por isso não são mantidos,
+     * como aconteceria na abertura do log pelo servidor.
+     */
+    private void convertLog(File file, boolean compressed) {
+        long before = file.length();
+        try {
+            List<byte[]> records = compressed ? AppendLog.readCompressedRecords(file) : AppendLog.readRecords(file);
+            List<byte[]> converted = new ArrayList<>(records.size());
+            for (byte[] record : records) {
+                converted.add(codec.encode(codec.readTree(record)));
+            }
+            if (compressed) {
+                AppendLog.rewriteCompressed(file, converted, compressionLevel);
+            } else {
+                AppendLog.rewrite(file, converted);
+            }
+            logs.add(before, file.length());
+        } catch (IOException e) {
+            logs.failures++;
+            System.err.println("Erro ao converter " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Recodifica os valores de todos os mapas de um banco MVStore. O tamanho
+     * contabilizado é o dos valores (o arquivo só diminui quando o MVStore
+     * reaproveita as páginas antigas).
+     */
+    private void convertDatabase(File file) {
+        MVStore store;
+        try {
+            store = new MVStore.Builder().fileName(file.getPath()).autoCommitDisabled().open();
+        } catch (MVStoreException e) {
+            databases.failures++;
+            System.err.println("Erro ao abrir " + file.getPath() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            long before = 0;
+            long after = 0;
+            for (String mapName : store.getMapNames()) {
+                MVMap<String, Object> map = store.openMap(mapName);
+                for (String key : new ArrayList<>(map.keySet())) {
+                    Object value = map.get(key);
+                    byte[] data = value instanceof byte[] ? (byte[]) value
+                            : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+                    byte[] encoded = codec.encode(codec.readTree(data));
+                    before += data.length;
+                    after += encoded.length;
+                    map.put(key, codec.getFormat().isBinary() ? encoded : new String(encoded, StandardCharsets.UTF_8));
+                }
+            }
+            store.commit();
+            databases.add(before, after);
+        } catch (IOException | MVStoreException e) {
+            store.rollback();
+            databases.failures++;
+            System.err.println("Erro ao converter " + file.getPath() + ": " + e.getMessage());
+        } finally {
+            store.close();
+        }
+    }
+    
+    /**
+     * Imprime os totais da conversão por tipo de arquivo.
+     */
+    public void printTotals() {
+        System.out.println(String.format("%-10s %8s %8s %14s %14s %9s", "tipo", "arquivos", "falhas",
+                "bytes antes", "bytes depois", "economia"));
+        documents.print();
+        logs.print();
+        databases.print();
+    }
+}
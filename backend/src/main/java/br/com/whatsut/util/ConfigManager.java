@@ -66,8 +66,14 @@ public class ConfigManager {
             init();
         }
         
-        // Verificar primeiro nas propriedades gerais
-        String value = properties.getProperty(key);
+        // Propriedades do sistema (-Dchave=valor) têm prioridade sobre os arquivos
+        String value = System.getProperty(key);
+        if (value != null) {
+            return value;
+        }
+        
+        // Verificar nas propriedades gerais
+        value = properties.getProperty(key);
         if (value != null) {
             return value;
         }
@@ -123,6 +129,27 @@ public class ConfigManager {
         }
     }
     
+    /**
+     * Obtém uma propriedade de configuração como double.
+     *
+     * @param key Chave da propriedade
+     * @param defaultValue Valor padrão caso a propriedade não exista ou não seja um número válido
+     * @return Valor da propriedade como double ou o valor padrão
+     */
+    public static double getDoubleProperty(String key, double defaultValue) {
+        String value = getProperty(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Valor inválido para propriedade " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
     /**
      * Obtém uma propriedade de configuração como boolean.
      *
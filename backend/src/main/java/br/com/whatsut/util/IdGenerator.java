@@ -0,0 +1,181 @@
+package br.com.whatsut.util;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Gerador de IDs ordenados pelo tempo, no estilo Snowflake.
+ * <p>
+ * Cada ID tem 63 bits: o instante de criação em milissegundos desde
+ * 2024-01-01 (41 bits, suficiente até 2093), uma sequência dentro do mesmo
+ * milissegundo (12 bits) e o identificador do servidor (10 bits,
+ * {@code server.node.id}). O texto é o número em base 32 de Crockford com 13
+ * caracteres de largura fixa, de modo que a ordem alfabética dos IDs é a ordem
+ * de criação: IDs servem de chave para varreduras por intervalo e de cursor de
+ * paginação.
+ * <p>
+ * A geração não bloqueia nem usa {@code SecureRandom}: um único contador
+ * atômico guarda o último instante e sequência. Mais de 4096 IDs no mesmo
+ * milissegundo avançam o instante lógico para o milissegundo seguinte, e um
+ * relógio que volta atrás não faz o contador retroceder, de modo que os IDs de
+ * um servidor são sempre crescentes. Por isso o instante contido no ID pode
+ * estar à frente do relógio e não é o instante da entidade: as mensagens têm o
+ * seu próprio timestamp, que é o valor de referência (ordenação das conversas,
+ * cursores por timestamp e exibição).
+ * <p>
+ * Os IDs são previsíveis: não devem ser usados como segredo (tokens de sessão,
+ * nomes de arquivos não autenticados).
+ */
+public final class IdGenerator {
+    private static final Logger logger = Logger.getLogger(IdGenerator.class.getName());
+    
+    // 2024-01-01T00:00:00Z
+    private static final long EPOCH = 1704067200000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final int ID_LENGTH = 13;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    
+    private final int nodeId;
+    
+    // Último instante (desde EPOCH) e sequência gerados: instante << SEQUENCE_BITS | sequência
+    private final AtomicLong lastCounter = new AtomicLong();
+    
+    private static final class DefaultHolder {
+        private static final IdGenerator instance = new IdGenerator(getConfiguredNodeId());
+    }
+    
+    /**
+     * Cria um gerador para um servidor.
+     *
+     * @param nodeId Identificador do servidor (0 a 1023)
+     */
+    public IdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("Identificador do servidor fora do intervalo 0-" + MAX_NODE
+                    + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+    }
+    
+    /**
+     * Gera um novo ID com o gerador deste servidor.
+     *
+     * @return ID ordenado pelo tempo
+     */
+    public static String newId() {
+        return DefaultHolder.instance.next();
+    }
+    
+    /**
+     * Gera um novo ID.
+     *
+     * @return ID ordenado pelo tempo
+     */
+    public String next() {
+        return encode(nextValue());
+    }
+    
+    /**
+     * Gera um novo ID na forma numérica.
+     *
+     * @return ID ordenado pelo tempo
+     */
+    public long nextValue() {
+        long now = System.currentTimeMillis() - EPOCH;
+        long counter = lastCounter.updateAndGet(last -> Math.max(last + 1, now << SEQUENCE_BITS));
+        return (counter << NODE_BITS) | nodeId;
+    }
+    
+    /**
+     * Obtém o identificador do servidor deste gerador.
+     *
+     * @return Identificador do servidor
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+    
+    /**
+     * Obtém o instante lógico de um ID gerado por esta classe. É próximo do
+     * instante de criação, mas pode estar à frente dele (ver a descrição da classe).
+     *
+     * @param id ID
+     * @return Instante em milissegundos ou 0 se o ID não tiver sido gerado por
+     *         esta classe (ex.: UUIDs de dados antigos)
+     */
+    public static long timestampOf(String id) {
+        long value = decode(id);
+        return value < 0 ? 0 : (value >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+    
+    /**
+     * Codifica um ID em base 32 com largura fixa.
+     */
+    private static String encode(long value) {
+        char[] text = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            text[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+        return new String(text);
+    }
+    
+    /**
+     * Decodifica um ID em base 32.
+     *
+     * @return Valor do ID ou -1 se o texto não for um ID desta classe
+     */
+    private static long decode(String id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int digit = digit(id.charAt(i));
+            // 13 caracteres têm 65 bits; os IDs usam 63 (o primeiro caractere vai até 7)
+            if (digit < 0 || (i == 0 && digit > 7)) {
+                return -1;
+            }
+            value = (value << 5) | digit;
+        }
+        return value;
+    }
+    
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        for (int i = 10; i < ALPHABET.length; i++) {
+            if (ALPHABET[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Obtém o identificador do servidor configurado em {@code server.node.id}
+     * ou, se não houver, derivado do nome da máquina e do processo.
+     */
+    private static int getConfiguredNodeId() {
+        int configured = ConfigManager.getIntProperty("server.node.id", -1);
+        if (configured >= 0 && configured <= MAX_NODE) {
+            return configured;
+        }
+        if (configured != -1) {
+            logger.warning("server.node.id fora do intervalo 0-" + MAX_NODE + ": " + configured);
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        int nodeId = (host + ":" + ProcessHandle.current().pid()).hashCode() & MAX_NODE;
+        logger.info("server.node.id não configurado; usando " + nodeId + " (derivado de " + host + ")");
+        return nodeId;
+    }
+}
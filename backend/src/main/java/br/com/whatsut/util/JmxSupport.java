@@ -0,0 +1,56 @@
+package br.com.whatsut.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+/**
+ * Funções comuns aos componentes que publicam estatísticas no JMX: registro
+ * no servidor JMX da plataforma e atualização de máximos concorrentes.
+ */
+public final class JmxSupport {
+    private static final Logger logger = Logger.getLogger(JmxSupport.class.getName());
+    private static final String DOMAIN = "br.com.whatsut";
+    
+    private JmxSupport() {
+    }
+    
+    /**
+     * Registra um MBean no servidor JMX da plataforma como
+     * {@code br.com.whatsut:type=<tipo>,name=<nome>}. Um registro repetido é
+     * ignorado e outras falhas são apenas registradas no log: as estatísticas
+     * não impedem o funcionamento do componente.
+     *
+     * @param mbean Objeto que implementa a interface MXBean
+     * @param type Tipo do componente (ex.: "MessageCache")
+     * @param name Nome da instância
+     */
+    public static void register(Object mbean, String type, String name) {
+        String objectName = DOMAIN + ":type=" + type + ",name=" + name;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(objectName));
+        } catch (InstanceAlreadyExistsException e) {
+            logger.fine("MBean já registrado no JMX: " + objectName);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Erro ao registrar MBean no JMX: " + objectName, e);
+        }
+    }
+    
+    /**
+     * Atualiza um máximo compartilhado entre threads. O valor atual é lido
+     * antes de qualquer escrita, de modo que valores menores (o caso comum)
+     * não disputam a linha de cache do contador.
+     *
+     * @param max Máximo
+     * @param value Valor observado
+     */
+    public static void recordMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Outra thread atualizou o máximo; tenta de novo
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package br.com.whatsut.websocket;
+
+import br.com.whatsut.util.JmxSupport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Estatísticas das difusões de notificações: cada difusão serializa o
+ * conteúdo uma única vez e envia os mesmos bytes para todas as conexões, e o
+ * tempo de cada etapa é registrado aqui.
+ */
+public class BroadcastStats implements BroadcastStatsMXBean {
+    private static final Logger logger = Logger.getLogger(BroadcastStats.class.getName());
+    
+    private final AtomicLong fanOuts = new AtomicLong();
+    private final AtomicLong recipients = new AtomicLong();
+    private final AtomicLong maxRecipients = new AtomicLong();
+    private final AtomicLong serializationNanos = new AtomicLong();
+    private final AtomicLong maxSerializationNanos = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    
+    /**
+     * Registra as estatísticas no servidor JMX da plataforma.
+     *
+     * @param name Nome do servidor no JMX
+     */
+    public void registerMBean(String name) {
+        JmxSupport.register(this, "BroadcastStats", name);
+    }
+    
+    /**
+     * Registra uma difusão.
+     *
+     * @param type Tipo da notificação difundida
+     * @param connections Número de conexões
+     * @param serialization Tempo gasto serializando o conteúdo, em nanossegundos
+     * @param send Tempo gasto enviando o conteúdo às conexões, em nanossegundos
+     */
+    public void record(Object type, int connections, long serialization, long send) {
+        fanOuts.incrementAndGet();
+        recipients.addAndGet(connections);
+        JmxSupport.recordMax(maxRecipients, connections);
+        serializationNanos.addAndGet(serialization);
+        JmxSupport.recordMax(maxSerializationNanos, serialization);
+        sendNanos.addAndGet(send);
+        JmxSupport.recordMax(maxSendNanos, send);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("Difusão de %s para %d conexões: serialização %.3f ms, envio %.3f ms",
+                    type, connections, serialization / 1e6, send / 1e6));
+        }
+    }
+    
+    @Override
+    public long getFanOutCount() {
+        return fanOuts.get();
+    }
+    
+    @Override
+    public long getRecipientCount() {
+        return recipients.get();
+    }
+    
+    @Override
+    public long getMaxRecipients() {
+        return maxRecipients.get();
+    }
+    
+    @Override
+    public double getAverageSerializationMillis() {
+        long count = fanOuts.get();
+        return count == 0 ? 0 : serializationNanos.get() / 1e6 / count;
+    }
+    
+    @Override
+    public double getMaxSerializationMillis() {
+        return maxSerializationNanos.get() / 1e6;
+    }
+    
+    @Override
+    public double getAverageSendMillis() {
+        long count = fanOuts.get();
+        return count == 0 ? 0 : sendNanos.get() / 1e6 / count;
+    }
+    
+    @Override
+    public double getMaxSendMillis() {
+        return maxSendNanos.get() / 1e6;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("BroadcastStats{difusões=%d, conexões=%d, maior=%d, serialização média=%.3f ms, "
+                + "envio médio=%.3f ms}", getFanOutCount(), getRecipientCount(), getMaxRecipients(),
+                getAverageSerializationMillis(), getAverageSendMillis());
+    }
+}
@@ -0,0 +1,42 @@
+package br.com.whatsut.websocket;
+
+/**
+ * Estatísticas das difusões de notificações para várias conexões expostas via JMX.
+ */
+public interface BroadcastStatsMXBean {
+    
+    /**
+     * @return Número de difusões desde a inicialização
+     */
+    long getFanOutCount();
+    
+    /**
+     * @return Número total de conexões que receberam notificações por difusão
+     */
+    long getRecipientCount();
+    
+    /**
+     * @return Maior número de conexões de uma única difusão
+     */
+    long getMaxRecipients();
+    
+    /**
+     * @return Tempo médio, em milissegundos, gasto serializando o conteúdo de uma difusão
+     */
+    double getAverageSerializationMillis();
+    
+    /**
+     * @return Maior tempo, em milissegundos, gasto serializando o conteúdo de uma difusão
+     */
+    double getMaxSerializationMillis();
+    
+    /**
+     * @return Tempo médio, em milissegundos, gasto enviando o conteúdo às conexões
+     */
+    double getAverageSendMillis();
+    
+    /**
+     * @return Maior tempo, em milissegundos, gasto enviando o conteúdo às conexões
+     */
+    double getMaxSendMillis();
+}
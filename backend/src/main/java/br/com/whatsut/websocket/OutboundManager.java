@@ -0,0 +1,612 @@
+package br.com.whatsut.websocket;
+
+import br.com.whatsut.util.ConfigManager;
+import br.com.whatsut.util.JmxSupport;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Filas de saída das conexões WebSocket, com controle de fluxo por conexão.
+ * <p>
+ * As mensagens de cada conexão passam por uma fila própria e são entregues ao
+ * socket pela thread de envio, acordada a cada inclusão, e não pela thread que
+ * produziu a mensagem. A entrega só ocorre enquanto o buffer de envio da
+ * biblioteca estiver abaixo de uma janela ({@code websocket.outbound.socket.window});
+ * o restante espera na fila e é enviado por uma tarefa periódica conforme o
+ * cliente consome os dados.
+ * Assim, um cliente que para de ler (ex.: um celular sem sinal) não faz o
+ * servidor acumular notificações sem limite.
+ * <p>
+ * Quando a fila de uma conexão passa do limite superior
+ * ({@code websocket.outbound.high.watermark}), o cliente é considerado lento:
+ * as notificações pendentes e as novas são descartadas e, quando a fila volta
+ * abaixo do limite inferior ({@code websocket.outbound.low.watermark}), o
+ * cliente recebe um único aviso {@code resync_needed} para recarregar as
+ * conversas. Eventos efêmeros (ex.: digitação) têm uma chave e são
+ * substituídos pelo mais recente com a mesma chave enquanto aguardam na fila.
+ * Respostas às requisições da própria conexão nunca são descartadas. Se a fila
+ * passar do tamanho máximo ({@code websocket.outbound.max.bytes}) ou o cliente
+ * continuar lento por mais de {@code websocket.outbound.max.behind.millis}, a
+ * conexão é encerrada com o código 1013 (tente novamente mais tarde).
+ */
+public class OutboundManager implements OutboundManagerMXBean {
+    private static final Logger logger = Logger.getLogger(OutboundManager.class.getName());
+    
+    /**
+     * Tratamento de uma mensagem quando o cliente não acompanha o envio.
+     */
+    public enum Delivery {
+        /**
+         * Resposta a uma requisição da própria conexão: nunca é descartada.
+         */
+        RESPONSE,
+        /**
+         * Notificação: descartada quando o cliente está lento, que recebe depois
+         * um aviso de ressincronização.
+         */
+        NOTIFICATION,
+        /**
+         * Evento efêmero (ex.: digitação): substituído pelo mais recente com
+         * a mesma chave enquanto aguarda na fila.
+         */
+        EVENT
+    }
+    
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final long maxQueuedBytes;
+    private final long maxBehindMillis;
+    private final long socketWindow;
+    private final Map<WebSocket, ConnectionOutbox> outboxes = new ConcurrentHashMap<>();
+    private final Set<ConnectionOutbox> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher;
+    
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong slowDisconnects = new AtomicLong();
+    
+    /**
+     * Cria o gerenciador das filas de saída.
+     *
+     * @param highWatermark Tamanho da fila, em bytes, a partir do qual o cliente é considerado lento
+     * @param lowWatermark Tamanho da fila, em bytes, abaixo do qual o cliente volta ao normal
+     * @param maxQueuedBytes Tamanho da fila, em bytes, a partir do qual a conexão é encerrada
+     * @param maxBehindMillis Tempo máximo que um cliente pode permanecer lento
+     * @param socketWindow Bytes entregues ao socket sem confirmação de envio
+     * @param flushIntervalMillis Intervalo entre as tentativas de esvaziar as filas
+     */
+    public OutboundManager(long highWatermark, long lowWatermark, long maxQueuedBytes, long maxBehindMillis,
+            long socketWindow, long flushIntervalMillis) {
+        this.highWatermark = Math.max(1, highWatermark);
+        this.lowWatermark = Math.max(0, Math.min(lowWatermark, this.highWatermark - 1));
+        this.maxQueuedBytes = Math.max(this.highWatermark, maxQueuedBytes);
+        this.maxBehindMillis = maxBehindMillis;
+        this.socketWindow = Math.max(1, socketWindow);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-outbound");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, flushIntervalMillis);
+        this.flusher.scheduleWithFixedDelay(this::flushPending, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Cria o gerenciador com as configurações do servidor.
+     *
+     * @return Gerenciador configurado
+     */
+    public static OutboundManager getConfigured() {
+        return new OutboundManager(
+                ConfigManager.getLongProperty("websocket.outbound.high.watermark", 1048576),
+                ConfigManager.getLongProperty("websocket.outbound.low.watermark", 262144),
+                ConfigManager.getLongProperty("websocket.outbound.max.bytes", 8388608),
+                ConfigManager.getLongProperty("websocket.outbound.max.behind.millis", 30000),
+                ConfigManager.getLongProperty("websocket.outbound.socket.window", 65536),
+                ConfigManager.getLongProperty("websocket.outbound.flush.interval", 50));
+    }
+    
+    /**
+     * Registra as estatísticas no servidor JMX da plataforma.
+     *
+     * @param name Nome do servidor no JMX
+     */
+    public void registerMBean(String name) {
+        JmxSupport.register(this, "OutboundManager", name);
+    }
+    
+    /**
+     * Enfileira um objeto para uma conexão, no formato negociado por ela.
+     *
+     * @param conn Conexão WebSocket
+     * @param object Objeto a ser enviado
+     * @param delivery Tratamento da mensagem se o cliente estiver lento
+     * @param key Chave para substituir eventos pendentes (apenas para {@link Delivery#EVENT}), ou null
+     * @throws JsonProcessingException Erro ao serializar o objeto
+     */
+    public void send(WebSocket conn, Object object, Delivery delivery, String key) throws JsonProcessingException {
+        WireFormat format = WireFormat.of(conn);
+        enqueue(conn, format.encode(object), format.isBinary(), delivery, key);
+    }
+    
+    /**
+     * Enfileira o mesmo conteúdo para várias conexões; o conteúdo já vem
+     * codificado em cada formato e os mesmos bytes são compartilhados entre as filas.
+     *
+     * @param connections Conexões de destino
+     * @param payloads Conteúdo codificado por formato ({@link WireFormat#encodeFor})
+     * @param delivery Tratamento da mensagem se o cliente estiver lento
+     * @param key Chave para substituir eventos pendentes (apenas para {@link Delivery#EVENT}), ou null
+     * @return Número de conexões para as quais a mensagem foi enfileirada
+     */
+    public int broadcast(Collection<WebSocket> connections, Map<WireFormat, ByteBuffer> payloads, Delivery delivery,
+            String key) {
+        int queued = 0;
+        for (WebSocket conn : connections) {
+            WireFormat format = WireFormat.of(conn);
+            ByteBuffer payload = payloads.get(format);
+            if (payload != null && enqueue(conn, payload, format.isBinary(), delivery, key)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+    
+    private boolean enqueue(WebSocket conn, ByteBuffer payload, boolean binary, Delivery delivery, String key) {
+        if (!conn.isOpen()) {
+            return false;
+        }
+        ConnectionOutbox outbox = outboxes.computeIfAbsent(conn, ConnectionOutbox::new);
+        boolean offered = outbox.offer(new Outgoing(payload, binary, delivery, delivery == Delivery.EVENT ? key : null));
+        // A conexão pode ter sido encerrada (e a fila removida) durante a inclusão
+        if (!conn.isOpen()) {
+            remove(conn);
+        }
+        return offered;
+    }
+    
+    /**
+     * Encerra uma conexão depois de entregar ao socket as mensagens já
+     * enfileiradas para ela (ex.: o erro que motivou o encerramento). O
+     * encerramento é feito pela thread de envio, após as entregas pendentes.
+     *
+     * @param conn Conexão WebSocket
+     */
+    public void close(WebSocket conn) {
+        ConnectionOutbox outbox = outboxes.get(conn);
+        try {
+            flusher.execute(() -> {
+                if (outbox != null) {
+                    flush(outbox, System.currentTimeMillis());
+                }
+                conn.close();
+            });
+        } catch (RejectedExecutionException e) {
+            conn.close();
+        }
+    }
+    
+    /**
+     * Descarta a fila de uma conexão encerrada.
+     *
+     * @param conn Conexão WebSocket
+     */
+    public void remove(WebSocket conn) {
+        ConnectionOutbox outbox = outboxes.remove(conn);
+        if (outbox != null) {
+            outbox.discard();
+        }
+    }
+    
+    /**
+     * Encerra a tarefa que esvazia as filas.
+     */
+    public void shutdown() {
+        flusher.shutdownNow();
+    }
+    
+    /**
+     * Tenta enviar as mensagens pendentes de todas as conexões e encerra as
+     * conexões que não acompanham o envio.
+     */
+    private void flushPending() {
+        long now = System.currentTimeMillis();
+        for (ConnectionOutbox outbox : pending) {
+            flush(outbox, now);
+        }
+    }
+    
+    /**
+     * Pede à thread de envio que esvazie a fila de uma conexão.
+     *
+     * @param outbox Fila da conexão
+     */
+    private void scheduleFlush(ConnectionOutbox outbox) {
+        try {
+            flusher.execute(() -> flush(outbox, System.currentTimeMillis()));
+        } catch (RejectedExecutionException e) {
+            // O gerenciador foi encerrado: as filas não são mais enviadas
+            logger.fine("Envio de mensagens encerrado, fila ignorada: " + outbox.conn.getRemoteSocketAddress());
+        }
+    }
+    
+    private void flush(ConnectionOutbox outbox, long now) {
+        try {
+            outbox.flush(now);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Erro ao enviar mensagens pendentes", e);
+        }
+    }
+    
+    /**
+     * Estima os bytes já entregues à biblioteca e ainda não escritos no socket.
+     */
+    private long bufferedBytes(WebSocket conn) {
+        if (conn instanceof WebSocketImpl) {
+            long bytes = 0;
+            for (ByteBuffer buffer : ((WebSocketImpl) conn).outQueue) {
+                bytes += buffer.remaining();
+            }
+            return bytes;
+        }
+        return conn.hasBufferedData() ? socketWindow : 0;
+    }
+    
+    /**
+     * Mensagem enfileirada. O conteúdo é compartilhado entre as conexões de uma
+     * difusão; cada envio usa uma cópia independente da posição do buffer.
+     */
+    private static final class Outgoing {
+        private final boolean binary;
+        private final Delivery delivery;
+        private final String key;
+        private ByteBuffer payload;
+        
+        Outgoing(ByteBuffer payload, boolean binary, Delivery delivery, String key) {
+            this.payload = payload;
+            this.binary = binary;
+            this.delivery = delivery;
+            this.key = key;
+        }
+        
+        int size() {
+            return payload.remaining();
+        }
+        
+        DataFrame frame() {
+            DataFrame frame = binary ? new BinaryFrame() : new TextFrame();
+            frame.setPayload(payload.duplicate());
+            return frame;
+        }
+    }
+    
+    /**
+     * Fila de saída de uma conexão. O estado é protegido pelo monitor da fila;
+     * a conexão é encerrada sempre depois de liberá-lo, pois o encerramento
+     * chama de volta o servidor, que descarta a fila.
+     */
+    private final class ConnectionOutbox {
+        private final WebSocket conn;
+        private final ArrayDeque<Outgoing> items = new ArrayDeque<>();
+        private final Map<String, Outgoing> events = new HashMap<>();
+        private long queuedBytes;
+        private boolean behind;
+        private long behindSince;
+        private long droppedSinceResync;
+        private boolean flushScheduled;
+        private boolean closed;
+        
+        ConnectionOutbox(WebSocket conn) {
+            this.conn = conn;
+        }
+        
+        /**
+         * Enfileira uma mensagem e acorda a thread de envio, sem enviar nada
+         * na thread que produziu a mensagem.
+         *
+         * @param item Mensagem
+         * @return true se a mensagem foi enfileirada ou substituiu um evento pendente
+         */
+        boolean offer(Outgoing item) {
+            boolean slow;
+            boolean wake;
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                if (item.key != null) {
+                    Outgoing previous = events.get(item.key);
+                    if (previous != null) {
+                        // Mantém a posição do evento anterior, com o conteúdo mais recente
+                        queuedBytes += item.size() - previous.size();
+                        previous.payload = item.payload;
+                        coalesced.incrementAndGet();
+                        return true;
+                    }
+                }
+                if (behind && item.delivery == Delivery.NOTIFICATION) {
+                    droppedSinceResync++;
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                items.add(item);
+                queuedBytes += item.size();
+                if (item.key != null) {
+                    events.put(item.key, item);
+                }
+                slow = updateState(System.currentTimeMillis(), false);
+                wake = !slow && !flushScheduled;
+                flushScheduled |= wake;
+            }
+            if (slow) {
+                closeSlowConnection();
+                return false;
+            }
+            if (wake) {
+                scheduleFlush(this);
+            }
+            return true;
+        }
+        
+        /**
+         * Entrega ao socket as mensagens que cabem na janela de envio e
+         * encerra a conexão se ela não acompanha o envio.
+         *
+         * @param now Instante atual
+         */
+        void flush(long now) {
+            if (send(now)) {
+                closeSlowConnection();
+            }
+        }
+        
+        /**
+         * Entrega as mensagens com o monitor da fila adquirido.
+         *
+         * @param now Instante atual
+         * @return true se a conexão deve ser encerrada por não acompanhar o envio
+         */
+        private synchronized boolean send(long now) {
+            flushScheduled = false;
+            if (closed) {
+                pending.remove(this);
+                return false;
+            }
+            if (!conn.isOpen()) {
+                discard();
+                return false;
+            }
+            long inFlight = bufferedBytes(conn);
+            while (!items.isEmpty() && inFlight < socketWindow) {
+                Outgoing item = items.poll();
+                if (item.key != null) {
+                    events.remove(item.key, item);
+                }
+                int size = item.size();
+                queuedBytes -= size;
+                try {
+                    conn.sendFrame(item.frame());
+                } catch (WebsocketNotConnectedException e) {
+                    discard();
+                    return false;
+                }
+                inFlight += size;
+                sentMessages.incrementAndGet();
+                sentBytes.addAndGet(size);
+            }
+            boolean slow = updateState(now, inFlight < socketWindow);
+            if (closed || items.isEmpty()) {
+                pending.remove(this);
+            } else {
+                pending.add(this);
+            }
+            return slow;
+        }
+        
+        /**
+         * Aplica os limites da fila depois de cada inclusão e de cada envio.
+         * Uma conexão que passou dos limites tem a fila descartada; o
+         * encerramento fica com o chamador, fora do monitor.
+         *
+         * @param now Instante atual
+         * @param draining true se o socket está aceitando mais dados, ou seja,
+         *                 o cliente voltou a ler
+         * @return true se a conexão deve ser encerrada
+         */
+        private boolean updateState(long now, boolean draining) {
+            if (!behind && queuedBytes >= highWatermark) {
+                behind = true;
+                behindSince = now;
+                dropQueuedNotifications();
+                logger.fine("Cliente lento, notificações suspensas: " + conn.getRemoteSocketAddress());
+            }
+            if (!behind) {
+                return false;
+            }
+            if (queuedBytes > maxQueuedBytes || (maxBehindMillis > 0 && now - behindSince > maxBehindMillis)) {
+                slowDisconnects.incrementAndGet();
+                logger.warning("Encerrando conexão que não acompanha as mensagens (" + queuedBytes
+                        + " bytes pendentes há " + (now - behindSince) + " ms): " + conn.getRemoteSocketAddress());
+                discard();
+                return true;
+            } else if (draining && queuedBytes <= lowWatermark) {
+                behind = false;
+                if (droppedSinceResync > 0) {
+                    // O cliente perdeu notificações: pede para recarregar as conversas
+                    queueResync();
+                }
+            }
+            return false;
+        }
+        
+        private void queueResync() {
+            Map<String, Object> resync = new HashMap<>();
+            resync.put("type", "resync_needed");
+            resync.put("reason", "slow_consumer");
+            resync.put("dropped", droppedSinceResync);
+            WireFormat format = WireFormat.of(conn);
+            try {
+                Outgoing item = new Outgoing(format.encode(resync), format.isBinary(), Delivery.RESPONSE, null);
+                items.add(item);
+                queuedBytes += item.size();
+                droppedSinceResync = 0;
+                resyncs.incrementAndGet();
+            } catch (JsonProcessingException e) {
+                logger.log(Level.SEVERE, "Erro ao serializar aviso de ressincronização", e);
+            }
+        }
+        
+        private void dropQueuedNotifications() {
+            Iterator<Outgoing> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                Outgoing item = iterator.next();
+                if (item.delivery == Delivery.NOTIFICATION) {
+                    iterator.remove();
+                    queuedBytes -= item.size();
+                    droppedSinceResync++;
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+        
+        private void closeSlowConnection() {
+            conn.close(CloseFrame.TRY_AGAIN_LATER, "Cliente não acompanha as mensagens");
+        }
+        
+        synchronized void discard() {
+            closed = true;
+            items.clear();
+            events.clear();
+            queuedBytes = 0;
+            pending.remove(this);
+            outboxes.remove(conn, this);
+        }
+        
+        synchronized int size() {
+            return items.size();
+        }
+        
+        synchronized long bytes() {
+            return queuedBytes;
+        }
+        
+        synchronized boolean isBehind() {
+            return behind;
+        }
+    }
+    
+    @Override
+    public int getConnectionCount() {
+        return outboxes.size();
+    }
+    
+    @Override
+    public long getQueuedMessages() {
+        long total = 0;
+        for (ConnectionOutbox outbox : outboxes.values()) {
+            total += outbox.size();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getQueuedBytes() {
+        long total = 0;
+        for (ConnectionOutbox outbox : outboxes.values()) {
+            total += outbox.bytes();
+        }
+        return total;
+    }
+    
+    @Override
+    public long getMaxConnectionQueuedBytes() {
+        long max = 0;
+        for (ConnectionOutbox outbox : outboxes.values()) {
+            max = Math.max(max, outbox.bytes());
+        }
+        return max;
+    }
+    
+    @Override
+    public int getBehindConnectionCount() {
+        int count = 0;
+        for (ConnectionOutbox outbox : outboxes.values()) {
+            if (outbox.isBehind()) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    @Override
+    public long getSentMessageCount() {
+        return sentMessages.get();
+    }
+    
+    @Override
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+    
+    @Override
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+    
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    @Override
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+    
+    @Override
+    public long getSlowConsumerDisconnectCount() {
+        return slowDisconnects.get();
+    }
+    
+    @Override
+    public long getHighWatermarkBytes() {
+        return highWatermark;
+    }
+    
+    @Override
+    public long getLowWatermarkBytes() {
+        return lowWatermark;
+    }
+    
+    @Override
+    public String toString() {
+        return "OutboundManager{conexões=" + getConnectionCount() + ", pendentes=" + getQueuedBytes() + " bytes, lentas="
+                + getBehindConnectionCount() + ", agrupados=" + coalesced.get() + ", descartados=" + dropped.get()
+                + ", ressincronizações=" + resyncs.get() + ", desconectados=" + slowDisconnects.get() + "}";
+    }
+}
@@ -0,0 +1,72 @@
+package br.com.whatsut.websocket;
+
+/**
+ * Estatísticas das filas de saída das conexões WebSocket expostas via JMX.
+ */
+public interface OutboundManagerMXBean {
+    
+    /**
+     * @return Número de conexões com fila de saída
+     */
+    int getConnectionCount();
+    
+    /**
+     * @return Número de mensagens aguardando envio, somando todas as conexões
+     */
+    long getQueuedMessages();
+    
+    /**
+     * @return Bytes aguardando envio, somando todas as conexões
+     */
+    long getQueuedBytes();
+    
+    /**
+     * @return Maior fila de saída, em bytes, entre as conexões atuais
+     */
+    long getMaxConnectionQueuedBytes();
+    
+    /**
+     * @return Número de conexões acima do limite superior da fila (clientes lentos)
+     */
+    int getBehindConnectionCount();
+    
+    /**
+     * @return Número de mensagens entregues ao socket desde a inicialização
+     */
+    long getSentMessageCount();
+    
+    /**
+     * @return Bytes entregues ao socket desde a inicialização
+     */
+    long getSentBytes();
+    
+    /**
+     * @return Número de eventos substituídos por um evento mais recente com a mesma chave
+     */
+    long getCoalescedCount();
+    
+    /**
+     * @return Número de notificações descartadas por clientes lentos
+     */
+    long getDroppedCount();
+    
+    /**
+     * @return Número de avisos de ressincronização enviados
+     */
+    long getResyncCount();
+    
+    /**
+     * @return Número de conexões encerradas por não acompanharem as mensagens
+     */
+    long getSlowConsumerDisconnectCount();
+    
+    /**
+     * @return Limite superior, em bytes, a partir do qual o cliente é considerado lento
+     */
+    long getHighWatermarkBytes();
+    
+    /**
+     * @return Limite inferior, em bytes, abaixo do qual o cliente volta ao normal
+     */
+    long getLowWatermarkBytes();
+}
@@ -0,0 +1,400 @@
+package br.com.whatsut.websocket;
+
+import br.com.whatsut.util.ConfigManager;
+import br.com.whatsut.util.JmxSupport;
+import org.java_websocket.WebSocket;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executa as requisições das conexões WebSocket fora das threads de E/S do
+ * servidor.
+ * <p>
+ * Os handlers fazem chamadas RMI e acessos a disco bloqueantes; executados na
+ * thread que lê os sockets, uma requisição lenta atrasaria todas as conexões
+ * atendidas por ela. Cada conexão tem uma fila própria, consumida por no
+ * máximo uma tarefa de cada vez, de modo que as requisições de uma conexão
+ * continuam sendo executadas na ordem em que chegaram, enquanto conexões
+ * diferentes rodam em paralelo. Quando o ambiente de execução oferece threads
+ * virtuais, cada fila roda em uma thread virtual; caso contrário, em um pool
+ * de threads de tamanho fixo.
+ * <p>
+ * Configurações: {@code websocket.dispatch.threads} (0 usa threads virtuais,
+ * se disponíveis), {@code websocket.dispatch.max.pending} (requisições
+ * pendentes por conexão) e {@code websocket.dispatch.slow.millis} (limite para
+ * registrar uma requisição lenta no log).
+ */
+public class RequestDispatcher implements RequestDispatcherMXBean {
+    private static final Logger logger = Logger.getLogger(RequestDispatcher.class.getName());
+    
+    /**
+     * Tamanho do pool quando threads virtuais não estão disponíveis e nenhum
+     * tamanho foi configurado; as tarefas passam a maior parte do tempo
+     * bloqueadas em RMI e disco, por isso o pool é maior que o número de núcleos.
+     */
+    private static final int DEFAULT_POOL_SIZE = 32;
+    
+    /**
+     * Número de requisições executadas seguidas de uma mesma conexão antes de
+     * devolver a thread ao pool, para que uma conexão muito ativa não monopolize
+     * uma thread de plataforma.
+     */
+    private static final int BATCH_SIZE = 16;
+    
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int poolSize;
+    private final int maxPendingPerConnection;
+    private final long slowNanos;
+    private final Map<WebSocket, ConnectionQueue> queues = new ConcurrentHashMap<>();
+    
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong slow = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong executionNanos = new AtomicLong();
+    private final AtomicLong maxExecutionNanos = new AtomicLong();
+    
+    /**
+     * Cria um despachante de requisições.
+     *
+     * @param threads Tamanho do pool de threads (0 usa threads virtuais, se disponíveis)
+     * @param maxPendingPerConnection Número máximo de requisições pendentes por conexão
+     * @param slowMillis Tempo de execução a partir do qual a requisição é registrada como lenta
+     */
+    public RequestDispatcher(int threads, int maxPendingPerConnection, long slowMillis) {
+        ExecutorService virtualExecutor = threads <= 0 ? createVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            this.virtualThreads = true;
+            this.poolSize = 0;
+        } else {
+            this.poolSize = threads > 0 ? threads : DEFAULT_POOL_SIZE;
+            this.executor = createPlatformExecutor(poolSize);
+            this.virtualThreads = false;
+        }
+        this.maxPendingPerConnection = Math.max(1, maxPendingPerConnection);
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, slowMillis));
+    }
+    
+    /**
+     * Cria um despachante com as configurações do servidor.
+     *
+     * @return Despachante configurado
+     */
+    public static RequestDispatcher getConfigured() {
+        return new RequestDispatcher(
+                ConfigManager.getIntProperty("websocket.dispatch.threads", 0),
+                ConfigManager.getIntProperty("websocket.dispatch.max.pending", 256),
+                ConfigManager.getLongProperty("websocket.dispatch.slow.millis", 1000));
+    }
+    
+    /**
+     * Cria um executor de threads virtuais, presente a partir do Java 21; o
+     * acesso é por reflexão porque o projeto é compilado para o Java 11.
+     *
+     * @return Executor, ou null se o ambiente não oferece threads virtuais
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.fine("Threads virtuais indisponíveis, usando pool de threads: " + e);
+            return null;
+        }
+    }
+    
+    private static ExecutorService createPlatformExecutor(int size) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "websocket-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    /**
+     * Registra as estatísticas no servidor JMX da plataforma.
+     *
+     * @param name Nome do servidor no JMX
+     */
+    public void registerMBean(String name) {
+        JmxSupport.register(this, "RequestDispatcher", name);
+    }
+    
+    /**
+     * Enfileira uma requisição da conexão, que será executada depois das
+     * requisições anteriores da mesma conexão.
+     *
+     * @param conn Conexão WebSocket
+     * @param description Descrição da requisição, para o log
+     * @param task Requisição
+     * @return true se a requisição foi enfileirada, false se a conexão já tem
+     *         requisições pendentes demais ou o despachante foi encerrado
+     */
+    public boolean dispatch(WebSocket conn, String description, Runnable task) {
+        return enqueue(conn, new Task(description, task, false), false);
+    }
+    
+    /**
+     * Enfileira o encerramento da conexão, executado depois de todas as suas
+     * requisições pendentes; a fila da conexão é descartada em seguida.
+     *
+     * @param conn Conexão WebSocket
+     * @param task Tratamento do encerramento
+     */
+    public void dispatchClose(WebSocket conn, Runnable task) {
+        enqueue(conn, new Task("fechamento", task, true), true);
+    }
+    
+    private boolean enqueue(WebSocket conn, Task task, boolean force) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        ConnectionQueue queue = queues.computeIfAbsent(conn, ConnectionQueue::new);
+        if (!queue.offer(task, force)) {
+            rejected.incrementAndGet();
+            logger.warning("Requisição recusada, conexão com " + maxPendingPerConnection
+                    + " requisições pendentes: " + conn.getRemoteSocketAddress());
+            return false;
+        }
+        submitted.incrementAndGet();
+        queued.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Encerra o despachante, aguardando as requisições em execução.
+     *
+     * @param timeoutMillis Tempo máximo de espera
+     */
+    public void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.warning("Requisições WebSocket ainda em execução no encerramento: " + active.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Requisição enfileirada, com o instante de chegada.
+     */
+    private static final class Task {
+        private final String description;
+        private final Runnable runnable;
+        private final boolean close;
+        private final long enqueuedAt = System.nanoTime();
+        
+        Task(String description, Runnable runnable, boolean close) {
+            this.description = description;
+            this.runnable = runnable;
+            this.close = close;
+        }
+    }
+    
+    /**
+     * Fila de requisições de uma conexão. No máximo uma tarefa do executor
+     * consome a fila de cada vez, o que garante a ordem das requisições.
+     */
+    private final class ConnectionQueue {
+        private final WebSocket conn;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+        
+        ConnectionQueue(WebSocket conn) {
+            this.conn = conn;
+        }
+        
+        boolean offer(Task task, boolean force) {
+            synchronized (this) {
+                if (!force && tasks.size() >= maxPendingPerConnection) {
+                    return false;
+                }
+                tasks.add(task);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            schedule();
+            return true;
+        }
+        
+        synchronized int size() {
+            return tasks.size();
+        }
+        
+        private void schedule() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Despachante encerrado: as requisições pendentes são descartadas
+                synchronized (this) {
+                    queued.addAndGet(-tasks.size());
+                    tasks.clear();
+                    scheduled = false;
+                }
+            }
+        }
+        
+        private void drain() {
+            for (int executed = 0; executed < BATCH_SIZE; executed++) {
+                Task task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                queued.decrementAndGet();
+                run(task);
+                if (task.close) {
+                    queues.remove(conn, this);
+                }
+            }
+            // Há mais requisições: volta ao fim da fila do executor
+            schedule();
+        }
+        
+        private void run(Task task) {
+            long start = System.nanoTime();
+            long wait = start - task.enqueuedAt;
+            waitNanos.addAndGet(wait);
+            JmxSupport.recordMax(maxWaitNanos, wait);
+            active.incrementAndGet();
+            try {
+                task.runnable.run();
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                logger.log(Level.SEVERE, "Erro ao executar requisição WebSocket (" + task.description + ")", e);
+            } finally {
+                active.decrementAndGet();
+                long execution = System.nanoTime() - start;
+                executionNanos.addAndGet(execution);
+                JmxSupport.recordMax(maxExecutionNanos, execution);
+                completed.incrementAndGet();
+                if (slowNanos > 0 && execution >= slowNanos) {
+                    slow.incrementAndGet();
+                    logger.warning("Requisição WebSocket lenta (" + task.description + "): "
+                            + TimeUnit.NANOSECONDS.toMillis(execution) + " ms, aguardou "
+                            + TimeUnit.NANOSECONDS.toMillis(wait) + " ms - " + conn.getRemoteSocketAddress());
+                }
+            }
+        }
+    }
+    
+    @Override
+    public String getWorkerMode() {
+        return virtualThreads ? "virtual" : "platform";
+    }
+    
+    @Override
+    public int getPoolSize() {
+        return poolSize;
+    }
+    
+    @Override
+    public int getConnectionCount() {
+        return queues.size();
+    }
+    
+    @Override
+    public int getQueuedRequests() {
+        return queued.get();
+    }
+    
+    @Override
+    public int getMaxConnectionQueueDepth() {
+        int max = 0;
+        for (ConnectionQueue queue : queues.values()) {
+            max = Math.max(max, queue.size());
+        }
+        return max;
+    }
+    
+    @Override
+    public int getActiveRequests() {
+        return active.get();
+    }
+    
+    @Override
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+    
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+    
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    
+    @Override
+    public long getFailedCount() {
+        return failed.get();
+    }
+    
+    @Override
+    public long getSlowRequestCount() {
+        return slow.get();
+    }
+    
+    @Override
+    public double getAverageWaitMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : waitNanos.get() / 1e6 / count;
+    }
+    
+    @Override
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+    
+    @Override
+    public double getAverageExecutionMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : executionNanos.get() / 1e6 / count;
+    }
+    
+    @Override
+    public double getMaxExecutionMillis() {
+        return maxExecutionNanos.get() / 1e6;
+    }
+    
+    @Override
+    public String toString() {
+        return "RequestDispatcher{modo=" + getWorkerMode() + ", pendentes=" + queued.get() + ", executando="
+                + active.get() + ", concluídas=" + completed.get() + ", recusadas=" + rejected.get()
+                + String.format(", espera média=%.2f ms, execução média=%.2f ms}", getAverageWaitMillis(),
+                getAverageExecutionMillis());
+    }
+}
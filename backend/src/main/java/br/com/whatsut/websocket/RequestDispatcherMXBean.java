@@ -0,0 +1,82 @@
+package br.com.whatsut.websocket;
+
+/**
+ * Estatísticas da execução das requisições WebSocket expostas via JMX.
+ */
+public interface RequestDispatcherMXBean {
+    
+    /**
+     * @return "virtual" se as requisições rodam em threads virtuais, "platform" caso contrário
+     */
+    String getWorkerMode();
+    
+    /**
+     * @return Número de threads do pool (0 com threads virtuais)
+     */
+    int getPoolSize();
+    
+    /**
+     * @return Número de conexões com requisições pendentes ou em execução
+     */
+    int getConnectionCount();
+    
+    /**
+     * @return Número de requisições aguardando execução, somando todas as conexões
+     */
+    int getQueuedRequests();
+    
+    /**
+     * @return Maior fila de requisições pendentes entre as conexões atuais
+     */
+    int getMaxConnectionQueueDepth();
+    
+    /**
+     * @return Número de requisições em execução
+     */
+    int getActiveRequests();
+    
+    /**
+     * @return Número de requisições recebidas desde a inicialização
+     */
+    long getSubmittedCount();
+    
+    /**
+     * @return Número de requisições executadas desde a inicialização
+     */
+    long getCompletedCount();
+    
+    /**
+     * @return Número de requisições recusadas por excesso de pendências na conexão
+     */
+    long getRejectedCount();
+    
+    /**
+     * @return Número de requisições que terminaram com exceção
+     */
+    long getFailedCount();
+    
+    /**
+     * @return Número de requisições que demoraram mais que o limite de requisição lenta
+     */
+    long getSlowRequestCount();
+    
+    /**
+     * @return Tempo médio, em milissegundos, entre a chegada e o início da execução
+     */
+    double getAverageWaitMillis();
+    
+    /**
+     * @return Maior tempo, em milissegundos, entre a chegada e o início da execução
+     */
+    double getMaxWaitMillis();
+    
+    /**
+     * @return Tempo médio de execução, em milissegundos
+     */
+    double getAverageExecutionMillis();
+    
+    /**
+     * @return Maior tempo de execução, em milissegundos
+     */
+    double getMaxExecutionMillis();
+}
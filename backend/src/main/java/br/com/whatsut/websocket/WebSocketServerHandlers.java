@@ -1,7 +1,7 @@
 package br.com.whatsut.websocket;
 
+import br.com.whatsut.dao.MessageDAO;
 import br.com.whatsut.model.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.WebSocket;
 
 import java.util.*;
@@ -14,7 +14,16 @@ import java.util.logging.Logger;
  */
 public class WebSocketServerHandlers {
     private static final Logger logger = Logger.getLogger(WebSocketServerHandlers.class.getName());
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutboundManager outbound;
+    
+    /**
+     * Construtor dos handlers.
+     *
+     * @param outbound Filas de saída das conexões
+     */
+    public WebSocketServerHandlers(OutboundManager outbound) {
+        this.outbound = outbound;
+    }
     
     /**
      * Processa requisição para obter informações de um usuário.
@@ -151,72 +160,79 @@ public class WebSocketServerHandlers {
                 return;
             }
             
-            // Obter grupos do usuário
-            List<Group> groups = server.getGroupService().getUserGroups(userId);
+            // Paginação opcional: sem "limit", todas as conversas são retornadas
+            Integer limit = (Integer) request.get("limit");
+            Integer offset = (Integer) request.get("offset");
+            boolean paged = limit != null && limit > 0;
+            if (offset == null) offset = 0;
             
-            // Obter conversas privadas (implementação simplificada)
-            List<Map<String, Object>> privateConversations = new ArrayList<>();
-            List<User> allUsers = server.getUserService().getAllUsers();
-            
-            for (User user : allUsers) {
-                if (!user.getUserId().equals(userId)) {
-                    // Para cada usuário, verificar se há mensagens trocadas
-                    List<PrivateMessage> messages = server.getMessageService().getPrivateMessages(userId, user.getUserId(), 1, 0);
-                    
-                    if (!messages.isEmpty() || true) { // Em produção, remover o "|| true"
-                        Map<String, Object> conversation = new HashMap<>();
-                        conversation.put("userId", user.getUserId());
-                        conversation.put("displayName", user.getDisplayName());
-                        conversation.put("username", user.getUsername());
-                        conversation.put("online", user.isOnline());
-                        conversation.put("lastSeen", user.getLastSeen());
-                        
-                        // Última mensagem, se houver
-                        if (!messages.isEmpty()) {
-                            PrivateMessage lastMessage = messages.get(0);
-                            conversation.put("lastMessage", lastMessage.getContent());
-                            conversation.put("timestamp", lastMessage.getTimestamp());
-                            conversation.put("unread", !lastMessage.isRead() && lastMessage.getReceiverId().equals(userId));
-                        } else {
-                            conversation.put("lastMessage", "");
-                            conversation.put("timestamp", 0);
-                            conversation.put("unread", false);
-                        }
-                        
-                        privateConversations.add(conversation);
-                    }
-                }
+            // Grupos e usuários, para completar os resumos das conversas
+            Map<String, Group> groups = new HashMap<>();
+            for (Group group : server.getGroupService().getUserGroups(userId)) {
+                groups.put(group.getGroupId(), group);
+            }
+            Map<String, User> users = new LinkedHashMap<>();
+            for (User user : server.getUserService().getAllUsers()) {
+                users.put(user.getUserId(), user);
+            }
+            
+            // Conversas do usuário, da mais recente para a mais antiga (uma a mais para saber se há outra página)
+            List<ConversationSummary> summaries = server.getMessageService()
+                    .getConversationSummaries(userId, paged ? limit + 1 : 0, offset);
+            boolean hasMore = paged && summaries.size() > limit;
+            if (hasMore) {
+                summaries = summaries.subList(0, limit);
             }
             
-            // Converter grupos para o formato de conversas
+            List<Map<String, Object>> privateConversations = new ArrayList<>();
             List<Map<String, Object>> groupConversations = new ArrayList<>();
-            for (Group group : groups) {
-                Map<String, Object> conversation = new HashMap<>();
-                conversation.put("groupId", group.getGroupId());
-                conversation.put("name", group.getName());
-                conversation.put("description", group.getDescription());
-                conversation.put("isAdmin", group.getAdminId().equals(userId));
-                
-                // Última mensagem do grupo, se houver
-                List<GroupMessage> messages = server.getMessageService().getGroupMessages(group.getGroupId(), 1, 0);
-                if (!messages.isEmpty()) {
-                    GroupMessage lastMessage = messages.get(0);
-                    conversation.put("lastMessage", lastMessage.getContent());
-                    conversation.put("timestamp", lastMessage.getTimestamp());
-                    conversation.put("unread", !lastMessage.isRead());
+            Set<String> listedUsers = new HashSet<>();
+            for (ConversationSummary summary : summaries) {
+                Map<String, Object> conversation;
+                if (summary.isGroup()) {
+                    Group group = groups.get(summary.getTargetId());
+                    if (group == null) {
+                        continue;
+                    }
+                    conversation = createGroupConversation(group, userId);
+                    groupConversations.add(conversation);
                 } else {
-                    conversation.put("lastMessage", "");
-                    conversation.put("timestamp", group.getCreatedAt());
-                    conversation.put("unread", false);
+                    User user = users.get(summary.getTargetId());
+                    if (user == null) {
+                        continue;
+                    }
+                    conversation = createPrivateConversation(user);
+                    listedUsers.add(user.getUserId());
+                    privateConversations.add(conversation);
                 }
                 
-                groupConversations.add(conversation);
+                // Última mensagem, se houver
+                if (summary.getLastMessageId() != null) {
+                    conversation.put("lastMessage", summary.getLastMessagePreview());
+                    conversation.put("timestamp", summary.getLastTimestamp());
+                }
+                conversation.put("unread", summary.getUnreadCount() > 0);
+                conversation.put("unreadCount", summary.getUnreadCount());
+            }
+            
+            // Sem paginação, os demais usuários também são listados para que novas conversas possam ser iniciadas
+            if (!paged && offset == 0) {
+                for (User user : users.values()) {
+                    if (!user.getUserId().equals(userId) && !listedUsers.contains(user.getUserId())) {
+                        Map<String, Object> conversation = createPrivateConversation(user);
+                        conversation.put("unread", false);
+                        conversation.put("unreadCount", 0);
+                        privateConversations.add(conversation);
+                    }
+                }
             }
             
             Map<String, Object> response = new HashMap<>();
             response.put("type", "conversations");
             response.put("privateConversations", privateConversations);
             response.put("groupConversations", groupConversations);
+            response.put("offset", offset);
+            response.put("hasMore", hasMore);
             sendJsonMessage(conn, response);
             
         } catch (Exception e) {
@@ -225,6 +241,42 @@ public class WebSocketServerHandlers {
         }
     }
     
+    /**
+     * Cria a entrada de uma conversa privada, ainda sem mensagens.
+     *
+     * @param user Outro participante da conversa
+     * @return Dados da conversa
+     */
+    private Map<String, Object> createPrivateConversation(User user) {
+        Map<String, Object> conversation = new HashMap<>();
+        conversation.put("userId", user.getUserId());
+        conversation.put("displayName", user.getDisplayName());
+        conversation.put("username", user.getUsername());
+        conversation.put("online", user.isOnline());
+        conversation.put("lastSeen", user.getLastSeen());
+        conversation.put("lastMessage", "");
+        conversation.put("timestamp", 0);
+        return conversation;
+    }
+    
+    /**
+     * Cria a entrada de uma conversa de grupo, ainda sem mensagens.
+     *
+     * @param group Grupo
+     * @param userId ID do usuário que está listando as conversas
+     * @return Dados da conversa
+     */
+    private Map<String, Object> createGroupConversation(Group group, String userId) {
+        Map<String, Object> conversation = new HashMap<>();
+        conversation.put("groupId", group.getGroupId());
+        conversation.put("name", group.getName());
+        conversation.put("description", group.getDescription());
+        conversation.put("isAdmin", group.getAdminId().equals(userId));
+        conversation.put("lastMessage", "");
+        conversation.put("timestamp", group.getCreatedAt());
+        return conversation;
+    }
+    
     /**
      * Processa requisição para obter mensagens.
      *
@@ -239,6 +291,10 @@ public class WebSocketServerHandlers {
             Boolean isGroup = (Boolean) request.get("isGroup");
             Integer limit = (Integer) request.get("limit");
             Integer offset = (Integer) request.get("offset");
+            // Cursor opcional: mensagens anteriores a beforeMessageId/beforeTimestamp
+            String beforeMessageId = (String) request.get("beforeMessageId");
+            Number beforeTimestamp = (Number) request.get("beforeTimestamp");
+            boolean useCursor = beforeMessageId != null || beforeTimestamp != null;
             
             if (userId == null || targetId == null || isGroup == null) {
                 sendErrorMessage(conn, "missing_parameter", "Parâmetros obrigatórios não especificados");
@@ -252,17 +308,25 @@ public class WebSocketServerHandlers {
             
             if (isGroup) {
                 // Mensagens de grupo
-                messages = server.getMessageService().getGroupMessages(targetId, limit, offset);
+                messages = useCursor
+                        ? server.getMessageService().getGroupMessagesBefore(targetId, beforeMessageId,
+                                beforeTimestamp != null ? beforeTimestamp.longValue() : 0, limit)
+                        : server.getMessageService().getGroupMessages(targetId, limit, offset);
             } else {
                 // Mensagens privadas
-                messages = server.getMessageService().getPrivateMessages(userId, targetId, limit, offset);
-                
-                // Marcar mensagens como lidas
-                for (Message message : messages) {
-                    if (!message.isRead() && !message.getSenderId().equals(userId)) {
-                        server.getMessageService().markMessageAsRead(message.getMessageId(), userId);
-                    }
-                }
+                messages = useCursor
+                        ? server.getMessageService().getPrivateMessagesBefore(userId, targetId, beforeMessageId,
+                                beforeTimestamp != null ? beforeTimestamp.longValue() : 0, limit)
+                        : server.getMessageService().getPrivateMessages(userId, targetId, limit, offset);
+            }
+            
+            // Marcar a conversa como lida até a mensagem mais recente da página
+            if (!messages.isEmpty()) {
+                String conversationKey = isGroup
+                        ? MessageDAO.getGroupConversationKey(targetId)
+                        : MessageDAO.getPrivateConversationKey(userId, targetId);
+                server.getMessageService().markConversationRead(userId, conversationKey,
+                        messages.get(0).getMessageId());
             }
             
             Map<String, Object> response = new HashMap<>();
@@ -270,6 +334,15 @@ public class WebSocketServerHandlers {
             response.put("isGroup", isGroup);
             response.put("targetId", targetId);
             response.put("messages", messages);
+            response.put("hasMore", messages.size() >= limit);
+            if (!messages.isEmpty()) {
+                // Cursor para a próxima página (mensagens mais antigas)
+                Message oldest = messages.get(messages.size() - 1);
+                Map<String, Object> nextCursor = new HashMap<>();
+                nextCursor.put("beforeMessageId", oldest.getMessageId());
+                nextCursor.put("beforeTimestamp", oldest.getTimestamp());
+                response.put("nextCursor", nextCursor);
+            }
             sendJsonMessage(conn, response);
             
         } catch (Exception e) {
@@ -278,6 +351,132 @@ public class WebSocketServerHandlers {
         }
     }
     
+    /**
+     * Processa requisição para marcar uma conversa como lida até uma mensagem.
+     *
+     * @param server Servidor WebSocket
+     * @param conn Conexão WebSocket
+     * @param request Requisição
+     */
+    public void handleMarkConversationRead(WhatsUTWebSocketServer server, WebSocket conn, Map<String, Object> request) {
+        try {
+            String userId = (String) request.get("userId");
+            String targetId = (String) request.get("targetId");
+            Boolean isGroup = (Boolean) request.get("isGroup");
+            String upToMessageId = (String) request.get("upToMessageId");
+            
+            if (userId == null || targetId == null || isGroup == null || upToMessageId == null) {
+                sendErrorMessage(conn, "missing_parameter", "Parâmetros obrigatórios não especificados");
+                return;
+            }
+            
+            String conversationKey = isGroup
+                    ? MessageDAO.getGroupConversationKey(targetId)
+                    : MessageDAO.getPrivateConversationKey(userId, targetId);
+            boolean success = server.getMessageService().markConversationRead(userId, conversationKey, upToMessageId);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("type", "conversation_read");
+            response.put("success", success);
+            response.put("isGroup", isGroup);
+            response.put("targetId", targetId);
+            response.put("upToMessageId", upToMessageId);
+            response.put("unreadCount", server.getMessageService().getUnreadCount(userId));
+            sendJsonMessage(conn, response);
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao processar requisição markConversationRead", e);
+            sendErrorMessage(conn, "server_error", "Erro ao marcar conversa como lida");
+        }
+    }
+    
+    /**
+     * Processa requisição para obter as mensagens não lidas de um usuário.
+     * Com "countOnly", retorna apenas o total (para o contador de não lidas).
+     *
+     * @param server Servidor WebSocket
+     * @param conn Conexão WebSocket
+     * @param request Requisição
+     */
+    public void handleGetUnread(WhatsUTWebSocketServer server, WebSocket conn, Map<String, Object> request) {
+        try {
+            String userId = (String) request.get("userId");
+            Integer limit = (Integer) request.get("limit");
+            Integer offset = (Integer) request.get("offset");
+            Boolean countOnly = (Boolean) request.get("countOnly");
+            
+            if (userId == null) {
+                sendErrorMessage(conn, "missing_parameter", "Parâmetro userId não especificado");
+                return;
+            }
+            
+            if (limit == null) limit = 50;
+            if (offset == null) offset = 0;
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("type", "unread");
+            response.put("unreadCount", server.getMessageService().getUnreadCount(userId));
+            if (countOnly == null || !countOnly) {
+                // Uma mensagem a mais para saber se há outra página
+                List<UnreadMessage> messages = server.getMessageService().getUnreadMessages(userId, limit + 1, offset);
+                boolean hasMore = messages.size() > limit;
+                response.put("messages", hasMore ? messages.subList(0, limit) : messages);
+                response.put("hasMore", hasMore);
+            }
+            sendJsonMessage(conn, response);
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao processar requisição getUnread", e);
+            sendErrorMessage(conn, "server_error", "Erro ao buscar mensagens não lidas");
+        }
+    }
+    
+    /**
+     * Processa requisição para buscar mensagens pelo conteúdo nas conversas do
+     * usuário. O usuário é o da sessão da conexão, e não um ID informado na
+     * requisição, para que a busca fique restrita às suas conversas.
+     *
+     * @param server Servidor WebSocket
+     * @param conn Conexão WebSocket
+     * @param request Requisição
+     */
+    public void handleSearchMessages(WhatsUTWebSocketServer server, WebSocket conn, Map<String, Object> request) {
+        try {
+            String userId = server.getUserIdByConnection(conn);
+            String query = (String) request.get("query");
+            Integer limit = (Integer) request.get("limit");
+            Integer offset = (Integer) request.get("offset");
+            
+            if (userId == null) {
+                sendErrorMessage(conn, "not_authenticated", "Não autenticado");
+                return;
+            }
+            
+            if (query == null) {
+                sendErrorMessage(conn, "missing_parameter", "Parâmetros obrigatórios não especificados");
+                return;
+            }
+            
+            if (limit == null) limit = 20;
+            if (offset == null) offset = 0;
+            
+            // Uma mensagem a mais para saber se há outra página
+            List<Message> messages = server.getMessageService().searchMessages(userId, query, limit + 1, offset);
+            boolean hasMore = messages.size() > limit;
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("type", "search_results");
+            response.put("query", query);
+            response.put("messages", hasMore ? messages.subList(0, limit) : messages);
+            response.put("hasMore", hasMore);
+            sendJsonMessage(conn, response);
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao processar requisição searchMessages", e);
+            sendErrorMessage(conn, "server_error", "Erro ao buscar mensagens");
+        }
+    }
+    
     /**
      * Processa requisição para enviar mensagem.
      *
@@ -304,33 +503,29 @@ public class WebSocketServerHandlers {
                 message = server.getMessageService().sendGroupMessage(senderId, targetId, content);
                 
                 if (message != null) {
-                    // Notificar todos os membros do grupo
+                    // Notificar todos os dispositivos dos membros do grupo, inclusive
+                    // os outros dispositivos do remetente, com uma única serialização
+                    Map<String, Object> notification = new HashMap<>();
+                    notification.put("type", "new_group_message");
+                    notification.put("message", message);
                     List<GroupMember> members = server.getGroupMemberDAO().findByGroupId(targetId);
+                    List<String> memberIds = new ArrayList<>(members.size());
                     for (GroupMember member : members) {
-                        if (!member.getUserId().equals(senderId)) {
-                            WebSocket memberConn = server.getConnectionByUserId(member.getUserId());
-                            if (memberConn != null && memberConn.isOpen()) {
-                                Map<String, Object> notification = new HashMap<>();
-                                notification.put("type", "new_group_message");
-                                notification.put("message", message);
-                                sendJsonMessage(memberConn, notification);
-                            }
-                        }
+                        memberIds.add(member.getUserId());
                     }
+                    server.broadcastJson(notification, server.getConnectionsByUserIds(memberIds, conn));
                 }
             } else {
                 // Enviar mensagem privada
                 message = server.getMessageService().sendPrivateMessage(senderId, targetId, content);
                 
                 if (message != null) {
-                    // Notificar destinatário
-                    WebSocket receiverConn = server.getConnectionByUserId(targetId);
-                    if (receiverConn != null && receiverConn.isOpen()) {
-                        Map<String, Object> notification = new HashMap<>();
-                        notification.put("type", "new_private_message");
-                        notification.put("message", message);
-                        sendJsonMessage(receiverConn, notification);
-                    }
+                    // Notificar os dispositivos do destinatário e os outros dispositivos do remetente
+                    Map<String, Object> notification = new HashMap<>();
+                    notification.put("type", "new_private_message");
+                    notification.put("message", message);
+                    server.broadcastJson(notification,
+                            server.getConnectionsByUserIds(Arrays.asList(targetId, senderId), conn));
                 }
             }
             
@@ -350,6 +545,66 @@ public class WebSocketServerHandlers {
         }
     }
     
+    /**
+     * Processa o aviso de que o usuário está (ou parou de estar) digitando em
+     * uma conversa, repassado aos dispositivos dos outros participantes. O
+     * aviso não tem resposta e, para clientes lentos, só o mais recente de cada
+     * usuário e conversa é entregue. O remetente é o usuário da sessão da
+     * conexão e, em grupos, precisa ser membro do grupo.
+     *
+     * @param server Servidor WebSocket
+     * @param conn Conexão WebSocket
+     * @param request Requisição
+     */
+    public void handleTyping(WhatsUTWebSocketServer server, WebSocket conn, Map<String, Object> request) {
+        try {
+            String userId = server.getUserIdByConnection(conn);
+            String targetId = (String) request.get("targetId");
+            Boolean isGroup = (Boolean) request.get("isGroup");
+            Boolean typing = (Boolean) request.get("typing");
+            
+            if (userId == null) {
+                sendErrorMessage(conn, "not_authenticated", "Não autenticado");
+                return;
+            }
+            
+            if (targetId == null || isGroup == null) {
+                sendErrorMessage(conn, "missing_parameter", "Parâmetros obrigatórios não especificados");
+                return;
+            }
+            
+            if (typing == null) typing = true;
+            
+            List<String> recipients = new ArrayList<>();
+            if (isGroup) {
+                if (server.getGroupMemberDAO().findByGroupAndUser(targetId, userId) == null) {
+                    sendErrorMessage(conn, "not_group_member", "Usuário não é membro do grupo");
+                    return;
+                }
+                for (GroupMember member : server.getGroupMemberDAO().findByGroupId(targetId)) {
+                    if (!member.getUserId().equals(userId)) {
+                        recipients.add(member.getUserId());
+                    }
+                }
+            } else {
+                recipients.add(targetId);
+            }
+            
+            Map<String, Object> event = new HashMap<>();
+            event.put("type", "typing");
+            event.put("userId", userId);
+            event.put("targetId", targetId);
+            event.put("isGroup", isGroup);
+            event.put("typing", typing);
+            server.broadcastEvent(event, server.getConnectionsByUserIds(recipients, conn),
+                    "typing:" + userId + ":" + targetId);
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Erro ao processar requisição typing", e);
+            sendErrorMessage(conn, "server_error", "Erro ao enviar status de digitação");
+        }
+    }
+    
     /**
      * Processa requisição para criar grupo.
      *
@@ -416,14 +671,13 @@ public class WebSocketServerHandlers {
             }
             
             // Notificar o usuário adicionado
-            WebSocket userConn = server.getConnectionByUserId(userId);
-            if (userConn != null && userConn.isOpen()) {
+            if (server.isUserConnected(userId)) {
                 Group group = server.getGroupService().getGroup(groupId);
                 if (group != null) {
                     Map<String, Object> notification = new HashMap<>();
                     notification.put("type", "added_to_group");
                     notification.put("group", group);
-                    sendJsonMessage(userConn, notification);
+                    sendJsonToUser(server, userId, notification, null);
                 }
             }
             
@@ -465,13 +719,10 @@ public class WebSocketServerHandlers {
             }
             
             // Notificar o usuário removido
-            WebSocket userConn = server.getConnectionByUserId(userId);
-            if (userConn != null && userConn.isOpen()) {
-                Map<String, Object> notification = new HashMap<>();
-                notification.put("type", "removed_from_group");
-                notification.put("groupId", groupId);
-                sendJsonMessage(userConn, notification);
-            }
+            Map<String, Object> notification = new HashMap<>();
+            notification.put("type", "removed_from_group");
+            notification.put("groupId", groupId);
+            sendJsonToUser(server, userId, notification, null);
             
             Map<String, Object> response = new HashMap<>();
             response.put("type", "user_removed_from_group");
@@ -501,17 +752,29 @@ public class WebSocketServerHandlers {
     }
     
     /**
-     * Envia um objeto como JSON para o cliente.
+     * Envia um objeto como JSON para todas as conexões abertas de um usuário.
+     *
+     * @param server Servidor WebSocket
+     * @param userId ID do usuário
+     * @param object Objeto a ser enviado
+     * @param exclude Conexão que não deve receber o objeto (ex.: a que originou a requisição), ou null
+     * @return Número de conexões que receberam o objeto
+     */
+    private int sendJsonToUser(WhatsUTWebSocketServer server, String userId, Object object, WebSocket exclude) {
+        return server.broadcastJson(object, server.getConnectionsByUserIds(Collections.singletonList(userId), exclude));
+    }
+    
+    /**
+     * Envia um objeto para o cliente, como JSON ou no formato binário negociado pela conexão.
      *
      * @param conn Conexão WebSocket
      * @param object Objeto a ser enviado
      */
     private void sendJsonMessage(WebSocket conn, Object object) {
         try {
-            String json = objectMapper.writeValueAsString(object);
-            conn.send(json);
+            outbound.send(conn, object, OutboundManager.Delivery.RESPONSE, null);
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "Erro ao serializar objeto para JSON", e);
+            logger.log(Level.SEVERE, "Erro ao serializar objeto", e);
         }
     }
 }
@@ -1,5 +1,6 @@
 package br.com.whatsut.websocket;
 
+import br.com.whatsut.dao.DAOFactory;
 import br.com.whatsut.dao.GroupDAO;
 import br.com.whatsut.dao.GroupMemberDAO;
 import br.com.whatsut.dao.MessageDAO;
@@ -11,12 +12,16 @@ import br.com.whatsut.service.MessageService;
 import br.com.whatsut.service.UserService;
 import br.com.whatsut.util.ConfigManager;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -30,11 +35,14 @@ import java.util.logging.Logger;
  */
 public class WhatsUTWebSocketServer extends WebSocketServer {
     private static final Logger logger = Logger.getLogger(WhatsUTWebSocketServer.class.getName());
-    private final ObjectMapper objectMapper;
     private final Map<WebSocket, String> socketSessionMap;
     private final Map<String, WebSocket> sessionSocketMap;
     private final Map<String, String> sessionUserMap;
+    private final Map<String, Set<WebSocket>> userConnections;
     private final WebSocketServerHandlers handlers;
+    private final RequestDispatcher dispatcher;
+    private final BroadcastStats broadcastStats;
+    private final OutboundManager outbound;
     
     // Serviços RMI
     private AuthService authService;
@@ -42,7 +50,7 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
     private GroupService groupService;
     private MessageService messageService;
     
-    // DAOs para acesso direto (otimização)
+    // DAOs para acesso direto (otimização), compartilhados com os serviços RMI
     private final UserDAO userDAO;
     private final GroupDAO groupDAO;
     private final GroupMemberDAO groupMemberDAO;
@@ -54,23 +62,47 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
      * @param port Porta para o servidor WebSocket
      */
     public WhatsUTWebSocketServer(int port) {
-        super(new InetSocketAddress(port));
-        this.objectMapper = new ObjectMapper();
+        super(new InetSocketAddress(port), Collections.singletonList(createDraft()));
         this.socketSessionMap = new ConcurrentHashMap<>();
         this.sessionSocketMap = new ConcurrentHashMap<>();
         this.sessionUserMap = new ConcurrentHashMap<>();
-        this.handlers = new WebSocketServerHandlers();
+        this.userConnections = new ConcurrentHashMap<>();
+        this.outbound = OutboundManager.getConfigured();
+        this.outbound.registerMBean("websocket-" + port);
+        this.handlers = new WebSocketServerHandlers(outbound);
+        this.dispatcher = RequestDispatcher.getConfigured();
+        this.dispatcher.registerMBean("websocket-" + port);
+        this.broadcastStats = new BroadcastStats();
+        this.broadcastStats.registerMBean("websocket-" + port);
         
-        // Inicializar DAOs
-        this.userDAO = new UserDAO();
-        this.groupDAO = new GroupDAO();
-        this.groupMemberDAO = new GroupMemberDAO();
-        this.messageDAO = new MessageDAO();
+        // Obter os DAOs compartilhados
+        this.userDAO = DAOFactory.getUserDAO();
+        this.groupDAO = DAOFactory.getGroupDAO();
+        this.groupMemberDAO = DAOFactory.getGroupMemberDAO();
+        this.messageDAO = DAOFactory.getMessageDAO();
         
         // Conectar aos serviços RMI
         connectToRmiServices();
     }
     
+    /**
+     * Cria o protocolo aceito pelo servidor: compressão permessage-deflate, se
+     * habilitada em {@code websocket.compression.enabled} e pedida pelo cliente,
+     * e os subprotocolos de {@link WireFormat}.
+     *
+     * @return Protocolo WebSocket do servidor
+     */
+    private static Draft createDraft() {
+        List<IExtension> extensions = new ArrayList<>();
+        if (ConfigManager.getBooleanProperty("websocket.compression.enabled", true)) {
+            PerMessageDeflateExtension deflate = new PerMessageDeflateExtension();
+            // Mensagens pequenas (confirmações, eventos) não compensam a compressão
+            deflate.setThreshold(ConfigManager.getIntProperty("websocket.compression.threshold", 256));
+            extensions.add(deflate);
+        }
+        return new Draft_6455(extensions, WireFormat.protocols());
+    }
+    
     /**
      * Conecta aos serviços RMI.
      */
@@ -96,11 +128,23 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         String sessionId = handshake.getFieldValue("X-Session-Id");
         String token = handshake.getFieldValue("X-Auth-Token");
-        
+        // A autenticação faz chamadas RMI: roda fora da thread de E/S, antes das
+        // requisições da conexão
+        dispatcher.dispatch(conn, "abertura", () -> processOpen(conn, sessionId, token));
+    }
+    
+    /**
+     * Autentica e registra uma nova conexão.
+     *
+     * @param conn Conexão WebSocket
+     * @param sessionId ID da sessão informado no handshake
+     * @param token Token informado no handshake
+     */
+    private void processOpen(WebSocket conn, String sessionId, String token) {
         if (sessionId == null || token == null) {
             logger.warning("Tentativa de conexão sem credenciais");
             sendErrorMessage(conn, "authentication_required", "Autenticação necessária");
-            conn.close();
+            outbound.close(conn);
             return;
         }
         
@@ -110,7 +154,7 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
             if (!valid) {
                 logger.warning("Token inválido para sessão: " + sessionId);
                 sendErrorMessage(conn, "invalid_token", "Token inválido");
-                conn.close();
+                outbound.close(conn);
                 return;
             }
             
@@ -126,7 +170,7 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
                 } else {
                     logger.warning("Usuário não encontrado para sessão: " + sessionId);
                     sendErrorMessage(conn, "user_not_found", "Usuário não encontrado");
-                    conn.close();
+                    outbound.close(conn);
                     return;
                 }
             }
@@ -134,6 +178,7 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
             // Registrar conexão
             socketSessionMap.put(conn, sessionId);
             sessionSocketMap.put(sessionId, conn);
+            addUserConnection(userId, conn);
             
             // Atualizar status do usuário para online
             userService.updateUserStatus(userId, true);
@@ -149,18 +194,32 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Erro ao processar conexão WebSocket", e);
             sendErrorMessage(conn, "server_error", "Erro interno do servidor");
-            conn.close();
+            outbound.close(conn);
         }
     }
     
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        dispatcher.dispatchClose(conn, () -> processClose(conn, code, reason));
+    }
+    
+    /**
+     * Remove os registros de uma conexão encerrada, depois das suas requisições
+     * pendentes. A fila de saída é removida mesmo sem sessão registrada, pois
+     * as respostas de erro da autenticação também a criam.
+     *
+     * @param conn Conexão WebSocket
+     * @param code Código de encerramento
+     * @param reason Motivo do encerramento
+     */
+    private void processClose(WebSocket conn, int code, String reason) {
+        outbound.remove(conn);
         String sessionId = socketSessionMap.get(conn);
         if (sessionId != null) {
             String userId = sessionUserMap.get(sessionId);
-            if (userId != null) {
+            if (userId != null && removeUserConnection(userId, conn)) {
                 try {
-                    // Atualizar status do usuário para offline
+                    // Atualizar status do usuário para offline ao fechar a última conexão
                     userService.updateUserStatus(userId, false);
                 } catch (RemoteException e) {
                     logger.log(Level.WARNING, "Erro ao atualizar status do usuário", e);
@@ -169,7 +228,7 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
             
             // Remover mapeamentos
             socketSessionMap.remove(conn);
-            sessionSocketMap.remove(sessionId);
+            sessionSocketMap.remove(sessionId, conn);
         }
         
         logger.info("Conexão WebSocket fechada: " + conn.getRemoteSocketAddress() + " - Código: " + code + " - Razão: " + reason);
@@ -177,6 +236,27 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
     
     @Override
     public void onMessage(WebSocket conn, String message) {
+        if (!dispatcher.dispatch(conn, "mensagem", () -> processMessage(conn, message))) {
+            sendErrorMessage(conn, "too_many_requests", "Muitas requisições pendentes");
+        }
+    }
+    
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        byte[] data = new byte[message.remaining()];
+        message.get(data);
+        if (!dispatcher.dispatch(conn, "mensagem", () -> processMessage(conn, data))) {
+            sendErrorMessage(conn, "too_many_requests", "Muitas requisições pendentes");
+        }
+    }
+    
+    /**
+     * Interpreta e executa uma requisição recebida, em uma thread do despachante.
+     *
+     * @param conn Conexão WebSocket
+     * @param message Requisição em JSON (texto) ou no formato da conexão (bytes)
+     */
+    private void processMessage(WebSocket conn, Object message) {
         String sessionId = socketSessionMap.get(conn);
         if (sessionId == null) {
             sendErrorMessage(conn, "not_authenticated", "Não autenticado");
@@ -185,7 +265,9 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
         
         try {
             // Processar mensagem recebida
-            Map<String, Object> request = objectMapper.readValue(message, new com.fasterxml.jackson.core.type.TypeReference<HashMap<String, Object>>() {});
+            Map<String, Object> request = message instanceof String
+                    ? WireFormat.decodeText((String) message)
+                    : WireFormat.of(conn).decode((byte[]) message);
             String type = (String) request.get("type");
             
             if (type == null) {
@@ -216,6 +298,18 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
                 case "send_message":
                     handlers.handleSendMessage(this, conn, request);
                     break;
+                case "typing":
+                    handlers.handleTyping(this, conn, request);
+                    break;
+                case "mark_conversation_read":
+                    handlers.handleMarkConversationRead(this, conn, request);
+                    break;
+                case "get_unread":
+                    handlers.handleGetUnread(this, conn, request);
+                    break;
+                case "search_messages":
+                    handlers.handleSearchMessages(this, conn, request);
+                    break;
                 case "create_group":
                     handlers.handleCreateGroup(this, conn, request);
                     break;
@@ -246,6 +340,23 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
         logger.info("Servidor WebSocket iniciado na porta " + getPort());
     }
     
+    @Override
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        super.stop(timeout, closeMessage);
+        // Aguarda as requisições e os encerramentos de conexão pendentes
+        dispatcher.shutdown(Math.max(timeout, 5000));
+        outbound.shutdown();
+    }
+    
+    /**
+     * Obtém o despachante que executa as requisições das conexões.
+     *
+     * @return Despachante de requisições
+     */
+    public RequestDispatcher getDispatcher() {
+        return dispatcher;
+    }
+    
     /**
      * Envia uma mensagem de erro para o cliente.
      *
@@ -262,42 +373,187 @@ public class WhatsUTWebSocketServer extends WebSocketServer {
     }
     
     /**
-     * Envia um objeto como JSON para o cliente.
+     * Envia um objeto para o cliente, como JSON ou no formato binário negociado pela conexão.
      *
      * @param conn Conexão WebSocket
      * @param object Objeto a ser enviado
      */
     private void sendJsonMessage(WebSocket conn, Object object) {
         try {
-            String json = objectMapper.writeValueAsString(object);
-            conn.send(json);
+            outbound.send(conn, object, OutboundManager.Delivery.RESPONSE, null);
         } catch (JsonProcessingException e) {
-            logger.log(Level.SEVERE, "Erro ao serializar objeto para JSON", e);
+            logger.log(Level.SEVERE, "Erro ao serializar objeto", e);
         }
     }
     
     /**
-     * Obtém a conexão WebSocket de um usuário pelo ID.
+     * Adiciona uma conexão ao registro de conexões do usuário. A inclusão é
+     * feita dentro da operação atômica do mapa, para não competir com a
+     * remoção da última conexão do mesmo usuário em outra thread.
+     *
+     * @param userId ID do usuário
+     * @param conn Conexão aberta
+     */
+    private void addUserConnection(String userId, WebSocket conn) {
+        userConnections.compute(userId, (id, connections) -> {
+            if (connections == null) {
+                connections = ConcurrentHashMap.newKeySet();
+            }
+            connections.add(conn);
+            return connections;
+        });
+    }
+    
+    /**
+     * Remove uma conexão do registro de conexões do usuário.
+     *
+     * @param userId ID do usuário
+     * @param conn Conexão encerrada
+     * @return true se o usuário não tem mais conexões abertas
+     */
+    private boolean removeUserConnection(String userId, WebSocket conn) {
+        boolean[] last = new boolean[1];
+        userConnections.computeIfPresent(userId, (id, connections) -> {
+            connections.remove(conn);
+            last[0] = connections.isEmpty();
+            return last[0] ? null : connections;
+        });
+        return last[0];
+    }
+    
+    /**
+     * Obtém as conexões WebSocket de um usuário pelo ID, uma por dispositivo conectado.
+     *
+     * @param userId ID do usuário
+     * @return Conexões do usuário (vazio se não houver nenhuma)
+     */
+    public Set<WebSocket> getConnectionsByUserId(String userId) {
+        Set<WebSocket> connections = userConnections.get(userId);
+        return connections != null ? Collections.unmodifiableSet(connections) : Collections.emptySet();
+    }
+    
+    /**
+     * Reúne as conexões de vários usuários, para uma única difusão.
+     *
+     * @param userIds IDs dos usuários
+     * @param exclude Conexão que não deve ser incluída (ex.: a que originou a requisição), ou null
+     * @return Conexões abertas dos usuários, sem repetições
+     */
+    public Collection<WebSocket> getConnectionsByUserIds(Collection<String> userIds, WebSocket exclude) {
+        Set<WebSocket> connections = new LinkedHashSet<>();
+        for (String userId : userIds) {
+            for (WebSocket conn : getConnectionsByUserId(userId)) {
+                if (conn != exclude && conn.isOpen()) {
+                    connections.add(conn);
+                }
+            }
+        }
+        return connections;
+    }
+    
+    /**
+     * Envia a mesma notificação para várias conexões. O objeto é serializado
+     * uma única vez em cada formato usado pelas conexões (JSON ou CBOR), e os
+     * mesmos bytes são enfileirados em todas elas; clientes lentos podem deixar de recebê-la e são
+     * avisados para ressincronizar.
+     *
+     * @param object Objeto a ser enviado
+     * @param connections Conexões de destino
+     * @return Número de conexões para as quais o objeto foi enviado
+     */
+    public int broadcastJson(Object object, Collection<WebSocket> connections) {
+        return broadcast(object, connections, OutboundManager.Delivery.NOTIFICATION, null);
+    }
+    
+    /**
+     * Envia o mesmo evento efêmero (ex.: digitação) para várias conexões.
+     * Enquanto aguarda na fila de um cliente lento, o evento é substituído pelo
+     * mais recente com a mesma chave.
+     *
+     * @param object Evento a ser enviado
+     * @param connections Conexões de destino
+     * @param key Chave do evento (ex.: usuário e conversa)
+     * @return Número de conexões para as quais o evento foi enviado
+     */
+    public int broadcastEvent(Object object, Collection<WebSocket> connections, String key) {
+        return broadcast(object, connections, OutboundManager.Delivery.EVENT, key);
+    }
+    
+    private int broadcast(Object object, Collection<WebSocket> connections, OutboundManager.Delivery delivery, String key) {
+        if (connections.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Map<WireFormat, ByteBuffer> payloads;
+        try {
+            payloads = WireFormat.encodeFor(object, connections);
+        } catch (JsonProcessingException e) {
+            logger.log(Level.SEVERE, "Erro ao serializar objeto", e);
+            return 0;
+        }
+        long serialized = System.nanoTime();
+        int sent = outbound.broadcast(connections, payloads, delivery, key);
+        long queued = System.nanoTime();
+        Object type = object instanceof Map ? ((Map<?, ?>) object).get("type") : object.getClass().getSimpleName();
+        broadcastStats.record(type, connections.size(), serialized - start, queued - serialized);
+        return sent;
+    }
+    
+    /**
+     * Obtém as filas de saída das conexões.
+     *
+     * @return Filas de saída
+     */
+    public OutboundManager getOutbound() {
+        return outbound;
+    }
+    
+    /**
+     * Obtém as estatísticas das difusões.
+     *
+     * @return Estatísticas de difusão
+     */
+    public BroadcastStats getBroadcastStats() {
+        return broadcastStats;
+    }
+    
+    /**
+     * Obtém uma conexão WebSocket aberta de um usuário pelo ID.
      *
      * @param userId ID do usuário
      * @return Conexão WebSocket ou null se não encontrada
+     * @see #getConnectionsByUserId(String)
      */
     public WebSocket getConnectionByUserId(String userId) {
-        String sessionId = null;
-        for (Map.Entry<String, String> entry : sessionUserMap.entrySet()) {
-            if (entry.getValue().equals(userId)) {
-                sessionId = entry.getKey();
-                break;
+        for (WebSocket conn : getConnectionsByUserId(userId)) {
+            if (conn.isOpen()) {
+                return conn;
             }
         }
-        
-        if (sessionId != null) {
-            return sessionSocketMap.get(sessionId);
-        }
-        
         return null;
     }
     
+    /**
+     * Obtém o usuário autenticado de uma conexão, pela sessão validada no handshake.
+     *
+     * @param conn Conexão WebSocket
+     * @return ID do usuário ou null se a conexão não estiver autenticada
+     */
+    public String getUserIdByConnection(WebSocket conn) {
+        String sessionId = socketSessionMap.get(conn);
+        return sessionId != null ? sessionUserMap.get(sessionId) : null;
+    }
+    
+    /**
+     * Verifica se o usuário tem alguma conexão WebSocket registrada.
+     *
+     * @param userId ID do usuário
+     * @return true se o usuário está conectado
+     */
+    public boolean isUserConnected(String userId) {
+        return userConnections.containsKey(userId);
+    }
+    
     /**
      * Obtém o serviço de autenticação.
      *
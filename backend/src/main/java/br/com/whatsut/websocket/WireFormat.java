@@ -0,0 +1,145 @@
+package br.com.whatsut.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.java_websocket.WebSocket;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codificação das mensagens trocadas com uma conexão WebSocket, escolhida no
+ * handshake pelo subprotocolo ({@code Sec-WebSocket-Protocol}).
+ * <p>
+ * Clientes que não pedem subprotocolo (como o frontend) ou pedem
+ * {@code whatsut.json} trocam JSON em quadros de texto. Clientes que pedem
+ * {@code whatsut.cbor} trocam CBOR em quadros binários, com os mesmos campos do
+ * JSON: números e booleanos sem formatação textual e textos sem escapes.
+ */
+public enum WireFormat {
+    JSON("whatsut.json", false),
+    CBOR("whatsut.cbor", true);
+    
+    private static final TypeReference<HashMap<String, Object>> REQUEST_TYPE =
+            new TypeReference<HashMap<String, Object>>() {};
+    
+    private final String protocol;
+    private final boolean binary;
+    private final ObjectMapper mapper;
+    
+    WireFormat(String protocol, boolean binary) {
+        this.protocol = protocol;
+        this.binary = binary;
+        this.mapper = binary ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+    }
+    
+    /**
+     * Obtém o nome do subprotocolo que seleciona o formato.
+     *
+     * @return Nome do subprotocolo
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+    
+    /**
+     * Indica se as mensagens usam quadros binários.
+     *
+     * @return true para CBOR
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+    
+    /**
+     * Codifica um objeto neste formato.
+     *
+     * @param object Objeto
+     * @return Conteúdo codificado; pode ser compartilhado entre conexões e não
+     *         deve ser alterado (a biblioteca lê o array do buffer diretamente)
+     * @throws JsonProcessingException Erro ao serializar o objeto
+     */
+    public ByteBuffer encode(Object object) throws JsonProcessingException {
+        return ByteBuffer.wrap(mapper.writeValueAsBytes(object));
+    }
+    
+    /**
+     * Decodifica uma requisição neste formato.
+     *
+     * @param data Conteúdo recebido
+     * @return Campos da requisição
+     * @throws IOException Conteúdo inválido
+     */
+    public Map<String, Object> decode(byte[] data) throws IOException {
+        return mapper.readValue(data, REQUEST_TYPE);
+    }
+    
+    /**
+     * Decodifica uma requisição JSON recebida em um quadro de texto.
+     *
+     * @param text Conteúdo recebido
+     * @return Campos da requisição
+     * @throws IOException Conteúdo inválido
+     */
+    public static Map<String, Object> decodeText(String text) throws IOException {
+        return JSON.mapper.readValue(text, REQUEST_TYPE);
+    }
+    
+    /**
+     * Obtém o formato negociado por uma conexão.
+     *
+     * @param conn Conexão WebSocket
+     * @return Formato da conexão (JSON se nenhum subprotocolo foi negociado)
+     */
+    public static WireFormat of(WebSocket conn) {
+        IProtocol negotiated = conn.getProtocol();
+        if (negotiated != null && CBOR.protocol.equals(negotiated.getProvidedProtocol())) {
+            return CBOR;
+        }
+        return JSON;
+    }
+    
+    /**
+     * Codifica um objeto uma única vez em cada formato usado pelas conexões.
+     *
+     * @param object Objeto
+     * @param connections Conexões de destino
+     * @return Conteúdo codificado por formato
+     * @throws JsonProcessingException Erro ao serializar o objeto
+     */
+    public static Map<WireFormat, ByteBuffer> encodeFor(Object object, Collection<WebSocket> connections)
+            throws JsonProcessingException {
+        Map<WireFormat, ByteBuffer> payloads = new EnumMap<>(WireFormat.class);
+        for (WebSocket conn : connections) {
+            WireFormat format = of(conn);
+            if (!payloads.containsKey(format)) {
+                payloads.put(format, format.encode(object));
+            }
+        }
+        return payloads;
+    }
+    
+    /**
+     * Subprotocolos aceitos no handshake, em ordem de preferência; o último
+     * aceita clientes que não pedem subprotocolo.
+     *
+     * @return Subprotocolos aceitos
+     */
+    public static List<IProtocol> protocols() {
+        List<IProtocol> protocols = new ArrayList<>();
+        protocols.add(new Protocol(CBOR.protocol));
+        protocols.add(new Protocol(JSON.protocol));
+        protocols.add(new Protocol(""));
+        return protocols;
+    }
+}
@@ -0,0 +1,123 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.dao.MessageDAO;
+import br.com.whatsut.model.PrivateMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark de contenção do MessageDAO.
+ * <p>
+ * Mede a vazão de gravação de mensagens com um número crescente de remetentes
+ * concorrentes em dois cenários: cada remetente em uma conversa própria (as
+ * gravações devem escalar com o número de threads) e todos os remetentes na
+ * mesma conversa (as gravações são serializadas pelo lock da conversa).
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.MessageDAOContentionBenchmark
+ * [mensagensPorThread] [threads...]}
+ */
+public class MessageDAOContentionBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        int messagesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int[] threadCounts = {1, 2, 4, 8, 16};
+        if (args.length > 1) {
+            threadCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        
+        // Usar um diretório temporário para não alterar os dados do servidor
+        Path dataDirectory = Files.createTempDirectory("whatsut-bench");
+        System.setProperty("storage.base.path", dataDirectory.toString());
+        
+        System.out.println("Mensagens por thread: " + messagesPerThread);
+        System.out.println(String.format("%-8s %22s %22s", "threads", "conversas distintas", "mesma conversa"));
+        try {
+            // Aquecimento da JVM
+            run(dataDirectory, 2, messagesPerThread / 4, false);
+            
+            for (int threads : threadCounts) {
+                double distinct = run(dataDirectory, threads, messagesPerThread, false);
+                double shared = run(dataDirectory, threads, messagesPerThread, true);
+                System.out.println(String.format("%-8d %18.0f msg/s %18.0f msg/s", threads, distinct, shared));
+            }
+        } finally {
+            deleteRecursively(dataDirectory);
+        }
+    }
+    
+    /**
+     * Executa uma rodada do benchmark em um diretório de dados vazio.
+     *
+     * @param dataDirectory Diretório de dados
+     * @param threads Número de remetentes concorrentes
+     * @param messagesPerThread Mensagens enviadas por remetente
+     * @param sharedConversation true para todos os remetentes usarem a mesma conversa
+     * @return Vazão em mensagens por segundo
+     */
+    private static double run(Path dataDirectory, int threads, int messagesPerThread,
+                              boolean sharedConversation) throws Exception {
+        deleteRecursively(dataDirectory);
+        Files.createDirectories(dataDirectory);
+        MessageDAO messageDAO = new MessageDAO();
+        
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            String senderId = "sender-" + t;
+            String receiverId = sharedConversation ? "receiver" : "receiver-" + t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        PrivateMessage message = new PrivateMessage();
+                        message.setMessageId(senderId + "-" + i);
+                        message.setSenderId(sharedConversation ? "shared" : senderId);
+                        message.setReceiverId(receiverId);
+                        message.setContent("Mensagem de benchmark " + i);
+                        message.setTimestamp(System.currentTimeMillis());
+                        if (!messageDAO.savePrivateMessage(message)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        messageDAO.close();
+        
+        if (failures.get() > 0) {
+            System.err.println("Falhas de gravação: " + failures.get());
+        }
+        return (double) threads * messagesPerThread / (elapsed / 1_000_000_000.0);
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.dao.search.MessageSearchIndex;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmark do índice de busca das mensagens.
+ * <p>
+ * Indexa mensagens com textos de tamanhos variados, distribuídas entre
+ * conversas, e mede o tempo de indexação, o tamanho do arquivo do índice, o
+ * tempo para gravá-lo e lê-lo e a latência (mediana e p99) de consultas típicas
+ * — um termo raro, um termo frequente, dois termos e uma frase — restritas às
+ * conversas de um usuário, como faz o serviço de mensagens.
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -Xmx2g -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.MessageSearchBenchmark
+ * [mensagens] [conversas] [conversasDoUsuario] [consultas]}
+ */
+public class MessageSearchBenchmark {
+    
+    private static final String[] WORDS = {
+        "oi", "tudo", "bem", "você", "vamos", "reunião", "amanhã", "às", "horas", "projeto",
+        "entrega", "sistemas", "distribuídos", "servidor", "cliente", "mensagem", "grupo", "arquivo",
+        "obrigado", "combinado", "depois", "agora", "não", "sim", "talvez", "trabalho", "prova",
+        "professor", "slides", "código", "teste", "funcionou", "erro", "conexão", "rede", "ótimo",
+        "de", "que", "e", "o", "a", "do", "da", "em", "um", "para", "com", "uma", "os", "no"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int conversationCount = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int userConversations = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        
+        Random random = new Random(42);
+        MessageSearchIndex index = new MessageSearchIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            String conversationKey = "private_" + random.nextInt(conversationCount);
+            // Um termo raro a cada mil mensagens
+            String content = sentence(random) + (i % 1000 == 0 ? " cronograma" : "");
+            index.add(conversationKey, "m" + i, 1700000000000L + i * 1000L, content, i);
+        }
+        double indexSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Mensagens: %d, conversas: %d, termos: %d, indexação: %.1f s (%.0f msg/s)",
+                messageCount, conversationCount, index.getTermCount(), indexSeconds, messageCount / indexSeconds));
+        
+        File file = File.createTempFile("whatsut-search", ".bin");
+        try {
+            start = System.nanoTime();
+            index.save(file);
+            double saveMillis = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            index = MessageSearchIndex.load(file);
+            double loadMillis = (System.nanoTime() - start) / 1e6;
+            System.out.println(String.format("Arquivo do índice: %d bytes, gravação: %.0f ms, leitura: %.0f ms",
+                    file.length(), saveMillis, loadMillis));
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+        
+        Set<String> conversations = new HashSet<>();
+        while (conversations.size() < Math.min(userConversations, conversationCount)) {
+            conversations.add("private_" + random.nextInt(conversationCount));
+        }
+        
+        String[][] cases = {
+            {"termo raro", "cronograma"},
+            {"termo frequente", "reuniao"},
+            {"dois termos", "reuniao amanha"},
+            {"frase", "\"reuniao amanha\""},
+            {"sem filtro", "projeto entrega"}
+        };
+        System.out.println(String.format("%-16s %10s %10s %10s", "consulta", "mediana", "p99", "resultados"));
+        for (String[] query : cases) {
+            Set<String> filter = query[0].equals("sem filtro") ? null : conversations;
+            // Aquecimento da JVM
+            for (int q = 0; q < queries; q++) {
+                index.search(query[1], filter, 20, 0);
+            }
+            long[] times = new long[queries];
+            int results = 0;
+            for (int q = 0; q < queries; q++) {
+                long queryStart = System.nanoTime();
+                results = index.search(query[1], filter, 20, 0).size();
+                times[q] = System.nanoTime() - queryStart;
+            }
+            Arrays.sort(times);
+            System.out.println(String.format("%-16s %8.2fms %8.2fms %10d", query[0], times[queries / 2] / 1e6,
+                    times[Math.min(queries - 1, queries * 99 / 100)] / 1e6, results));
+        }
+    }
+    
+    /**
+     * Texto de 1 a 40 palavras, com distribuição concentrada em mensagens curtas.
+     */
+    private static String sentence(Random random) {
+        int words = 1 + (int) Math.min(39, Math.abs(random.nextGaussian()) * 10);
+        List<String> text = new ArrayList<>(words);
+        for (int w = 0; w < words; w++) {
+            text.add(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return String.join(" ", text);
+    }
+}
@@ -0,0 +1,203 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.dao.AbstractJsonDAO;
+import br.com.whatsut.dao.DAOFactory;
+import br.com.whatsut.dao.GroupDAO;
+import br.com.whatsut.dao.GroupMemberDAO;
+import br.com.whatsut.dao.MessageDAO;
+import br.com.whatsut.dao.SessionDAO;
+import br.com.whatsut.dao.UserDAO;
+import br.com.whatsut.model.Group;
+import br.com.whatsut.model.GroupMember;
+import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark de inicialização da camada de persistência.
+ * <p>
+ * Compara o tempo de inicialização e a memória ocupada pelos DAOs em dois
+ * cenários: cada serviço criando os seus próprios DAOs (como os quatro serviços
+ * RMI e o servidor WebSocket faziam: 5 UserDAO, 2 SessionDAO, 3 GroupDAO,
+ * 3 GroupMemberDAO e 2 MessageDAO) e todos usando os DAOs compartilhados de
+ * {@link DAOFactory}. Cada cenário é medido com os motores "json" e "wal".
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.RepositoryStartupBenchmark
+ * [usuarios] [grupos] [mensagensPorConversa]}
+ */
+public class RepositoryStartupBenchmark {
+    
+    private static final int MEMBERS_PER_GROUP = 20;
+    
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int groups = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int messagesPerConversation = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        
+        // Usar um diretório temporário para não alterar os dados do servidor
+        Path dataDirectory = Files.createTempDirectory("whatsut-bench");
+        System.setProperty("storage.base.path", dataDirectory.toString());
+        try {
+            System.setProperty("storage.engine", "wal");
+            populate(users, groups, messagesPerConversation);
+            
+            System.out.println("Usuários: " + users + ", grupos: " + groups + " (" + MEMBERS_PER_GROUP
+                    + " membros), mensagens por conversa: " + messagesPerConversation);
+            System.out.println(String.format("%-6s %-14s %12s %12s", "motor", "DAOs", "tempo (ms)", "heap (MB)"));
+            
+            // Aquecimento da JVM
+            measure(false);
+            
+            for (String engine : new String[] {"json", "wal"}) {
+                System.setProperty("storage.engine", engine);
+                for (boolean shared : new boolean[] {false, true}) {
+                    long[] result = measure(shared);
+                    System.out.println(String.format("%-6s %-14s %12d %12.1f", engine,
+                            shared ? "compartilhados" : "por serviço", result[0], result[1] / (1024.0 * 1024.0)));
+                }
+            }
+        } finally {
+            deleteRecursively(dataDirectory);
+        }
+    }
+    
+    /**
+     * Grava a massa de dados: usuários, grupos com membros, uma conversa
+     * privada por usuário e as mensagens de cada grupo.
+     */
+    private static void populate(int users, int groups, int messagesPerConversation) {
+        UserDAO userDAO = DAOFactory.getUserDAO();
+        GroupDAO groupDAO = DAOFactory.getGroupDAO();
+        GroupMemberDAO groupMemberDAO = DAOFactory.getGroupMemberDAO();
+        MessageDAO messageDAO = DAOFactory.getMessageDAO();
+        
+        for (int u = 0; u < users; u++) {
+            User user = new User("user-" + u, "user" + u, "Usuário " + u, "user" + u + "@whatsut.local");
+            userDAO.save(user);
+            
+            String peerId = "user-" + ((u + 1) % users);
+            for (int m = 0; m < messagesPerConversation; m++) {
+                PrivateMessage message = new PrivateMessage();
+                message.setMessageId("p-" + u + "-" + m);
+                message.setSenderId(m % 2 == 0 ? user.getUserId() : peerId);
+                message.setReceiverId(m % 2 == 0 ? peerId : user.getUserId());
+                message.setContent("Mensagem privada " + m);
+                message.setTimestamp(System.currentTimeMillis());
+                messageDAO.savePrivateMessage(message);
+            }
+        }
+        
+        for (int g = 0; g < groups; g++) {
+            String groupId = "group-" + g;
+            groupDAO.save(new Group(groupId, "Grupo " + g, "Grupo de benchmark", "user-" + g));
+            List<String> memberIds = new ArrayList<>();
+            for (int m = 0; m < MEMBERS_PER_GROUP; m++) {
+                String userId = "user-" + ((g + m) % users);
+                GroupMember member = new GroupMember();
+                member.setMemberId(groupId + ":" + userId);
+                member.setGroupId(groupId);
+                member.setUserId(userId);
+                member.setJoinedAt(System.currentTimeMillis());
+                groupMemberDAO.save(member);
+                memberIds.add(userId);
+            }
+            for (int m = 0; m < messagesPerConversation; m++) {
+                GroupMessage message = new GroupMessage();
+                message.setMessageId("g-" + g + "-" + m);
+                message.setSenderId(memberIds.get(m % memberIds.size()));
+                message.setGroupId(groupId);
+                message.setContent("Mensagem de grupo " + m);
+                message.setTimestamp(System.currentTimeMillis());
+                messageDAO.saveGroupMessage(message);
+            }
+        }
+        
+        DAOFactory.closeAll();
+    }
+    
+    /**
+     * Inicializa os DAOs de todos os componentes do servidor e mede o tempo e
+     * a memória retida por eles.
+     *
+     * @param shared true para usar os DAOs compartilhados
+     * @return Tempo em milissegundos e memória em bytes
+     */
+    private static long[] measure(boolean shared) {
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        
+        List<Object> daos = new ArrayList<>();
+        if (shared) {
+            daos.add(DAOFactory.getUserDAO());
+            daos.add(DAOFactory.getSessionDAO());
+            daos.add(DAOFactory.getGroupDAO());
+            daos.add(DAOFactory.getGroupMemberDAO());
+            daos.add(DAOFactory.getMessageDAO());
+        } else {
+            // AuthServiceImpl e UserServiceImpl
+            for (int i = 0; i < 2; i++) {
+                daos.add(new UserDAO());
+                daos.add(new SessionDAO());
+            }
+            // GroupServiceImpl, MessageServiceImpl e WhatsUTWebSocketServer
+            for (int i = 0; i < 3; i++) {
+                daos.add(new UserDAO());
+                daos.add(new GroupDAO());
+                daos.add(new GroupMemberDAO());
+            }
+            // MessageServiceImpl e WhatsUTWebSocketServer
+            for (int i = 0; i < 2; i++) {
+                daos.add(new MessageDAO());
+            }
+        }
+        // Carregar os membros dos grupos, como o envio de mensagens de grupo faz
+        for (GroupMemberDAO groupMemberDAO : daos.stream().filter(GroupMemberDAO.class::isInstance)
+                .map(GroupMemberDAO.class::cast).collect(Collectors.toList())) {
+            groupMemberDAO.findByGroupId("group-0");
+        }
+        
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        long retained = usedHeap() - heapBefore;
+        
+        if (shared) {
+            DAOFactory.closeAll();
+        } else {
+            for (Object dao : daos) {
+                if (dao instanceof MessageDAO) {
+                    ((MessageDAO) dao).close();
+                } else {
+                    ((AbstractJsonDAO<?, ?>) dao).close();
+                }
+            }
+        }
+        return new long[] {elapsed, retained};
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.dao.storage.AppendLog;
+import br.com.whatsut.dao.storage.StorageCodec;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.Message;
+import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.User;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark dos formatos de codificação dos arquivos de dados.
+ * <p>
+ * Gera uma massa de dados semelhante à do servidor — o arquivo de usuários
+ * (um documento inteiro, como os snapshots das entidades) e um log de
+ * mensagens privadas e de grupo com textos de tamanhos variados — e mede, para
+ * JSON (indentado nos documentos, como antes), Smile e CBOR, o tamanho em
+ * disco e o tempo de codificação (escrita) e de decodificação (leitura) dos
+ * objetos. Os tempos são a mediana de várias rodadas, sem contar o disco.
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.StorageFormatBenchmark
+ * [usuarios] [mensagens] [rodadas]}
+ */
+public class StorageFormatBenchmark {
+    
+    private static final String[] WORDS = {
+        "oi", "tudo", "bem", "você", "vamos", "reunião", "amanhã", "às", "horas", "projeto",
+        "entrega", "sistemas", "distribuídos", "servidor", "cliente", "mensagem", "grupo", "arquivo",
+        "obrigado", "combinado", "depois", "agora", "não", "sim", "talvez", "trabalho", "prova",
+        "professor", "slides", "código", "teste", "funcionou", "erro", "conexão", "rede", "ótimo"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 7;
+        
+        Random random = new Random(42);
+        List<User> users = createUsers(userCount);
+        List<Message> messages = createMessages(messageCount, userCount, random);
+        
+        System.out.println("Usuários: " + userCount + ", mensagens: " + messageCount + ", rodadas: " + rounds);
+        System.out.println(String.format("%-6s %14s %14s %12s %12s %12s %12s", "formato", "usuários (B)",
+                "mensagens (B)", "escrita (ms)", "leitura (ms)", "msg/s escr.", "msg/s leit."));
+        
+        for (StorageFormat format : StorageFormat.values()) {
+            StorageCodec codec = new StorageCodec(format, mapper -> {
+                // Mesma configuração do MessageDAO
+                mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+                mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            });
+            JavaType userListType = codec.getMapper().getTypeFactory().constructCollectionType(List.class, User.class);
+            
+            // Aquecimento da JVM
+            Encoded encoded = encode(codec, users, messages);
+            decode(codec, encoded, userListType, messages);
+            
+            long[] writeTimes = new long[rounds];
+            long[] readTimes = new long[rounds];
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                encoded = encode(codec, users, messages);
+                writeTimes[r] = System.nanoTime() - start;
+                
+                start = System.nanoTime();
+                decode(codec, encoded, userListType, messages);
+                readTimes[r] = System.nanoTime() - start;
+            }
+            
+            long logSize = logFileSize(encoded.records);
+            double writeMillis = median(writeTimes) / 1_000_000.0;
+            double readMillis = median(readTimes) / 1_000_000.0;
+            System.out.println(String.format("%-6s %14d %14d %12.1f %12.1f %12.0f %12.0f", format,
+                    encoded.document.length, logSize, writeMillis, readMillis,
+                    messageCount * 1000.0 / Math.max(0.001, writeMillis),
+                    messageCount * 1000.0 / Math.max(0.001, readMillis)));
+        }
+    }
+    
+    /**
+     * Conteúdo codificado de uma rodada: o documento de usuários e um registro
+     * por mensagem.
+     */
+    private static final class Encoded {
+        private byte[] document;
+        private final List<byte[]> records = new ArrayList<>();
+    }
+    
+    private static Encoded encode(StorageCodec codec, List<User> users, List<Message> messages) throws Exception {
+        Encoded encoded = new Encoded();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeDocument(out, users);
+        encoded.document = out.toByteArray();
+        for (Message message : messages) {
+            encoded.records.add(codec.encode(message));
+        }
+        return encoded;
+    }
+    
+    private static void decode(StorageCodec codec, Encoded encoded, JavaType userListType,
+                               List<Message> messages) throws Exception {
+        List<User> users = codec.readValue(encoded.document, userListType);
+        if (users.isEmpty() && !messages.isEmpty()) {
+            throw new IllegalStateException("Documento de usuários vazio");
+        }
+        for (int i = 0; i < encoded.records.size(); i++) {
+            codec.readValue(encoded.records.get(i), messages.get(i).getClass());
+        }
+    }
+    
+    /**
+     * Grava os registros como um log append-only e obtém o tamanho do arquivo
+     * (inclui o checksum e o enquadramento de cada registro).
+     */
+    private static long logFileSize(List<byte[]> records) throws Exception {
+        File file = File.createTempFile("whatsut-bench", ".log");
+        try {
+            AppendLog.rewrite(file, records);
+            return file.length();
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+    
+    private static List<User> createUsers(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int u = 0; u < count; u++) {
+            User user = new User("user-" + u, "user" + u, "Usuário " + u, "user" + u + "@whatsut.local");
+            user.setPasswordHash("$2a$10$" + Long.toHexString(u * 2654435761L) + "abcdefghijklmnopqrstuv");
+            user.setLastSeen(1700000000000L + u * 1000L);
+            users.add(user);
+        }
+        return users;
+    }
+    
+    private static List<Message> createMessages(int count, int userCount, Random random) {
+        List<Message> messages = new ArrayList<>(count);
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < count; i++) {
+            String senderId = "user-" + random.nextInt(userCount);
+            Message message;
+            if (i % 3 == 0) {
+                GroupMessage groupMessage = new GroupMessage();
+                groupMessage.setGroupId("group-" + random.nextInt(200));
+                message = groupMessage;
+            } else {
+                PrivateMessage privateMessage = new PrivateMessage();
+                privateMessage.setReceiverId("user-" + random.nextInt(userCount));
+                message = privateMessage;
+            }
+            message.setMessageId(Long.toHexString(timestamp) + "-" + Integer.toHexString(random.nextInt()));
+            message.setSenderId(senderId);
+            message.setContent(sentence(random));
+            timestamp += random.nextInt(5000);
+            message.setTimestamp(timestamp);
+            if (i % 50 == 0) {
+                message.setFileUrl("files/" + message.getMessageId() + ".pdf");
+                message.setFileType("application/pdf");
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+    
+    /**
+     * Texto de 1 a 40 palavras, com distribuição concentrada em mensagens curtas.
+     */
+    private static String sentence(Random random) {
+        int words = 1 + (int) Math.min(39, Math.abs(random.nextGaussian()) * 10);
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+    
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
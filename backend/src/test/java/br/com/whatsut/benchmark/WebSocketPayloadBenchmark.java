@@ -0,0 +1,242 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.Message;
+import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.User;
+import br.com.whatsut.websocket.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Benchmark da codificação das mensagens WebSocket.
+ * <p>
+ * Monta respostas semelhantes às do servidor — a lista de usuários, uma página
+ * de mensagens, a lista de conversas e a notificação de uma nova mensagem — e
+ * mede, para JSON e CBOR, com e sem permessage-deflate, o tamanho enviado pela
+ * rede e o tempo de codificação no servidor (serialização e compressão) e de
+ * decodificação no cliente (descompressão e leitura). A compressão segue a
+ * negociada pelo servidor: deflate sem cabeçalho, com os 4 bytes finais do
+ * SYNC_FLUSH removidos e sem contexto entre mensagens (no_context_takeover).
+ * Os tempos são a mediana de várias rodadas.
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.WebSocketPayloadBenchmark
+ * [usuarios] [mensagens] [rodadas]}
+ */
+public class WebSocketPayloadBenchmark {
+    
+    private static final String[] WORDS = {
+        "oi", "tudo", "bem", "você", "vamos", "reunião", "amanhã", "às", "horas", "projeto",
+        "entrega", "sistemas", "distribuídos", "servidor", "cliente", "mensagem", "grupo", "arquivo",
+        "obrigado", "combinado", "depois", "agora", "não", "sim", "talvez", "trabalho", "prova",
+        "professor", "slides", "código", "teste", "funcionou", "erro", "conexão", "rede", "ótimo"
+    };
+    
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int messageCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        
+        Random random = new Random(42);
+        Map<String, Map<String, Object>> payloads = new LinkedHashMap<>();
+        payloads.put("users_list", usersList(userCount));
+        payloads.put("messages", messagesPage(messageCount, userCount, random));
+        payloads.put("conversations", conversations(messageCount, random));
+        payloads.put("new_message", newMessage(userCount, random));
+        
+        System.out.println("Usuários: " + userCount + ", mensagens por página: " + messageCount + ", rodadas: " + rounds);
+        System.out.println(String.format("%-14s %-12s %10s %8s %14s %14s", "conteúdo", "formato", "bytes", "% JSON",
+                "codificação µs", "leitura µs"));
+        for (Map.Entry<String, Map<String, Object>> payload : payloads.entrySet()) {
+            int jsonSize = WireFormat.JSON.encode(payload.getValue()).remaining();
+            for (WireFormat format : WireFormat.values()) {
+                for (boolean deflate : new boolean[]{false, true}) {
+                    measure(payload.getKey(), payload.getValue(), format, deflate, jsonSize, rounds);
+                }
+            }
+        }
+    }
+    
+    private static void measure(String name, Map<String, Object> payload, WireFormat format, boolean deflate,
+            int jsonSize, int rounds) throws Exception {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        Inflater inflater = new Inflater(true);
+        long[] encodeTimes = new long[rounds];
+        long[] decodeTimes = new long[rounds];
+        int size = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            ByteBuffer encoded = format.encode(payload);
+            byte[] sent = new byte[encoded.remaining()];
+            encoded.get(sent);
+            if (deflate) {
+                sent = compress(deflater, sent);
+            }
+            encodeTimes[r] = System.nanoTime() - start;
+            size = sent.length;
+            
+            start = System.nanoTime();
+            byte[] received = deflate ? decompress(inflater, sent) : sent;
+            if (format.isBinary()) {
+                format.decode(received);
+            } else {
+                WireFormat.decodeText(new String(received, StandardCharsets.UTF_8));
+            }
+            decodeTimes[r] = System.nanoTime() - start;
+        }
+        deflater.end();
+        inflater.end();
+        System.out.println(String.format("%-14s %-12s %10d %7.0f%% %14.1f %14.1f", name,
+                format.getProtocol().substring(format.getProtocol().indexOf('.') + 1) + (deflate ? "+deflate" : ""),
+                size, 100.0 * size / jsonSize, median(encodeTimes) / 1e3, median(decodeTimes) / 1e3));
+    }
+    
+    private static byte[] compress(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        byte[] compressed = out.toByteArray();
+        // permessage-deflate remove o final 00 00 FF FF do SYNC_FLUSH
+        return Arrays.copyOf(compressed, compressed.length - 4);
+    }
+    
+    private static byte[] decompress(Inflater inflater, byte[] data) throws DataFormatException {
+        inflater.reset();
+        byte[] input = Arrays.copyOf(data, data.length + 4);
+        input[data.length + 2] = (byte) 0xFF;
+        input[data.length + 3] = (byte) 0xFF;
+        inflater.setInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = inflater.inflate(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+    
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+    
+    /**
+     * Resposta de {@code get_users}.
+     */
+    private static Map<String, Object> usersList(int count) {
+        List<User> users = new ArrayList<>(count);
+        for (int u = 0; u < count; u++) {
+            User user = new User("user-" + u, "user" + u, "Usuário " + u, "user" + u + "@whatsut.local");
+            user.setOnline(u % 3 == 0);
+            user.setLastSeen(1700000000000L + u * 1000L);
+            users.add(user);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", "users_list");
+        response.put("users", users);
+        return response;
+    }
+    
+    /**
+     * Resposta de {@code get_messages}.
+     */
+    private static Map<String, Object> messagesPage(int count, int userCount, Random random) {
+        List<Message> messages = new ArrayList<>(count);
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < count; i++) {
+            messages.add(message(userCount, random, timestamp));
+            timestamp += random.nextInt(60000);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", "messages");
+        response.put("isGroup", false);
+        response.put("targetId", "user-1");
+        response.put("messages", messages);
+        response.put("hasMore", true);
+        return response;
+    }
+    
+    /**
+     * Resposta de {@code get_conversations}, no formato montado pelos handlers.
+     */
+    private static Map<String, Object> conversations(int count, Random random) {
+        List<Map<String, Object>> privateConversations = new ArrayList<>(count);
+        for (int c = 0; c < count; c++) {
+            Map<String, Object> conversation = new HashMap<>();
+            conversation.put("userId", "user-" + c);
+            conversation.put("displayName", "Usuário " + c);
+            conversation.put("username", "user" + c);
+            conversation.put("online", c % 3 == 0);
+            conversation.put("lastSeen", 1700000000000L + c * 1000L);
+            conversation.put("lastMessage", sentence(random));
+            conversation.put("timestamp", 1700000000000L + c * 60000L);
+            conversation.put("unread", c % 4 == 0);
+            conversation.put("unreadCount", c % 4 == 0 ? c % 7 : 0);
+            privateConversations.add(conversation);
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", "conversations");
+        response.put("privateConversations", privateConversations);
+        response.put("groupConversations", new ArrayList<>());
+        response.put("offset", 0);
+        response.put("hasMore", false);
+        return response;
+    }
+    
+    /**
+     * Notificação {@code new_private_message}.
+     */
+    private static Map<String, Object> newMessage(int userCount, Random random) {
+        Map<String, Object> notification = new HashMap<>();
+        notification.put("type", "new_private_message");
+        notification.put("message", message(userCount, random, 1700000000000L));
+        return notification;
+    }
+    
+    private static Message message(int userCount, Random random, long timestamp) {
+        Message message;
+        if (random.nextInt(3) == 0) {
+            message = new GroupMessage();
+            ((GroupMessage) message).setGroupId("group-" + random.nextInt(20));
+        } else {
+            message = new PrivateMessage();
+            ((PrivateMessage) message).setReceiverId("user-" + random.nextInt(userCount));
+        }
+        message.setMessageId(Long.toHexString(timestamp) + "-" + Integer.toHexString(random.nextInt()));
+        message.setSenderId("user-" + random.nextInt(userCount));
+        message.setContent(sentence(random));
+        message.setTimestamp(timestamp);
+        return message;
+    }
+    
+    private static String sentence(Random random) {
+        int words = 3 + random.nextInt(15);
+        StringBuilder text = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package br.com.whatsut.benchmark;
+
+import br.com.whatsut.dao.GroupMemberDAO;
+import br.com.whatsut.model.GroupMember;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark das políticas de durabilidade do motor "wal".
+ * <p>
+ * Várias threads gravam membros de grupo ao mesmo tempo (como uma rajada de
+ * entradas em grupos) com cada política — sync, group-commit e async — e o
+ * benchmark mede as gravações por segundo. Em sync cada gravação faz o seu
+ * próprio fsync; em group-commit as gravações concorrentes dividem um fsync;
+ * em async nenhuma gravação espera o disco.
+ * <p>
+ * Uso, após {@code mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt}:
+ * {@code java -cp target/classes:target/test-classes:$(cat target/cp.txt) br.com.whatsut.benchmark.WriteDurabilityBenchmark
+ * [gravacoesPorThread] [threads...]}
+ */
+public class WriteDurabilityBenchmark {
+    
+    private static final String[] DURABILITIES = {"sync", "group-commit", "async"};
+    
+    public static void main(String[] args) throws Exception {
+        int writesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            threadCounts.add(Integer.parseInt(args[i]));
+        }
+        if (threadCounts.isEmpty()) {
+            threadCounts.add(1);
+            threadCounts.add(16);
+            threadCounts.add(64);
+        }
+        
+        System.setProperty("storage.engine", "wal");
+        System.out.println("Gravações por thread: " + writesPerThread);
+        System.out.println(String.format("%-14s %8s %12s %16s", "durabilidade", "threads", "tempo (ms)", "gravações/s"));
+        
+        // Aquecimento da JVM
+        run("async", 4, 200);
+        
+        for (String durability : DURABILITIES) {
+            for (int threads : threadCounts) {
+                long elapsed = run(durability, threads, writesPerThread);
+                long writes = (long) threads * writesPerThread;
+                System.out.println(String.format("%-14s %8d %12d %16.0f", durability, threads, elapsed,
+                        writes * 1000.0 / Math.max(1, elapsed)));
+            }
+        }
+    }
+    
+    /**
+     * Grava os membros com uma política de durabilidade, em um diretório novo.
+     *
+     * @return Tempo em milissegundos até a última gravação retornar
+     */
+    private static long run(String durability, int threads, int writesPerThread) throws Exception {
+        Path dataDirectory = Files.createTempDirectory("whatsut-bench");
+        System.setProperty("storage.base.path", dataDirectory.toString());
+        System.setProperty("storage.group_members.durability", durability);
+        GroupMemberDAO groupMemberDAO = new GroupMemberDAO();
+        try {
+            AtomicInteger failures = new AtomicInteger();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String userId = "user-" + t;
+                workers.add(new Thread(() -> {
+                    for (int i = 0; i < writesPerThread; i++) {
+                        String groupId = "group-" + i;
+                        GroupMember member = new GroupMember();
+                        member.setMemberId(groupId + ":" + userId);
+                        member.setGroupId(groupId);
+                        member.setUserId(userId);
+                        member.setJoinedAt(System.currentTimeMillis());
+                        if (!groupMemberDAO.save(member)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            
+            long start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+            
+            if (failures.get() > 0) {
+                System.out.println("Falhas de gravação: " + failures.get());
+            }
+            return elapsed;
+        } finally {
+            groupMemberDAO.close();
+            deleteRecursively(dataDirectory);
+        }
+    }
+    
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package br.com.whatsut.dao;
+
+import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.UnreadMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Estado de leitura do {@link MessageDAO}: marcas "lido até" por conversa,
+ * contagem de não lidas das conversas privadas (caixa de não lidas) e dos
+ * grupos (última posição menos a marca do membro), descarte do estado de
+ * quem deixa um grupo e conversão do estado de leitura do formato anterior.
+ */
+class MessageDAOReadStateTest {
+    private static final List<String> NO_GROUPS = List.of();
+    
+    @TempDir
+    File directory;
+    
+    private MessageDAO dao;
+    
+    @BeforeEach
+    void openDao() {
+        System.setProperty("storage.base.path", directory.getPath());
+        dao = new MessageDAO();
+    }
+    
+    @AfterEach
+    void closeDao() {
+        dao.close();
+        System.clearProperty("storage.base.path");
+    }
+    
+    @Test
+    void privateUnreadCountFollowsReadWatermark() {
+        String key = MessageDAO.getPrivateConversationKey("u1", "u2");
+        sendPrivate("p1", "u1", "u2");
+        sendPrivate("p2", "u1", "u2");
+        sendPrivate("p3", "u1", "u2");
+        assertEquals(3, dao.getUnreadCount("u2", NO_GROUPS));
+        assertEquals(0, dao.getUnreadCount("u1", NO_GROUPS));
+        
+        assertTrue(dao.markConversationRead("u2", key, "p2"));
+        assertEquals(1, dao.getUnreadCount("u2", key));
+        assertEquals(List.of("p3"), messageIds(dao.getUnreadMessages("u2", NO_GROUPS, 10, 0)));
+        
+        // A marca nunca retrocede
+        assertTrue(dao.markConversationRead("u2", key, "p1"));
+        assertEquals(1, dao.getReadPosition("u2", key));
+        assertEquals(1, dao.getUnreadCount("u2", NO_GROUPS));
+    }
+    
+    @Test
+    void replyMarksEarlierMessagesAsReadBySender() {
+        String key = MessageDAO.getPrivateConversationKey("u1", "u2");
+        sendPrivate("p1", "u1", "u2");
+        sendPrivate("p2", "u1", "u2");
+        sendPrivate("p3", "u2", "u1");
+        
+        assertEquals(0, dao.getUnreadCount("u2", key));
+        assertEquals(1, dao.getUnreadCount("u1", key));
+    }
+    
+    @Test
+    void groupUnreadCountIsLastPositionMinusWatermark() {
+        String key = MessageDAO.getGroupConversationKey("g1");
+        List<String> groups = List.of("g1");
+        sendGroup("g-1", "u1", "g1");
+        sendGroup("g-2", "u1", "g1");
+        assertEquals(2, dao.getUnreadCount("u2", groups));
+        assertEquals(0, dao.getUnreadCount("u1", groups));
+        
+        // Quem entra depois não recebe o histórico como não lido
+        assertTrue(dao.markGroupHistoryRead("u3", "g1"));
+        assertEquals(0, dao.getUnreadCount("u3", groups));
+        
+        sendGroup("g-3", "u1", "g1");
+        assertEquals(1, dao.getUnreadCount("u3", groups));
+        assertEquals(Map.of(key, 3), dao.getUnreadCountsByConversation("u2", groups));
+        assertEquals(List.of("g-3", "g-2", "g-1"), messageIds(dao.getUnreadMessages("u2", groups, 10, 0)));
+        
+        assertTrue(dao.markConversationRead("u2", key, "g-2"));
+        assertEquals(1, dao.getUnreadCount("u2", groups));
+        // Sem o grupo na lista de grupos do usuário, as mensagens dele não contam
+        assertEquals(0, dao.getUnreadCount("u2", NO_GROUPS));
+    }
+    
+    @Test
+    void leavingGroupDropsReadStateAndRejoiningSkipsHistory() {
+        String key = MessageDAO.getGroupConversationKey("g1");
+        List<String> groups = List.of("g1");
+        sendGroup("g-1", "u1", "g1");
+        sendGroup("g-2", "u1", "g1");
+        assertTrue(dao.markConversationRead("u2", key, "g-1"));
+        
+        assertTrue(dao.removeGroupMember("u2", "g1"));
+        assertEquals(-1, dao.getReadPosition("u2", key));
+        assertEquals(1, dao.getReadPosition("u1", key));
+        
+        sendGroup("g-3", "u1", "g1");
+        assertTrue(dao.markGroupHistoryRead("u2", "g1"));
+        assertEquals(0, dao.getUnreadCount("u2", groups));
+    }
+    
+    @Test
+    void deletingGroupDropsEveryMembersReadState() {
+        String key = MessageDAO.getGroupConversationKey("g1");
+        sendGroup("g-1", "u1", "g1");
+        assertTrue(dao.markConversationRead("u2", key, "g-1"));
+        
+        assertTrue(dao.removeGroup("g1"));
+        assertEquals(-1, dao.getReadPosition("u1", key));
+        assertEquals(-1, dao.getReadPosition("u2", key));
+    }
+    
+    @Test
+    void readStateSurvivesReopening() {
+        String privateKey = MessageDAO.getPrivateConversationKey("u1", "u2");
+        String groupKey = MessageDAO.getGroupConversationKey("g1");
+        sendPrivate("p1", "u1", "u2");
+        sendPrivate("p2", "u1", "u2");
+        sendGroup("g-1", "u1", "g1");
+        sendGroup("g-2", "u1", "g1");
+        assertTrue(dao.markConversationRead("u2", privateKey, "p1"));
+        assertTrue(dao.markConversationRead("u2", groupKey, "g-1"));
+        
+        dao.close();
+        dao = new MessageDAO();
+        assertEquals(1, dao.getUnreadCount("u2", privateKey));
+        assertEquals(1, dao.getUnreadCount("u2", groupKey));
+        assertEquals(2, dao.getUnreadCount("u2", List.of("g1")));
+    }
+    
+    @Test
+    void seedsWatermarksFromLegacyReadFlags() throws IOException {
+        dao.close();
+        String key = MessageDAO.getPrivateConversationKey("u1", "u2");
+        File messages = new File(directory, "messages");
+        Files.createDirectories(messages.toPath());
+        Files.write(new File(messages, key + ".json").toPath(), ("["
+                + "{\"messageId\":\"p1\",\"senderId\":\"u1\",\"receiverId\":\"u2\",\"timestamp\":1,\"read\":true},"
+                + "{\"messageId\":\"p2\",\"senderId\":\"u1\",\"receiverId\":\"u2\",\"timestamp\":2,\"read\":true},"
+                + "{\"messageId\":\"p3\",\"senderId\":\"u1\",\"receiverId\":\"u2\",\"timestamp\":3,\"read\":false}]")
+                .getBytes(StandardCharsets.UTF_8));
+        
+        dao = new MessageDAO();
+        assertEquals(1, dao.getReadPosition("u2", key));
+        assertEquals(2, dao.getReadPosition("u1", key));
+        assertEquals(1, dao.getUnreadCount("u2", NO_GROUPS));
+        assertEquals(List.of("p3"), messageIds(dao.getUnreadMessages("u2", NO_GROUPS, 10, 0)));
+    }
+    
+    private void sendPrivate(String messageId, String senderId, String receiverId) {
+        assertTrue(dao.savePrivateMessage(new PrivateMessage(messageId, senderId, receiverId, "texto " + messageId)));
+    }
+    
+    private void sendGroup(String messageId, String senderId, String groupId) {
+        assertTrue(dao.saveGroupMessage(new GroupMessage(messageId, senderId, groupId, "texto " + messageId)));
+    }
+    
+    private static List<String> messageIds(List<UnreadMessage> messages) {
+        List<String> ids = new ArrayList<>();
+        for (UnreadMessage message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+}
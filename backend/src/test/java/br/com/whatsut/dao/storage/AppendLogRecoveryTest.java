@@ -0,0 +1,179 @@
+package br.com.whatsut.dao.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Recuperação do {@link AppendLog} após quedas no meio de uma gravação e
+ * arquivos corrompidos: o prefixo íntegro é mantido e o restante é descartado.
+ */
+class AppendLogRecoveryTest {
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void truncatesTornLineAtEndOfLog() throws IOException {
+        File file = new File(directory, "torn.log");
+        write(file, "a", "b", "c");
+        long intactLength = file.length();
+        appendBytes(file, "0badc0de {\"parcial".getBytes(StandardCharsets.UTF_8));
+        
+        assertEquals(List.of("a", "b", "c"), texts(AppendLog.readRecords(file)));
+        try (AppendLog log = new AppendLog(file)) {
+            assertEquals(List.of("a", "b", "c"), texts(log.readAll()));
+            assertEquals(intactLength, file.length());
+            log.append(bytes("d"));
+        }
+        assertEquals(List.of("a", "b", "c", "d"), texts(AppendLog.readRecords(file)));
+    }
+    
+    @Test
+    void truncatesTornFrameAtEndOfLog() throws IOException {
+        File file = new File(directory, "frame.log");
+        byte[] binary = bytes("linha 1\nlinha 2");
+        try (AppendLog log = new AppendLog(file)) {
+            log.append(bytes("a"));
+            log.append(binary);
+        }
+        long intactLength = file.length();
+        try (AppendLog log = new AppendLog(file)) {
+            log.append(bytes("registro\nbinário"));
+        }
+        // Queda no meio do último quadro
+        truncate(file, file.length() - 3);
+        
+        try (AppendLog log = new AppendLog(file)) {
+            List<byte[]> records = log.readAll();
+            assertEquals(2, records.size());
+            assertArrayEquals(binary, records.get(1));
+            assertEquals(intactLength, file.length());
+        }
+    }
+    
+    @Test
+    void discardsEverythingAfterRecordWithInvalidChecksum() throws IOException {
+        File file = new File(directory, "crc.log");
+        write(file, "primeiro", "segundo", "terceiro");
+        long firstLength = Files.readAllLines(file.toPath()).get(0).length() + 1;
+        // Corromper um byte do conteúdo do segundo registro
+        flipByte(file, firstLength + 10);
+        
+        assertEquals(List.of("primeiro"), texts(AppendLog.readRecords(file)));
+        try (AppendLog log = new AppendLog(file)) {
+            assertEquals(List.of("primeiro"), texts(log.readAll()));
+            assertEquals(firstLength, file.length());
+        }
+    }
+    
+    @Test
+    void readingDoesNotRepairLog() throws IOException {
+        File file = new File(directory, "readonly.log");
+        write(file, "a", "b");
+        appendBytes(file, "lixo".getBytes(StandardCharsets.UTF_8));
+        long length = file.length();
+        
+        assertEquals(List.of("a", "b"), texts(AppendLog.readRecords(file)));
+        assertEquals(length, file.length());
+    }
+    
+    @Test
+    void rewritesLegacyLogWithChecksums() throws IOException {
+        File file = new File(directory, "legacy.log");
+        Files.write(file.toPath(), "{\"id\":1}\n{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+        
+        try (AppendLog log = new AppendLog(file)) {
+            assertEquals(List.of("{\"id\":1}", "{\"id\":2}"), texts(log.readAll()));
+            log.append(bytes("{\"id\":3}"));
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertNotEquals('{', content[0]);
+        assertEquals(List.of("{\"id\":1}", "{\"id\":2}", "{\"id\":3}"), texts(AppendLog.readRecords(file)));
+    }
+    
+    @Test
+    void rejectsChecksumLessLineAfterChecksummedRecords() throws IOException {
+        File file = new File(directory, "mixed.log");
+        write(file, "{\"id\":1}");
+        long intactLength = file.length();
+        // Linha sem checksum depois de um registro com checksum: não é formato antigo
+        appendBytes(file, "{\"id\":2}\n".getBytes(StandardCharsets.UTF_8));
+        File other = new File(directory, "other.log");
+        write(other, "{\"id\":3}");
+        appendBytes(file, Files.readAllBytes(other.toPath()));
+        
+        assertEquals(List.of("{\"id\":1}"), texts(AppendLog.readRecords(file)));
+        try (AppendLog log = new AppendLog(file)) {
+            assertEquals(List.of("{\"id\":1}"), texts(log.readAll()));
+            assertEquals(intactLength, file.length());
+        }
+    }
+    
+    @Test
+    void rejectsLineWithCorruptedChecksumPrefix() throws IOException {
+        File file = new File(directory, "prefix.log");
+        write(file, "{\"id\":1}", "{\"id\":2}");
+        long firstLength = Files.readAllLines(file.toPath()).get(0).length() + 1;
+        // Corromper o checksum do segundo registro
+        flipByte(file, firstLength + 2);
+        
+        try (AppendLog log = new AppendLog(file)) {
+            assertEquals(List.of("{\"id\":1}"), texts(log.readAll()));
+            assertEquals(firstLength, file.length());
+        }
+    }
+    
+    private static void write(File file, String... records) throws IOException {
+        try (AppendLog log = new AppendLog(file)) {
+            for (String record : records) {
+                log.append(bytes(record));
+            }
+        }
+    }
+    
+    private static void appendBytes(File file, byte[] content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(content);
+        }
+    }
+    
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+    
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0x01);
+        }
+    }
+    
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static List<String> texts(List<byte[]> records) {
+        List<String> texts = new ArrayList<>();
+        for (byte[] record : records) {
+            texts.add(new String(record, StandardCharsets.UTF_8));
+        }
+        return texts;
+    }
+}
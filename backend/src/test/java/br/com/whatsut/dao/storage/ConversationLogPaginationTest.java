@@ -0,0 +1,114 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.model.Message;
+import br.com.whatsut.model.PrivateMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Paginação por cursor do {@link ConversationLog}: páginas anteriores a uma
+ * posição ({@code readBefore}) e localização de um cursor por timestamp
+ * ({@code findSequenceAtOrAfter}), atravessando segmentos.
+ */
+class ConversationLogPaginationTest {
+    private static final int SEGMENT_SIZE = 3;
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void pagesBackwardsAcrossSegmentsWithoutGapsOrDuplicates() throws IOException {
+        ConversationLog log = open();
+        append(log, 10, 10);
+        
+        List<String> pages = new ArrayList<>();
+        long cursor = log.size();
+        List<Message> page;
+        while (!(page = log.readBefore(cursor, 4)).isEmpty()) {
+            assertTrue(page.size() <= 4);
+            pages.addAll(ids(page));
+            cursor = log.findSequence(page.get(page.size() - 1).getMessageId());
+        }
+        assertEquals(List.of("m9", "m8", "m7", "m6", "m5", "m4", "m3", "m2", "m1", "m0"), pages);
+    }
+    
+    @Test
+    void skipsDeletedMessagesButKeepsTheirPositionAsCursor() throws IOException {
+        ConversationLog log = open();
+        append(log, 10, 10);
+        log.delete("m5");
+        
+        assertEquals(List.of("m7", "m6", "m4"), ids(log.readBefore(8, 3)));
+        // A mensagem excluída continua servindo de cursor
+        assertEquals(List.of("m4", "m3", "m2"), ids(log.readBefore(log.findSequence("m5"), 3)));
+    }
+    
+    @Test
+    void readBeforeHandlesBoundaries() throws IOException {
+        ConversationLog log = open();
+        append(log, 5, 10);
+        
+        assertTrue(log.readBefore(0, 3).isEmpty());
+        assertTrue(log.readBefore(3, 0).isEmpty());
+        assertEquals(List.of("m4", "m3"), ids(log.readBefore(100, 2)));
+        assertEquals(List.of("m0"), ids(log.readBefore(1, 3)));
+    }
+    
+    @Test
+    void findsFirstSequenceAtOrAfterTimestamp() throws IOException {
+        ConversationLog log = open();
+        append(log, 10, 10);
+        
+        assertEquals(0, log.findSequenceAtOrAfter(0));
+        assertEquals(0, log.findSequenceAtOrAfter(1000));
+        assertEquals(4, log.findSequenceAtOrAfter(1035));
+        assertEquals(4, log.findSequenceAtOrAfter(1040));
+        assertEquals(7, log.findSequenceAtOrAfter(1061));
+        assertEquals(10, log.findSequenceAtOrAfter(5000));
+        // Cursor por timestamp: a página anterior tem apenas mensagens mais antigas
+        assertEquals(List.of("m3", "m2"), ids(log.readBefore(log.findSequenceAtOrAfter(1040), 2)));
+    }
+    
+    @Test
+    void timestampCursorSkipsAllMessagesWithTheSameTimestamp() throws IOException {
+        ConversationLog log = open();
+        // Mensagens com o mesmo timestamp em segmentos diferentes
+        append(log, 8, 0);
+        
+        assertEquals(0, log.findSequenceAtOrAfter(1000));
+        assertEquals(8, log.findSequenceAtOrAfter(1001));
+    }
+    
+    private ConversationLog open() throws IOException {
+        return new ConversationLog(new File(directory, "conversa"), PrivateMessage.class, SEGMENT_SIZE,
+                new StorageCodec(StorageFormat.JSON), null);
+    }
+    
+    /**
+     * Acrescenta mensagens m0, m1, ... com timestamps 1000, 1000 + step, ...
+     */
+    private static void append(ConversationLog log, int count, int step) throws IOException {
+        for (int i = 0; i < count; i++) {
+            PrivateMessage message = new PrivateMessage("m" + i, "u1", "u2", "mensagem " + i);
+            message.setTimestamp(1000 + (long) i * step);
+            log.append(message);
+        }
+        log.awaitDurable();
+    }
+    
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,159 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.model.Message;
+import br.com.whatsut.model.PrivateMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Recuperação do {@link ConversationLog}: segmentos selados, compactados e
+ * removidos pela retenção, exclusões e final incompleto do segmento ativo.
+ */
+class ConversationLogRecoveryTest {
+    private static final int SEGMENT_SIZE = 3;
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void reopensSealedAndActiveSegments() throws IOException {
+        File conversation = new File(directory, "conversa");
+        ConversationLog log = open(conversation, null);
+        append(log, 0, 8);
+        log.closeFiles();
+        
+        ConversationLog reopened = open(conversation, null);
+        assertEquals(8, reopened.size());
+        assertEquals(ids(0, 8), ids(reopened.readNewest(0, 8)));
+    }
+    
+    @Test
+    void discardsTornMessageAtEndOfActiveSegment() throws IOException {
+        File conversation = new File(directory, "conversa");
+        ConversationLog log = open(conversation, null);
+        append(log, 0, 8);
+        log.closeFiles();
+        File active = conversation.listFiles((dir, name) -> name.endsWith(".log") && !name.startsWith("mutations"))[0];
+        try (FileOutputStream out = new FileOutputStream(active, true)) {
+            out.write("1a2b3c4d {\"messageId\":\"m8\",\"con".getBytes(StandardCharsets.UTF_8));
+        }
+        
+        ConversationLog reopened = open(conversation, null);
+        assertEquals(8, reopened.size());
+        // A próxima mensagem ocupa a posição da mensagem incompleta
+        append(reopened, 8, 9);
+        reopened.closeFiles();
+        ConversationLog again = open(conversation, null);
+        assertEquals(9, again.size());
+        assertEquals("m8", again.get(8).getMessageId());
+    }
+    
+    @Test
+    void keepsDeletionsAcrossReopening() throws IOException {
+        File conversation = new File(directory, "conversa");
+        ConversationLog log = open(conversation, null);
+        append(log, 0, 5);
+        log.delete("m2");
+        log.awaitDurable();
+        log.closeFiles();
+        
+        ConversationLog reopened = open(conversation, null);
+        assertNull(reopened.get(2));
+        assertNull(reopened.find("m2"));
+        assertEquals(2, reopened.findSequence("m2"));
+        assertEquals(List.of("m4", "m3", "m1", "m0"), ids(reopened.readNewest(0, 10)));
+    }
+    
+    @Test
+    void readsCompressedSegmentsAfterReopening() throws IOException {
+        File conversation = new File(directory, "conversa");
+        SegmentTiering tiering = new SegmentTiering(1, 6, 0, 0, 1024 * 1024);
+        ConversationLog log = open(conversation, tiering);
+        append(log, 0, 8);
+        log.applyTiering(tiering, System.currentTimeMillis());
+        assertEquals(2, log.getColdSegmentCount());
+        log.closeFiles();
+        
+        ConversationLog reopened = open(conversation, tiering);
+        assertEquals(2, reopened.getColdSegmentCount());
+        assertEquals(ids(0, 8), ids(reopened.readNewest(0, 8)));
+    }
+    
+    @Test
+    void dropsCopyOfSegmentWhoseCompressionWasInterrupted() throws IOException {
+        File conversation = new File(directory, "conversa");
+        ConversationLog log = open(conversation, null);
+        append(log, 0, 8);
+        log.closeFiles();
+        // Cópia compactada gravada, mas o segmento original ainda não removido
+        File sealed = new File(conversation, String.format("%020d.seg", 0));
+        File cold = new File(conversation, String.format("%020d.segz", 0));
+        AppendLog.compress(sealed, cold, 6);
+        
+        ConversationLog reopened = open(conversation, null);
+        assertEquals(1, reopened.getColdSegmentCount());
+        assertFalse(sealed.exists());
+        assertEquals(ids(0, 8), ids(reopened.readNewest(0, 8)));
+    }
+    
+    @Test
+    void retentionRemovesOldestSegmentsWithoutMovingPositions() throws IOException {
+        File conversation = new File(directory, "conversa");
+        SegmentTiering tiering = new SegmentTiering(0, 6, 0, 3, 1024 * 1024);
+        ConversationLog log = open(conversation, tiering);
+        append(log, 0, 8);
+        List<String> expired = log.applyTiering(tiering, System.currentTimeMillis());
+        assertEquals(List.of("m0", "m1", "m2"), expired);
+        log.closeFiles();
+        
+        ConversationLog reopened = open(conversation, tiering);
+        assertEquals(8, reopened.size());
+        assertNull(reopened.get(0));
+        assertEquals("m3", reopened.get(3).getMessageId());
+        assertEquals(ids(3, 8), ids(reopened.readNewest(0, 8)));
+    }
+    
+    private static ConversationLog open(File conversation, SegmentTiering tiering) throws IOException {
+        return new ConversationLog(conversation, PrivateMessage.class, SEGMENT_SIZE,
+                new StorageCodec(StorageFormat.JSON), null, WritePolicy.SYNC, tiering);
+    }
+    
+    private static void append(ConversationLog log, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            PrivateMessage message = new PrivateMessage("m" + i, "u1", "u2", "mensagem " + i);
+            message.setTimestamp(1000 + i);
+            log.append(message);
+        }
+        log.awaitDurable();
+    }
+    
+    /**
+     * IDs esperados, das mensagens mais recentes para as mais antigas.
+     */
+    private static List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<>();
+        for (int i = to - 1; i >= from; i--) {
+            ids.add("m" + i);
+        }
+        return ids;
+    }
+    
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,109 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.dao.storage.WalEntityStoreRecoveryTest.Item;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recuperação do {@link JsonFileEntityStore}: arquivos ilegíveis são postos de
+ * lado em vez de sobrescritos, temporários de gravações interrompidas são
+ * descartados e as políticas de gravação em lote gravam o que confirmaram.
+ */
+class JsonFileEntityStoreRecoveryTest {
+    private static final JavaType LIST_TYPE = new ObjectMapper().getTypeFactory()
+            .constructCollectionType(List.class, Item.class);
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void loadsEntitiesWrittenBeforeReopening() throws IOException {
+        File file = new File(directory, "items.json");
+        JsonFileEntityStore<Item> store = open(file);
+        assertTrue(store.put(new Item("a", "1")));
+        assertTrue(store.put(new Item("b", "1")));
+        assertTrue(store.remove("a"));
+        
+        JsonFileEntityStore<Item> reopened = open(file);
+        assertEquals(1, reopened.findAll().size());
+        assertEquals("1", reopened.findById("b").getValue());
+    }
+    
+    @Test
+    void quarantinesUnreadableFileInsteadOfOverwritingIt() throws IOException {
+        File file = new File(directory, "items.json");
+        byte[] corrupted = "[{\"id\":\"a\",\"val".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), corrupted);
+        
+        JsonFileEntityStore<Item> store = open(file);
+        assertTrue(store.findAll().isEmpty());
+        File[] quarantined = directory.listFiles((dir, name) -> name.startsWith("items.json.corrupt-"));
+        assertEquals(1, quarantined.length);
+        assertEquals(new String(corrupted, StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(quarantined[0].toPath()), StandardCharsets.UTF_8));
+        
+        // A próxima gravação não apaga os dados postos de lado
+        assertTrue(store.put(new Item("b", "1")));
+        assertTrue(quarantined[0].exists());
+        assertEquals(1, open(file).findAll().size());
+    }
+    
+    @Test
+    void discardsTemporaryFileOfInterruptedWrite() throws IOException {
+        File file = new File(directory, "items.json");
+        JsonFileEntityStore<Item> store = open(file);
+        assertTrue(store.put(new Item("a", "1")));
+        File temp = AtomicFiles.getTempFile(file);
+        Files.write(temp.toPath(), "[{\"id\":\"a\",\"value\":\"2\"}".getBytes(StandardCharsets.UTF_8));
+        
+        JsonFileEntityStore<Item> reopened = open(file);
+        assertEquals("1", reopened.findById("a").getValue());
+        assertFalse(temp.exists());
+    }
+    
+    @Test
+    void groupCommitWritesChangesBeforeAwaitReturns() throws IOException {
+        File file = new File(directory, "items.json");
+        JsonFileEntityStore<Item> store = open(file, new WritePolicy(WritePolicy.Durability.GROUP_COMMIT, 5));
+        long first = store.stagePut(new Item("a", "1"));
+        long second = store.stagePut(new Item("b", "1"));
+        assertEquals("1", store.findById("b").getValue());
+        assertTrue(store.awaitDurable(second));
+        assertTrue(store.awaitDurable(first));
+        
+        assertEquals(2, open(file).findAll().size());
+    }
+    
+    @Test
+    void asyncWritesPendingChangesOnClose() throws IOException {
+        File file = new File(directory, "items.json");
+        JsonFileEntityStore<Item> store = open(file, new WritePolicy(WritePolicy.Durability.ASYNC, 60000));
+        assertTrue(store.put(new Item("a", "1")));
+        // A alteração só é gravada ao fim do intervalo
+        assertTrue(open(file).findAll().isEmpty());
+        
+        store.close();
+        assertEquals("1", open(file).findById("a").getValue());
+    }
+    
+    private static JsonFileEntityStore<Item> open(File file) throws IOException {
+        return open(file, WritePolicy.SYNC);
+    }
+    
+    private static JsonFileEntityStore<Item> open(File file, WritePolicy policy) throws IOException {
+        return new JsonFileEntityStore<>(new StoreDescriptor<>("items", file, LIST_TYPE,
+                Item::getId, policy, StorageFormat.JSON));
+    }
+}
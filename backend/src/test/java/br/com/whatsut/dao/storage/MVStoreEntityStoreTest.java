@@ -0,0 +1,144 @@
+package br.com.whatsut.dao.storage;
+
+import br.com.whatsut.dao.storage.WalEntityStoreRecoveryTest.Item;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ida e volta do {@link MVStoreEntityStore}: gravações, lotes e exclusões
+ * reabertos do arquivo do banco, vários armazenamentos em um único banco,
+ * importação dos arquivos do formato anterior e leitura de valores gravados
+ * em outro formato.
+ */
+class MVStoreEntityStoreTest {
+    private static final JavaType LIST_TYPE = new ObjectMapper().getTypeFactory()
+            .constructCollectionType(List.class, Item.class);
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void putsBatchesAndRemovesSurviveReopening() throws IOException {
+        MVStoreEntityStore<Item> store = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertTrue(store.isNew());
+        assertTrue(store.put(new Item("a", "1")));
+        assertTrue(store.put(new Item("b", "1")));
+        Map<String, Item> changes = new LinkedHashMap<>();
+        changes.put("a", null);
+        changes.put("b", new Item("b", "2"));
+        changes.put("c", new Item("c", "1"));
+        assertTrue(store.awaitDurable(store.stageBatch(changes)));
+        assertTrue(store.remove("c"));
+        assertTrue(store.put(new Item("d", "1")));
+        store.close();
+        
+        MVStoreEntityStore<Item> reopened = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertFalse(reopened.isNew());
+        assertEquals(Map.of("b", "2", "d", "1"), values(reopened));
+        assertNull(reopened.findById("a"));
+        assertEquals("2", reopened.findById("b").getValue());
+        reopened.close();
+    }
+    
+    @Test
+    void storesShareOneDatabaseFile() throws IOException {
+        MVStoreEntityStore<Item> items = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        MVStoreEntityStore<Item> others = open("others", WritePolicy.SYNC, StorageFormat.JSON);
+        assertTrue(items.put(new Item("a", "1")));
+        assertTrue(others.put(new Item("a", "outro")));
+        // O banco continua aberto para o armazenamento que não foi fechado
+        items.close();
+        assertTrue(others.put(new Item("b", "outro")));
+        others.close();
+        
+        assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".mv.db")).length);
+        MVStoreEntityStore<Item> reopenedItems = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        MVStoreEntityStore<Item> reopenedOthers = open("others", WritePolicy.SYNC, StorageFormat.JSON);
+        assertEquals(Map.of("a", "1"), values(reopenedItems));
+        assertEquals(Map.of("a", "outro", "b", "outro"), values(reopenedOthers));
+        reopenedItems.close();
+        reopenedOthers.close();
+    }
+    
+    @Test
+    void importsLegacyFilesOnceWithoutChangingThem() throws IOException {
+        File legacy = new File(directory, "items.json");
+        WalEntityStore<Item> wal = WalEntityStore.open(legacy, LIST_TYPE, Item::getId, null, 0, 0, 0,
+                WritePolicy.SYNC, StorageFormat.JSON);
+        wal.put(new Item("a", "1"));
+        wal.put(new Item("b", "1"));
+        wal.close();
+        byte[] snapshot = Files.readAllBytes(legacy.toPath());
+        
+        MVStoreEntityStore<Item> store = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertFalse(store.isNew());
+        assertEquals(Map.of("a", "1", "b", "1"), values(store));
+        assertTrue(store.remove("a"));
+        store.close();
+        assertArrayEquals(snapshot, Files.readAllBytes(legacy.toPath()));
+        
+        // Na reabertura o mapa já existe e os arquivos antigos não são importados de novo
+        MVStoreEntityStore<Item> reopened = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertEquals(Map.of("b", "1"), values(reopened));
+        reopened.close();
+    }
+    
+    @Test
+    void readsValuesWrittenInAnotherFormat() throws IOException {
+        MVStoreEntityStore<Item> json = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertTrue(json.put(new Item("a", "texto")));
+        json.close();
+        
+        MVStoreEntityStore<Item> cbor = open("items", WritePolicy.SYNC, StorageFormat.CBOR);
+        assertEquals(Map.of("a", "texto"), values(cbor));
+        assertTrue(cbor.put(new Item("b", "binário")));
+        cbor.close();
+        
+        MVStoreEntityStore<Item> reopened = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertEquals(Map.of("a", "texto", "b", "binário"), values(reopened));
+        reopened.close();
+    }
+    
+    @Test
+    void asyncChangesAreWrittenOnClose() throws IOException {
+        WritePolicy async = new WritePolicy(WritePolicy.Durability.ASYNC, 60000);
+        MVStoreEntityStore<Item> store = open("items", async, StorageFormat.JSON);
+        assertTrue(store.put(new Item("a", "1")));
+        assertTrue(store.put(new Item("b", "1")));
+        store.close();
+        
+        MVStoreEntityStore<Item> reopened = open("items", WritePolicy.SYNC, StorageFormat.JSON);
+        assertEquals(Map.of("a", "1", "b", "1"), values(reopened));
+        reopened.close();
+    }
+    
+    private MVStoreEntityStore<Item> open(String name, WritePolicy policy, StorageFormat format) throws IOException {
+        StoreDescriptor<Item> descriptor = new StoreDescriptor<>(name, new File(directory, name + ".json"), LIST_TYPE,
+                Item::getId, policy, format);
+        return new MVStoreEntityStore<>(descriptor, new File(directory, "whatsut.mv.db"), 4);
+    }
+    
+    private static Map<String, String> values(EntityStore<Item> store) {
+        Map<String, String> values = new TreeMap<>();
+        for (Item item : store.findAll()) {
+            values.put(item.getId(), item.getValue());
+        }
+        return values;
+    }
+}
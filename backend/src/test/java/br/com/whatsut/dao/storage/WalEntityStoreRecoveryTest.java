@@ -0,0 +1,218 @@
+package br.com.whatsut.dao.storage;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recuperação do {@link WalEntityStore}: snapshot mais log reaplicado, final
+ * incompleto do log, lotes atômicos e snapshots ilegíveis. Os arquivos são
+ * gravados por um armazenamento e reabertos a partir de uma cópia, como após
+ * uma queda (o armazenamento original não é fechado, o que compactaria o log).
+ */
+class WalEntityStoreRecoveryTest {
+    private static final JavaType LIST_TYPE = new ObjectMapper().getTypeFactory()
+            .constructCollectionType(List.class, Item.class);
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    void replaysLogOverSnapshot() throws IOException {
+        File file = new File(directory, "written/items.json");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), ("[{\"id\":\"a\",\"value\":\"1\"},{\"id\":\"b\",\"value\":\"1\"}]")
+                .getBytes(StandardCharsets.UTF_8));
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("b", "2"));
+        store.put(new Item("c", "1"));
+        store.remove("a");
+        
+        WalEntityStore<Item> recovered = open(crashImage(file, "recovered"));
+        assertEquals(Map.of("b", "2", "c", "1"), values(recovered));
+        close(store, recovered);
+    }
+    
+    @Test
+    void discardsTornRecordAtEndOfLog() throws IOException {
+        File file = new File(directory, "written/items.json");
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("a", "1"));
+        store.put(new Item("b", "1"));
+        store.put(new Item("a", "2"));
+        
+        File copy = crashImage(file, "recovered");
+        File wal = new File(copy.getPath() + ".wal");
+        // Queda no meio da gravação do último registro
+        truncate(wal, wal.length() - 5);
+        long beforeRepair = wal.length();
+        
+        WalEntityStore<Item> recovered = open(copy);
+        assertEquals(Map.of("a", "1", "b", "1"), values(recovered));
+        assertTrue(wal.length() < beforeRepair);
+        assertTrue(hasRepair(wal));
+        close(store, recovered);
+    }
+    
+    @Test
+    void replaysBatchEntirelyOrNotAtAll() throws IOException {
+        File file = new File(directory, "written/items.json");
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("a", "1"));
+        Map<String, Item> changes = new LinkedHashMap<>();
+        changes.put("a", null);
+        changes.put("b", new Item("b", "1"));
+        changes.put("c", new Item("c", "1"));
+        assertTrue(store.awaitDurable(store.stageBatch(changes)));
+        
+        WalEntityStore<Item> complete = open(crashImage(file, "complete"));
+        assertEquals(Map.of("b", "1", "c", "1"), values(complete));
+        
+        File torn = crashImage(file, "torn");
+        File wal = new File(torn.getPath() + ".wal");
+        truncate(wal, wal.length() - 2);
+        WalEntityStore<Item> partial = open(torn);
+        assertEquals(Map.of("a", "1"), values(partial));
+        close(store, complete, partial);
+    }
+    
+    @Test
+    void quarantinesUnreadableSnapshotAndReplaysLog() throws IOException {
+        File file = new File(directory, "written/items.json");
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("a", "1"));
+        
+        File copy = crashImage(file, "recovered");
+        Files.write(copy.toPath(), "[{\"id\":".getBytes(StandardCharsets.UTF_8));
+        
+        WalEntityStore<Item> recovered = open(copy);
+        assertEquals(Map.of("a", "1"), values(recovered));
+        File[] quarantined = copy.getParentFile().listFiles((dir, name) -> name.startsWith("items.json.corrupt-"));
+        assertEquals(1, quarantined.length);
+        assertEquals("[{\"id\":", new String(Files.readAllBytes(quarantined[0].toPath()), StandardCharsets.UTF_8));
+        close(store, recovered);
+    }
+    
+    @Test
+    void removesTemporarySnapshotOfInterruptedCompaction() throws IOException {
+        File file = new File(directory, "written/items.json");
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("a", "1"));
+        
+        File copy = crashImage(file, "recovered");
+        File temp = AtomicFiles.getTempFile(copy);
+        Files.write(temp.toPath(), "[{\"id\":\"x\"".getBytes(StandardCharsets.UTF_8));
+        
+        WalEntityStore<Item> recovered = open(copy);
+        assertEquals(Map.of("a", "1"), values(recovered));
+        assertFalse(temp.exists());
+        close(store, recovered);
+    }
+    
+    @Test
+    void readEntitiesLeavesFilesUntouched() throws IOException {
+        File file = new File(directory, "written/items.json");
+        WalEntityStore<Item> store = open(file);
+        store.put(new Item("a", "1"));
+        store.put(new Item("b", "1"));
+        
+        File copy = crashImage(file, "legacy");
+        File wal = new File(copy.getPath() + ".wal");
+        try (FileOutputStream out = new FileOutputStream(wal, true)) {
+            out.write("incompleto".getBytes(StandardCharsets.UTF_8));
+        }
+        long snapshotLength = copy.length();
+        long walLength = wal.length();
+        
+        List<Item> items = WalEntityStore.readEntities(copy, LIST_TYPE, Item::getId, StorageFormat.JSON);
+        assertEquals(2, items.size());
+        assertEquals(snapshotLength, copy.length());
+        assertEquals(walLength, wal.length());
+        close(store);
+    }
+    
+    private static WalEntityStore<Item> open(File file) throws IOException {
+        return WalEntityStore.open(file, LIST_TYPE, Item::getId, null, 0, 0, 0, WritePolicy.SYNC, StorageFormat.JSON);
+    }
+    
+    /**
+     * Copia o snapshot e o log de um armazenamento aberto para outro diretório,
+     * como ficariam no disco após uma queda.
+     */
+    private File crashImage(File file, String name) throws IOException {
+        File target = new File(new File(directory, name), file.getName());
+        Files.createDirectories(target.getParentFile().toPath());
+        Files.copy(file.toPath(), target.toPath());
+        Files.copy(new File(file.getPath() + ".wal").toPath(), new File(target.getPath() + ".wal").toPath());
+        return target;
+    }
+    
+    private static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+    
+    private static boolean hasRepair(File file) {
+        return RecoveryReport.getRepairs().stream().anyMatch(repair -> repair.startsWith(file.getPath() + ": "));
+    }
+    
+    private static Map<String, String> values(WalEntityStore<Item> store) {
+        Map<String, String> values = new TreeMap<>();
+        for (Item item : store.findAll()) {
+            values.put(item.getId(), item.getValue());
+        }
+        return values;
+    }
+    
+    private static void close(WalEntityStore<?>... stores) throws IOException {
+        for (WalEntityStore<?> store : stores) {
+            store.close();
+        }
+    }
+    
+    public static class Item {
+        private String id;
+        private String value;
+        
+        public Item() {
+        }
+        
+        Item(String id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+        
+        public String getId() {
+            return id;
+        }
+        
+        public void setId(String id) {
+            this.id = id;
+        }
+        
+        public String getValue() {
+            return value;
+        }
+        
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package br.com.whatsut.impl;
+
+import br.com.whatsut.dao.DAOFactory;
+import br.com.whatsut.dao.GroupMemberDAO;
+import br.com.whatsut.dao.MessageDAO;
+import br.com.whatsut.dao.UnitOfWork;
+import br.com.whatsut.dao.UserDAO;
+import br.com.whatsut.model.Group;
+import br.com.whatsut.model.GroupMember;
+import br.com.whatsut.model.GroupMessage;
+import br.com.whatsut.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unidades de trabalho do {@link GroupServiceImpl}: as alterações de membros
+ * de uma operação são gravadas juntas e sobrevivem à reabertura dos DAOs, e
+ * uma unidade de trabalho rejeitada não aplica nenhuma alteração.
+ */
+class GroupServiceImplTest {
+    @TempDir
+    File directory;
+    
+    private GroupServiceImpl service;
+    
+    @BeforeEach
+    void openService() throws RemoteException {
+        System.setProperty("storage.base.path", directory.getPath());
+        UserDAO users = DAOFactory.getUserDAO();
+        for (String userId : List.of("u1", "u2", "u3")) {
+            assertTrue(users.save(new User(userId, "nome-" + userId, "Usuário " + userId, userId + "@whatsut.com")));
+        }
+        service = new GroupServiceImpl();
+    }
+    
+    @AfterEach
+    void closeService() throws RemoteException {
+        UnicastRemoteObject.unexportObject(service, true);
+        DAOFactory.closeAll();
+        System.clearProperty("storage.base.path");
+    }
+    
+    @Test
+    void addsValidUsersTogetherAndSkipsTheRest() throws RemoteException {
+        Group group = service.createGroup("grupo", "descrição", "u1", false);
+        assertNotNull(group);
+        
+        List<String> added = service.addUsersToGroup(group.getGroupId(), List.of("u2", "desconhecido", "u1", "u3", "u2"), "u1");
+        assertEquals(List.of("u2", "u3"), added);
+        // Apenas o administrador adiciona membros
+        assertTrue(service.addUsersToGroup(group.getGroupId(), List.of("u3"), "u2").isEmpty());
+        
+        reopen();
+        assertEquals(Map.of("u1", true, "u2", false, "u3", false), members(group.getGroupId()));
+    }
+    
+    @Test
+    void addedMembersDoNotInheritHistoryAsUnread() throws RemoteException {
+        Group group = service.createGroup("grupo", "descrição", "u1", false);
+        MessageDAO messages = DAOFactory.getMessageDAO();
+        assertTrue(messages.saveGroupMessage(new GroupMessage("g-1", "u1", group.getGroupId(), "antes")));
+        
+        service.addUsersToGroup(group.getGroupId(), List.of("u2"), "u1");
+        assertEquals(0, messages.getUnreadCount("u2", List.of(group.getGroupId())));
+    }
+    
+    @Test
+    void changeGroupAdminFlipsBothMembers() throws RemoteException {
+        Group group = service.createGroup("grupo", "descrição", "u1", false);
+        service.addUsersToGroup(group.getGroupId(), List.of("u2"), "u1");
+        
+        assertTrue(service.changeGroupAdmin(group.getGroupId(), "u1", "u2"));
+        assertFalse(service.changeGroupAdmin(group.getGroupId(), "u1", "u3"));
+        
+        reopen();
+        assertEquals("u2", service.getGroup(group.getGroupId()).getAdminId());
+        assertEquals(Map.of("u1", false, "u2", true), members(group.getGroupId()));
+    }
+    
+    @Test
+    void adminLeavingPromotesAnotherMemberInTheSameWrite() throws RemoteException {
+        Group group = service.createGroup("grupo", "descrição", "u1", false);
+        service.addUsersToGroup(group.getGroupId(), List.of("u2"), "u1");
+        
+        assertTrue(service.leaveGroup(group.getGroupId(), "u1"));
+        
+        reopen();
+        assertEquals("u2", service.getGroup(group.getGroupId()).getAdminId());
+        assertEquals(Map.of("u2", true), members(group.getGroupId()));
+    }
+    
+    @Test
+    void adminLeavingDeletesGroupWhenConfigured() throws RemoteException {
+        Group group = service.createGroup("grupo", "descrição", "u1", true);
+        service.addUsersToGroup(group.getGroupId(), List.of("u2", "u3"), "u1");
+        
+        assertTrue(service.leaveGroup(group.getGroupId(), "u1"));
+        
+        reopen();
+        assertNull(service.getGroup(group.getGroupId()));
+        assertTrue(members(group.getGroupId()).isEmpty());
+        assertTrue(service.getUserGroups("u2").isEmpty());
+    }
+    
+    @Test
+    void rejectedUnitOfWorkAppliesNothing() throws RemoteException {
+        UserDAO users = DAOFactory.getUserDAO();
+        UnitOfWork<User, String> work = new UnitOfWork<>();
+        work.save(new User("u4", "nome-u4", "Usuário 4", "u4@whatsut.com"));
+        // Nome de usuário repetido: a unidade inteira é rejeitada
+        work.save(new User("u5", "nome-u1", "Usuário 5", "u5@whatsut.com"));
+        work.delete("u2");
+        
+        assertFalse(users.commit(work));
+        assertNull(users.findById("u4"));
+        assertNull(users.findById("u5"));
+        assertNotNull(users.findById("u2"));
+        assertEquals("u1", users.findByUsername("nome-u1").getUserId());
+        
+        reopen();
+        assertNull(DAOFactory.getUserDAO().findById("u4"));
+        assertNotNull(DAOFactory.getUserDAO().findById("u2"));
+    }
+    
+    /**
+     * Fecha os DAOs e o serviço e os reabre a partir do que foi gravado.
+     */
+    private void reopen() throws RemoteException {
+        UnicastRemoteObject.unexportObject(service, true);
+        DAOFactory.closeAll();
+        service = new GroupServiceImpl();
+    }
+    
+    private static Map<String, Boolean> members(String groupId) {
+        GroupMemberDAO groupMembers = DAOFactory.getGroupMemberDAO();
+        Map<String, Boolean> members = new TreeMap<>();
+        for (GroupMember member : groupMembers.findByGroupId(groupId)) {
+            members.put(member.getUserId(), member.isAdmin());
+        }
+        return members;
+    }
+}
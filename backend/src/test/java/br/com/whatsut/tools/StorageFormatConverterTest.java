@@ -0,0 +1,146 @@
+package br.com.whatsut.tools;
+
+import br.com.whatsut.dao.storage.AppendLog;
+import br.com.whatsut.dao.storage.ConversationLog;
+import br.com.whatsut.dao.storage.EntityStore;
+import br.com.whatsut.dao.storage.MVStoreEntityStore;
+import br.com.whatsut.dao.storage.StorageCodec;
+import br.com.whatsut.dao.storage.StorageFormat;
+import br.com.whatsut.dao.storage.StoreDescriptor;
+import br.com.whatsut.dao.storage.WalEntityStore;
+import br.com.whatsut.dao.storage.WritePolicy;
+import br.com.whatsut.model.Message;
+import br.com.whatsut.model.PrivateMessage;
+import br.com.whatsut.model.User;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Ida e volta do {@link StorageFormatConverter}: arquivos de entidades, logs
+ * .wal, segmentos das conversas e mapas do banco MVStore convertidos para CBOR
+ * e de volta para JSON mantêm o mesmo conteúdo.
+ */
+class StorageFormatConverterTest {
+    private static final JavaType LIST_TYPE = new ObjectMapper().getTypeFactory()
+            .constructCollectionType(List.class, User.class);
+    private static final Map<String, String> USERS = Map.of("u1", "ana", "u2", "bruno", "u3", "carla");
+    
+    @TempDir
+    File directory;
+    
+    @BeforeEach
+    void writeJsonData() throws IOException {
+        // Snapshot e log .wal: o armazenamento não é fechado, o que compactaria o log
+        WalEntityStore<User> users = WalEntityStore.open(new File(directory, "users.json"), LIST_TYPE,
+                User::getUserId, null, 0, 0, 0, WritePolicy.SYNC, StorageFormat.JSON);
+        for (Map.Entry<String, String> user : USERS.entrySet()) {
+            assertTrue(users.put(user(user.getKey(), user.getValue())));
+        }
+        
+        ConversationLog log = conversation(StorageFormat.JSON);
+        for (int i = 0; i < 5; i++) {
+            log.append(new PrivateMessage("m" + i, "u1", "u2", "mensagem " + i));
+        }
+        log.awaitDurable();
+        log.closeFiles();
+        
+        EntityStore<User> database = database(StorageFormat.JSON);
+        assertTrue(database.put(user("u1", "ana")));
+        database.close();
+    }
+    
+    @Test
+    void convertsEveryKindOfFileAndBack() throws IOException {
+        new StorageFormatConverter(StorageFormat.CBOR).convertDirectory(directory);
+        assertContent(StorageFormat.CBOR);
+        assertTrue(recordFormats(walFile()).stream().allMatch(StorageFormat.CBOR::equals));
+        
+        new StorageFormatConverter(StorageFormat.JSON).convertDirectory(directory);
+        assertContent(StorageFormat.JSON);
+        assertTrue(recordFormats(walFile()).stream().allMatch(StorageFormat.JSON::equals));
+    }
+    
+    @Test
+    void leavesLegacyConversationFilesUntouched() throws IOException {
+        File legacy = new File(directory, "messages/legado.json");
+        Files.write(legacy.toPath(), "[]".getBytes(StandardCharsets.UTF_8));
+        
+        new StorageFormatConverter(StorageFormat.CBOR).convertDirectory(directory);
+        assertEquals(StorageFormat.JSON, StorageFormat.detect(legacy));
+        assertEquals(StorageFormat.CBOR, StorageFormat.detect(new File(directory, "users.json")));
+    }
+    
+    /**
+     * Verifica o formato e o conteúdo de todos os arquivos depois de uma conversão.
+     */
+    private void assertContent(StorageFormat format) throws IOException {
+        File snapshot = new File(directory, "users.json");
+        assertEquals(format, StorageFormat.detect(snapshot));
+        List<User> users = WalEntityStore.readEntities(snapshot, LIST_TYPE, User::getUserId, format);
+        assertEquals(new TreeMap<>(USERS), usernames(users));
+        
+        ConversationLog log = conversation(format);
+        List<String> ids = new ArrayList<>();
+        for (Message message : log.readBefore(log.size(), 10)) {
+            ids.add(message.getMessageId() + "=" + message.getContent());
+        }
+        log.closeFiles();
+        assertEquals(List.of("m4=mensagem 4", "m3=mensagem 3", "m2=mensagem 2", "m1=mensagem 1", "m0=mensagem 0"), ids);
+        
+        EntityStore<User> database = database(format);
+        assertEquals(Map.of("u1", "ana"), usernames(database.findAll()));
+        database.close();
+    }
+    
+    private File walFile() {
+        return new File(directory, "users.json.wal");
+    }
+    
+    private static List<StorageFormat> recordFormats(File file) throws IOException {
+        List<StorageFormat> formats = new ArrayList<>();
+        for (byte[] record : AppendLog.readRecords(file)) {
+            formats.add(StorageFormat.detect(record, record.length));
+        }
+        assertFalse(formats.isEmpty());
+        return formats;
+    }
+    
+    private ConversationLog conversation(StorageFormat format) throws IOException {
+        return new ConversationLog(new File(directory, "messages/conversa"), PrivateMessage.class, 2,
+                new StorageCodec(format), null);
+    }
+    
+    private EntityStore<User> database(StorageFormat format) throws IOException {
+        StoreDescriptor<User> descriptor = new StoreDescriptor<>("users", new File(directory, "ausente.json"),
+                LIST_TYPE, User::getUserId, WritePolicy.SYNC, format);
+        return new MVStoreEntityStore<>(descriptor, new File(directory, "whatsut.mv.db"), 4);
+    }
+    
+    private static User user(String userId, String username) {
+        return new User(userId, username, "Usuário " + username, username + "@whatsut.com");
+    }
+    
+    private static Map<String, String> usernames(List<User> users) {
+        Map<String, String> usernames = new TreeMap<>();
+        for (User user : users) {
+            usernames.put(user.getUserId(), user.getUsername());
+        }
+        return usernames;
+    }
+}
@@ -0,0 +1,116 @@
+package br.com.whatsut.websocket;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conexão WebSocket falsa para os testes: registra os quadros enviados e o
+ * encerramento, e permite simular um cliente que parou de ler (dados
+ * acumulados no buffer de envio).
+ */
+final class FakeConnection implements InvocationHandler {
+    private final WebSocket socket;
+    private final InetSocketAddress address;
+    private final IProtocol protocol;
+    private final List<Framedata> frames = new ArrayList<>();
+    private volatile boolean open = true;
+    private volatile boolean buffered;
+    private volatile int closeCode = -1;
+    
+    /**
+     * Cria uma conexão aberta.
+     *
+     * @param port Porta do endereço remoto, que identifica a conexão no log
+     * @param format Formato negociado no handshake
+     */
+    FakeConnection(int port, WireFormat format) {
+        this.address = new InetSocketAddress("127.0.0.1", port);
+        this.protocol = new Protocol(format.getProtocol());
+        this.socket = (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(),
+                new Class<?>[] { WebSocket.class }, this);
+    }
+    
+    WebSocket socket() {
+        return socket;
+    }
+    
+    /**
+     * Simula um cliente que parou de ler (true) ou voltou a ler (false).
+     */
+    void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+    }
+    
+    boolean isOpen() {
+        return open;
+    }
+    
+    int getCloseCode() {
+        return closeCode;
+    }
+    
+    /**
+     * Obtém o conteúdo dos quadros enviados até agora, na ordem de envio.
+     */
+    List<byte[]> payloads() {
+        List<byte[]> payloads = new ArrayList<>();
+        synchronized (frames) {
+            for (Framedata frame : frames) {
+                ByteBuffer data = frame.getPayloadData();
+                byte[] bytes = new byte[data.remaining()];
+                data.duplicate().get(bytes);
+                payloads.add(bytes);
+            }
+        }
+        return payloads;
+    }
+    
+    List<Framedata> frames() {
+        synchronized (frames) {
+            return new ArrayList<>(frames);
+        }
+    }
+    
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "isOpen":
+                return open;
+            case "isClosed":
+                return !open;
+            case "hasBufferedData":
+                return buffered;
+            case "getRemoteSocketAddress":
+                return address;
+            case "getProtocol":
+                return protocol;
+            case "sendFrame":
+                synchronized (frames) {
+                    frames.add((Framedata) args[0]);
+                }
+                return null;
+            case "close":
+                closeCode = args != null && args.length > 0 ? (Integer) args[0] : 1000;
+                open = false;
+                return null;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "conexão " + address.getPort();
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+}
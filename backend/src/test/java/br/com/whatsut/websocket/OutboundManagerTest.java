@@ -0,0 +1,182 @@
+package br.com.whatsut.websocket;
+
+import br.com.whatsut.websocket.OutboundManager.Delivery;
+import org.java_websocket.WebSocket;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.framing.CloseFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Controle de fluxo do {@link OutboundManager}: eventos com a mesma chave são
+ * substituídos enquanto aguardam, notificações são descartadas quando o
+ * cliente passa do limite superior e um único {@code resync_needed} é enviado
+ * quando a fila volta abaixo do limite inferior, e a conexão é encerrada
+ * quando a fila passa do tamanho máximo.
+ */
+class OutboundManagerTest {
+    private static final long HIGH_WATERMARK = 400;
+    private static final long LOW_WATERMARK = 100;
+    private static final long MAX_BYTES = 2000;
+    private static final long SOCKET_WINDOW = 1 << 20;
+    private static final long TIMEOUT_MILLIS = 10000;
+    
+    private OutboundManager manager;
+    private FakeConnection client;
+    
+    @BeforeEach
+    void createManager() {
+        manager = new OutboundManager(HIGH_WATERMARK, LOW_WATERMARK, MAX_BYTES, 0, SOCKET_WINDOW, 5);
+        client = new FakeConnection(1, WireFormat.JSON);
+    }
+    
+    @AfterEach
+    void shutdown() {
+        manager.shutdown();
+    }
+    
+    @Test
+    void deliversMessagesInOrderOffTheProducerThread() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            manager.send(client.socket(), message("response", i), Delivery.RESPONSE, null);
+        }
+        
+        awaitUntil(() -> client.payloads().size() == 5);
+        assertEquals(List.of(0, 1, 2, 3, 4), sequences(received()));
+        assertEquals(5, manager.getSentMessageCount());
+    }
+    
+    @Test
+    void coalescesPendingEventsWithTheSameKey() throws IOException {
+        client.setBuffered(true);
+        manager.send(client.socket(), message("typing", 1), Delivery.EVENT, "typing:u1");
+        manager.send(client.socket(), message("response", 2), Delivery.RESPONSE, null);
+        manager.send(client.socket(), message("typing", 3), Delivery.EVENT, "typing:u1");
+        manager.send(client.socket(), message("typing", 4), Delivery.EVENT, "typing:u2");
+        manager.send(client.socket(), message("typing", 5), Delivery.EVENT, "typing:u1");
+        assertEquals(3, manager.getQueuedMessages());
+        
+        client.setBuffered(false);
+        awaitUntil(() -> client.payloads().size() == 3);
+        // O evento substituído mantém a posição, com o conteúdo mais recente
+        assertEquals(List.of(5, 2, 4), sequences(received()));
+        assertEquals(2, manager.getCoalescedCount());
+    }
+    
+    @Test
+    void dropsNotificationsWhileBehindAndRequestsResyncOnce() throws IOException {
+        client.setBuffered(true);
+        manager.send(client.socket(), message("response", 0), Delivery.RESPONSE, null);
+        int notifications = 0;
+        while (manager.getBehindConnectionCount() == 0) {
+            manager.send(client.socket(), message("notification", 100 + notifications), Delivery.NOTIFICATION, null);
+            notifications++;
+        }
+        // Notificações enfileiradas e novas são descartadas; respostas, não
+        manager.send(client.socket(), message("notification", 200), Delivery.NOTIFICATION, null);
+        manager.send(client.socket(), message("response", 1), Delivery.RESPONSE, null);
+        notifications++;
+        assertEquals(2, manager.getQueuedMessages());
+        assertEquals(notifications, manager.getDroppedCount());
+        
+        client.setBuffered(false);
+        awaitUntil(() -> client.payloads().size() == 3);
+        List<Map<String, Object>> received = received();
+        assertEquals(List.of(0, 1), sequences(received.subList(0, 2)));
+        assertEquals("resync_needed", received.get(2).get("type"));
+        assertEquals(notifications, ((Number) received.get(2).get("dropped")).intValue());
+        assertEquals(1, manager.getResyncCount());
+        assertEquals(0, manager.getBehindConnectionCount());
+        
+        // Depois da ressincronização as notificações voltam a ser entregues
+        manager.send(client.socket(), message("notification", 300), Delivery.NOTIFICATION, null);
+        awaitUntil(() -> client.payloads().size() == 4);
+        assertEquals(300, ((Number) received().get(3).get("seq")).intValue());
+        assertEquals(1, manager.getResyncCount());
+    }
+    
+    @Test
+    void closesConnectionWhenQueueExceedsMaximum() throws IOException {
+        client.setBuffered(true);
+        int responses = 0;
+        while (client.isOpen()) {
+            assertTrue(responses < 1000);
+            manager.send(client.socket(), message("response", responses++), Delivery.RESPONSE, null);
+        }
+        
+        assertEquals(CloseFrame.TRY_AGAIN_LATER, client.getCloseCode());
+        assertEquals(1, manager.getSlowConsumerDisconnectCount());
+        assertEquals(0, manager.getConnectionCount());
+        assertEquals(0, manager.getQueuedBytes());
+    }
+    
+    @Test
+    void closeDeliversQueuedMessagesFirst() throws IOException {
+        manager.send(client.socket(), message("error", 0), Delivery.RESPONSE, null);
+        manager.close(client.socket());
+        
+        awaitUntil(() -> !client.isOpen());
+        assertEquals(List.of(0), sequences(received()));
+    }
+    
+    @Test
+    void sharesBroadcastPayloadAcrossConnectionsAndFormats() throws IOException {
+        FakeConnection cbor = new FakeConnection(2, WireFormat.CBOR);
+        List<WebSocket> connections = List.of(client.socket(), cbor.socket());
+        
+        Map<WireFormat, ByteBuffer> payloads = WireFormat.encodeFor(message("broadcast", 7), connections);
+        assertEquals(2, manager.broadcast(connections, payloads, Delivery.NOTIFICATION, null));
+        
+        awaitUntil(() -> client.payloads().size() == 1 && cbor.payloads().size() == 1);
+        assertEquals(Opcode.TEXT, client.frames().get(0).getOpcode());
+        assertEquals(Opcode.BINARY, cbor.frames().get(0).getOpcode());
+        assertEquals(received().get(0), WireFormat.CBOR.decode(cbor.payloads().get(0)));
+    }
+    
+    private static Map<String, Object> message(String type, int seq) {
+        return Map.of("type", type, "seq", seq, "content", "mensagem de teste número " + seq);
+    }
+    
+    private List<Map<String, Object>> received() throws IOException {
+        List<Map<String, Object>> messages = new ArrayList<>();
+        for (byte[] payload : client.payloads()) {
+            messages.add(WireFormat.JSON.decode(payload));
+        }
+        return messages;
+    }
+    
+    private static List<Integer> sequences(List<Map<String, Object>> messages) {
+        List<Integer> sequences = new ArrayList<>();
+        for (Map<String, Object> message : messages) {
+            sequences.add(((Number) message.get("seq")).intValue());
+        }
+        return sequences;
+    }
+    
+    /**
+     * Espera a thread de envio, que entrega as mensagens de forma assíncrona.
+     */
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "tempo esgotado esperando a thread de envio");
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package br.com.whatsut.websocket;
+
+import org.java_websocket.WebSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Despacho de requisições do {@link RequestDispatcher}: as requisições de uma
+ * conexão são executadas na ordem de chegada, uma de cada vez, enquanto
+ * conexões diferentes rodam em paralelo; requisições acima do limite de
+ * pendentes são recusadas, mas o encerramento da conexão nunca é.
+ */
+class RequestDispatcherTest {
+    private static final long TIMEOUT_SECONDS = 10;
+    
+    private RequestDispatcher dispatcher;
+    
+    @AfterEach
+    void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown(1000);
+        }
+    }
+    
+    @Test
+    void runsRequestsOfAConnectionInArrivalOrder() throws InterruptedException {
+        dispatcher = new RequestDispatcher(4, 1000, 0);
+        WebSocket conn = connection(1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        
+        for (int i = 0; i < 100; i++) {
+            int request = i;
+            assertTrue(dispatcher.dispatch(conn, "req-" + i, () -> order.add(request)));
+        }
+        dispatcher.dispatchClose(conn, done::countDown);
+        
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, order);
+    }
+    
+    @Test
+    void slowConnectionDoesNotBlockOthers() throws InterruptedException {
+        dispatcher = new RequestDispatcher(2, 10, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        
+        assertTrue(dispatcher.dispatch(connection(1), "bloqueada", () -> await(release)));
+        assertTrue(dispatcher.dispatch(connection(2), "rápida", other::countDown));
+        
+        assertTrue(other.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        release.countDown();
+    }
+    
+    @Test
+    void rejectsRequestsAbovePendingLimitButNotClose() throws InterruptedException {
+        dispatcher = new RequestDispatcher(2, 3, 0);
+        WebSocket conn = connection(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        
+        // A primeira requisição sai da fila ao começar a executar
+        assertTrue(dispatcher.dispatch(conn, "bloqueada", () -> {
+            started.countDown();
+            await(release);
+        }));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            String name = "req-" + i;
+            assertTrue(dispatcher.dispatch(conn, name, () -> executed.add(name)));
+        }
+        assertFalse(dispatcher.dispatch(conn, "excedente", () -> executed.add("excedente")));
+        assertEquals(1, dispatcher.getRejectedCount());
+        dispatcher.dispatchClose(conn, closed::countDown);
+        
+        release.countDown();
+        assertTrue(closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(List.of("req-0", "req-1", "req-2"), executed);
+        // Com a fila esvaziada, a conexão volta a aceitar requisições
+        CountDownLatch accepted = new CountDownLatch(1);
+        assertTrue(dispatcher.dispatch(conn, "nova", accepted::countDown));
+        assertTrue(accepted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    void failingRequestDoesNotStopTheQueue() throws InterruptedException {
+        dispatcher = new RequestDispatcher(1, 10, 0);
+        WebSocket conn = connection(1);
+        CountDownLatch next = new CountDownLatch(1);
+        
+        assertTrue(dispatcher.dispatch(conn, "falha", () -> {
+            throw new IllegalStateException("falha simulada");
+        }));
+        assertTrue(dispatcher.dispatch(conn, "seguinte", next::countDown));
+        
+        assertTrue(next.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.getFailedCount());
+    }
+    
+    @Test
+    void refusesRequestsAfterShutdown() {
+        dispatcher = new RequestDispatcher(1, 10, 0);
+        dispatcher.shutdown(1000);
+        
+        assertFalse(dispatcher.dispatch(connection(1), "tardia", () -> { }));
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static WebSocket connection(int port) {
+        return new FakeConnection(port, WireFormat.JSON).socket();
+    }
+}
@@ -0,0 +1,95 @@
+package br.com.whatsut.websocket;
+
+import br.com.whatsut.model.PrivateMessage;
+import org.java_websocket.WebSocket;
+import org.java_websocket.protocols.IProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Formatos de mensagem do {@link WireFormat}: escolha pelo subprotocolo
+ * negociado e ida e volta em CBOR com os mesmos campos do JSON.
+ */
+class WireFormatTest {
+    @Test
+    void selectsFormatFromNegotiatedProtocol() {
+        assertEquals(WireFormat.CBOR, WireFormat.of(new FakeConnection(1, WireFormat.CBOR).socket()));
+        assertEquals(WireFormat.JSON, WireFormat.of(new FakeConnection(2, WireFormat.JSON).socket()));
+        assertTrue(WireFormat.CBOR.isBinary());
+        assertFalse(WireFormat.JSON.isBinary());
+        
+        List<String> protocols = new ArrayList<>();
+        for (IProtocol protocol : WireFormat.protocols()) {
+            protocols.add(protocol.getProvidedProtocol());
+        }
+        // CBOR tem preferência; o último aceita clientes sem subprotocolo
+        assertEquals(List.of("whatsut.cbor", "whatsut.json", ""), protocols);
+    }
+    
+    @Test
+    void cborRoundTripKeepsTheSameFieldsAsJson() throws IOException {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("type", "send_private_message");
+        request.put("receiverId", "u2");
+        request.put("content", "Olá, \"mundo\" ção 😀\n");
+        request.put("timestamp", 1700000000123L);
+        request.put("count", 3);
+        request.put("ratio", 0.25);
+        request.put("urgent", true);
+        request.put("replyTo", null);
+        request.put("userIds", List.of("u1", "u2"));
+        request.put("options", Map.of("limit", 50, "before", "m9"));
+        
+        Map<String, Object> fromCbor = WireFormat.CBOR.decode(bytes(WireFormat.CBOR.encode(request)));
+        Map<String, Object> fromJson = WireFormat.JSON.decode(bytes(WireFormat.JSON.encode(request)));
+        
+        assertEquals(fromJson, fromCbor);
+        assertEquals(new HashMap<>(request), new HashMap<>(fromCbor));
+        assertEquals(fromJson, WireFormat.decodeText(new String(bytes(WireFormat.JSON.encode(request)), StandardCharsets.UTF_8)));
+    }
+    
+    @Test
+    void cborEncodesModelsWithTheSameFieldsAsJson() throws IOException {
+        PrivateMessage message = new PrivateMessage("m1", "u1", "u2", "texto da mensagem");
+        message.setTimestamp(1700000000123L);
+        
+        byte[] cbor = bytes(WireFormat.CBOR.encode(message));
+        byte[] json = bytes(WireFormat.JSON.encode(message));
+        
+        assertEquals(WireFormat.JSON.decode(json), WireFormat.CBOR.decode(cbor));
+        assertTrue(cbor.length < json.length);
+    }
+    
+    @Test
+    void encodesOncePerFormatInUse() throws IOException {
+        List<WebSocket> jsonOnly = List.of(new FakeConnection(1, WireFormat.JSON).socket(),
+                new FakeConnection(2, WireFormat.JSON).socket());
+        assertEquals(List.of(WireFormat.JSON), new ArrayList<>(WireFormat.encodeFor(Map.of("type", "x"), jsonOnly).keySet()));
+        
+        List<WebSocket> mixed = List.of(new FakeConnection(3, WireFormat.CBOR).socket(),
+                new FakeConnection(4, WireFormat.JSON).socket());
+        Map<WireFormat, ByteBuffer> payloads = WireFormat.encodeFor(Map.of("type", "x"), mixed);
+        assertEquals(2, payloads.size());
+        assertEquals(Map.of("type", "x"), WireFormat.CBOR.decode(bytes(payloads.get(WireFormat.CBOR))));
+        assertFalse(Arrays.equals(bytes(payloads.get(WireFormat.CBOR)), bytes(payloads.get(WireFormat.JSON))));
+    }
+    
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}